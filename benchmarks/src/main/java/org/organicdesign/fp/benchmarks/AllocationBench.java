@@ -0,0 +1,188 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImList;
+import org.organicdesign.fp.collections.ImMap;
+import org.organicdesign.fp.collections.ImSet;
+import org.organicdesign.fp.collections.ImSortedMap;
+import org.organicdesign.fp.collections.PersistentHashMap;
+import org.organicdesign.fp.collections.PersistentHashSet;
+import org.organicdesign.fp.collections.PersistentTreeMap;
+import org.organicdesign.fp.collections.PersistentVector;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Garbage produced by each "mutator" of ImList, ImMap, ImSet and ImSortedMap.  Run this with the GC
+ profiler to see bytes allocated per operation (gc.alloc.rate.norm) and GC churn:
+ <pre><code>java -jar target/benchmarks.jar AllocationBench -prof gc</code></pre>
+ Or use the alloc profile (mvn verify -Palloc) to run these through {@link AllocationGate} which
+ fails the build when any of them allocates noticeably more than its recorded baseline.
+
+ The "steady" benchmarks make one change to a collection of the given size (the path-copying cost).
+ The "bulk" benchmarks build a collection of the given size from empty, one item at a time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AllocationBench {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private Integer[] items;
+    private Integer[] missing;
+    private List<Integer> tenMissing;
+    private int[] indices;
+    private int idx = 0;
+
+    private ImList<Integer> vec;
+    private ImMap<Integer,Integer> hashMap;
+    private ImSet<Integer> hashSet;
+    private ImSortedMap<Integer,Integer> treeMap;
+
+    @Setup
+    public void setup() {
+        items = Data.shuffledIntegers(size);
+        missing = Data.missingKeys(size);
+        tenMissing = Arrays.asList(Arrays.copyOf(missing, 10));
+        indices = Data.randomIndices(size);
+        vec = buildVector();
+        hashMap = buildHashMap();
+        hashSet = buildHashSet();
+        treeMap = buildTreeMap();
+    }
+
+    private int nextIndex() {
+        idx = (idx + 1) & Data.INDEX_MASK;
+        return indices[idx];
+    }
+
+    private Integer nextMissing() { return missing[nextIndex() & Data.INDEX_MASK]; }
+
+    // ==================================== ImList ====================================
+    @Benchmark
+    public ImList<Integer> steadyVectorAppend() { return vec.append(nextMissing()); }
+
+    @Benchmark
+    public ImList<Integer> steadyVectorReplace() { return vec.replace(nextIndex(), nextMissing()); }
+
+    @Benchmark
+    public ImList<Integer> steadyVectorConcat() { return vec.concat(tenMissing); }
+
+    @Benchmark
+    public ImList<Integer> bulkVectorAppend() { return buildVector(); }
+
+    private ImList<Integer> buildVector() {
+        ImList<Integer> v = PersistentVector.empty();
+        for (Integer item : items) {
+            v = v.append(item);
+        }
+        return v;
+    }
+
+    // ==================================== ImMap ====================================
+    @Benchmark
+    public ImMap<Integer,Integer> steadyHashMapAssocNew() {
+        Integer key = nextMissing();
+        return hashMap.assoc(key, key);
+    }
+
+    @Benchmark
+    public ImMap<Integer,Integer> steadyHashMapAssocReplace() {
+        return hashMap.assoc(items[nextIndex()], missing[0]);
+    }
+
+    @Benchmark
+    public ImMap<Integer,Integer> steadyHashMapWithout() { return hashMap.without(items[nextIndex()]); }
+
+    @Benchmark
+    public ImMap<Integer,Integer> bulkHashMapAssoc() { return buildHashMap(); }
+
+    private ImMap<Integer,Integer> buildHashMap() {
+        ImMap<Integer,Integer> m = PersistentHashMap.empty();
+        for (Integer item : items) {
+            m = m.assoc(item, item);
+        }
+        return m;
+    }
+
+    // ==================================== ImSet ====================================
+    @Benchmark
+    public ImSet<Integer> steadyHashSetPut() { return hashSet.put(nextMissing()); }
+
+    @Benchmark
+    public ImSet<Integer> steadyHashSetWithout() { return hashSet.without(items[nextIndex()]); }
+
+    @Benchmark
+    public ImSet<Integer> steadyHashSetUnion() { return hashSet.union(tenMissing); }
+
+    @Benchmark
+    public ImSet<Integer> bulkHashSetPut() { return buildHashSet(); }
+
+    private ImSet<Integer> buildHashSet() {
+        ImSet<Integer> s = PersistentHashSet.empty();
+        for (Integer item : items) {
+            s = s.put(item);
+        }
+        return s;
+    }
+
+    // ==================================== ImSortedMap ====================================
+    @Benchmark
+    public ImSortedMap<Integer,Integer> steadyTreeMapAssocNew() {
+        Integer key = nextMissing();
+        return treeMap.assoc(key, key);
+    }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> steadyTreeMapAssocReplace() {
+        return treeMap.assoc(items[nextIndex()], missing[0]);
+    }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> steadyTreeMapWithout() {
+        return treeMap.without(items[nextIndex()]);
+    }
+
+    @Benchmark
+    public ImSortedMap<Integer,Integer> bulkTreeMapAssoc() { return buildTreeMap(); }
+
+    private ImSortedMap<Integer,Integer> buildTreeMap() {
+        ImSortedMap<Integer,Integer> m = PersistentTreeMap.empty();
+        for (Integer item : items) {
+            m = m.assoc(item, item);
+        }
+        return m;
+    }
+}
@@ -0,0 +1,182 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ Runs {@link AllocationBench} with the JMH GC profiler, prints bytes allocated per operation and GC
+ churn for each benchmark, and compares the bytes per operation to a recorded baseline.  Exits with
+ status 1 (failing the alloc Maven profile) if any benchmark allocates more than the threshold
+ percentage above its baseline, or if there is no baseline file to compare to.  That's meant to
+ keep path-copying changes from quietly doubling young-generation pressure.
+
+ System properties:
+ <ul>
+ <li>alloc.baseline - the baseline file (default: alloc-baseline.properties)</li>
+ <li>alloc.threshold - the allowed increase in percent (default: 10)</li>
+ <li>alloc.update - if true, write the measured values to the baseline file instead of
+ comparing.  This is the only way to create the baseline file: without it, a missing baseline
+ fails the gate so that it can't silently pass on a fresh checkout.</li>
+ </ul>
+ */
+public final class AllocationGate {
+    private AllocationGate() { throw new UnsupportedOperationException("No instantiation"); }
+
+    // JMH prefixes secondary results with a middle-dot.
+    static final String ALLOC_NORM = "·gc.alloc.rate.norm";
+    static final String CHURN = "·gc.churn";
+    static final String NORM = ".norm";
+
+    /**
+     Measurements of a few bytes can vary by a few bytes from run to run (e.g. escape analysis
+     succeeding or not), so regressions smaller than this many bytes are ignored.
+     */
+    static final double MIN_REGRESSION_BYTES = 16.0;
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        File baselineFile = new File(System.getProperty("alloc.baseline",
+                                                        "alloc-baseline.properties"));
+        double threshold = Double.parseDouble(System.getProperty("alloc.threshold", "10"));
+        boolean update = Boolean.parseBoolean(System.getProperty("alloc.update", "false"));
+        if (!update && !baselineFile.exists()) {
+            System.out.println("No allocation baseline at " + baselineFile.getAbsolutePath() +
+                               ".  Record one with -Dalloc.update=true");
+            System.exit(1);
+        }
+
+        Options opt = new OptionsBuilder()
+                .include(AllocationBench.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(opt).run();
+
+        SortedMap<String,Double> measured = new TreeMap<>();
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-60s %16s %16s", "Benchmark:size",
+                                         "bytes/op", "churn bytes/op"));
+        for (RunResult result : results) {
+            String key = keyFor(result);
+            Map<String,Result> secondary = result.getSecondaryResults();
+            Result alloc = secondary.get(ALLOC_NORM);
+            if (alloc == null) {
+                throw new IllegalStateException("No " + ALLOC_NORM + " result for " + key +
+                                                ".  Is the GC profiler supported on this JVM?");
+            }
+            double churn = 0.0;
+            for (Map.Entry<String,Result> entry : secondary.entrySet()) {
+                if (entry.getKey().startsWith(CHURN) && entry.getKey().endsWith(NORM)) {
+                    churn += entry.getValue().getScore();
+                }
+            }
+            measured.put(key, alloc.getScore());
+            System.out.println(String.format(Locale.ROOT, "%-60s %16.1f %16.1f", key,
+                                             alloc.getScore(), churn));
+        }
+        System.out.println();
+
+        if (update) {
+            writeBaseline(baselineFile, measured);
+            System.out.println("Wrote allocation baseline to " + baselineFile.getAbsolutePath());
+            return;
+        }
+
+        List<String> regressions = compare(readBaseline(baselineFile), measured, threshold);
+        if (regressions.size() > 0) {
+            System.out.println("Allocation regressions of more than " + threshold + "%:");
+            for (String regression : regressions) {
+                System.out.println("  " + regression);
+            }
+            System.out.println("If these are intentional, re-run with -Dalloc.update=true");
+            System.exit(1);
+        }
+        System.out.println("No allocation regressions of more than " + threshold + "% against " +
+                           baselineFile.getAbsolutePath());
+    }
+
+    /** Short benchmark name plus parameters, e.g. AllocationBench.steadyVectorAppend:1000 */
+    static String keyFor(RunResult result) {
+        String name = result.getParams().getBenchmark();
+        int lastDot = name.lastIndexOf('.');
+        int secondLastDot = name.lastIndexOf('.', lastDot - 1);
+        return name.substring(secondLastDot + 1) + ":" + result.getParams().getParam("size");
+    }
+
+    /**
+     Returns a description of each measurement that exceeds its baseline by more than the given
+     percentage (and by more than MIN_REGRESSION_BYTES).  Benchmarks without a baseline are ignored.
+     */
+    static List<String> compare(Map<String,Double> baseline, Map<String,Double> measured,
+                                double thresholdPercent) {
+        List<String> ret = new ArrayList<>();
+        for (Map.Entry<String,Double> entry : measured.entrySet()) {
+            Double base = baseline.get(entry.getKey());
+            if (base == null) { continue; }
+            double now = entry.getValue();
+            if ( (now - base > MIN_REGRESSION_BYTES) &&
+                 (now > base * (1.0 + (thresholdPercent / 100.0))) ) {
+                ret.add(String.format(Locale.ROOT, "%s: %.1f bytes/op (baseline %.1f)",
+                                      entry.getKey(), now, base));
+            }
+        }
+        return ret;
+    }
+
+    static SortedMap<String,Double> readBaseline(File file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+        SortedMap<String,Double> ret = new TreeMap<>();
+        for (String key : props.stringPropertyNames()) {
+            ret.put(key, Double.valueOf(props.getProperty(key)));
+        }
+        return ret;
+    }
+
+    static void writeBaseline(File file, SortedMap<String,Double> measured) throws IOException {
+        Properties props = new Properties();
+        for (Map.Entry<String,Double> entry : measured.entrySet()) {
+            // Always use a decimal point, so readBaseline() can parse it in any locale.
+            props.setProperty(entry.getKey(),
+                              String.format(Locale.ROOT, "%.1f", entry.getValue()));
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, "Bytes allocated per operation by AllocationBench (mvn verify -Palloc)");
+        }
+    }
+}
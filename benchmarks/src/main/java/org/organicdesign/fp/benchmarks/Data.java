@@ -0,0 +1,73 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.benchmarks;
+
+import java.util.Random;
+
+/**
+ Pre-computed (and pre-boxed) benchmark inputs so that the benchmarks measure the collections,
+ not the random number generator or Integer.valueOf().  Everything is seeded so that runs are
+ comparable.
+ */
+final class Data {
+    private Data() { throw new UnsupportedOperationException("No instantiation"); }
+
+    private static final long SEED = 0x5eed_cafeL;
+
+    /** Random indices are taken from an array of this size (must be a power of 2). */
+    static final int NUM_INDICES = 1024;
+    static final int INDEX_MASK = NUM_INDICES - 1;
+
+    /** Returns the Integers 0 through size - 1 in order. */
+    static Integer[] integers(int size) {
+        Integer[] ret = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            ret[i] = i;
+        }
+        return ret;
+    }
+
+    /** Returns the Integers 0 through size - 1 in a repeatable random order. */
+    static Integer[] shuffledIntegers(int size) {
+        Integer[] ret = integers(size);
+        Random rand = new Random(SEED);
+        for (int i = size - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            Integer temp = ret[i];
+            ret[i] = ret[j];
+            ret[j] = temp;
+        }
+        return ret;
+    }
+
+    /** Returns NUM_INDICES random numbers from 0 (inclusive) to size (exclusive) */
+    static int[] randomIndices(int size) {
+        Random rand = new Random(SEED);
+        int[] ret = new int[NUM_INDICES];
+        for (int i = 0; i < NUM_INDICES; i++) {
+            ret[i] = rand.nextInt(size);
+        }
+        return ret;
+    }
+
+    /** Returns NUM_INDICES Integers that are NOT in 0 through size - 1. */
+    static Integer[] missingKeys(int size) {
+        Integer[] ret = new Integer[NUM_INDICES];
+        for (int i = 0; i < NUM_INDICES; i++) {
+            ret[i] = size + i;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,173 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImMap;
+import org.organicdesign.fp.collections.PersistentHashMap;
+import org.organicdesign.fp.collections.interfaces.UnmodMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ PersistentHashMap compared to java.util.HashMap.  HashMap is mutable, so the put/remove benchmarks
+ for it measure an in-place change (undone in the same benchmark to keep the size steady).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashMapBench {
+
+    @Param({"1", "10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Integer[] keys;
+    private Integer[] missing;
+    private int[] indices;
+    private int idx = 0;
+
+    private ImMap<Integer,Integer> imMap;
+    private Map<Integer,Integer> hashMap;
+
+    @Setup
+    public void setup() {
+        keys = Data.shuffledIntegers(size);
+        missing = Data.missingKeys(size);
+        indices = Data.randomIndices(size);
+        ImMap<Integer,Integer> m = PersistentHashMap.empty();
+        hashMap = new HashMap<>();
+        for (Integer key : keys) {
+            m = m.assoc(key, key);
+            hashMap.put(key, key);
+        }
+        imMap = m;
+    }
+
+    private int nextIndex() {
+        idx = (idx + 1) & Data.INDEX_MASK;
+        return indices[idx];
+    }
+
+    // ==================================== Bulk Build ====================================
+    @Benchmark
+    public ImMap<Integer,Integer> imMapBuild() {
+        ImMap<Integer,Integer> m = PersistentHashMap.empty();
+        for (Integer key : keys) {
+            m = m.assoc(key, key);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public Map<Integer,Integer> hashMapBuild() {
+        Map<Integer,Integer> m = new HashMap<>();
+        for (Integer key : keys) {
+            m.put(key, key);
+        }
+        return m;
+    }
+
+    // ==================================== Assoc (new key) ====================================
+    @Benchmark
+    public ImMap<Integer,Integer> imMapAssocNew() {
+        Integer key = missing[nextIndex() & Data.INDEX_MASK];
+        return imMap.assoc(key, key);
+    }
+
+    @Benchmark
+    public Integer hashMapPutRemoveNew() {
+        Integer key = missing[nextIndex() & Data.INDEX_MASK];
+        hashMap.put(key, key);
+        return hashMap.remove(key);
+    }
+
+    // ==================================== Assoc (replace) ====================================
+    @Benchmark
+    public ImMap<Integer,Integer> imMapAssocExisting() {
+        Integer key = keys[nextIndex()];
+        return imMap.assoc(key, missing[0]);
+    }
+
+    @Benchmark
+    public Integer hashMapPutExisting() {
+        Integer key = keys[nextIndex()];
+        return hashMap.put(key, key);
+    }
+
+    // ==================================== Without ====================================
+    @Benchmark
+    public ImMap<Integer,Integer> imMapWithout() { return imMap.without(keys[nextIndex()]); }
+
+    @Benchmark
+    public Integer hashMapRemovePut() {
+        Integer key = keys[nextIndex()];
+        Integer ret = hashMap.remove(key);
+        hashMap.put(key, key);
+        return ret;
+    }
+
+    // ==================================== Lookup ====================================
+    @Benchmark
+    public Integer imMapGet() { return imMap.get(keys[nextIndex()]); }
+
+    @Benchmark
+    public Integer imMapGetMissing() { return imMap.get(missing[nextIndex() & Data.INDEX_MASK]); }
+
+    @Benchmark
+    public Integer hashMapGet() { return hashMap.get(keys[nextIndex()]); }
+
+    @Benchmark
+    public Integer hashMapGetMissing() { return hashMap.get(missing[nextIndex() & Data.INDEX_MASK]); }
+
+    // ==================================== Iterate ====================================
+    @Benchmark
+    public long imMapIterate() {
+        long sum = 0;
+        for (UnmodMap.UnEntry<Integer,Integer> entry : imMap) {
+            sum += entry.getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long hashMapIterate() {
+        long sum = 0;
+        for (Map.Entry<Integer,Integer> entry : hashMap.entrySet()) {
+            sum += entry.getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long hashMapStream() {
+        return hashMap.entrySet().stream().mapToLong(e -> e.getValue().longValue()).sum();
+    }
+}
@@ -0,0 +1,158 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImSet;
+import org.organicdesign.fp.collections.PersistentHashSet;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ PersistentHashSet compared to java.util.HashSet.  HashSet is mutable, so the add/remove benchmarks
+ for it measure an in-place change (undone in the same benchmark to keep the size steady).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashSetBench {
+
+    @Param({"1", "10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Integer[] items;
+    private Integer[] missing;
+    private int[] indices;
+    private int idx = 0;
+
+    private ImSet<Integer> imSet;
+    private Set<Integer> hashSet;
+
+    @Setup
+    public void setup() {
+        items = Data.shuffledIntegers(size);
+        missing = Data.missingKeys(size);
+        indices = Data.randomIndices(size);
+        ImSet<Integer> s = PersistentHashSet.empty();
+        hashSet = new HashSet<>();
+        for (Integer item : items) {
+            s = s.put(item);
+            hashSet.add(item);
+        }
+        imSet = s;
+    }
+
+    private int nextIndex() {
+        idx = (idx + 1) & Data.INDEX_MASK;
+        return indices[idx];
+    }
+
+    // ==================================== Bulk Build ====================================
+    @Benchmark
+    public ImSet<Integer> imSetBuild() {
+        ImSet<Integer> s = PersistentHashSet.empty();
+        for (Integer item : items) {
+            s = s.put(item);
+        }
+        return s;
+    }
+
+    @Benchmark
+    public Set<Integer> hashSetBuild() {
+        Set<Integer> s = new HashSet<>();
+        for (Integer item : items) {
+            s.add(item);
+        }
+        return s;
+    }
+
+    // ==================================== Put ====================================
+    @Benchmark
+    public ImSet<Integer> imSetPutNew() { return imSet.put(missing[nextIndex() & Data.INDEX_MASK]); }
+
+    @Benchmark
+    public boolean hashSetAddRemoveNew() {
+        Integer item = missing[nextIndex() & Data.INDEX_MASK];
+        hashSet.add(item);
+        return hashSet.remove(item);
+    }
+
+    // ==================================== Without ====================================
+    @Benchmark
+    public ImSet<Integer> imSetWithout() { return imSet.without(items[nextIndex()]); }
+
+    @Benchmark
+    public boolean hashSetRemoveAdd() {
+        Integer item = items[nextIndex()];
+        boolean ret = hashSet.remove(item);
+        hashSet.add(item);
+        return ret;
+    }
+
+    // ==================================== Lookup ====================================
+    @Benchmark
+    public boolean imSetContains() { return imSet.contains(items[nextIndex()]); }
+
+    @Benchmark
+    public boolean imSetContainsMissing() {
+        return imSet.contains(missing[nextIndex() & Data.INDEX_MASK]);
+    }
+
+    @Benchmark
+    public boolean hashSetContains() { return hashSet.contains(items[nextIndex()]); }
+
+    @Benchmark
+    public boolean hashSetContainsMissing() {
+        return hashSet.contains(missing[nextIndex() & Data.INDEX_MASK]);
+    }
+
+    // ==================================== Iterate ====================================
+    @Benchmark
+    public long imSetIterate() {
+        long sum = 0;
+        for (Integer item : imSet) {
+            sum += item;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long hashSetIterate() {
+        long sum = 0;
+        for (Integer item : hashSet) {
+            sum += item;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long hashSetStream() { return hashSet.stream().mapToLong(Integer::longValue).sum(); }
+}
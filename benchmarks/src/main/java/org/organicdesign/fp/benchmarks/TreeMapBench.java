@@ -0,0 +1,164 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImSortedMap;
+import org.organicdesign.fp.collections.PersistentTreeMap;
+import org.organicdesign.fp.collections.interfaces.UnmodMap;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ PersistentTreeMap compared to java.util.TreeMap.  TreeMap's subMap() and tailMap() are views, so
+ those benchmarks iterate the result to make the comparison fair.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TreeMapBench {
+
+    @Param({"1", "10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Integer[] keys;
+    private Integer[] missing;
+    private int[] indices;
+    private int idx = 0;
+
+    private ImSortedMap<Integer,Integer> imMap;
+    private TreeMap<Integer,Integer> treeMap;
+
+    @Setup
+    public void setup() {
+        keys = Data.shuffledIntegers(size);
+        missing = Data.missingKeys(size);
+        indices = Data.randomIndices(size);
+        ImSortedMap<Integer,Integer> m = PersistentTreeMap.empty();
+        treeMap = new TreeMap<>();
+        for (Integer key : keys) {
+            m = m.assoc(key, key);
+            treeMap.put(key, key);
+        }
+        imMap = m;
+    }
+
+    private int nextIndex() {
+        idx = (idx + 1) & Data.INDEX_MASK;
+        return indices[idx];
+    }
+
+    /** The key a quarter of the way through the map (the start of each range benchmark). */
+    private Integer quarterKey() { return size / 4; }
+
+    /** The key three quarters of the way through the map (the end of the subMap benchmark). */
+    private Integer threeQuarterKey() { return (size / 4) * 3; }
+
+    // ==================================== Bulk Build ====================================
+    @Benchmark
+    public ImSortedMap<Integer,Integer> imMapBuild() {
+        ImSortedMap<Integer,Integer> m = PersistentTreeMap.empty();
+        for (Integer key : keys) {
+            m = m.assoc(key, key);
+        }
+        return m;
+    }
+
+    @Benchmark
+    public SortedMap<Integer,Integer> treeMapBuild() {
+        SortedMap<Integer,Integer> m = new TreeMap<>();
+        for (Integer key : keys) {
+            m.put(key, key);
+        }
+        return m;
+    }
+
+    // ==================================== Assoc ====================================
+    @Benchmark
+    public ImSortedMap<Integer,Integer> imMapAssocNew() {
+        Integer key = missing[nextIndex() & Data.INDEX_MASK];
+        return imMap.assoc(key, key);
+    }
+
+    @Benchmark
+    public Integer treeMapPutRemoveNew() {
+        Integer key = missing[nextIndex() & Data.INDEX_MASK];
+        treeMap.put(key, key);
+        return treeMap.remove(key);
+    }
+
+    // ==================================== Lookup ====================================
+    @Benchmark
+    public Integer imMapGet() { return imMap.get(keys[nextIndex()]); }
+
+    @Benchmark
+    public Integer treeMapGet() { return treeMap.get(keys[nextIndex()]); }
+
+    // ==================================== Ranges ====================================
+    @Benchmark
+    public long imMapSubMap() { return sum(imMap.subMap(quarterKey(), threeQuarterKey())); }
+
+    @Benchmark
+    public long treeMapSubMap() { return sum(treeMap.subMap(quarterKey(), threeQuarterKey())); }
+
+    @Benchmark
+    public long imMapTailMap() { return sum(imMap.tailMap(quarterKey())); }
+
+    @Benchmark
+    public long treeMapTailMap() { return sum(treeMap.tailMap(quarterKey())); }
+
+    // ==================================== Iterate ====================================
+    @Benchmark
+    public long imMapIterate() {
+        long sum = 0;
+        for (UnmodMap.UnEntry<Integer,Integer> entry : imMap) {
+            sum += entry.getValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long treeMapIterate() { return sum(treeMap); }
+
+    @Benchmark
+    public long treeMapStream() {
+        return treeMap.entrySet().stream().mapToLong(e -> e.getValue().longValue()).sum();
+    }
+
+    private static long sum(Map<Integer,Integer> m) {
+        long sum = 0;
+        for (Map.Entry<Integer,Integer> entry : m.entrySet()) {
+            sum += entry.getValue();
+        }
+        return sum;
+    }
+}
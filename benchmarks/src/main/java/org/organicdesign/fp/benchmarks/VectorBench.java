@@ -0,0 +1,145 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImList;
+import org.organicdesign.fp.collections.PersistentVector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ PersistentVector compared to java.util.ArrayList.  ArrayList is mutable, so the add/set benchmarks
+ for it measure an in-place change, not a copy.  That's the baseline we are trying to get close to.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorBench {
+
+    @Param({"1", "10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Integer[] items;
+    private int[] indices;
+    private int idx = 0;
+
+    private ImList<Integer> vec;
+    private List<Integer> list;
+
+    @Setup
+    public void setup() {
+        items = Data.integers(size);
+        indices = Data.randomIndices(size);
+        ImList<Integer> v = PersistentVector.empty();
+        list = new ArrayList<>(size);
+        for (Integer item : items) {
+            v = v.append(item);
+            list.add(item);
+        }
+        vec = v;
+    }
+
+    private int nextIndex() {
+        idx = (idx + 1) & Data.INDEX_MASK;
+        return indices[idx];
+    }
+
+    // ==================================== Bulk Build ====================================
+    @Benchmark
+    public ImList<Integer> vectorBuild() {
+        ImList<Integer> v = PersistentVector.empty();
+        for (Integer item : items) {
+            v = v.append(item);
+        }
+        return v;
+    }
+
+    @Benchmark
+    public List<Integer> arrayListBuild() {
+        List<Integer> l = new ArrayList<>();
+        for (Integer item : items) {
+            l.add(item);
+        }
+        return l;
+    }
+
+    // ==================================== Single Append ====================================
+    @Benchmark
+    public ImList<Integer> vectorAppend() { return vec.append(items[0]); }
+
+    @Benchmark
+    public boolean arrayListAddRemove() {
+        list.add(items[0]);
+        return list.remove(list.size() - 1) != null;
+    }
+
+    // ==================================== Get ====================================
+    @Benchmark
+    public Integer vectorGet() { return vec.get(nextIndex()); }
+
+    @Benchmark
+    public Integer arrayListGet() { return list.get(nextIndex()); }
+
+    // ==================================== Replace ====================================
+    @Benchmark
+    public ImList<Integer> vectorReplace() {
+        int i = nextIndex();
+        return vec.replace(i, items[(i + 1) % size]);
+    }
+
+    @Benchmark
+    public Integer arrayListSet() {
+        int i = nextIndex();
+        return list.set(i, items[(i + 1) % size]);
+    }
+
+    // ==================================== Iterate ====================================
+    @Benchmark
+    public long vectorIterate() {
+        long sum = 0;
+        for (Integer item : vec) {
+            sum += item;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long arrayListIterate() {
+        long sum = 0;
+        for (Integer item : list) {
+            sum += item;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long arrayListStream() { return list.stream().mapToLong(Integer::longValue).sum(); }
+}
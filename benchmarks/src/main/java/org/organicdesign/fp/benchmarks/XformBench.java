@@ -0,0 +1,158 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.organicdesign.fp.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.organicdesign.fp.collections.ImList;
+import org.organicdesign.fp.collections.PersistentVector;
+import org.organicdesign.fp.function.Function1;
+import org.organicdesign.fp.function.Function2;
+import org.organicdesign.fp.xform.Xform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Xform transformation chains compared to the equivalent java.util.stream pipelines and a hand-written
+ loop.  Each chain ends in a foldLeft (or reduce) that sums the results so that nothing is
+ accumulated in an intermediate collection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class XformBench {
+
+    @Param({"1", "10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private List<Integer> list;
+    private ImList<Integer> vec;
+
+    @Setup
+    public void setup() {
+        Integer[] items = Data.integers(size);
+        list = new ArrayList<>(Arrays.asList(items));
+        ImList<Integer> v = PersistentVector.empty();
+        for (Integer item : items) {
+            v = v.append(item);
+        }
+        vec = v;
+    }
+
+    private static final Function1<Integer,Integer> PLUS_ONE = new Function1<Integer,Integer>() {
+        @Override public Integer applyEx(Integer i) { return i + 1; }
+    };
+
+    private static final Function1<Integer,Boolean> IS_EVEN = new Function1<Integer,Boolean>() {
+        @Override public Boolean applyEx(Integer i) { return (i & 1) == 0; }
+    };
+
+    private static final Function1<Integer,Iterable<Integer>> TWICE =
+            new Function1<Integer,Iterable<Integer>>() {
+                @Override public Iterable<Integer> applyEx(Integer i) { return Arrays.asList(i, i); }
+            };
+
+    private static final Function2<Long,Integer,Long> SUM = new Function2<Long,Integer,Long>() {
+        @Override public Long applyEx(Long sum, Integer i) { return sum + i; }
+    };
+
+    /** Drop and take a quarter of the items each so that they do some work at every size. */
+    private long quarter() { return size / 4; }
+
+    // ==================================== Map ====================================
+    @Benchmark
+    public long xformMap() { return Xform.of(list).map(PLUS_ONE).foldLeft(0L, SUM); }
+
+    @Benchmark
+    public long streamMap() { return list.stream().map(i -> i + 1).reduce(0L, (s, i) -> s + i, Long::sum); }
+
+    @Benchmark
+    public long loopMap() {
+        long sum = 0;
+        for (Integer i : list) {
+            sum += i + 1;
+        }
+        return sum;
+    }
+
+    // ==================================== Filter ====================================
+    @Benchmark
+    public long xformFilter() { return Xform.of(list).filter(IS_EVEN).foldLeft(0L, SUM); }
+
+    @Benchmark
+    public long streamFilter() {
+        return list.stream().filter(i -> (i & 1) == 0).reduce(0L, (s, i) -> s + i, Long::sum);
+    }
+
+    // ==================================== FlatMap ====================================
+    @Benchmark
+    public long xformFlatMap() { return Xform.of(list).flatMap(TWICE).foldLeft(0L, SUM); }
+
+    @Benchmark
+    public long streamFlatMap() {
+        return list.stream().flatMap(i -> Arrays.asList(i, i).stream())
+                   .reduce(0L, (s, i) -> s + i, Long::sum);
+    }
+
+    // ==================================== Take / Drop ====================================
+    @Benchmark
+    public long xformDropTake() {
+        return Xform.of(list).drop(quarter()).take(quarter() * 2).foldLeft(0L, SUM);
+    }
+
+    @Benchmark
+    public long streamSkipLimit() {
+        return list.stream().skip(quarter()).limit(quarter() * 2)
+                   .reduce(0L, (s, i) -> s + i, Long::sum);
+    }
+
+    // ==================================== Everything ====================================
+    @Benchmark
+    public long xformChain() {
+        return Xform.of(list).map(PLUS_ONE).filter(IS_EVEN).flatMap(TWICE)
+                    .drop(quarter()).take(size).foldLeft(0L, SUM);
+    }
+
+    @Benchmark
+    public long streamChain() {
+        return list.stream().map(i -> i + 1).filter(i -> (i & 1) == 0)
+                   .flatMap(i -> Arrays.asList(i, i).stream())
+                   .skip(quarter()).limit(size)
+                   .reduce(0L, (s, i) -> s + i, Long::sum);
+    }
+
+    /** The same chain as xformChain, but with a PersistentVector as the source. */
+    @Benchmark
+    public long xformChainFromVector() {
+        return vec.map(PLUS_ONE).filter(IS_EVEN).flatMap(TWICE)
+                  .drop(quarter()).take(size).foldLeft(0L, SUM);
+    }
+}
@@ -0,0 +1,727 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.organicdesign.fp.Option;
+import org.organicdesign.fp.collections.interfaces.UnmodIterator;
+import org.organicdesign.fp.tuple.Tuple2;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ A Compressed Hash-Array Mapped Prefix-tree (CHAMP) after Michael Steindorfer and Jurgen Vinju's
+ "Optimizing Hash-Array Mapped Tries for Fast and Lean Immutable JVM Collections" (OOPSLA 2015).
+
+ Like {@link PersistentHashMap}, this is a 32-way hash trie, but each node keeps two bitmaps: one
+ for the key/value pairs stored directly in the node, and one for the sub-nodes.  The key/value
+ pairs are packed at the front of a single array and the sub-nodes at the back, so there are no
+ null "this is really a node" slots and iteration visits all the entries in a node before
+ descending.
+
+ After every without() the trie is in canonical (compact) form: a sub-node that's down to a single
+ entry is inlined into its parent.  So two maps with the same keys have the same shape no matter
+ what order the keys were added or removed in, and the trie never holds a chain of nodes left
+ behind by deleted keys.
+
+ Keys are compared and hashed with the map's {@link Equator}, exactly as in PersistentHashMap.  As
+ there, the null key is kept outside the trie, so your Equator will never be called with null.
+ */
+public class ChampMap<K,V> extends ImMapTrans<K,V> {
+
+    // Bits of hash code used at each level.
+    private static final int BITS = 5;
+    private static final int LOW_BITS = (1 << BITS) - 1;
+
+    // After 7 levels (35 bits) all 32 bits of the hash code are used up and any keys left with
+    // the same hash go into a CollisionNode.  7 levels + 1 collision node.
+    private static final int MAX_DEPTH = 8;
+
+    private static int mask(int hash, int shift) { return (hash >>> shift) & LOW_BITS; }
+
+    private static int bitpos(int hash, int shift) { return 1 << mask(hash, shift); }
+
+    // A method call is slow, but it keeps the cast localized.
+    @SuppressWarnings("unchecked")
+    private static <K> K k(Object[] array, int i) { return (K) array[i]; }
+
+    // A method call is slow, but it keeps the cast localized.
+    @SuppressWarnings("unchecked")
+    private static <V> V v(Object[] array, int i) { return (V) array[i]; }
+
+    // A method call is slow, but it keeps the cast localized.
+    @SuppressWarnings("unchecked")
+    private static <K,V> Node<K,V> node(Object[] array, int i) { return (Node<K,V>) array[i]; }
+
+    /** Records what an assoc or without did so the map can keep track of its size. */
+    private static final class Change {
+        boolean sizeChanged;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final BitmapNode EMPTY_NODE = new BitmapNode(null, 0, 0, new Object[0]);
+
+    @SuppressWarnings("unchecked")
+    private static <K,V> BitmapNode<K,V> emptyNode() { return (BitmapNode<K,V>) EMPTY_NODE; }
+
+    public static final ChampMap<Object,Object> EMPTY =
+            new ChampMap<>(null, 0, ChampMap.emptyNode(), false, null);
+
+    @SuppressWarnings("unchecked")
+    public static <K,V> ChampMap<K,V> empty() { return (ChampMap<K,V>) EMPTY; }
+
+    public static <K,V> ChampMap<K,V> empty(Equator<K> eq) {
+        return new ChampMap<>(eq, 0, ChampMap.<K,V>emptyNode(), false, null);
+    }
+
+    /**
+     Returns a new ChampMap of the given keys and their paired values, skipping any null Entries.
+     In the case of a duplicate key, later values in the input overwrite the earlier ones.
+     */
+    public static <K,V> ChampMap<K,V> ofEq(Equator<K> eq, Iterable<Map.Entry<K,V>> kvPairs) {
+        if (kvPairs == null) { return empty(eq); }
+        TransientChampMap<K,V> map = ChampMap.<K,V>empty(eq).asTransient();
+        for (Map.Entry<K,V> entry : kvPairs) {
+            if (entry != null) {
+                map.assoc(entry.getKey(), entry.getValue());
+            }
+        }
+        return map.persistent();
+    }
+
+    /**
+     Returns a new ChampMap of the given keys and their paired values, skipping any null Entries.
+     In the case of a duplicate key, later values in the input overwrite the earlier ones.
+     */
+    public static <K,V> ChampMap<K,V> of(Iterable<Map.Entry<K,V>> kvPairs) {
+        return ofEq(null, kvPairs);
+    }
+
+    // ========================================= Instance =========================================
+    private final Equator<K> equator;
+    private final int size;
+    private final BitmapNode<K,V> root;
+    private final boolean hasNull;
+    private final V nullValue;
+
+    private ChampMap(Equator<K> eq, int size, BitmapNode<K,V> root, boolean hasNull, V nullValue) {
+        this.equator = (eq == null) ? Equator.<K>defaultEquator() : eq;
+        this.size = size;
+        this.root = root;
+        this.hasNull = hasNull;
+        this.nullValue = nullValue;
+    }
+
+    /** {@inheritDoc} */
+    @Override public Equator<K> equator() { return equator; }
+
+    @Override public ChampMap<K,V> assoc(K key, V val) {
+        if (key == null) {
+            if (hasNull && (val == nullValue)) { return this; }
+            return new ChampMap<>(equator, hasNull ? size : size + 1, root, true, val);
+        }
+        Change change = new Change();
+        BitmapNode<K,V> newRoot = root.assoc(null, key, val, equator.hash(key), 0, equator,
+                                             change);
+        if (newRoot == root) { return this; }
+        return new ChampMap<>(equator, change.sizeChanged ? size + 1 : size, newRoot, hasNull,
+                              nullValue);
+    }
+
+    @Override public ChampMap<K,V> without(K key) {
+        if (key == null) {
+            return hasNull ? new ChampMap<>(equator, size - 1, root, false, null) : this;
+        }
+        BitmapNode<K,V> newRoot = root.without(null, key, equator.hash(key), 0, equator,
+                                               new Change());
+        if (newRoot == root) { return this; }
+        return new ChampMap<>(equator, size - 1, newRoot, hasNull, nullValue);
+    }
+
+    @Override public Option<UnEntry<K,V>> entry(K key) {
+        if (key == null) {
+            return hasNull ? Option.<UnEntry<K,V>>of(Tuple2.<K,V>of(null, nullValue))
+                           : Option.<UnEntry<K,V>>none();
+        }
+        return Option.someOrNullNoneOf(root.find(key, equator.hash(key), 0, equator));
+    }
+
+    @Override public UnmodIterator<UnEntry<K,V>> iterator() {
+        return new Iter<>(root, hasNull, nullValue);
+    }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return size; }
+
+    @Override public TransientChampMap<K,V> asTransient() {
+        return new TransientChampMap<>(equator, new AtomicReference<>(Thread.currentThread()),
+                                       root, size, hasNull, nullValue);
+    }
+
+    @Override public ChampMap<K,V> persistent() { return this; }
+
+    /**
+     True if the given map has exactly the same trie shape (bitmaps and node structure) as this
+     one.  Because the trie is kept in canonical form, this should be true for any two maps with
+     the same keys and the same Equator.
+     */
+    boolean sameShape(ChampMap<K,?> that) { return sameShape(root, that.root); }
+
+    private static boolean sameShape(Node<?,?> a, Node<?,?> b) {
+        if (a.getClass() != b.getClass()) { return false; }
+        if (a instanceof CollisionNode) {
+            return a.dataArity() == b.dataArity();
+        }
+        BitmapNode<?,?> x = (BitmapNode<?,?>) a;
+        BitmapNode<?,?> y = (BitmapNode<?,?>) b;
+        if ( (x.dataMap != y.dataMap) || (x.nodeMap != y.nodeMap) ) { return false; }
+        for (int i = 0; i < x.nodeArity(); i++) {
+            if (!sameShape(x.nodeAt(i), y.nodeAt(i))) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     This is compatible with java.util.Map but that means it wrongly allows comparisons with
+     SortedMaps, which are necessarily not commutative.  It also ignores the Equator.  As always,
+     for meaningful equals, define an equator.
+
+     @param other the other (hopefully unsorted) map to compare to.
+     @return true if these maps contain the same elements, regardless of order.
+     */
+    @Override public boolean equals(Object other) {
+        if (other == this) { return true; }
+        if ( !(other instanceof Map) ) { return false; }
+
+        Map<?,?> that = (Map<?,?>) other;
+        if (that.size() != size()) { return false; }
+
+        try {
+            for (UnEntry<K,V> e : this) {
+                K key = e.getKey();
+                V value = e.getValue();
+                if (value == null) {
+                    if (!(that.get(key) == null && that.containsKey(key))) {
+                        return false;
+                    }
+                } else {
+                    if (!value.equals(that.get(key))) {
+                        return false;
+                    }
+                }
+            }
+        } catch (ClassCastException unused) {
+            return false;
+        } catch (NullPointerException unused) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override public int hashCode() { return Helpers.hashCode(this); }
+
+    /** {@inheritDoc} */
+    @Override public String toString() { return Helpers.toString("ChampMap", this); }
+
+    /**
+     A mutable version of ChampMap for building a map quickly (with fewer copies of each node).  It
+     changes in place and returns itself from assoc() and without().  Call persistent() when you are
+     done.  Like PersistentHashMap's transient, this may only be used by the thread that created it
+     and not after persistent() has been called.
+     */
+    public static final class TransientChampMap<K,V> extends ImMapTrans<K,V> {
+        private final AtomicReference<Thread> edit;
+        private final Equator<K> equator;
+        private BitmapNode<K,V> root;
+        private int size;
+        private boolean hasNull;
+        private V nullValue;
+        private final Change change = new Change();
+
+        private TransientChampMap(Equator<K> eq, AtomicReference<Thread> edit,
+                                  BitmapNode<K,V> root, int size, boolean hasNull, V nullValue) {
+            this.equator = eq;
+            this.edit = edit;
+            this.root = root;
+            this.size = size;
+            this.hasNull = hasNull;
+            this.nullValue = nullValue;
+        }
+
+        @Override public Equator<K> equator() { return equator; }
+
+        @Override public TransientChampMap<K,V> assoc(K key, V val) {
+            ensureEditable();
+            if (key == null) {
+                nullValue = val;
+                if (!hasNull) {
+                    hasNull = true;
+                    size++;
+                }
+                return this;
+            }
+            change.sizeChanged = false;
+            root = root.assoc(edit, key, val, equator.hash(key), 0, equator, change);
+            if (change.sizeChanged) { size++; }
+            return this;
+        }
+
+        @Override public TransientChampMap<K,V> without(K key) {
+            ensureEditable();
+            if (key == null) {
+                if (hasNull) {
+                    hasNull = false;
+                    nullValue = null;
+                    size--;
+                }
+                return this;
+            }
+            change.sizeChanged = false;
+            root = root.without(edit, key, equator.hash(key), 0, equator, change);
+            if (change.sizeChanged) { size--; }
+            return this;
+        }
+
+        @Override public Option<UnEntry<K,V>> entry(K key) {
+            ensureEditable();
+            if (key == null) {
+                return hasNull ? Option.<UnEntry<K,V>>of(Tuple2.<K,V>of(null, nullValue))
+                               : Option.<UnEntry<K,V>>none();
+            }
+            return Option.someOrNullNoneOf(root.find(key, equator.hash(key), 0, equator));
+        }
+
+        @Override public UnmodIterator<UnEntry<K,V>> iterator() {
+            ensureEditable();
+            return new Iter<>(root, hasNull, nullValue);
+        }
+
+        @Override public int size() {
+            ensureEditable();
+            return size;
+        }
+
+        @Override public TransientChampMap<K,V> asTransient() { return this; }
+
+        @Override public ChampMap<K,V> persistent() {
+            ensureEditable();
+            edit.set(null);
+            return new ChampMap<>(equator, size, root, hasNull, nullValue);
+        }
+
+        private void ensureEditable() {
+            if (edit.get() == null) {
+                throw new IllegalAccessError("Transient used after persistent! call");
+            }
+        }
+    }
+
+    // ========================================== Nodes ==========================================
+
+    private abstract static class Node<K,V> {
+        abstract UnEntry<K,V> find(K key, int hash, int shift, Equator<K> eq);
+
+        /**
+         Returns a node with the given key and value, or this node if nothing changed.  When edit
+         is non-null, nodes owned by that transient are changed in place.
+         */
+        abstract Node<K,V> assoc(AtomicReference<Thread> edit, K key, V val, int hash, int shift,
+                                 Equator<K> eq, Change change);
+
+        /**
+         Returns a node without the given key, or this node if it wasn't there.  A result holding
+         only one entry has it at its shift-0 position so that it can be inlined by the parent, or
+         returned as the root.
+         */
+        abstract Node<K,V> without(AtomicReference<Thread> edit, K key, int hash, int shift,
+                                   Equator<K> eq, Change change);
+
+        abstract int dataArity();
+        abstract int nodeArity();
+        abstract K keyAt(int i);
+        abstract V valAt(int i);
+        abstract Node<K,V> nodeAt(int i);
+
+        /** True if this node holds exactly one entry and no sub-nodes. */
+        final boolean isSingleton() { return (nodeArity() == 0) && (dataArity() == 1); }
+    }
+
+    private static final class BitmapNode<K,V> extends Node<K,V> {
+        // Every node made by the same transient shares a single atomic reference value, just like
+        // PersistentHashMap.  Persistent nodes have a null edit.
+        private final AtomicReference<Thread> edit;
+        private int dataMap;
+        private int nodeMap;
+        // Key/value pairs from the front, sub-nodes from the back.
+        private Object[] content;
+
+        BitmapNode(AtomicReference<Thread> edit, int dataMap, int nodeMap, Object[] content) {
+            this.edit = edit;
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.content = content;
+        }
+
+        private int dataIndex(int bit) { return Integer.bitCount(dataMap & (bit - 1)); }
+
+        private int nodeIndex(int bit) { return Integer.bitCount(nodeMap & (bit - 1)); }
+
+        // Sub-nodes are stored in reverse order from the end of the content array.
+        private int nodeContentIndex(int nodeIdx) { return content.length - 1 - nodeIdx; }
+
+        @Override int dataArity() { return Integer.bitCount(dataMap); }
+
+        @Override int nodeArity() { return Integer.bitCount(nodeMap); }
+
+        @Override K keyAt(int i) { return k(content, 2 * i); }
+
+        @Override V valAt(int i) { return v(content, (2 * i) + 1); }
+
+        @Override Node<K,V> nodeAt(int i) { return node(content, nodeContentIndex(i)); }
+
+        private boolean isEditable(AtomicReference<Thread> e) {
+            return (e != null) && (edit == e);
+        }
+
+        @Override UnEntry<K,V> find(K key, int hash, int shift, Equator<K> eq) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                K k = keyAt(idx);
+                return eq.eq(key, k) ? Tuple2.of(k, valAt(idx)) : null;
+            }
+            if ((nodeMap & bit) != 0) {
+                return nodeAt(nodeIndex(bit)).find(key, hash, shift + BITS, eq);
+            }
+            return null;
+        }
+
+        @Override BitmapNode<K,V> assoc(AtomicReference<Thread> e, K key, V val, int hash,
+                                        int shift, Equator<K> eq, Change change) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                K k = keyAt(idx);
+                if (eq.eq(key, k)) {
+                    if (valAt(idx) == val) { return this; }
+                    return copyAndSet(e, (2 * idx) + 1, val);
+                }
+                Node<K,V> sub = mergeTwo(e, k, valAt(idx), eq.hash(k), key, val, hash,
+                                         shift + BITS);
+                change.sizeChanged = true;
+                return copyAndMigrateToNode(e, bit, sub);
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node<K,V> sub = nodeAt(idx);
+                Node<K,V> newSub = sub.assoc(e, key, val, hash, shift + BITS, eq, change);
+                if (newSub == sub) { return this; }
+                return copyAndSet(e, nodeContentIndex(idx), newSub);
+            }
+            change.sizeChanged = true;
+            return copyAndInsertData(e, bit, key, val);
+        }
+
+        @Override BitmapNode<K,V> without(AtomicReference<Thread> e, K key, int hash, int shift,
+                                          Equator<K> eq, Change change) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                if (!eq.eq(key, keyAt(idx))) { return this; }
+                change.sizeChanged = true;
+                if ( (shift != 0) && (nodeMap == 0) && (dataArity() == 2) ) {
+                    // Only one entry will be left.  Put it where the root would want it so that
+                    // our parent can inline it (or use it as the new root).
+                    int other = 1 - idx;
+                    K k = keyAt(other);
+                    return new BitmapNode<>(e, bitpos(eq.hash(k), 0), 0,
+                                            new Object[] { k, valAt(other) });
+                }
+                return copyAndRemoveData(e, bit);
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node<K,V> sub = nodeAt(idx);
+                Node<K,V> newSub = sub.without(e, key, hash, shift + BITS, eq, change);
+                if (newSub == sub) { return this; }
+                if (newSub.isSingleton()) {
+                    if ( (dataMap == 0) && (nodeArity() == 1) ) {
+                        // This node would only hold that one entry, so pass it up.
+                        return (BitmapNode<K,V>) newSub;
+                    }
+                    return copyAndMigrateToData(e, bit, newSub.keyAt(0), newSub.valAt(0));
+                }
+                return copyAndSet(e, nodeContentIndex(idx), newSub);
+            }
+            return this;
+        }
+
+        private BitmapNode<K,V> copyAndSet(AtomicReference<Thread> e, int i, Object o) {
+            if (isEditable(e)) {
+                content[i] = o;
+                return this;
+            }
+            Object[] newContent = content.clone();
+            newContent[i] = o;
+            return new BitmapNode<>(e, dataMap, nodeMap, newContent);
+        }
+
+        private BitmapNode<K,V> replace(AtomicReference<Thread> e, int newDataMap, int newNodeMap,
+                                        Object[] newContent) {
+            if (isEditable(e)) {
+                dataMap = newDataMap;
+                nodeMap = newNodeMap;
+                content = newContent;
+                return this;
+            }
+            return new BitmapNode<>(e, newDataMap, newNodeMap, newContent);
+        }
+
+        private BitmapNode<K,V> copyAndInsertData(AtomicReference<Thread> e, int bit, K key,
+                                                  V val) {
+            int i = 2 * dataIndex(bit);
+            Object[] newContent = new Object[content.length + 2];
+            System.arraycopy(content, 0, newContent, 0, i);
+            newContent[i] = key;
+            newContent[i + 1] = val;
+            System.arraycopy(content, i, newContent, i + 2, content.length - i);
+            return replace(e, dataMap | bit, nodeMap, newContent);
+        }
+
+        private BitmapNode<K,V> copyAndRemoveData(AtomicReference<Thread> e, int bit) {
+            int i = 2 * dataIndex(bit);
+            Object[] newContent = new Object[content.length - 2];
+            System.arraycopy(content, 0, newContent, 0, i);
+            System.arraycopy(content, i + 2, newContent, i, content.length - i - 2);
+            return replace(e, dataMap ^ bit, nodeMap, newContent);
+        }
+
+        /** Replaces the key/value pair at bit with a sub-node holding it (and another entry). */
+        private BitmapNode<K,V> copyAndMigrateToNode(AtomicReference<Thread> e, int bit,
+                                                     Node<K,V> sub) {
+            int oldIdx = 2 * dataIndex(bit);
+            // Index in the new (shorter) array, counting the new node.
+            int newIdx = content.length - 2 - nodeIndex(bit);
+            Object[] newContent = new Object[content.length - 1];
+            System.arraycopy(content, 0, newContent, 0, oldIdx);
+            System.arraycopy(content, oldIdx + 2, newContent, oldIdx, newIdx - oldIdx);
+            newContent[newIdx] = sub;
+            System.arraycopy(content, newIdx + 2, newContent, newIdx + 1,
+                             content.length - newIdx - 2);
+            return replace(e, dataMap ^ bit, nodeMap | bit, newContent);
+        }
+
+        /** Replaces the sub-node at bit with the single key/value pair it held. */
+        private BitmapNode<K,V> copyAndMigrateToData(AtomicReference<Thread> e, int bit, K key,
+                                                     V val) {
+            int oldIdx = content.length - 1 - nodeIndex(bit);
+            int newIdx = 2 * dataIndex(bit);
+            Object[] newContent = new Object[content.length + 1];
+            System.arraycopy(content, 0, newContent, 0, newIdx);
+            newContent[newIdx] = key;
+            newContent[newIdx + 1] = val;
+            System.arraycopy(content, newIdx, newContent, newIdx + 2, oldIdx - newIdx);
+            System.arraycopy(content, oldIdx + 1, newContent, oldIdx + 2,
+                             content.length - oldIdx - 1);
+            return replace(e, dataMap | bit, nodeMap ^ bit, newContent);
+        }
+
+        @Override public String toString() {
+            return "BitmapNode(" + Integer.toBinaryString(dataMap) + "," +
+                   Integer.toBinaryString(nodeMap) + "," + Arrays.toString(content) + ")";
+        }
+    }
+
+    /** Makes a node holding both entries, nested as deep as it takes to tell their hashes apart. */
+    private static <K,V> Node<K,V> mergeTwo(AtomicReference<Thread> e, K k1, V v1, int h1,
+                                            K k2, V v2, int h2, int shift) {
+        if (shift >= 32) {
+            return new CollisionNode<>(e, h1, new Object[] { k1, v1, k2, v2 });
+        }
+        int m1 = mask(h1, shift);
+        int m2 = mask(h2, shift);
+        if (m1 == m2) {
+            Node<K,V> sub = mergeTwo(e, k1, v1, h1, k2, v2, h2, shift + BITS);
+            return new BitmapNode<>(e, 0, 1 << m1, new Object[] { sub });
+        }
+        Object[] content = (m1 < m2) ? new Object[] { k1, v1, k2, v2 }
+                                     : new Object[] { k2, v2, k1, v1 };
+        return new BitmapNode<>(e, (1 << m1) | (1 << m2), 0, content);
+    }
+
+    /** Holds the keys whose hash codes are completely identical. */
+    private static final class CollisionNode<K,V> extends Node<K,V> {
+        private final AtomicReference<Thread> edit;
+        private final int hash;
+        // key/value pairs
+        private Object[] content;
+
+        CollisionNode(AtomicReference<Thread> edit, int hash, Object[] content) {
+            this.edit = edit;
+            this.hash = hash;
+            this.content = content;
+        }
+
+        private int findIndex(K key, Equator<K> eq) {
+            for (int i = 0; i < content.length; i += 2) {
+                if (eq.eq(key, ChampMap.<K>k(content, i))) { return i; }
+            }
+            return -1;
+        }
+
+        @Override int dataArity() { return content.length >> 1; }
+
+        @Override int nodeArity() { return 0; }
+
+        @Override K keyAt(int i) { return k(content, 2 * i); }
+
+        @Override V valAt(int i) { return v(content, (2 * i) + 1); }
+
+        @Override Node<K,V> nodeAt(int i) { throw new IndexOutOfBoundsException(); }
+
+        @Override UnEntry<K,V> find(K key, int h, int shift, Equator<K> eq) {
+            if (h != hash) { return null; }
+            int idx = findIndex(key, eq);
+            return (idx < 0) ? null
+                             : Tuple2.of(ChampMap.<K>k(content, idx), ChampMap.<V>v(content, idx + 1));
+        }
+
+        @Override Node<K,V> assoc(AtomicReference<Thread> e, K key, V val, int h, int shift,
+                                  Equator<K> eq, Change change) {
+            // Only keys with this exact hash get here.
+            int idx = findIndex(key, eq);
+            Object[] newContent;
+            if (idx >= 0) {
+                if (content[idx + 1] == val) { return this; }
+                if ( (e != null) && (edit == e) ) {
+                    content[idx + 1] = val;
+                    return this;
+                }
+                newContent = content.clone();
+                newContent[idx + 1] = val;
+            } else {
+                change.sizeChanged = true;
+                newContent = Arrays.copyOf(content, content.length + 2);
+                newContent[content.length] = key;
+                newContent[content.length + 1] = val;
+            }
+            if ( (e != null) && (edit == e) ) {
+                content = newContent;
+                return this;
+            }
+            return new CollisionNode<>(e, hash, newContent);
+        }
+
+        @Override Node<K,V> without(AtomicReference<Thread> e, K key, int h, int shift,
+                                    Equator<K> eq, Change change) {
+            int idx = findIndex(key, eq);
+            if (idx < 0) { return this; }
+            change.sizeChanged = true;
+            if (content.length == 4) {
+                // One left: the parent will inline it.
+                int other = 2 - idx;
+                return new BitmapNode<>(e, bitpos(hash, 0), 0,
+                                        new Object[] { content[other], content[other + 1] });
+            }
+            Object[] newContent = new Object[content.length - 2];
+            System.arraycopy(content, 0, newContent, 0, idx);
+            System.arraycopy(content, idx + 2, newContent, idx, content.length - idx - 2);
+            if ( (e != null) && (edit == e) ) {
+                content = newContent;
+                return this;
+            }
+            return new CollisionNode<>(e, hash, newContent);
+        }
+
+        @Override public String toString() {
+            return "CollisionNode(" + hash + "," + Arrays.toString(content) + ")";
+        }
+    }
+
+    /**
+     Walks the trie depth-first with an explicit stack, returning all the entries stored directly
+     in a node before any of the entries in its sub-nodes.
+     */
+    private static final class Iter<K,V> implements UnmodIterator<UnEntry<K,V>> {
+        private boolean hasNull;
+        private final V nullValue;
+
+        @SuppressWarnings("unchecked")
+        private final Node<K,V>[] nodeStack = new Node[MAX_DEPTH];
+        private final int[] nodeCursor = new int[MAX_DEPTH];
+        private int depth = -1;
+
+        private Node<K,V> dataNode;
+        private int dataCursor = 0;
+        private int dataLength = 0;
+
+        private Iter(Node<K,V> root, boolean hasNull, V nullValue) {
+            this.hasNull = hasNull;
+            this.nullValue = nullValue;
+            if (root.nodeArity() > 0) {
+                depth = 0;
+                nodeStack[0] = root;
+            }
+            dataNode = root;
+            dataLength = root.dataArity();
+        }
+
+        /** Finds the next node with entries in it, pushing sub-nodes as it goes. */
+        private boolean advance() {
+            while (depth >= 0) {
+                Node<K,V> node = nodeStack[depth];
+                int i = nodeCursor[depth];
+                if (i < node.nodeArity()) {
+                    nodeCursor[depth] = i + 1;
+                    Node<K,V> child = node.nodeAt(i);
+                    if (child.nodeArity() > 0) {
+                        depth++;
+                        nodeStack[depth] = child;
+                        nodeCursor[depth] = 0;
+                    }
+                    if (child.dataArity() > 0) {
+                        dataNode = child;
+                        dataCursor = 0;
+                        dataLength = child.dataArity();
+                        return true;
+                    }
+                } else {
+                    nodeStack[depth] = null;
+                    depth--;
+                }
+            }
+            return false;
+        }
+
+        @Override public boolean hasNext() {
+            return hasNull || (dataCursor < dataLength) || advance();
+        }
+
+        @Override public UnEntry<K,V> next() {
+            if (hasNull) {
+                hasNull = false;
+                return Tuple2.of(null, nullValue);
+            }
+            if ( (dataCursor < dataLength) || advance() ) {
+                int i = dataCursor++;
+                return Tuple2.of(dataNode.keyAt(i), dataNode.valAt(i));
+            }
+            throw new NoSuchElementException();
+        }
+    }
+}
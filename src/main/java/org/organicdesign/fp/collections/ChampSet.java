@@ -0,0 +1,127 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package org.organicdesign.fp.collections;
+
+import org.organicdesign.fp.collections.interfaces.UnmodIterator;
+import org.organicdesign.fp.collections.interfaces.UnmodMap;
+
+import java.util.Set;
+
+/**
+ A set backed by a {@link ChampMap}, which keeps each element as both the key and the value.  Like
+ the map, it compares and hashes elements with its {@link Equator} and its trie is always in
+ canonical form.
+ */
+public class ChampSet<E> extends ImSet<E> {
+
+    public static final ChampSet<Object> EMPTY = new ChampSet<>(ChampMap.EMPTY);
+
+    @SuppressWarnings("unchecked")
+    public static <E> ChampSet<E> empty() { return (ChampSet<E>) EMPTY; }
+
+    public static <E> ChampSet<E> empty(Equator<E> eq) {
+        return new ChampSet<>(ChampMap.<E,E>empty(eq));
+    }
+
+    /**
+     Returns a new ChampSet of the values.  If the input contains duplicate elements, later values
+     overwrite earlier ones.
+
+     @param elements The items to put into the set.
+     @return a new ChampSet of the given elements.
+     */
+    public static <E> ChampSet<E> of(Iterable<E> elements) { return ofEq(null, elements); }
+
+    public static <E> ChampSet<E> ofEq(Equator<E> eq, Iterable<E> elements) {
+        ChampMap.TransientChampMap<E,E> ret = ChampMap.<E,E>empty(eq).asTransient();
+        for (E e : elements) {
+            ret.assoc(e, e);
+        }
+        return new ChampSet<>(ret.persistent());
+    }
+
+    private final ChampMap<E,E> impl;
+
+    private ChampSet(ChampMap<E,E> i) { impl = i; }
+
+    @Override public boolean contains(Object key) {
+        //noinspection SuspiciousMethodCalls
+        return impl.containsKey(key);
+    }
+
+    /** Returns the Equator used by this set for equals comparisons and hashCodes */
+    public Equator<E> equator() { return impl.equator(); }
+
+    @Override public ChampSet<E> put(E e) {
+        if (contains(e)) { return this; }
+        return new ChampSet<>(impl.assoc(e, e));
+    }
+
+    @Override public ChampSet<E> without(E key) {
+        ChampMap<E,E> m = impl.without(key);
+        return (m == impl) ? this : new ChampSet<>(m);
+    }
+
+    /** Adds all the given items with a single transient.  {@inheritDoc} */
+    @Override public ChampSet<E> putAll(Iterable<? extends E> items) {
+        if (items == null) { return this; }
+        ChampMap.TransientChampMap<E,E> ret = impl.asTransient();
+        for (E e : items) {
+            if (!ret.containsKey(e)) {
+                ret.assoc(e, e);
+            }
+        }
+        return (ret.size() == size()) ? this : new ChampSet<>(ret.persistent());
+    }
+
+    /** Removes all the given items with a single transient.  {@inheritDoc} */
+    @Override public ChampSet<E> withoutAll(Iterable<? extends E> items) {
+        if (items == null) { return this; }
+        ChampMap.TransientChampMap<E,E> ret = impl.asTransient();
+        for (E e : items) {
+            ret.without(e);
+        }
+        return (ret.size() == size()) ? this : new ChampSet<>(ret.persistent());
+    }
+
+    @Override public UnmodIterator<E> iterator() {
+        final UnmodIterator<UnmodMap.UnEntry<E,E>> iter = impl.iterator();
+        return new UnmodIterator<E>() {
+            @Override public boolean hasNext() { return iter.hasNext(); }
+            @Override public E next() { return iter.next().getKey(); }
+        };
+    }
+
+    @Override public int size() { return impl.size(); }
+
+    /**
+     This is compatible with java.util.Set but that means it wrongly allows comparisons with
+     SortedSets, which are necessarily not commutative.
+     @param other the other (hopefully unsorted) set to compare to.
+     @return true if these sets contain the same elements, regardless of order.
+     */
+    @Override public boolean equals(Object other) {
+        if (other == this) { return true; }
+        if ( !(other instanceof Set) ) { return false; }
+        Set that = (Set) other;
+        if (that.size() != size()) { return false; }
+        return containsAll(that);
+    }
+
+    @Override public int hashCode() { return Helpers.hashCode(this); }
+
+    @Override public String toString() { return Helpers.toString("ChampSet", this); }
+}
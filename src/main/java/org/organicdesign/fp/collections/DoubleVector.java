@@ -0,0 +1,391 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.organicdesign.fp.collections.PrimitiveTrie.Node;
+import org.organicdesign.fp.collections.interfaces.UnmodIterable;
+import org.organicdesign.fp.collections.interfaces.UnmodListIterator;
+import org.organicdesign.fp.collections.interfaces.UnmodSortedIterable;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.DoubleBinaryOperator;
+
+import static org.organicdesign.fp.collections.PrimitiveTrie.LOW_BITS;
+import static org.organicdesign.fp.collections.PrimitiveTrie.MAX_NODE_LENGTH;
+import static org.organicdesign.fp.collections.PrimitiveTrie.NODE_LENGTH_POW_2;
+
+/**
+ An immutable, persistent vector of doubles.  This is the same 32-way tree as PersistentVector
+ (with the same tail optimization and mutable builder) except that the leaves are double[]s instead
+ of Object[]s, so it takes about a third of the memory of a PersistentVector&lt;Double&gt; and
+ get() doesn't have to unbox anything.
+
+ Use {@link #asImList()} to pass it to code that expects an ImList&lt;Double&gt;.
+ */
+public final class DoubleVector {
+
+    private static final double[] EMPTY_ARRAY = new double[0];
+
+    private static final DoubleVector EMPTY =
+            new DoubleVector(0, NODE_LENGTH_POW_2, PrimitiveTrie.EMPTY_NODE, EMPTY_ARRAY);
+
+    /** Returns the empty DoubleVector (there only needs to be one) */
+    public static DoubleVector empty() { return EMPTY; }
+
+    /** Returns a new, empty mutable builder for a DoubleVector. */
+    public static MutableDoubleVector emptyMutable() { return EMPTY.asTransient(); }
+
+    /** Returns a new DoubleVector of the given items. */
+    public static DoubleVector of(double... items) {
+        return emptyMutable().appendAll(items).persistent();
+    }
+
+    // The number of items in this Vector.
+    private final int size;
+    private final int shift;
+    private final Node root;
+    private final double[] tail;
+
+    private DoubleVector(int size, int shift, Node root, double[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     Returns a mutable builder holding the items in this vector.  This vector is unaffected by
+     changes to the builder.
+     */
+    public MutableDoubleVector asTransient() { return new MutableDoubleVector(this); }
+
+    /** The number of items in this vector. */
+    public int size() { return size; }
+
+    /** Returns the leaf array (or the tail) holding the item at the given index. */
+    double[] leafArrayFor(int i) {
+        return (double[]) PrimitiveTrie.leafArrayFor(root, shift, size, tail, i);
+    }
+
+    /** Returns the item at the given index. */
+    public double get(int i) { return leafArrayFor(i)[i & LOW_BITS]; }
+
+    /**
+     Adds one item to the end of the vector.
+     @param val the value to add
+     @return a new DoubleVector with the additional item.
+     */
+    public DoubleVector append(double val) {
+        //room in tail?
+        if (size - PrimitiveTrie.tailoff(size) < MAX_NODE_LENGTH) {
+            double[] newTail = new double[tail.length + 1];
+            System.arraycopy(tail, 0, newTail, 0, tail.length);
+            newTail[tail.length] = val;
+            return new DoubleVector(size + 1, shift, root, newTail);
+        }
+        //full tail, push into tree
+        int newShift = PrimitiveTrie.rootOverflow(size, shift) ? shift + NODE_LENGTH_POW_2 : shift;
+        return new DoubleVector(size + 1, newShift, PrimitiveTrie.pushTail(root, shift, size, tail),
+                         new double[] { val });
+    }
+
+    /**
+     Replaces the item at the given index.  Replacing at index size() is the same as append(), just
+     like PersistentVector.
+     @param i the index where the value should be stored.
+     @param val the value to store
+     @return a new DoubleVector with the replaced item (or this vector if the item is unchanged).
+     */
+    public DoubleVector replace(int i, double val) {
+        if (i == size) {
+            return append(val);
+        }
+        double[] leaf = leafArrayFor(i);
+        if (Double.doubleToLongBits(leaf[i & LOW_BITS]) == Double.doubleToLongBits(val)) {
+            return this;
+        }
+        double[] newLeaf = leaf.clone();
+        newLeaf[i & LOW_BITS] = val;
+        if (i >= PrimitiveTrie.tailoff(size)) {
+            return new DoubleVector(size, shift, root, newLeaf);
+        }
+        return new DoubleVector(size, shift, PrimitiveTrie.replaceLeaf(root, shift, i, newLeaf), tail);
+    }
+
+    /**
+     Applies the function to each item in order, starting with the identity value, without boxing.
+     Walks the leaf arrays directly.
+     @param identity the starting value (returned if this vector is empty)
+     @param op combines the result so far with the next item
+     @return the result of applying the function to every item
+     */
+    public double foldLeft(double identity, DoubleBinaryOperator op) {
+        double ret = identity;
+        for (int i = 0; i < size; i += MAX_NODE_LENGTH) {
+            double[] leaf = leafArrayFor(i);
+            for (double item : leaf) {
+                ret = op.applyAsDouble(ret, item);
+            }
+        }
+        return ret;
+    }
+
+    /** Returns a new double[] of all the items in this vector. */
+    public double[] toArray() {
+        double[] ret = new double[size];
+        for (int i = 0; i < size; i += MAX_NODE_LENGTH) {
+            double[] leaf = leafArrayFor(i);
+            System.arraycopy(leaf, 0, ret, i, leaf.length);
+        }
+        return ret;
+    }
+
+    /**
+     Returns an ImList view of this vector that boxes each item as it's read (and unboxes it when
+     appended or replaced).  O(1).  Appending or replacing null throws a NullPointerException.
+     */
+    public ImList<Double> asImList() { return new Boxed(this); }
+
+    /** Same as the hashCode() of a java.util.List of the boxed items. */
+    @Override public int hashCode() {
+        int ret = 1;
+        for (int i = 0; i < size; i += MAX_NODE_LENGTH) {
+            for (double item : leafArrayFor(i)) {
+                ret = (31 * ret) + Double.hashCode(item);
+            }
+        }
+        return ret;
+    }
+
+    /** True if the other object is a DoubleVector of the same items in the same order. */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof DoubleVector) ) { return false; }
+        DoubleVector that = (DoubleVector) other;
+        if (size != that.size) { return false; }
+        for (int i = 0; i < size; i += MAX_NODE_LENGTH) {
+            double[] a = leafArrayFor(i);
+            double[] b = that.leafArrayFor(i);
+            if (a == b) { continue; }
+            for (int j = 0; j < a.length; j++) {
+                if (Double.doubleToLongBits(a[j]) != Double.doubleToLongBits(b[j])) { return false; }
+            }
+        }
+        return true;
+    }
+
+    @Override public String toString() {
+        return UnmodIterable.Helpers.toString("DoubleVector", asImList());
+    }
+
+    /** The boxing ImList adapter returned by asImList() */
+    private static final class Boxed extends ImList<Double> {
+        private final DoubleVector v;
+
+        private Boxed(DoubleVector v) { this.v = v; }
+
+        /** {@inheritDoc} */
+        @Override public int size() { return v.size; }
+
+        /** {@inheritDoc} */
+        @Override public Double get(int i) { return v.get(i); }
+
+        /** {@inheritDoc} */
+        @Override public ImList<Double> append(Double val) { return new Boxed(v.append(val)); }
+
+        /** {@inheritDoc} */
+        @Override public ImList<Double> replace(int i, Double val) {
+            DoubleVector ret = v.replace(i, val);
+            return (ret == v) ? this : new Boxed(ret);
+        }
+
+        /** {@inheritDoc} */
+        @Override public UnmodListIterator<Double> listIterator(final int index) {
+            if ( (index < 0) || (index > v.size) ) {
+                throw new IndexOutOfBoundsException("Index: " + index + " Size: " + v.size);
+            }
+            return new UnmodListIterator<Double>() {
+                private int i = index;
+                // The leaf holding items base through base + 31
+                private double[] leaf = null;
+                private int base = 0;
+
+                /** {@inheritDoc} */
+                @Override public boolean hasNext() { return i < v.size; }
+                /** {@inheritDoc} */
+                @Override public boolean hasPrevious() { return i > 0; }
+
+                /** {@inheritDoc} */
+                @Override public Double next() {
+                    if (i >= v.size) { throw new NoSuchElementException(); }
+                    if ( (leaf == null) || (i - base >= MAX_NODE_LENGTH) || (i < base) ) {
+                        leaf = v.leafArrayFor(i);
+                        base = i - (i & LOW_BITS);
+                    }
+                    return leaf[i++ - base];
+                }
+
+                /** {@inheritDoc} */
+                @Override public int nextIndex() { return i; }
+
+                /** {@inheritDoc} */
+                @Override public Double previous() {
+                    if (i <= 0) { throw new NoSuchElementException(); }
+                    int j = i - 1;
+                    if ( (leaf == null) || (j - base >= MAX_NODE_LENGTH) || (j < base) ) {
+                        leaf = v.leafArrayFor(j);
+                        base = j - (j & LOW_BITS);
+                    }
+                    i = j;
+                    return leaf[j - base];
+                }
+            };
+        }
+
+        /** This is correct, but O(n).  This implementation is compatible with java.util.AbstractList. */
+        @Override public int hashCode() { return v.hashCode(); }
+
+        /**
+         This is correct, but definitely O(n), same as java.util.ArrayList.
+         This implementation is compatible with java.util.AbstractList.
+         */
+        @Override public boolean equals(Object other) {
+            if (this == other) { return true; }
+            if (other instanceof Boxed) { return v.equals(((Boxed) other).v); }
+            if ( !(other instanceof List) ) { return false; }
+            List that = (List) other;
+            return (this.size() == that.size()) &&
+                   UnmodSortedIterable.Helpers.equals2(this, UnmodSortedIterable.Helpers.castFromList(that));
+        }
+
+        @Override public String toString() { return v.toString(); }
+    }
+
+    /**
+     A mutable builder for a DoubleVector that changes in place instead of copying a path on each append.
+     Just like {@link PersistentVector.MutableVector}, this is NOT thread-safe: use it on one thread
+     only, then call {@link #persistent()}.  After that, using it throws an IllegalAccessError.
+     */
+    public static final class MutableDoubleVector {
+        // The number of items in this Vector.
+        private int size;
+        private int shift;
+        // The root node of the data tree inside this vector.
+        private Node root;
+        private double[] tail;
+
+        private MutableDoubleVector(DoubleVector v) {
+            size = v.size;
+            shift = v.shift;
+            root = PrimitiveTrie.editableRoot(v.root);
+            tail = new double[MAX_NODE_LENGTH];
+            System.arraycopy(v.tail, 0, tail, 0, v.tail.length);
+        }
+
+        /** The number of items in this builder. */
+        public int size() {
+            PrimitiveTrie.ensureEditable(root);
+            return size;
+        }
+
+        /** Returns the item at the given index. */
+        public double get(int i) {
+            PrimitiveTrie.ensureEditable(root);
+            return leafArrayFor(i)[i & LOW_BITS];
+        }
+
+        private double[] leafArrayFor(int i) {
+            return (double[]) PrimitiveTrie.leafArrayFor(root, shift, size, tail, i);
+        }
+
+        /**
+         Adds one item to the end of this builder.
+         @return this builder (changed in place) for chaining.
+         */
+        public MutableDoubleVector append(double val) {
+            PrimitiveTrie.ensureEditable(root);
+            //room in tail?
+            if (size - PrimitiveTrie.tailoff(size) < MAX_NODE_LENGTH) {
+                tail[size & LOW_BITS] = val;
+                ++size;
+                return this;
+            }
+            //full tail, push into tree
+            int newShift = PrimitiveTrie.rootOverflow(size, shift) ? shift + NODE_LENGTH_POW_2
+                                                                   : shift;
+            root = PrimitiveTrie.pushTailEditable(root, shift, size, tail);
+            shift = newShift;
+            tail = new double[MAX_NODE_LENGTH];
+            tail[0] = val;
+            ++size;
+            return this;
+        }
+
+        /**
+         Adds all the given items to the end of this builder, copying them into the tail a block at
+         a time.
+         @param items the values to add (may be null, meaning no items)
+         @return this builder (changed in place) for chaining.
+         */
+        public MutableDoubleVector appendAll(double[] items) {
+            PrimitiveTrie.ensureEditable(root);
+            if (items == null) { return this; }
+            int i = 0;
+            while (i < items.length) {
+                int tailLen = size - PrimitiveTrie.tailoff(size);
+                if (tailLen == MAX_NODE_LENGTH) {
+                    // Pushes the full tail into the tree.
+                    append(items[i++]);
+                    continue;
+                }
+                int n = Math.min(MAX_NODE_LENGTH - tailLen, items.length - i);
+                System.arraycopy(items, i, tail, tailLen, n);
+                size += n;
+                i += n;
+            }
+            return this;
+        }
+
+        /**
+         Replaces the item at the given index.  Replacing at index size() is the same as append().
+         @return this builder (changed in place) for chaining.
+         */
+        public MutableDoubleVector replace(int i, double val) {
+            PrimitiveTrie.ensureEditable(root);
+            if (i == size) {
+                return append(val);
+            }
+            if ( (i >= 0) && (i < PrimitiveTrie.tailoff(size)) ) {
+                root = PrimitiveTrie.editablePath(root, shift, i);
+            }
+            // Throws an exception if i is out of bounds.
+            leafArrayFor(i)[i & LOW_BITS] = val;
+            return this;
+        }
+
+        /**
+         Returns an immutable DoubleVector of all the items in this builder.  O(1) - it shares all the
+         nodes of this builder (which can't be used any more).
+         */
+        public DoubleVector persistent() {
+            PrimitiveTrie.ensureEditable(root);
+            root.edit.set(null);
+            double[] trimmedTail = new double[size - PrimitiveTrie.tailoff(size)];
+            System.arraycopy(tail, 0, trimmedTail, 0, trimmedTail.length);
+            return new DoubleVector(size, shift, root, trimmedTail);
+        }
+    }
+}
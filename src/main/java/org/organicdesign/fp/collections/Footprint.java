@@ -0,0 +1,206 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ Reports how much heap the internal structure of a persistent collection takes up: how many nodes of
+ each type it has, how many slots in those nodes' arrays are empty (slack), and an estimate of the
+ bytes retained by the collection's structure.  When given a second version of the same collection,
+ it also reports how many of those bytes are shared with the other version (structural sharing).
+
+ The byte counts are estimates for a 64-bit JVM with compressed object pointers (the default for
+ heaps under 32GB): 12-byte object headers, 16-byte array headers, 4-byte references, and 8-byte
+ alignment.  They count the collection's own objects (the collection, its nodes, and their arrays)
+ but NOT the keys, values, or elements stored in it, because those are usually shared with the
+ rest of your program.
+
+ Walking a collection is O(n) in the number of nodes (not elements).
+ */
+public final class Footprint {
+
+    static final int OBJECT_HEADER_BYTES = 12;
+    static final int ARRAY_HEADER_BYTES = 16;
+    static final int REFERENCE_BYTES = 4;
+    static final int ALIGNMENT_BYTES = 8;
+
+    /** Estimated size of an object with the given number of reference and int/float fields. */
+    static long objectBytes(int numRefs, int numInts) {
+        return align(OBJECT_HEADER_BYTES + (REFERENCE_BYTES * numRefs) + (4 * numInts));
+    }
+
+    /** Estimated size of an array of references with the given length. */
+    static long arrayBytes(int length) {
+        return align(ARRAY_HEADER_BYTES + ((long) REFERENCE_BYTES * length));
+    }
+
+    /** Estimated size of an array of ints or floats with the given length. */
+    static long intArrayBytes(int length) { return align(ARRAY_HEADER_BYTES + (4L * length)); }
+
+    /** Estimated size of an array of longs or doubles with the given length. */
+    static long longArrayBytes(int length) { return align(ARRAY_HEADER_BYTES + (8L * length)); }
+
+    private static long align(long bytes) {
+        return ((bytes + ALIGNMENT_BYTES - 1) / ALIGNMENT_BYTES) * ALIGNMENT_BYTES;
+    }
+
+    /** Returns the footprint of the given vector. */
+    public static Footprint of(PersistentVector<?> v) { return of(v, null); }
+
+    /**
+     Returns the footprint of the given vector, including the number of bytes it shares with the
+     other version.
+     @param v the vector to measure
+     @param other another version of the same vector (e.g. an earlier snapshot).  May be null.
+     */
+    public static Footprint of(PersistentVector<?> v, PersistentVector<?> other) {
+        Footprint ret = new Footprint(v.size(), (other == null) ? null : identities(other));
+        v.footprint(ret);
+        return ret;
+    }
+
+    /** Returns the footprint of the given map. */
+    public static Footprint of(PersistentHashMap<?,?> m) { return of(m, null); }
+
+    /**
+     Returns the footprint of the given map, including the number of bytes it shares with the other
+     version.
+     @param m the map to measure
+     @param other another version of the same map (e.g. an earlier snapshot).  May be null.
+     */
+    public static Footprint of(PersistentHashMap<?,?> m, PersistentHashMap<?,?> other) {
+        Footprint ret = new Footprint(m.size(), (other == null) ? null : identities(other));
+        m.footprint(ret);
+        return ret;
+    }
+
+    /** Returns the footprint of the given set. */
+    public static Footprint of(PersistentHashSet<?> s) { return of(s, null); }
+
+    /**
+     Returns the footprint of the given set, including the number of bytes it shares with the other
+     version.
+     @param s the set to measure
+     @param other another version of the same set (e.g. an earlier snapshot).  May be null.
+     */
+    public static Footprint of(PersistentHashSet<?> s, PersistentHashSet<?> other) {
+        Footprint ret = new Footprint(s.size(), (other == null) ? null : identities(other));
+        s.footprint(ret);
+        return ret;
+    }
+
+    // Walks the other version just to collect the identities of its objects.
+    private static Set<Object> identities(PersistentVector<?> v) {
+        Footprint fp = new Footprint(v.size(), null);
+        v.footprint(fp);
+        return fp.seen;
+    }
+
+    private static Set<Object> identities(PersistentHashMap<?,?> m) {
+        Footprint fp = new Footprint(m.size(), null);
+        m.footprint(fp);
+        return fp.seen;
+    }
+
+    private static Set<Object> identities(PersistentHashSet<?> s) {
+        Footprint fp = new Footprint(s.size(), null);
+        s.footprint(fp);
+        return fp.seen;
+    }
+
+    // ========================================= Instance =========================================
+    private final int elements;
+    private final Set<Object> otherVersion;
+    private final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+    private final SortedMap<String,Integer> nodeCounts = new TreeMap<>();
+    private long slots = 0;
+    private long emptySlots = 0;
+    private long bytes = 0;
+    private long sharedBytes = 0;
+
+    private Footprint(int elements, Set<Object> otherVersion) {
+        this.elements = elements;
+        this.otherVersion = otherVersion;
+    }
+
+    /**
+     Called by the collections as they walk their structure.  Counts each object only once, even if
+     the collection uses it in more than one place (e.g. PersistentVector's empty node).
+
+     @param obj the node (or array, or collection) being counted.
+     @param type the kind of node, for the node counts.  Null if this object isn't a node (e.g. the
+     collection itself, or an array belonging to a node that was already counted).
+     @param objBytes the estimated size of this object
+     @param numSlots the number of slots in this object that could hold elements or child nodes
+     @param numEmpty the number of those slots that are unused (null or beyond the last item)
+     */
+    void add(Object obj, String type, long objBytes, int numSlots, int numEmpty) {
+        if (!seen.add(obj)) { return; }
+        if (type != null) {
+            Integer count = nodeCounts.get(type);
+            nodeCounts.put(type, (count == null) ? 1 : count + 1);
+        }
+        bytes += objBytes;
+        slots += numSlots;
+        emptySlots += numEmpty;
+        if ( (otherVersion != null) && otherVersion.contains(obj) ) {
+            sharedBytes += objBytes;
+        }
+    }
+
+    /** The number of items in the collection. */
+    public int elements() { return elements; }
+
+    /** The number of nodes of each type (e.g. "BitmapIndexedNode" to 17). */
+    public Map<String,Integer> nodeCounts() { return Collections.unmodifiableMap(nodeCounts); }
+
+    /** The total number of nodes of all types. */
+    public int nodes() {
+        int ret = 0;
+        for (Integer count : nodeCounts.values()) {
+            ret += count;
+        }
+        return ret;
+    }
+
+    /** The total number of slots for elements or child nodes in all the arrays of the structure. */
+    public long slots() { return slots; }
+
+    /** The number of slots that are empty (unused): the array slack. */
+    public long emptySlots() { return emptySlots; }
+
+    /** The estimated bytes retained by this collection's structure (not including the elements). */
+    public long bytes() { return bytes; }
+
+    /** The estimated structural bytes per element (0 for an empty collection). */
+    public double bytesPerElement() { return (elements == 0) ? 0 : ((double) bytes) / elements; }
+
+    /**
+     The estimated bytes of this collection's structure that are also part of the other version
+     that this footprint was compared with.  Zero if there was no other version.
+     */
+    public long sharedBytes() { return sharedBytes; }
+
+    @Override public String toString() {
+        return "Footprint(elements=" + elements + ",nodes=" + nodeCounts + ",slots=" + slots +
+               ",emptySlots=" + emptySlots + ",bytes=" + bytes + ",sharedBytes=" + sharedBytes + ")";
+    }
+}
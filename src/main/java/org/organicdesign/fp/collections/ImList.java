@@ -197,7 +197,8 @@ public abstract class ImList<E> implements UnmodList<E> {
 
      @param idx the index where the value should be stored.
      @param e the value to store
-     @return a new ImList with the replaced item
+     @return a new ImList with the replaced item, or this list if the item at idx is already e
+     (based on the address of that item in memory, not an equals test).
      */
     // TODO: Don't make i.replace(i.size(), o) equivalent to i.concat(o)
     public abstract ImList<E> replace(int idx, E e);
@@ -5,6 +5,8 @@ import org.organicdesign.fp.collections.interfaces.UnmodMap;
 import org.organicdesign.fp.function.Function1;
 
 import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /** An immutable map with no guarantees about its ordering. */
 public abstract class ImMap<K,V> implements UnmodMap<K,V> {
@@ -12,10 +14,17 @@ public abstract class ImMap<K,V> implements UnmodMap<K,V> {
 
 //    Sequence<UnEntry<K,V>> seq();
 
-    /** Returns a new map with the given key/value added */
+    /**
+     Returns a new map with the given key/value added.  If the key exists with the same value
+     (based on the address of that value in memory, not an equals test), the old map is returned
+     unchanged, so checking the result with == tells you whether anything changed.
+     */
     public abstract ImMap<K,V> assoc(K key, V val);
 
-    /** Returns a new map with the given key/value removed */
+    /**
+     Returns a new map with the given key/value removed.  If the key isn't in this map, the old map
+     is returned unchanged.
+     */
     public abstract ImMap<K,V> without(K key);
 
     /**
@@ -52,6 +61,51 @@ public abstract class ImMap<K,V> implements UnmodMap<K,V> {
 
 //    @Override public UnmodIterator<UnEntry<K,V>> iterator() { return seq().iterator(); }
 
+    /**
+     Returns a new map with the value for the given key replaced by f(oldValue), or this map if f
+     returns the same (==) value.  If the key isn't in the map, f is passed null and the result is
+     added.  Unlike the deprecated java.util.Map.compute(), a null result is kept as the value.
+     @param key the key to update
+     @param f makes the new value from the old one (or null).
+     */
+    public ImMap<K,V> update(K key, Function1<? super V,? extends V> f) {
+        Option<UnEntry<K,V>> entry = entry(key);
+        V oldVal = entry.isSome() ? entry.get().getValue() : null;
+        V val = f.call(oldVal);
+        if (entry.isSome() && (val == oldVal)) { return this; }
+        return assoc(key, val);
+    }
+
+    /**
+     Returns this map if the key is already in it.  Otherwise, returns a new map with the key
+     mapped to f(key).  This is the persistent version of java.util.Map.computeIfAbsent(), which
+     (like all the mutating Map methods) throws an exception on an immutable map.  It has a
+     different name so that a lambda can't accidentally call that one instead.
+     @param key the key to look for
+     @param f makes the value for a missing key.
+     */
+    public ImMap<K,V> assocIfAbsent(K key, Function<? super K,? extends V> f) {
+        return entry(key).isSome() ? this : assoc(key, f.apply(key));
+    }
+
+    /**
+     Returns a new map with the given value for the key if it wasn't already in the map.
+     Otherwise, the value for the key becomes f(oldValue, value), and if that's the same (==) as
+     the old value, this map is returned.  Unlike the deprecated java.util.Map.merge(), a null
+     result is kept as the value.  This has a different name than merge() so that a lambda can't
+     accidentally call the deprecated (throwing) one instead.
+     @param key the key to merge the value into
+     @param value the value to add, or merge with the old value
+     @param f combines the old and new values.
+     */
+    public ImMap<K,V> mergeValue(K key, V value, BiFunction<? super V,? super V,? extends V> f) {
+        Option<UnEntry<K,V>> entry = entry(key);
+        if (!entry.isSome()) { return assoc(key, value); }
+        V oldVal = entry.get().getValue();
+        V val = f.apply(oldVal, value);
+        return (val == oldVal) ? this : assoc(key, val);
+    }
+
     /** Returns a new map with an immutable copy of the given entry added */
     public ImMap<K,V> assoc(Map.Entry<K,V> entry) { return assoc(entry.getKey(), entry.getValue()); }
 }
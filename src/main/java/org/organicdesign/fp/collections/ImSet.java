@@ -19,9 +19,8 @@ import org.organicdesign.fp.collections.interfaces.UnmodSet;
 public abstract class ImSet<E> implements UnmodSet<E> {
     /**
      Adds an element, returning a modified version of the set (leaving the original set unchanged).
-     If the element already exists in this set, the new value overwrites the old one.  If the new
-     element is the same as an old element (based on the address of that item in memory, not an
-     equals test), the old set is returned unchanged.
+     If an equal element is already in this set, the old set (with the old element) is returned
+     unchanged, so checking the result with == tells you whether anything changed.
 
      @param e the element to add to this set
      @return a new set with the element added (see note above about adding duplicate elements).
@@ -30,7 +29,7 @@ public abstract class ImSet<E> implements UnmodSet<E> {
 
     /**
      Removes the given item, returning a modified version of the set (leaving the original set
-     unchanged).
+     unchanged).  If the item isn't in this set, the old set is returned.
      */
     public abstract ImSet<E> without(E key);
 
@@ -40,13 +39,39 @@ public abstract class ImSet<E> implements UnmodSet<E> {
 //     */
 //    Sequence<E> seq();
 
-    public ImSet<E> union(Iterable<? extends E> iter) {
-        if (iter == null) { return this; }
+    /**
+     Adds all the given items, returning a modified version of this set (see {@link #put(Object)}).
+     Sets that have a transient form add them all to a single transient, so that each node is only
+     copied once instead of once per item.
+
+     @param items the items to add (may be null)
+     @return a set with the items added, or this set if they were all in it already.
+     */
+    public ImSet<E> putAll(Iterable<? extends E> items) {
+        if (items == null) { return this; }
         ImSet<E> ret = this;
-        for (E e : iter) { ret = ret.put(e); }
+        for (E e : items) { ret = ret.put(e); }
         return ret;
     }
 
+    /**
+     Removes all the given items, returning a modified version of this set (see
+     {@link #without(Object)}).  Like {@link #putAll(Iterable)}, this uses a single transient where
+     there is one.
+
+     @param items the items to remove (may be null)
+     @return a set without the items, or this set if none of them were in it.
+     */
+    public ImSet<E> withoutAll(Iterable<? extends E> items) {
+        if (items == null) { return this; }
+        ImSet<E> ret = this;
+        for (E e : items) { ret = ret.without(e); }
+        return ret;
+    }
+
+    /** Returns a set of the items in this set and the given ones.  The same as putAll(). */
+    public ImSet<E> union(Iterable<? extends E> iter) { return putAll(iter); }
+
 //    /** {@inheritDoc} */
 //    @Override UnmodIterator<E> iterator();
 
@@ -132,6 +132,9 @@ public abstract class ImSortedMap<K,V> implements UnmodSortedMap<K,V> {
         return assoc(entry.getKey(), entry.getValue());
     }
 
-    /** Returns a new map with the given key/value removed */
+    /**
+     Returns a new map with the given key/value removed.  If the key isn't in this map, the old map
+     is returned unchanged.
+     */
     public abstract ImSortedMap<K,V> without(K key);
 }
@@ -78,12 +78,24 @@ public abstract class ImSortedSet<E> extends ImSet<E> implements UnmodSortedSet<
     @Override
     public abstract ImSortedSet<E> tailSet(E fromElement);
 
+    /** {@inheritDoc} */
     @Override
-    public ImSortedSet<E> union(Iterable<? extends E> iter) {
+    public ImSortedSet<E> putAll(Iterable<? extends E> items) {
+        if (items == null) { return this; }
         ImSortedSet<E> ret = this;
-        for (E e : iter) {
-            if (!ret.contains(e)) { ret = ret.put(e); }
-        }
+        for (E e : items) { ret = ret.put(e); }
+        return ret;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ImSortedSet<E> withoutAll(Iterable<? extends E> items) {
+        if (items == null) { return this; }
+        ImSortedSet<E> ret = this;
+        for (E e : items) { ret = ret.without(e); }
         return ret;
     }
+
+    @Override
+    public ImSortedSet<E> union(Iterable<? extends E> iter) { return putAll(iter); }
 }
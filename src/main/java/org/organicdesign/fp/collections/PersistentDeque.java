@@ -0,0 +1,467 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.organicdesign.fp.collections.interfaces.UnmodIterable;
+import org.organicdesign.fp.collections.interfaces.UnmodListIterator;
+import org.organicdesign.fp.collections.interfaces.UnmodSortedIterable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ A double-ended persistent vector.  Like PersistentVector, it keeps the items in a 32-way tree with a
+ "tail" array of up to 32 items at the end so that append() is usually just a copy of the (small)
+ tail.  This also keeps a "head" array of up to 32 items at the front, so that prepend(),
+ dropFirst(), and dropLast() are amortized O(1) too.  Only once every 32 calls does one of these
+ push a full head/tail into the tree, or pull a leaf out of it, which is O(log32 n).
+
+ All the leaves in the tree are full.  The tree can grow to the left as well as to the right, so
+ the first item in the tree isn't necessarily at index 0 of the tree: it's at "origin", which is
+ always a multiple of 32.  get() is O(log32 n) like PersistentVector's.
+
+ Use this for queues, sliding windows, or anything else that adds and removes items at both ends.
+ If you only ever append, PersistentVector is a little faster.
+ */
+public class PersistentDeque<E> extends ImList<E> {
+
+    // There's bit shifting going on here because it's a very fast operation.
+    // Shifting right by 5 is aeons faster than dividing by 32.
+    private static final int NODE_LENGTH_POW_2 = 5;
+    private static final int MAX_NODE_LENGTH = 1 << NODE_LENGTH_POW_2;
+    private static final int LOW_BITS = MAX_NODE_LENGTH - 1;
+
+    private static final Object[] EMPTY_ARRAY = new Object[0];
+    private static final Object[] EMPTY_ROOT = new Object[MAX_NODE_LENGTH];
+
+    @SuppressWarnings("unchecked")
+    private static final PersistentDeque EMPTY =
+            new PersistentDeque(EMPTY_ARRAY, EMPTY_ROOT, NODE_LENGTH_POW_2, 0, 0, EMPTY_ARRAY);
+
+    /** Returns the empty PersistentDeque (there only needs to be one) */
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentDeque<T> empty() { return (PersistentDeque<T>) EMPTY; }
+
+    /** Returns a new PersistentDeque of the given items. */
+    public static <T> PersistentDeque<T> ofIter(Iterable<T> items) {
+        PersistentDeque<T> ret = empty();
+        if (items == null) { return ret; }
+        for (T item : items) {
+            ret = ret.append(item);
+        }
+        return ret;
+    }
+
+    // Items before the tree, in order.  0 to 32 items.
+    private final Object[] head;
+    // Each branch is an Object[32] of child branches (or null), the leaves are full Object[32]s of
+    // items.  Just like PersistentVector, shift is the number of bits to shift an index right to
+    // get the index into the root, so at shift 5, the children of the root are leaves.
+    private final Object[] root;
+    private final int shift;
+    // The tree-index of the first item in the tree (a multiple of 32).
+    private final int origin;
+    // The number of items in the tree (a multiple of 32).
+    private final int treeSize;
+    // Items after the tree, in order.  0 to 32 items.
+    private final Object[] tail;
+
+    private PersistentDeque(Object[] head, Object[] root, int shift, int origin, int treeSize,
+                            Object[] tail) {
+        this.head = head;
+        this.root = root;
+        this.shift = shift;
+        this.origin = origin;
+        this.treeSize = treeSize;
+        this.tail = tail;
+    }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return head.length + treeSize + tail.length; }
+
+    /** Returns the leaf at the given tree-index (a multiple of 32). */
+    private static Object[] leafAt(Object[] root, int shift, int treeIdx) {
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2) {
+            node = (Object[]) node[(treeIdx >>> level) & LOW_BITS];
+        }
+        return node;
+    }
+
+    /** Returns the item specified by the given index. */
+    @SuppressWarnings("unchecked")
+    @Override public E get(int i) {
+        if ( (i < 0) || (i >= size()) ) {
+            throw new IndexOutOfBoundsException("Index: " + i + " Size: " + size());
+        }
+        if (i < head.length) {
+            return (E) head[i];
+        }
+        i -= head.length;
+        if (i < treeSize) {
+            int treeIdx = origin + i;
+            return (E) leafAt(root, shift, treeIdx)[treeIdx & LOW_BITS];
+        }
+        return (E) tail[i - treeSize];
+    }
+
+    /**
+     Returns a copy of the node with the given leaf (or null) stored at the given tree-index,
+     creating any missing branches along the way.  Returns null instead of a branch with no
+     children.
+     */
+    private static Object[] setLeaf(Object[] node, int level, int treeIdx, Object[] leaf) {
+        if (level == 0) {
+            return leaf;
+        }
+        int subidx = (treeIdx >>> level) & LOW_BITS;
+        Object[] ret = (node == null) ? new Object[MAX_NODE_LENGTH] : node.clone();
+        ret[subidx] = setLeaf((node == null) ? null : (Object[]) node[subidx],
+                              level - NODE_LENGTH_POW_2, treeIdx, leaf);
+        if (leaf == null) {
+            for (Object kid : ret) {
+                if (kid != null) { return ret; }
+            }
+            return null;
+        }
+        return ret;
+    }
+
+    /** Returns a copy of the node with the item at the given tree-index replaced. */
+    private static Object[] setItem(Object[] node, int level, int treeIdx, Object item) {
+        Object[] ret = node.clone();
+        if (level == 0) {
+            ret[treeIdx & LOW_BITS] = item;
+        } else {
+            int subidx = (treeIdx >>> level) & LOW_BITS;
+            ret[subidx] = setItem((Object[]) node[subidx], level - NODE_LENGTH_POW_2, treeIdx,
+                                  item);
+        }
+        return ret;
+    }
+
+    /** Returns a new deque with this head and tail, and the given leaf added to the end of the tree. */
+    private PersistentDeque<E> pushLeafBack(Object[] newHead, Object[] leaf, Object[] newTail) {
+        if (treeSize == 0) {
+            return new PersistentDeque<>(newHead, setLeaf(EMPTY_ROOT, NODE_LENGTH_POW_2, 0, leaf),
+                                         NODE_LENGTH_POW_2, 0, MAX_NODE_LENGTH, newTail);
+        }
+        int treeIdx = origin + treeSize;
+        // Overflow root?  Put it in a new root as the leftmost child so there's room on the right.
+        if ( (treeIdx >>> shift) > LOW_BITS ) {
+            Object[] newRoot = new Object[MAX_NODE_LENGTH];
+            newRoot[0] = root;
+            int newShift = shift + NODE_LENGTH_POW_2;
+            return new PersistentDeque<>(newHead, setLeaf(newRoot, newShift, treeIdx, leaf),
+                                         newShift, origin, treeSize + MAX_NODE_LENGTH, newTail);
+        }
+        return new PersistentDeque<>(newHead, setLeaf(root, shift, treeIdx, leaf), shift, origin,
+                                     treeSize + MAX_NODE_LENGTH, newTail);
+    }
+
+    /** Returns a new deque with this head and tail, and the given leaf added to the start of the tree. */
+    private PersistentDeque<E> pushLeafFront(Object[] newHead, Object[] leaf, Object[] newTail) {
+        if (treeSize == 0) {
+            return pushLeafBack(newHead, leaf, newTail);
+        }
+        Object[] r = root;
+        int s = shift;
+        int o = origin;
+        // No room on the left?  Put the root in a new root as the rightmost child so there's room
+        // on the left.
+        if (o == 0) {
+            r = new Object[MAX_NODE_LENGTH];
+            r[LOW_BITS] = root;
+            o = LOW_BITS << (shift + NODE_LENGTH_POW_2);
+            s = shift + NODE_LENGTH_POW_2;
+        }
+        o -= MAX_NODE_LENGTH;
+        return new PersistentDeque<>(newHead, setLeaf(r, s, o, leaf), s, o,
+                                     treeSize + MAX_NODE_LENGTH, newTail);
+    }
+
+    /**
+     Returns a new deque with this head and tail, and the tree without the leaf at the given
+     tree-index (which must be the first or last leaf in the tree).  Removes any root nodes that
+     are no longer needed.
+     */
+    private PersistentDeque<E> removeLeaf(Object[] newHead, int treeIdx, int newOrigin,
+                                          Object[] newTail) {
+        int newTreeSize = treeSize - MAX_NODE_LENGTH;
+        if (newTreeSize == 0) {
+            return new PersistentDeque<>(newHead, EMPTY_ROOT, NODE_LENGTH_POW_2, 0, 0, newTail);
+        }
+        Object[] r = setLeaf(root, shift, treeIdx, null);
+        int s = shift;
+        int o = newOrigin;
+        // While the first and last items are in the same child of the root, that child can be the
+        // root.
+        while ( (s > NODE_LENGTH_POW_2) && ((o >>> s) == ((o + newTreeSize - 1) >>> s)) ) {
+            r = (Object[]) r[o >>> s];
+            o &= (1 << s) - 1;
+            s -= NODE_LENGTH_POW_2;
+        }
+        return new PersistentDeque<>(newHead, r, s, o, newTreeSize, newTail);
+    }
+
+    /**
+     Adds one item to the end of the PersistentDeque.  Amortized O(1).
+     @param val the value to add
+     @return a new PersistentDeque with the additional item at the end.
+     */
+    @Override public PersistentDeque<E> append(E val) {
+        if (tail.length < MAX_NODE_LENGTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = val;
+            return new PersistentDeque<>(head, root, shift, origin, treeSize, newTail);
+        }
+        // full tail, push into tree
+        return pushLeafBack(head, tail, new Object[] { val });
+    }
+
+    /**
+     Adds one item to the start of the PersistentDeque.  Amortized O(1).
+     @param val the value to add
+     @return a new PersistentDeque with the additional item at index 0.
+     */
+    public PersistentDeque<E> prepend(E val) {
+        if (head.length < MAX_NODE_LENGTH) {
+            Object[] newHead = new Object[head.length + 1];
+            newHead[0] = val;
+            System.arraycopy(head, 0, newHead, 1, head.length);
+            return new PersistentDeque<>(newHead, root, shift, origin, treeSize, tail);
+        }
+        // full head, push into tree
+        return pushLeafFront(new Object[] { val }, head, tail);
+    }
+
+    /**
+     Returns a new PersistentDeque without the first item.  Amortized O(1).
+     @throws NoSuchElementException if this deque is empty.
+     */
+    public PersistentDeque<E> dropFirst() {
+        if (head.length > 0) {
+            if ( (head.length == 1) && (treeSize == 0) && (tail.length == 0) ) {
+                return empty();
+            }
+            return new PersistentDeque<>(Arrays.copyOfRange(head, 1, head.length), root, shift,
+                                         origin, treeSize, tail);
+        }
+        if (treeSize > 0) {
+            // Pull the first leaf out of the tree to be the new head.
+            Object[] leaf = leafAt(root, shift, origin);
+            return removeLeaf(Arrays.copyOfRange(leaf, 1, MAX_NODE_LENGTH), origin,
+                              origin + MAX_NODE_LENGTH, tail);
+        }
+        if (tail.length == 0) {
+            throw new NoSuchElementException("Can't drop the first item of an empty deque");
+        }
+        if (tail.length == 1) {
+            return empty();
+        }
+        return new PersistentDeque<>(head, root, shift, origin, treeSize,
+                                     Arrays.copyOfRange(tail, 1, tail.length));
+    }
+
+    /**
+     Returns a new PersistentDeque without the last item.  Amortized O(1).
+     @throws NoSuchElementException if this deque is empty.
+     */
+    public PersistentDeque<E> dropLast() {
+        if (tail.length > 0) {
+            if ( (tail.length == 1) && (treeSize == 0) && (head.length == 0) ) {
+                return empty();
+            }
+            return new PersistentDeque<>(head, root, shift, origin, treeSize,
+                                         Arrays.copyOf(tail, tail.length - 1));
+        }
+        if (treeSize > 0) {
+            // Pull the last leaf out of the tree to be the new tail.
+            int treeIdx = origin + treeSize - MAX_NODE_LENGTH;
+            Object[] leaf = leafAt(root, shift, treeIdx);
+            return removeLeaf(head, treeIdx, origin, Arrays.copyOf(leaf, LOW_BITS));
+        }
+        if (head.length == 0) {
+            throw new NoSuchElementException("Can't drop the last item of an empty deque");
+        }
+        if (head.length == 1) {
+            return empty();
+        }
+        return new PersistentDeque<>(Arrays.copyOf(head, head.length - 1), root, shift, origin,
+                                     treeSize, tail);
+    }
+
+    /**
+     Replace the item at the given index.  Replacing at index size() is the same as append(), just
+     like PersistentVector.
+
+     @param i the index where the value should be stored.
+     @param val the value to store
+     @return a new PersistentDeque with the replaced item
+     */
+    @Override public PersistentDeque<E> replace(int i, E val) {
+        int size = size();
+        if (i == size) {
+            return append(val);
+        }
+        if ( (i < 0) || (i > size) ) {
+            throw new IndexOutOfBoundsException("Index: " + i + " Size: " + size);
+        }
+        if (get(i) == val) {
+            return this;
+        }
+        if (i < head.length) {
+            Object[] newHead = head.clone();
+            newHead[i] = val;
+            return new PersistentDeque<>(newHead, root, shift, origin, treeSize, tail);
+        }
+        int j = i - head.length;
+        if (j < treeSize) {
+            return new PersistentDeque<>(head, setItem(root, shift, origin + j, val), shift,
+                                         origin, treeSize, tail);
+        }
+        Object[] newTail = tail.clone();
+        newTail[j - treeSize] = val;
+        return new PersistentDeque<>(head, root, shift, origin, treeSize, newTail);
+    }
+
+    /**
+     Adds the given items to the end of this PersistentDeque.
+     @param items the values to add
+     @return a new PersistentDeque with the additional items at the end.
+     */
+    @Override public PersistentDeque<E> concat(Iterable<? extends E> items) {
+        PersistentDeque<E> ret = this;
+        if (items == null) { return ret; }
+        for (E item : items) {
+            ret = ret.append(item);
+        }
+        return ret;
+    }
+
+    /**
+     Adds the given items to the start of this PersistentDeque, so that the first of the given
+     items is at index 0 of the result.
+     @param items the values to add
+     @return a new PersistentDeque with the additional items at the start.
+     */
+    @Override public PersistentDeque<E> precat(Iterable<? extends E> items) {
+        if (items == null) { return this; }
+        List<E> list = new ArrayList<>();
+        for (E item : items) {
+            list.add(item);
+        }
+        PersistentDeque<E> ret = this;
+        for (int i = list.size() - 1; i >= 0; i--) {
+            ret = ret.prepend(list.get(i));
+        }
+        return ret;
+    }
+
+    /**
+     Returns the array holding the item at the given index and puts the index of the first item in
+     that array in start[0].
+     */
+    private Object[] arrayFor(int i, int[] start) {
+        if (i < head.length) {
+            start[0] = 0;
+            return head;
+        }
+        int j = i - head.length;
+        if (j < treeSize) {
+            start[0] = i - (j & LOW_BITS);
+            return leafAt(root, shift, origin + j);
+        }
+        start[0] = head.length + treeSize;
+        return tail;
+    }
+
+    /** {@inheritDoc} */
+    @Override public UnmodListIterator<E> listIterator(final int index) {
+        final int size = size();
+        if ( (index < 0) || (index > size) ) {
+            throw new IndexOutOfBoundsException("Index: " + index + " Size: " + size);
+        }
+        return new UnmodListIterator<E>() {
+            private int i = index;
+            // The current array holds items arrayStart through arrayStart + array.length - 1
+            private Object[] array = EMPTY_ARRAY;
+            private int arrayStart = 0;
+            private final int[] start = new int[1];
+
+            /** {@inheritDoc} */
+            @Override public boolean hasNext() { return i < size; }
+            /** {@inheritDoc} */
+            @Override public boolean hasPrevious() { return i > 0; }
+
+            /** {@inheritDoc} */
+            @SuppressWarnings("unchecked")
+            @Override public E next() {
+                if (i >= size) { throw new NoSuchElementException(); }
+                if ( (i < arrayStart) || (i >= arrayStart + array.length) ) {
+                    array = arrayFor(i, start);
+                    arrayStart = start[0];
+                }
+                return (E) array[i++ - arrayStart];
+            }
+
+            /** {@inheritDoc} */
+            @Override public int nextIndex() { return i; }
+
+            /** {@inheritDoc} */
+            @SuppressWarnings("unchecked")
+            @Override public E previous() {
+                if (i <= 0) { throw new NoSuchElementException(); }
+                int j = i - 1;
+                if ( (j < arrayStart) || (j >= arrayStart + array.length) ) {
+                    array = arrayFor(j, start);
+                    arrayStart = start[0];
+                }
+                i = j;
+                return (E) array[j - arrayStart];
+            }
+        };
+    }
+
+    /** This is correct, but O(n).  This implementation is compatible with java.util.AbstractList. */
+    @Override public int hashCode() {
+        int ret = 1;
+        for (E item : this) {
+            ret *= 31;
+            if (item != null) {
+                ret += item.hashCode();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     This is correct, but definitely O(n), same as java.util.ArrayList.
+     This implementation is compatible with java.util.AbstractList.
+     */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof List) ) { return false; }
+        List that = (List) other;
+        return (this.size() == that.size()) &&
+               UnmodSortedIterable.Helpers.equals2(this, UnmodSortedIterable.Helpers.castFromList(that));
+    }
+
+    @Override public String toString() {
+        return UnmodIterable.Helpers.toString("PersistentDeque", this);
+    }
+}
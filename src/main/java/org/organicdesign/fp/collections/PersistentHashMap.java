@@ -15,13 +15,30 @@ import org.organicdesign.fp.Option;
 import org.organicdesign.fp.collections.interfaces.UnmodIterable;
 import org.organicdesign.fp.collections.interfaces.UnmodIterator;
 import org.organicdesign.fp.collections.interfaces.UnmodMap;
+import org.organicdesign.fp.function.Function1;
+import org.organicdesign.fp.function.Function2;
+import org.organicdesign.fp.function.Function3;
 import org.organicdesign.fp.tuple.Tuple2;
 
 import java.io.Serializable;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import static org.organicdesign.fp.FunctionUtils.emptyUnmodIterator;
 
@@ -39,26 +56,49 @@ import static org.organicdesign.fp.FunctionUtils.emptyUnmodIterator;
  */
 public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
 
-//    static private <K, V, R> R doKvreduce(Object[] array, Function3<R,K,V,R> f, R init) {
-//        for (int i = 0; i < array.length; i += 2) {
-//            if (array[i] != null) {
-//                init = f.apply(init, k(array, i), v(array, i + 1));
-//            } else {
-//                INode<K,V> node = iNode(array, i + 1);
-//                if (node != null)
-//                    init = node.kvreduce(f, init);
-//            }
-//            if (isReduced(init)) {
-//                return init;
-//            }
-//        }
-//        return init;
-//    }
+    /**
+     Called with each key and value by {@link INode#kvEach(KvVisitor)}, which walks the nodes
+     directly instead of making iterators.
+     */
+    private static abstract class KvVisitor<K,V> {
+        /** Return false to stop visiting. */
+        abstract boolean visit(K key, V val);
+    }
+
+    /**
+     Makes the new value for {@link INode#update(int, int, Object, Updater, Box)} once the key has
+     been found (or not).
+     */
+    private static abstract class Updater<K,V> {
+        abstract V apply(K key, boolean found, V oldVal);
+    }
+
+    /** Visits the entries in a BitmapIndexedNode or HashCollisionNode array, in order. */
+    private static <K,V> boolean doKvEach(Object[] array, KvVisitor<K,V> v) {
+        for (int i = 0; i < array.length; i += 2) {
+            if (array[i] != null) {
+                if (!v.visit(PersistentHashMap.<K>k(array, i), PersistentHashMap.<V>v(array, i + 1))) {
+                    return false;
+                }
+            } else {
+                INode<K,V> node = iNode(array, i + 1);
+                if ( (node != null) && !node.kvEach(v) ) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 
     // TODO: Replace with Mutable.Ref, or make methods return Tuple2.
     private static class Box {
         public Object val;
         public Box(Object val) { this.val = val; }
+
+        /** Flags the box, unless it's null because the caller doesn't need the flag. */
+        static void set(Box b) {
+            if (b != null) { b.val = b; }
+        }
     }
 
 //    private static final class Reduced {
@@ -102,6 +142,25 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
         return new PersistentHashMap<>(e, 0, null, false, null);
     }
 
+    /**
+     Returns an empty map that optionally stores the hash code of each key next to it in the leaf
+     nodes.  That costs an int per key, but means the map never has to call your Equator's hash()
+     for a key already in it (when splitting a node or growing it into an ArrayNode) and can skip
+     calling eq() on any key whose hash differs from the one being looked up.  This is worth it for
+     keys that are expensive to hash or compare, such as long Strings or Tuples of them.  Maps
+     built from this one (with assoc(), without(), or asTransient()) cache hashes too.
+
+     @param e the Equator to hash and compare keys with (null means the default Equator).
+     @param cacheHashes true to store the hash of each key, false to behave like
+     {@link #empty(Equator)}.
+     */
+    public static <K,V> PersistentHashMap<K,V> empty(Equator<K> e, boolean cacheHashes) {
+        if (!cacheHashes) { return empty(e); }
+        // The nodes compare keys with their own Equator, so they need the default one too.
+        Equator<K> eq = (e == null) ? Equator.<K>defaultEquator() : e;
+        return new PersistentHashMap<>(eq, 0, BitmapIndexedNode.<K,V>empty(eq, true), false, null);
+    }
+
 //    final private static Object NOT_FOUND = new Object();
 
 //    /** Returns a new PersistentHashMap of the given keys and their paired values. */
@@ -149,6 +208,256 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
         return map.persistent();
     }
 
+    // Below this many entries, building in parallel isn't worth the overhead.
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    /** Hashes the keys in a range of the entries array, splitting the range in parallel. */
+    private static final class HashTask<K> extends RecursiveAction {
+        private static final long serialVersionUID = 20261016L;
+        private final Equator<K> equator;
+        private final Map.Entry<K,?>[] entries;
+        private final int[] hashes;
+        private final int lo;
+        private final int hi;
+
+        private HashTask(Equator<K> eq, Map.Entry<K,?>[] es, int[] hs, int lo, int hi) {
+            equator = eq; entries = es; hashes = hs; this.lo = lo; this.hi = hi;
+        }
+
+        @Override protected void compute() {
+            if (hi - lo > PARALLEL_THRESHOLD) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new HashTask<>(equator, entries, hashes, lo, mid),
+                          new HashTask<>(equator, entries, hashes, mid, hi));
+                return;
+            }
+            for (int i = lo; i < hi; i++) {
+                Map.Entry<K,?> e = entries[i];
+                if ( (e != null) && (e.getKey() != null) ) {
+                    hashes[i] = equator.hash(e.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     Builds the sub-trie for one slot of the root from the entries whose indices are in
+     order[lo, hi) (in their original order, so later entries overwrite earlier ones).  This does
+     to the slot exactly what ofEq() would.  Until the root grows into an ArrayNode (at entry
+     convertAt, or never if that's negative), the first key sits in the root itself and the next
+     different key makes a sub-node there.  When the root grows, a key still sitting in the root
+     moves into a BitmapIndexedNode of its own.
+     */
+    private static final class SlotTask<K,V> extends RecursiveTask<INode<K,V>> {
+        private static final long serialVersionUID = 20261016L;
+        private final Equator<K> equator;
+        private final Map.Entry<K,V>[] entries;
+        private final int[] hashes;
+        private final int[] order;
+        private final int lo;
+        private final int hi;
+        private final int convertAt;
+        int count = 0;
+        // When compute() returns null, the one key (and its value) held directly in the root.
+        K key = null;
+        V val = null;
+        int hash = 0;
+
+        private SlotTask(Equator<K> eq, Map.Entry<K,V>[] es, int[] hs, int[] order, int lo,
+                         int hi, int convertAt) {
+            equator = eq; entries = es; hashes = hs; this.order = order; this.lo = lo; this.hi = hi;
+            this.convertAt = convertAt;
+        }
+
+        @Override protected INode<K,V> compute() {
+            AtomicReference<Thread> edit = new AtomicReference<>(Thread.currentThread());
+            Box addedLeaf = new Box(null);
+            INode<K,V> node = null;
+            int i = lo;
+            // While the root is a BitmapIndexedNode (see its assoc()).
+            for (; (i < hi) && ( (convertAt < 0) || (order[i] < convertAt) ); i++) {
+                Map.Entry<K,V> e = entries[order[i]];
+                int h = hashes[order[i]];
+                if (node != null) {
+                    addedLeaf.val = null;
+                    node = node.assoc(edit, 5, h, e.getKey(), e.getValue(), addedLeaf);
+                    if (addedLeaf.val != null) { count++; }
+                } else if (count == 0) {
+                    key = e.getKey();
+                    val = e.getValue();
+                    hash = h;
+                    count = 1;
+                } else if (equator.eq(e.getKey(), key)) {
+                    val = e.getValue();
+                } else {
+                    node = createNode(equator, false, edit, 5, key, val, hash, h, e.getKey(),
+                                      e.getValue());
+                    key = null;
+                    val = null;
+                    count++;
+                }
+            }
+            // The root grows into an ArrayNode.
+            if ( (convertAt >= 0) && (node == null) && (count == 1) ) {
+                node = BitmapIndexedNode.<K,V>empty(equator)
+                        .assoc(edit, 5, hash, key, val, addedLeaf);
+                key = null;
+                val = null;
+            }
+            // From then on, the same as ArrayNode's assoc().
+            for (; i < hi; i++) {
+                Map.Entry<K,V> e = entries[order[i]];
+                if (node == null) {
+                    node = BitmapIndexedNode.empty(equator);
+                }
+                addedLeaf.val = null;
+                node = node.assoc(edit, 5, hashes[order[i]], e.getKey(), e.getValue(), addedLeaf);
+                if (addedLeaf.val != null) { count++; }
+            }
+            edit.set(null);
+            return node;
+        }
+    }
+
+    /** Runs the SlotTasks in parallel and puts their sub-tries together into a root node. */
+    private static final class RootTask<K,V> extends RecursiveTask<INode<K,V>> {
+        private static final long serialVersionUID = 20261016L;
+        private final Equator<K> equator;
+        private final SlotTask<K,V>[] slots;
+
+        private RootTask(Equator<K> eq, SlotTask<K,V>[] slots) {
+            equator = eq; this.slots = slots;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override protected INode<K,V> compute() {
+            List<SlotTask<K,V>> tasks = new ArrayList<>();
+            for (SlotTask<K,V> t : slots) {
+                if (t != null) { tasks.add(t); }
+            }
+            invokeAll(tasks);
+            int numSlots = tasks.size();
+            if (numSlots > 16) {
+                // The same as a BitmapIndexedNode that grew past 16 entries.
+                INode<K,V>[] nodes = new INode[32];
+                for (int i = 0; i < 32; i++) {
+                    if (slots[i] != null) { nodes[i] = slots[i].join(); }
+                }
+                return new ArrayNode<>(equator, false, null, numSlots, nodes);
+            }
+            // Built one entry at a time, the root's array grows 4 entries at a time.
+            Object[] array = new Object[8 * ((numSlots + 3) / 4)];
+            int bitmap = 0;
+            int j = 0;
+            for (int i = 0; i < 32; i++) {
+                if (slots[i] == null) { continue; }
+                INode<K,V> node = slots[i].join();
+                bitmap |= 1 << i;
+                if (node == null) {
+                    array[2 * j] = slots[i].key;
+                    array[(2 * j) + 1] = slots[i].val;
+                } else {
+                    array[(2 * j) + 1] = node;
+                }
+                j++;
+            }
+            return new BitmapIndexedNode<>(equator, null, bitmap, array, null);
+        }
+    }
+
+    /**
+     Like {@link #ofEq(Equator, Iterable)}, but hashes the keys and builds the map in parallel on
+     the common ForkJoinPool.  The entries are divided up by the low 5 bits of their hash codes
+     (the part of the hash used by the root node) and the sub-trie for each of the 32 root slots
+     is built on a separate worker.  The result is equal to what ofEq() produces: null entries are
+     skipped, and later values overwrite earlier ones for duplicate keys.  Use this for very large
+     inputs or keys that are expensive to hash.  Small inputs are just built with ofEq().
+
+     The nodes are laid out exactly as ofEq() would lay them out.
+
+     @param eq the Equator for the new map (null means the default Equator).  It will be called
+     from many threads at once.
+     @param es the entries for the new map.
+     @return a new PersistentHashMap of the given entries.
+     */
+    public static <K,V> PersistentHashMap<K,V> parallelOfEq(Equator<K> eq,
+                                                            Iterable<Map.Entry<K,V>> es) {
+        return parallelOfEq(ForkJoinPool.commonPool(), eq, es);
+    }
+
+    /**
+     Same as {@link #parallelOfEq(Equator, Iterable)} but runs on the given ForkJoinPool.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K,V> PersistentHashMap<K,V> parallelOfEq(ForkJoinPool pool, Equator<K> eq,
+                                                            Iterable<Map.Entry<K,V>> es) {
+        if (es == null) { return empty(eq); }
+        Map.Entry<K,V>[] entries;
+        if (es instanceof Collection) {
+            entries = ((Collection<Map.Entry<K,V>>) es).toArray(new Map.Entry[0]);
+        } else {
+            List<Map.Entry<K,V>> list = new ArrayList<>();
+            for (Map.Entry<K,V> e : es) { list.add(e); }
+            entries = list.toArray(new Map.Entry[0]);
+        }
+        if (entries.length <= PARALLEL_THRESHOLD) {
+            return ofEq(eq, Arrays.asList(entries));
+        }
+        Equator<K> equator = (eq == null) ? Equator.<K>defaultEquator() : eq;
+
+        int[] hashes = new int[entries.length];
+        pool.invoke(new HashTask<>(equator, entries, hashes, 0, entries.length));
+
+        // Stable counting sort of the entry indices by root slot.  The null key goes outside the
+        // trie.
+        boolean hasNull = false;
+        V nullValue = null;
+        // Also find the entry that would make the root grow into an ArrayNode (by using a 17th
+        // slot) if the entries were added one at a time.
+        int[] starts = new int[33];
+        int usedSlots = 0;
+        int convertAt = -1;
+        for (int i = 0; i < entries.length; i++) {
+            Map.Entry<K,V> e = entries[i];
+            if (e == null) { continue; }
+            if (e.getKey() == null) {
+                hasNull = true;
+                nullValue = e.getValue();
+            } else {
+                int slot = mask(hashes[i], 0);
+                if ( (starts[slot + 1]++ == 0) && (++usedSlots == 17) ) {
+                    convertAt = i;
+                }
+            }
+        }
+        for (int i = 1; i < 33; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int[] order = new int[starts[32]];
+        int[] next = Arrays.copyOf(starts, 32);
+        for (int i = 0; i < entries.length; i++) {
+            Map.Entry<K,V> e = entries[i];
+            if ( (e != null) && (e.getKey() != null) ) {
+                order[next[mask(hashes[i], 0)]++] = i;
+            }
+        }
+
+        SlotTask<K,V>[] slots = new SlotTask[32];
+        for (int i = 0; i < 32; i++) {
+            if (starts[i + 1] > starts[i]) {
+                slots[i] = new SlotTask<>(equator, entries, hashes, order, starts[i],
+                                          starts[i + 1], convertAt);
+            }
+        }
+        INode<K,V> root = (order.length == 0) ? null
+                                              : pool.invoke(new RootTask<>(equator, slots));
+        int count = hasNull ? 1 : 0;
+        for (SlotTask<K,V> t : slots) {
+            if (t != null) { count += t.count; }
+        }
+        return new PersistentHashMap<>(equator, count, root, hasNull, nullValue);
+    }
+
     // ========================================= Instance =========================================
     private final Equator<K> equator;
     private final int count;
@@ -171,19 +480,83 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
     /** {@inheritDoc} */
     @Override public Equator<K> equator() { return equator; }
 
+    /** True if this map stores the hash of each key in its nodes. */
+    boolean cachesHashes() { return (root != null) && root.cachesHashes(); }
+
     @Override public PersistentHashMap<K,V> assoc(K key, V val) {
         if(key == null) {
             if (hasNull && (val == nullValue)) { return this; }
             return new PersistentHashMap<>(equator, hasNull ? count : count + 1, root, true, val);
         }
-        Box addedLeaf = new Box(null);
+        int hash = equator.hash(key);
+        INode<K,V> newroot = (root == null ? BitmapIndexedNode.<K, V>empty(equator) : root);
+        newroot = newroot.assoc(0, hash, key, val, null);
+        if (newroot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(equator,
+                                       addedEntry(root, newroot, hash) ? count + 1 : count,
+                                       newroot, hasNull, nullValue);
+    }
+
+    /** Finds the key and makes the new value in a single walk down the trie. */
+    private PersistentHashMap<K,V> update(K key, Updater<K,V> u) {
+        if (key == null) {
+            V val = u.apply(null, hasNull, nullValue);
+            if (hasNull && (val == nullValue)) { return this; }
+            return new PersistentHashMap<>(equator, hasNull ? count : count + 1, root, true, val);
+        }
+        int hash = equator.hash(key);
         INode<K,V> newroot = (root == null ? BitmapIndexedNode.<K, V>empty(equator) : root);
-        newroot = newroot.assoc(0, equator.hash(key), key, val, addedLeaf);
+        newroot = newroot.update(0, hash, key, u, null);
         if (newroot == root) {
             return this;
         }
-        return new PersistentHashMap<>(equator, addedLeaf.val == null ? count : count + 1, newroot,
-                                       hasNull, nullValue);
+        return new PersistentHashMap<>(equator,
+                                       addedEntry(root, newroot, hash) ? count + 1 : count,
+                                       newroot, hasNull, nullValue);
+    }
+
+    /**
+     {@inheritDoc}
+     This finds the key and builds the new path to it in a single walk down the trie.
+     */
+    @Override public PersistentHashMap<K,V> update(K key,
+                                                   final Function1<? super V,? extends V> f) {
+        if (f == null) { throw new IllegalArgumentException("Can't update with a null function."); }
+        return update(key, new Updater<K,V>() {
+            @Override V apply(K k, boolean found, V oldVal) { return f.call(oldVal); }
+        });
+    }
+
+    /**
+     {@inheritDoc}
+     This finds the key and builds the new path to it in a single walk down the trie.
+     */
+    @Override public PersistentHashMap<K,V>
+    assocIfAbsent(K key, final Function<? super K,? extends V> f) {
+        if (f == null) {
+            throw new IllegalArgumentException("Can't assocIfAbsent with a null function.");
+        }
+        return update(key, new Updater<K,V>() {
+            @Override V apply(K k, boolean found, V oldVal) { return found ? oldVal : f.apply(k); }
+        });
+    }
+
+    /**
+     {@inheritDoc}
+     This finds the key and builds the new path to it in a single walk down the trie.
+     */
+    @Override public PersistentHashMap<K,V>
+    mergeValue(K key, final V value, final BiFunction<? super V,? super V,? extends V> f) {
+        if (f == null) {
+            throw new IllegalArgumentException("Can't mergeValue with a null function.");
+        }
+        return update(key, new Updater<K,V>() {
+            @Override V apply(K k, boolean found, V oldVal) {
+                return found ? f.apply(oldVal, value) : value;
+            }
+        });
     }
 
     @Override public TransientHashMap<K,V> asTransient() {
@@ -206,9 +579,14 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
      SortedMaps, which are necessarily not commutative.  It also ignores the Equator.  As always,
      for meaningful equals, define an equator.
 
+     When the other map is a PersistentHashMap with the same Equator, this walks both tries
+     together, skipping any sub-trees the two maps share, so comparing a map to one derived from it
+     takes time proportional to the number of changes, not the size of the map.
+
      @param other the other (hopefully unsorted) map to compare to.
      @return true if these maps contain the same elements, regardless of order.
      */
+    @SuppressWarnings("unchecked")
     @Override public boolean equals(Object other) {
         if (other == this) { return true; }
         if ( !(other instanceof Map) ) { return false; }
@@ -216,6 +594,13 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
         Map<?,?> that = (Map<?,?>) other;
         if (that.size() != size()) { return false; }
 
+        if ( (other instanceof PersistentHashMap) &&
+             (((PersistentHashMap) other).equator == equator) ) {
+            Differ<K,V> differ = new Differ<>(equator, true);
+            differ.diff(this, (PersistentHashMap<K,V>) other);
+            return !differ.found;
+        }
+
         try {
             for (Entry<K,V> e : entrySet()) {
                 K key = e.getKey();
@@ -241,6 +626,176 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
 
     @Override public int hashCode() { return Helpers.hashCode(this); }
 
+    /**
+     Returns the entries added, removed, and changed to get from this map to the other one.  Both
+     tries are walked together and any sub-tree that's the same node in both maps is skipped
+     without looking inside it.  So for two maps derived from a common ancestor, this takes time
+     proportional to the number of changes (times log n), not the size of the maps.  Values are
+     compared with equals(), keys with this map's Equator.
+
+     @param other a map with the same Equator as this one.
+     @return the differences between this map and the other.
+     @throws IllegalArgumentException if the other map has a different Equator.
+     */
+    public Diff<K,V> diff(PersistentHashMap<K,V> other) {
+        if (other.equator != equator) {
+            throw new IllegalArgumentException("Can't diff maps with different Equators");
+        }
+        Differ<K,V> differ = new Differ<>(equator, false);
+        differ.diff(this, other);
+        return new Diff<>(differ.added.persistent(), differ.removed.persistent(),
+                          differ.changed.persistent());
+    }
+
+    /**
+     Returns a map with all the entries of this map and the other one.  When both maps have a key,
+     the resolver is called with this map's value and the other map's value to get the value for
+     the result.
+
+     With the same Equator on both maps, this walks the two tries together.  Wherever only one map
+     has anything at a given position in the trie, the whole sub-tree from that map is reused as-is.
+     Where they overlap, the nodes are merged with a transient, so a path is copied at most once.
+     With different Equators (or if only one of the maps caches hashes), the other map's entries are
+     added to this one (using this map's Equator and hash caching) one at a time.
+
+     @param other the map to merge into this one.
+     @param resolver called with (this map's value, other map's value) for any key in both maps.
+     @return a map with the entries from both maps.
+     */
+    public PersistentHashMap<K,V> merge(PersistentHashMap<K,V> other,
+                                        Function2<? super V,? super V,? extends V> resolver) {
+        if (other.isEmpty()) { return this; }
+        // Only the same kind of trie can be reused in the result.
+        boolean sameKind = (other.equator == equator) && (other.cachesHashes() == cachesHashes());
+        if (isEmpty() && sameKind) { return other; }
+
+        if (!sameKind) {
+            TransientHashMap<K,V> ret = asTransient();
+            for (UnEntry<K,V> e : other) {
+                Option<UnEntry<K,V>> mine = entry(e.getKey());
+                ret.assoc(e.getKey(), mine.isSome() ? resolver.call(mine.get().getValue(),
+                                                                     e.getValue())
+                                                    : e.getValue());
+            }
+            return ret.persistent();
+        }
+
+        Merger<K,V> merger = new Merger<>(equator, resolver,
+                                          (root != null) && root.cachesHashes());
+        INode<K,V> newRoot = merger.nodes(root, other.root, 0);
+        merger.edit.set(null);
+        int newCount = count + other.count - merger.overlaps;
+
+        boolean newHasNull = hasNull || other.hasNull;
+        V newNullValue = nullValue;
+        if (hasNull && other.hasNull) {
+            newNullValue = resolver.call(nullValue, other.nullValue);
+            newCount--;
+        } else if (other.hasNull) {
+            newNullValue = other.nullValue;
+        }
+
+        if ( (newRoot == root) && (newHasNull == hasNull) && (newNullValue == nullValue) ) {
+            return this;
+        }
+        if ( (newRoot == other.root) && (newHasNull == other.hasNull) &&
+             (newNullValue == other.nullValue) ) {
+            return other;
+        }
+        return new PersistentHashMap<>(equator, newCount, newRoot, newHasNull, newNullValue);
+    }
+
+    /**
+     Returns the entries of this map whose keys are also in the other map.  Like diff() and
+     merge(), this walks the two tries together, so any part of this trie with nothing in the same
+     position in the other map is dropped without looking inside it, and any sub-tree that's the
+     same node in both maps is kept as-is.
+
+     @param other a map with the same Equator as this one.
+     @throws IllegalArgumentException if the other map has a different Equator.
+     */
+    PersistentHashMap<K,V> withKeysIn(PersistentHashMap<K,?> other) {
+        return filterKeys(other, true);
+    }
+
+    /**
+     Returns the entries of this map whose keys are not in the other map, walking the two tries
+     together like {@link #withKeysIn(PersistentHashMap)}.
+
+     @param other a map with the same Equator as this one.
+     @throws IllegalArgumentException if the other map has a different Equator.
+     */
+    PersistentHashMap<K,V> withoutKeysIn(PersistentHashMap<K,?> other) {
+        return filterKeys(other, false);
+    }
+
+    /**
+     True if every key in this map is also in the other map.  This walks the two tries together
+     and stops at the first key the other map doesn't have.
+
+     @param other a map with the same Equator as this one.
+     @throws IllegalArgumentException if the other map has a different Equator.
+     */
+    boolean keysAreIn(PersistentHashMap<K,?> other) {
+        if (other.equator != equator) {
+            throw new IllegalArgumentException("Can't compare keys of maps with different Equators");
+        }
+        if (count == 0) { return true; }
+        if ( (count > other.count) || (hasNull && !other.hasNull) ) { return false; }
+        return keysIn(equator, root, other.root, 0);
+    }
+
+    private PersistentHashMap<K,V> filterKeys(PersistentHashMap<K,?> other, boolean keepShared) {
+        if (other.equator != equator) {
+            throw new IllegalArgumentException("Can't compare keys of maps with different Equators");
+        }
+        boolean cacheHashes = cachesHashes();
+        KeyFilter<K,V> filter = new KeyFilter<>(equator, cacheHashes, keepShared);
+        INode<K,V> newRoot = filter.nodes(root, other.root, 0);
+        filter.edit.set(null);
+        boolean newHasNull = hasNull && (other.hasNull == keepShared);
+        if ( (newRoot == root) && (newHasNull == hasNull) ) {
+            return this;
+        }
+        if ( (newRoot == null) && cacheHashes ) {
+            newRoot = BitmapIndexedNode.empty(equator, true);
+        }
+        int newCount = count - filter.removed - ((hasNull && !newHasNull) ? 1 : 0);
+        return new PersistentHashMap<>(equator, newCount, newRoot, newHasNull,
+                                       newHasNull ? nullValue : null);
+    }
+
+    /** The result of {@link #diff(PersistentHashMap)}. */
+    public static final class Diff<K,V> {
+        private final ImMap<K,V> added;
+        private final ImMap<K,V> removed;
+        private final ImMap<K,Tuple2<V,V>> changed;
+
+        private Diff(ImMap<K,V> added, ImMap<K,V> removed, ImMap<K,Tuple2<V,V>> changed) {
+            this.added = added;
+            this.removed = removed;
+            this.changed = changed;
+        }
+
+        /** Entries in the other map whose keys are not in this one. */
+        public ImMap<K,V> added() { return added; }
+
+        /** Entries in this map whose keys are not in the other one. */
+        public ImMap<K,V> removed() { return removed; }
+
+        /** Keys in both maps with different values, mapped to (old value, new value). */
+        public ImMap<K,Tuple2<V,V>> changed() { return changed; }
+
+        /** True if the two maps had the same entries. */
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+
+        @Override public String toString() {
+            return "Diff(" + added + "," + removed + "," + changed + ")";
+        }
+    }
+
     // This is cut and pasted exactly to the Transient version of this class below.
     @Override public UnmodIterator<UnEntry<K,V>> iterator() {
         final UnmodIterator<UnEntry<K,V>> rootIter;
@@ -274,60 +829,819 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
         }
     }
 
-    @Override public final PersistentHashMap<K,V> persistent() { return this; }
+    @Override public final PersistentHashMap<K,V> persistent() { return this; }
+
+    /** Visits the null key (if any) then the trie, stopping when the visitor returns false. */
+    private void kvEach(KvVisitor<K,V> v) {
+        if (hasNull && !v.visit(null, nullValue)) {
+            return;
+        }
+        if (root != null) {
+            root.kvEach(v);
+        }
+    }
+
+    /**
+     Calls the given action with each key and value in this map.  This walks the nodes of the trie
+     directly, without making an iterator or an entry for each item.
+     */
+    @Override public void forEach(final BiConsumer<? super K,? super V> action) {
+        if (action == null) {
+            throw new IllegalArgumentException("Can't forEach with a null action.");
+        }
+        kvEach(new KvVisitor<K,V>() {
+            @Override boolean visit(K key, V val) {
+                action.accept(key, val);
+                return true;
+            }
+        });
+    }
+
+    /**
+     Like foldLeft, but passes each key and value to the reducer separately, so that no entry is
+     made for each item.
+     @param init the starting value passed to the first call of the reducer.
+     @param reducer combines the result so far with each key and value.
+     @return the result of the last call to the reducer, or init if this map is empty.
+     */
+    public <R> R reduceKV(R init, Function3<R,? super K,? super V,R> reducer) {
+        return reduceKV(init, reducer, null);
+    }
+
+    /**
+     Like {@link #reduceKV(Object, Function3)}, but stops as soon as terminateWhen returns true for
+     the result so far.
+     @param terminateWhen returns true when the result is complete.  Null means never terminate
+     early.
+     */
+    public <R> R reduceKV(R init, final Function3<R,? super K,? super V,R> reducer,
+                          final Function1<? super R,Boolean> terminateWhen) {
+        if (reducer == null) {
+            throw new IllegalArgumentException("Can't reduceKV with a null reduction function.");
+        }
+        final Object[] ret = new Object[] { init };
+        kvEach(new KvVisitor<K,V>() {
+            @SuppressWarnings("unchecked")
+            @Override boolean visit(K key, V val) {
+                R r = reducer.call((R) ret[0], key, val);
+                ret[0] = r;
+                return (terminateWhen == null) || !terminateWhen.call(r);
+            }
+        });
+        @SuppressWarnings("unchecked")
+        R r = (R) ret[0];
+        return r;
+    }
+
+    /** Walks the nodes directly instead of using an iterator. {@inheritDoc} */
+    @Override public <B> B foldLeft(B ident, final Function2<B,? super UnEntry<K,V>,B> reducer) {
+        return foldLeft(ident, reducer, null);
+    }
+
+    /** Walks the nodes directly instead of using an iterator. {@inheritDoc} */
+    @Override public <B> B foldLeft(B ident, final Function2<B,? super UnEntry<K,V>,B> reducer,
+                                    Function1<? super B,Boolean> terminateWhen) {
+        if (reducer == null) {
+            throw new IllegalArgumentException("Can't foldLeft with a null reduction function.");
+        }
+        return reduceKV(ident, new Function3<B,K,V,B>() {
+            @Override public B applyEx(B b, K key, V val) throws Exception {
+                return reducer.call(b, Tuple2.of(key, val));
+            }
+        }, terminateWhen);
+    }
+
+    /**
+     When f1 is {@link Function1#identity()}, copies each key and value straight out of the trie
+     without making an entry for each, and returns this map if it already uses the default Equator
+     without cached hashes.  Any other function is called with an entry per item.
+     {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    @Override public <R,S> ImMap<R,S> toImMap(Function1<? super UnEntry<K,V>,Map.Entry<R,S>> f1) {
+        if (f1 != (Object) Function1.identity()) {
+            return super.toImMap(f1);
+        }
+        // The identity function means R and S are really K and V.
+        if ((equator == Equator.defaultEquator()) && !cachesHashes()) {
+            return (ImMap<R,S>) this;
+        }
+        return (ImMap<R,S>) reduceKV(PersistentHashMap.<K,V>empty().asTransient(),
+                                     new Function3<ImMapTrans<K,V>,K,V,ImMapTrans<K,V>>() {
+                                         @Override
+                                         public ImMapTrans<K,V> applyEx(ImMapTrans<K,V> ts,
+                                                                        K key, V val) {
+                                             return ts.assoc(key, val);
+                                         }
+                                     }).persistent();
+    }
+
+    /**
+     When f1 is {@link Function1#identity()}, puts each key and value straight from the trie
+     without making an entry for each.  Any other function is called with an entry per item.
+     {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <R,S> Map<R,S> toMutableMap(Function1<? super UnEntry<K,V>,Map.Entry<R,S>> f1) {
+        if (f1 != (Object) Function1.identity()) {
+            return super.toMutableMap(f1);
+        }
+        // The identity function means R and S are really K and V.
+        final Map<K,V> ret = new HashMap<>((int) Math.min((size() * 4L / 3) + 1, 1 << 30));
+        forEach(new BiConsumer<K,V>() {
+            @Override public void accept(K key, V val) { ret.put(key, val); }
+        });
+        return (Map<R,S>) ret;
+    }
+
+//    public <R> R fold(long n, final Function2<R,R,R> combinef, final Function3<R,K,V,R> reducef,
+//                      Function1<Function0<R>,R> fjinvoke, final Function1<Function0,R> fjtask,
+//                      final Function1<R,Object> fjfork, final Function1<Object,R> fjjoin){
+//        //we are ignoring n for now
+//        Function0<R> top = () -> {
+//            R ret = combinef.apply(null,null);
+//            if(root != null)
+//                ret = combinef.apply(ret, root.fold(combinef, reducef, fjtask, fjfork, fjjoin));
+//            return hasNull ? combinef.apply(ret, reducef.apply(combinef.apply(null,null), null,
+//                                            nullValue))
+//                           : ret;
+//        };
+//        return fjinvoke.apply(top);
+//    }
+
+//    @SuppressWarnings("unchecked")
+//    @Override public Sequence<UnEntry<K,V>> seq() {
+////        System.out.println("root: " + root);
+//        Sequence<UnEntry<K,V>> s = root != null ? root.nodeSeq() : Sequence.emptySequence();
+//        return hasNull ? s.prepend((UnEntry<K,V>) Tuple2.of((K) null, nullValue)) : s;
+//    }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return count; }
+
+    /** {@inheritDoc} */
+    @Override public String toString() { return Helpers.toString("PersistentHashMap", this); }
+
+    @SuppressWarnings("unchecked")
+    @Override public PersistentHashMap<K,V> without(K key){
+        if(key == null)
+            return hasNull ? new PersistentHashMap<>(equator, count - 1, root, false, null) : this;
+        if(root == null)
+            return this;
+        INode<K,V> newroot = root.without(0, equator.hash(key), key);
+        if(newroot == root)
+            return this;
+        if ( (newroot == null) && root.cachesHashes() )
+            newroot = BitmapIndexedNode.empty(equator, true);
+        return new PersistentHashMap<>(equator, count - 1, newroot, hasNull, nullValue);
+    }
+
+    /** Adds the nodes and arrays of this map to the given footprint. */
+    void footprint(Footprint fp) {
+        // equator, root, nullValue, count, hasNull
+        fp.add(this, null, Footprint.objectBytes(3, 2), 0, 0);
+        if (root != null) {
+            root.footprint(fp);
+        }
+    }
+
+    /**
+     Walks two tries together for equals() and diff().  At each position, a node that's the same
+     object in both tries is skipped.  Otherwise matching branch nodes are walked slot by slot and
+     everything else is done by looking up each key in the other side's node at the same position
+     (the key can only be under that node if it's in that map at all).
+     */
+    private static final class Differ<K,V> {
+        private final Equator<K> equator;
+        private final boolean stopAtFirst;
+        boolean found = false;
+        final TransientHashMap<K,V> added;
+        final TransientHashMap<K,V> removed;
+        final TransientHashMap<K,Tuple2<V,V>> changed;
+
+        Differ(Equator<K> equator, boolean stopAtFirst) {
+            this.equator = equator;
+            this.stopAtFirst = stopAtFirst;
+            if (stopAtFirst) {
+                added = null;
+                removed = null;
+                changed = null;
+            } else {
+                added = PersistentHashMap.<K,V>empty(equator).asTransient();
+                removed = PersistentHashMap.<K,V>empty(equator).asTransient();
+                changed = PersistentHashMap.<K,Tuple2<V,V>>empty(equator).asTransient();
+            }
+        }
+
+        private boolean done() { return stopAtFirst && found; }
+
+        private void added(K k, V v) {
+            found = true;
+            if (!stopAtFirst) { added.assoc(k, v); }
+        }
+
+        private void removed(K k, V v) {
+            found = true;
+            if (!stopAtFirst) { removed.assoc(k, v); }
+        }
+
+        private void compare(K k, V oldVal, V newVal) {
+            if ( (oldVal == newVal) || ((oldVal != null) && oldVal.equals(newVal)) ) { return; }
+            found = true;
+            if (!stopAtFirst) { changed.assoc(k, Tuple2.of(oldVal, newVal)); }
+        }
+
+        void diff(PersistentHashMap<K,V> a, PersistentHashMap<K,V> b) {
+            if (a.hasNull) {
+                if (b.hasNull) {
+                    compare(null, a.nullValue, b.nullValue);
+                } else {
+                    removed(null, a.nullValue);
+                }
+            } else if (b.hasNull) {
+                added(null, b.nullValue);
+            }
+            nodes(a.root, b.root, 0);
+        }
+
+        private void nodes(INode<K,V> a, INode<K,V> b, int shift) {
+            if ( (a == b) || done() ) { return; }
+            if (a == null) {
+                allAdded(b);
+            } else if (b == null) {
+                allRemoved(a);
+            } else if (isCollisionNode(a) || isCollisionNode(b)) {
+                // Rare enough to just look everything up.
+                nodeVsNode(a, b, shift);
+            } else {
+                for (int i = 0; (i < 32) && !done(); i++) {
+                    slots(a, b, i, shift);
+                }
+            }
+        }
+
+        /** Compares slot i of two branch (BitmapIndexedNode or ArrayNode) nodes. */
+        private void slots(INode<K,V> a, INode<K,V> b, int i, int shift) {
+            Object[] aArray = null;
+            int aIdx = -1;
+            INode<K,V> aNode = null;
+            if (a instanceof ArrayNode) {
+                aNode = ((ArrayNode<K,V>) a).array[i];
+            } else {
+                BitmapIndexedNode<K,V> bin = (BitmapIndexedNode<K,V>) a;
+                int bit = 1 << i;
+                if ((bin.bitmap & bit) != 0) {
+                    aArray = bin.array;
+                    aIdx = 2 * bin.index(bit);
+                    if (aArray[aIdx] == null) {
+                        aNode = iNode(aArray, aIdx + 1);
+                        aArray = null;
+                    }
+                }
+            }
+
+            Object[] bArray = null;
+            int bIdx = -1;
+            INode<K,V> bNode = null;
+            if (b instanceof ArrayNode) {
+                bNode = ((ArrayNode<K,V>) b).array[i];
+            } else {
+                BitmapIndexedNode<K,V> bin = (BitmapIndexedNode<K,V>) b;
+                int bit = 1 << i;
+                if ((bin.bitmap & bit) != 0) {
+                    bArray = bin.array;
+                    bIdx = 2 * bin.index(bit);
+                    if (bArray[bIdx] == null) {
+                        bNode = iNode(bArray, bIdx + 1);
+                        bArray = null;
+                    }
+                }
+            }
+
+            if (aArray != null) {
+                K aKey = k(aArray, aIdx);
+                V aVal = v(aArray, aIdx + 1);
+                if (bArray != null) {
+                    K bKey = k(bArray, bIdx);
+                    if (equator.eq(aKey, bKey)) {
+                        compare(aKey, aVal, PersistentHashMap.<V>v(bArray, bIdx + 1));
+                    } else {
+                        removed(aKey, aVal);
+                        added(bKey, PersistentHashMap.<V>v(bArray, bIdx + 1));
+                    }
+                } else if (bNode != null) {
+                    entryVsNode(aKey, aVal, bNode, shift + 5, true);
+                } else {
+                    removed(aKey, aVal);
+                }
+            } else if (aNode != null) {
+                if (bArray != null) {
+                    entryVsNode(k(bArray, bIdx), PersistentHashMap.<V>v(bArray, bIdx + 1), aNode,
+                                shift + 5, false);
+                } else {
+                    nodes(aNode, bNode, shift + 5);
+                }
+            } else if (bArray != null) {
+                added(PersistentHashMap.<K>k(bArray, bIdx), PersistentHashMap.<V>v(bArray, bIdx + 1));
+            } else if (bNode != null) {
+                allAdded(bNode);
+            }
+        }
+
+        /**
+         A single entry on one side vs. a node in the same position on the other.
+         @param entryIsOld true if the entry is from the old (this) map, false if from the new one.
+         */
+        private void entryVsNode(K key, V val, INode<K,V> node, int shift, boolean entryIsOld) {
+            UnEntry<K,V> match = node.find(shift, equator.hash(key), key);
+            if (match == null) {
+                if (entryIsOld) { removed(key, val); } else { added(key, val); }
+            } else if (entryIsOld) {
+                compare(key, val, match.getValue());
+            } else {
+                compare(key, match.getValue(), val);
+            }
+            UnmodIterator<UnEntry<K,V>> iter = node.iterator();
+            while (iter.hasNext() && !done()) {
+                UnEntry<K,V> e = iter.next();
+                if ( (match == null) || !equator.eq(key, e.getKey()) ) {
+                    if (entryIsOld) {
+                        added(e.getKey(), e.getValue());
+                    } else {
+                        removed(e.getKey(), e.getValue());
+                    }
+                }
+            }
+        }
+
+        private void nodeVsNode(INode<K,V> a, INode<K,V> b, int shift) {
+            UnmodIterator<UnEntry<K,V>> iter = a.iterator();
+            while (iter.hasNext() && !done()) {
+                UnEntry<K,V> e = iter.next();
+                UnEntry<K,V> match = b.find(shift, equator.hash(e.getKey()), e.getKey());
+                if (match == null) {
+                    removed(e.getKey(), e.getValue());
+                } else {
+                    compare(e.getKey(), e.getValue(), match.getValue());
+                }
+            }
+            iter = b.iterator();
+            while (iter.hasNext() && !done()) {
+                UnEntry<K,V> e = iter.next();
+                if (a.find(shift, equator.hash(e.getKey()), e.getKey()) == null) {
+                    added(e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        private void allAdded(INode<K,V> node) {
+            UnmodIterator<UnEntry<K,V>> iter = node.iterator();
+            while (iter.hasNext() && !done()) {
+                UnEntry<K,V> e = iter.next();
+                added(e.getKey(), e.getValue());
+            }
+        }
+
+        private void allRemoved(INode<K,V> node) {
+            UnmodIterator<UnEntry<K,V>> iter = node.iterator();
+            while (iter.hasNext() && !done()) {
+                UnEntry<K,V> e = iter.next();
+                removed(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     Merges two tries for merge().  Branch nodes are merged slot by slot: a slot that's only used in
+     one node is copied over as-is (reusing any sub-tree), two entries become a new sub-node, and an
+     entry is assoc'ed into a sub-node in the same position.  Every node it changes belongs to a
+     single edit, so it's only copied once.
+     */
+    private static final class Merger<K,V> {
+        private final Equator<K> equator;
+        private final Function2<? super V,? super V,? extends V> resolver;
+        private final boolean cacheHashes;
+        final AtomicReference<Thread> edit = new AtomicReference<>(Thread.currentThread());
+        private final Box addedLeaf = new Box(null);
+        int overlaps = 0;
+
+        Merger(Equator<K> equator, Function2<? super V,? super V,? extends V> resolver,
+               boolean cacheHashes) {
+            this.equator = equator;
+            this.resolver = resolver;
+            this.cacheHashes = cacheHashes;
+        }
+
+        INode<K,V> nodes(INode<K,V> a, INode<K,V> b, int shift) {
+            if (a == null) { return b; }
+            if (b == null) { return a; }
+            if (isCollisionNode(a) || isCollisionNode(b)) {
+                return assocAll(a, b, shift);
+            }
+
+            // The key (null for a sub-node), value or sub-node, and (cached) hash of each slot.
+            Object[] keys = new Object[32];
+            Object[] valsOrNodes = new Object[32];
+            int[] hashes = new int[32];
+            int numSlots = 0;
+            boolean sameAsA = true;
+            boolean sameAsB = true;
+
+            for (int i = 0; i < 32; i++) {
+                int aIdx = slot(a, i);
+                int bIdx = slot(b, i);
+                if ( (aIdx < 0) && (bIdx < 0) ) {
+                    continue;
+                }
+                numSlots++;
+                if (bIdx < 0) {
+                    copySlot(a, aIdx, i, keys, valsOrNodes, hashes);
+                    sameAsB = false;
+                    continue;
+                }
+                if (aIdx < 0) {
+                    copySlot(b, bIdx, i, keys, valsOrNodes, hashes);
+                    sameAsA = false;
+                    continue;
+                }
+                K aKey = keyAt(a, aIdx);
+                Object aValOrNode = valOrNodeAt(a, aIdx, i);
+                K bKey = keyAt(b, bIdx);
+                Object bValOrNode = valOrNodeAt(b, bIdx, i);
+                if ( (aKey != null) && (bKey != null) ) {
+                    if (equator.eq(aKey, bKey)) {
+                        overlaps++;
+                        V v = resolver.call(asV(aValOrNode), asV(bValOrNode));
+                        keys[i] = aKey;
+                        valsOrNodes[i] = v;
+                        if (cacheHashes) {
+                            hashes[i] = hashAt(a, aIdx);
+                        }
+                        sameAsA &= (v == aValOrNode);
+                        sameAsB &= ( (v == bValOrNode) && (aKey == bKey) );
+                    } else {
+                        valsOrNodes[i] = createNode(equator, cacheHashes, edit, shift + 5, aKey,
+                                                    aValOrNode, hashAt(a, aIdx), hashAt(b, bIdx),
+                                                    bKey, bValOrNode);
+                        sameAsA = false;
+                        sameAsB = false;
+                    }
+                } else if (aKey != null) {
+                    INode<K,V> bNode = asNode(bValOrNode);
+                    INode<K,V> n = entryIntoNode(aKey, asV(aValOrNode), hashAt(a, aIdx), bNode,
+                                                 shift + 5, true);
+                    valsOrNodes[i] = n;
+                    sameAsA = false;
+                    sameAsB &= (n == bNode);
+                } else if (bKey != null) {
+                    INode<K,V> aNode = asNode(aValOrNode);
+                    INode<K,V> n = entryIntoNode(bKey, asV(bValOrNode), hashAt(b, bIdx), aNode,
+                                                 shift + 5, false);
+                    valsOrNodes[i] = n;
+                    sameAsA &= (n == aNode);
+                    sameAsB = false;
+                } else {
+                    INode<K,V> aNode = asNode(aValOrNode);
+                    INode<K,V> bNode = asNode(bValOrNode);
+                    INode<K,V> n = nodes(aNode, bNode, shift + 5);
+                    valsOrNodes[i] = n;
+                    sameAsA &= (n == aNode);
+                    sameAsB &= (n == bNode);
+                }
+            }
+            if (sameAsA) { return a; }
+            if (sameAsB) { return b; }
+            return buildBranch(equator, cacheHashes, edit, addedLeaf, keys, valsOrNodes, hashes,
+                               numSlots, shift);
+        }
+
+        /**
+         Adds an entry from one map to the sub-node in the same position in the other map.
+         @param entryIsA true if the entry is from this map (the first argument to the resolver).
+         */
+        private INode<K,V> entryIntoNode(K key, V val, int hash, INode<K,V> node, int shift,
+                                         boolean entryIsA) {
+            UnEntry<K,V> match = node.find(shift, hash, key);
+            if (match != null) {
+                overlaps++;
+                val = entryIsA ? resolver.call(val, match.getValue())
+                               : resolver.call(match.getValue(), val);
+            }
+            return node.assoc(edit, shift, hash, key, val, addedLeaf);
+        }
+
+        /** For collision nodes: adds every entry in b to a. */
+        private INode<K,V> assocAll(INode<K,V> a, INode<K,V> b, int shift) {
+            INode<K,V> ret = a;
+            UnmodIterator<UnEntry<K,V>> iter = b.iterator();
+            while (iter.hasNext()) {
+                UnEntry<K,V> e = iter.next();
+                int hash = equator.hash(e.getKey());
+                UnEntry<K,V> match = a.find(shift, hash, e.getKey());
+                V val = e.getValue();
+                if (match != null) {
+                    overlaps++;
+                    val = resolver.call(match.getValue(), val);
+                }
+                ret = ret.assoc(edit, shift, hash, e.getKey(), val, addedLeaf);
+            }
+            return ret;
+        }
+
+        // A method call is slow, but it keeps the cast localized.
+        @SuppressWarnings("unchecked")
+        private V asV(Object o) { return (V) o; }
+
+        // A method call is slow, but it keeps the cast localized.
+        @SuppressWarnings("unchecked")
+        private INode<K,V> asNode(Object o) { return (INode<K,V>) o; }
+
+        private void copySlot(INode<K,V> node, int idx, int i, Object[] keys,
+                              Object[] valsOrNodes, int[] hashes) {
+            K key = keyAt(node, idx);
+            keys[i] = key;
+            valsOrNodes[i] = valOrNodeAt(node, idx, i);
+            if ( (key != null) && cacheHashes ) {
+                hashes[i] = hashAt(node, idx);
+            }
+        }
+    }
+
+    /**
+     Makes a BitmapIndexedNode, or an ArrayNode if there are more than 16 slots, from the slots
+     filled in by Merger or KeyFilter.  keys[i] is the key in slot i (null for a sub-node) and
+     valsOrNodes[i] is its value or sub-node.  Any new nodes belong to the given edit.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K,V> INode<K,V> buildBranch(Equator<K> equator, boolean cacheHashes,
+                                                AtomicReference<Thread> edit, Box addedLeaf,
+                                                Object[] keys, Object[] valsOrNodes,
+                                                int[] hashes, int numSlots, int shift) {
+        if (numSlots > 16) {
+            INode<K,V>[] nodes = new INode[32];
+            for (int i = 0; i < 32; i++) {
+                if (keys[i] != null) {
+                    K key = k(keys, i);
+                    int hash = cacheHashes ? hashes[i] : equator.hash(key);
+                    nodes[i] = BitmapIndexedNode.<K,V>empty(equator, cacheHashes)
+                            .assoc(edit, shift + 5, hash, key,
+                                   PersistentHashMap.<V>v(valsOrNodes, i), addedLeaf);
+                } else {
+                    nodes[i] = iNode(valsOrNodes, i);
+                }
+            }
+            return new ArrayNode<>(equator, cacheHashes, null, numSlots, nodes);
+        }
+        Object[] array = new Object[2 * numSlots];
+        int[] newHashes = cacheHashes ? new int[numSlots] : null;
+        int bitmap = 0;
+        int j = 0;
+        for (int i = 0; i < 32; i++) {
+            if ( (keys[i] != null) || (valsOrNodes[i] != null) ) {
+                bitmap |= 1 << i;
+                array[2 * j] = keys[i];
+                array[(2 * j) + 1] = valsOrNodes[i];
+                if (newHashes != null) {
+                    newHashes[j] = hashes[i];
+                }
+                j++;
+            }
+        }
+        return new BitmapIndexedNode<>(equator, null, bitmap, array, newHashes);
+    }
+
+    /**
+     Returns -1 if slot i of this branch node is empty.  Otherwise the index of the key/value
+     (or null/sub-node) pair in a BitmapIndexedNode's array, or i for an ArrayNode.
+     */
+    private static int slot(INode<?,?> node, int i) {
+        if (node instanceof ArrayNode) {
+            return (((ArrayNode<?,?>) node).array[i] == null) ? -1 : i;
+        }
+        BitmapIndexedNode<?,?> bin = (BitmapIndexedNode<?,?>) node;
+        int bit = 1 << i;
+        return ((bin.bitmap & bit) == 0) ? -1 : 2 * bin.index(bit);
+    }
+
+    /** The key in the slot at idx (from {@link #slot(INode, int)}), or null for a sub-node. */
+    private static <K> K keyAt(INode<K,?> node, int idx) {
+        return (node instanceof ArrayNode) ? null
+                                           : PersistentHashMap.<K>k(((BitmapIndexedNode<K,?>) node).array, idx);
+    }
+
+    private static Object valOrNodeAt(INode<?,?> node, int idx, int i) {
+        return (node instanceof ArrayNode) ? ((ArrayNode<?,?>) node).array[i]
+                                           : ((BitmapIndexedNode<?,?>) node).array[idx + 1];
+    }
+
+    /** The hash of the key in the slot at idx of a BitmapIndexedNode. */
+    private static int hashAt(INode<?,?> node, int idx) {
+        return ((BitmapIndexedNode<?,?>) node).hashAt(idx / 2);
+    }
+
+    /** The number of entries in a node and all its sub-nodes. */
+    private static int countEntries(INode<?,?> node) {
+        int ret = 0;
+        for (UnmodIterator<?> iter = node.iterator(); iter.hasNext(); iter.next()) {
+            ret++;
+        }
+        return ret;
+    }
+
+    /**
+     Walks two tries together for withKeysIn() and withoutKeysIn(), keeping the entries of the
+     first trie whose keys are (or are not) in the second.  Anything in the first trie with nothing
+     in the same position of the second is kept or dropped whole without looking inside it, and so
+     is a sub-tree that's the same node in both tries.  Like Merger, every node it changes belongs
+     to a single edit, so it's only copied once.
+     */
+    private static final class KeyFilter<K,V> {
+        private final Equator<K> equator;
+        private final boolean cacheHashes;
+        // True to keep the keys in both tries (intersection), false to keep the keys that are only
+        // in the first one (difference).
+        private final boolean keepShared;
+        final AtomicReference<Thread> edit = new AtomicReference<>(Thread.currentThread());
+        private final Box box = new Box(null);
+        int removed = 0;
+
+        KeyFilter(Equator<K> equator, boolean cacheHashes, boolean keepShared) {
+            this.equator = equator;
+            this.cacheHashes = cacheHashes;
+            this.keepShared = keepShared;
+        }
 
-//    public <R> R kvreduce(Function3<R,K,V,R> f, R init) {
-//        init = hasNull ? f.apply(init, null, nullValue) : init;
-//        if(RT.isReduced(init))
-//            return ((IDeref)init).deref();
-//        if(root != null){
-//            init = root.kvreduce(f,init);
-//            if(RT.isReduced(init))
-//                return ((IDeref)init).deref();
-//            else
-//                return init;
-//        }
-//        return init;
-//    }
+        INode<K,V> nodes(INode<K,V> a, INode<K,?> b, int shift) {
+            if (a == null) { return null; }
+            if ( (b == null) || (a == b) ) {
+                // Either none or all of a's keys are in b.
+                if ((a == b) == keepShared) { return a; }
+                removed += countEntries(a);
+                return null;
+            }
+            if (isCollisionNode(a) || isCollisionNode(b)) {
+                return entryByEntry(a, b, shift);
+            }
 
-//    public <R> R fold(long n, final Function2<R,R,R> combinef, final Function3<R,K,V,R> reducef,
-//                      Function1<Function0<R>,R> fjinvoke, final Function1<Function0,R> fjtask,
-//                      final Function1<R,Object> fjfork, final Function1<Object,R> fjjoin){
-//        //we are ignoring n for now
-//        Function0<R> top = () -> {
-//            R ret = combinef.apply(null,null);
-//            if(root != null)
-//                ret = combinef.apply(ret, root.fold(combinef, reducef, fjtask, fjfork, fjjoin));
-//            return hasNull ? combinef.apply(ret, reducef.apply(combinef.apply(null,null), null,
-//                                            nullValue))
-//                           : ret;
-//        };
-//        return fjinvoke.apply(top);
-//    }
+            Object[] keys = new Object[32];
+            Object[] valsOrNodes = new Object[32];
+            int[] hashes = new int[32];
+            int numSlots = 0;
+            boolean sameAsA = true;
 
-//    @SuppressWarnings("unchecked")
-//    @Override public Sequence<UnEntry<K,V>> seq() {
-////        System.out.println("root: " + root);
-//        Sequence<UnEntry<K,V>> s = root != null ? root.nodeSeq() : Sequence.emptySequence();
-//        return hasNull ? s.prepend((UnEntry<K,V>) Tuple2.of((K) null, nullValue)) : s;
-//    }
+            for (int i = 0; i < 32; i++) {
+                int aIdx = slot(a, i);
+                if (aIdx < 0) {
+                    continue;
+                }
+                int bIdx = slot(b, i);
+                K aKey = keyAt(a, aIdx);
+                Object aValOrNode = valOrNodeAt(a, aIdx, i);
+                K key = aKey;
+                Object valOrNode;
+                int hash = 0;
+                if (aKey != null) {
+                    hash = hashAt(a, aIdx);
+                    boolean inB;
+                    if (bIdx < 0) {
+                        inB = false;
+                    } else {
+                        K bKey = keyAt(b, bIdx);
+                        inB = (bKey != null) ? equator.eq(aKey, bKey)
+                                             : (asNode(valOrNodeAt(b, bIdx, i))
+                                                        .find(shift + 5, hash, aKey) != null);
+                    }
+                    if (inB == keepShared) {
+                        valOrNode = aValOrNode;
+                    } else {
+                        removed++;
+                        key = null;
+                        valOrNode = null;
+                    }
+                } else {
+                    INode<K,V> aNode = asNode(aValOrNode);
+                    if (bIdx < 0) {
+                        valOrNode = nodes(aNode, null, shift + 5);
+                    } else {
+                        K bKey = keyAt(b, bIdx);
+                        if (bKey == null) {
+                            valOrNode = nodes(aNode, asNode(valOrNodeAt(b, bIdx, i)), shift + 5);
+                        } else {
+                            // Only one key in a's sub-node can match b's entry.
+                            int bHash = hashAt(b, bIdx);
+                            if (keepShared) {
+                                UnEntry<K,V> match = aNode.find(shift + 5, bHash, bKey);
+                                removed += countEntries(aNode) - ((match == null) ? 0 : 1);
+                                if (match == null) {
+                                    valOrNode = null;
+                                } else {
+                                    key = match.getKey();
+                                    valOrNode = match.getValue();
+                                    hash = bHash;
+                                }
+                            } else {
+                                INode<K,V> n = aNode.without(edit, shift + 5, bHash, bKey, box);
+                                if (n != aNode) {
+                                    removed++;
+                                }
+                                valOrNode = n;
+                            }
+                        }
+                    }
+                }
+                if ( (key != aKey) || (valOrNode != aValOrNode) ) {
+                    sameAsA = false;
+                }
+                if ( (key == null) && (valOrNode == null) ) {
+                    continue;
+                }
+                numSlots++;
+                keys[i] = key;
+                valsOrNodes[i] = valOrNode;
+                if ( (key != null) && cacheHashes ) {
+                    hashes[i] = hash;
+                }
+            }
+            if (sameAsA) { return a; }
+            if (numSlots == 0) { return null; }
+            return buildBranch(equator, cacheHashes, edit, box, keys, valsOrNodes, hashes,
+                               numSlots, shift);
+        }
 
-    /** {@inheritDoc} */
-    @Override public int size() { return count; }
+        /** For collision nodes: looks up each key of a in b. */
+        private INode<K,V> entryByEntry(INode<K,V> a, INode<K,?> b, int shift) {
+            INode<K,V> ret = a;
+            UnmodIterator<UnEntry<K,V>> iter = a.iterator();
+            while (iter.hasNext() && (ret != null)) {
+                K key = iter.next().getKey();
+                int hash = equator.hash(key);
+                if ( (b.find(shift, hash, key) != null) != keepShared ) {
+                    ret = ret.without(edit, shift, hash, key, box);
+                    removed++;
+                }
+            }
+            return ret;
+        }
 
-    /** {@inheritDoc} */
-    @Override public String toString() { return Helpers.toString("PersistentHashMap", this); }
+        // A method call is slow, but it keeps the cast localized.
+        @SuppressWarnings("unchecked")
+        private static <K,V> INode<K,V> asNode(Object o) { return (INode<K,V>) o; }
+    }
 
+    /**
+     True if every key in trie a is also in trie b.  Like KeyFilter, this skips any sub-tree that's
+     the same node in both tries and fails as soon as a has something where b has nothing.
+     */
     @SuppressWarnings("unchecked")
-    @Override public PersistentHashMap<K,V> without(K key){
-        if(key == null)
-            return hasNull ? new PersistentHashMap<>(equator, count - 1, root, false, null) : this;
-        if(root == null)
-            return this;
-        INode<K,V> newroot = root.without(0, equator.hash(key), key);
-        if(newroot == root)
-            return this;
-        return new PersistentHashMap<>(equator, count - 1, newroot, hasNull, nullValue);
+    private static <K> boolean keysIn(Equator<K> equator, INode<K,?> a, INode<K,?> b, int shift) {
+        if ( (a == null) || (a == b) ) { return true; }
+        // An empty (hash-caching) root or emptied sub-node has no keys to look for.
+        if (b == null) { return !a.iterator().hasNext(); }
+        if (isCollisionNode(a) || isCollisionNode(b)) {
+            UnmodIterator<? extends UnEntry<K,?>> iter = a.iterator();
+            while (iter.hasNext()) {
+                K key = iter.next().getKey();
+                if (b.find(shift, equator.hash(key), key) == null) { return false; }
+            }
+            return true;
+        }
+        for (int i = 0; i < 32; i++) {
+            int aIdx = slot(a, i);
+            if (aIdx < 0) {
+                continue;
+            }
+            K aKey = keyAt(a, aIdx);
+            int bIdx = slot(b, i);
+            if (bIdx < 0) {
+                // A persistent without() can leave an empty sub-node behind, which holds no keys.
+                if ( (aKey != null) ||
+                     ((INode<K,?>) valOrNodeAt(a, aIdx, i)).iterator().hasNext() ) {
+                    return false;
+                }
+                continue;
+            }
+            K bKey = keyAt(b, bIdx);
+            if (aKey != null) {
+                if (bKey != null) {
+                    if (!equator.eq(aKey, bKey)) { return false; }
+                } else if (((INode<K,?>) valOrNodeAt(b, bIdx, i))
+                                   .find(shift + 5, hashAt(a, aIdx), aKey) == null) {
+                    return false;
+                }
+            } else if (bKey != null) {
+                // a sub-node (of one or more keys) vs. b's single key
+                UnmodIterator<? extends UnEntry<K,?>> iter =
+                        ((INode<K,?>) valOrNodeAt(a, aIdx, i)).iterator();
+                while (iter.hasNext()) {
+                    if (!equator.eq(iter.next().getKey(), bKey)) { return false; }
+                }
+            } else if (!keysIn(equator, (INode<K,?>) valOrNodeAt(a, aIdx, i),
+                               (INode<K,?>) valOrNodeAt(b, bIdx, i), shift + 5)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     static final class TransientHashMap<K,V> extends ImMapTrans<K,V> {
@@ -444,6 +1758,8 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
 // Box leafFlag = new Box(null);
             leafFlag.val = null;
             INode<K,V> n = root.without(edit, 0, equator.hash(key), key, leafFlag);
+            if ( (n == null) && root.cachesHashes() )
+                n = BitmapIndexedNode.empty(equator, true);
             if (n != root)
                 this.root = n;
             if(leafFlag.val != null) this.count--;
@@ -481,44 +1797,76 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
         INode<K,V> assoc(AtomicReference<Thread> edit, int shift, int hash, K key, V val,
                          Box addedLeaf);
 
+        /**
+         Like assoc(), but gets the new value from the Updater, which sees the old value if the key
+         is found.  Returns this node if the Updater returns that same (==) value.
+         */
+        INode<K,V> update(int shift, int hash, K key, Updater<K,V> u, Box addedLeaf);
+
         INode<K,V> without(AtomicReference<Thread> edit, int shift, int hash, K key,
                            Box removedLeaf);
 
-//        <R> R kvreduce(Function3<R,K,V,R> f, R init);
+        /** Visits every key and value under this node.  Returns false if the visitor said to stop. */
+        boolean kvEach(KvVisitor<K,V> v);
 
 //        <R> R fold(Function2<R,R,R> combinef, Function3<R,K,V,R> reducef,
 //                   final Function1<Function0,R> fjtask,
 //                   final Function1<R,Object> fjfork, final Function1<Object,R> fjjoin);
 
         UnmodIterator<UnEntry<K,V>> iterator();
+
+        /** True if the BitmapIndexedNodes in this (sub) trie store the hash of each key. */
+        boolean cachesHashes();
+
+        /** Adds this node, its array, and all its sub-nodes to the given footprint. */
+        void footprint(Footprint fp);
     }
 
     final static class ArrayNode<K,V> implements INode<K,V>, UnmodIterable<UnEntry<K,V>> {
         private final Equator<K> equator;
+        private final boolean cacheHashes;
         int count;
         final INode<K,V>[] array;
         final AtomicReference<Thread> edit;
 
-        ArrayNode(Equator<K> eq, AtomicReference<Thread> edit, int count, INode<K,V>[] array){
+        ArrayNode(Equator<K> eq, boolean cacheHashes, AtomicReference<Thread> edit, int count,
+                  INode<K,V>[] array){
             this.equator = eq;
+            this.cacheHashes = cacheHashes;
             this.array = array;
             this.edit = edit;
             this.count = count;
         }
 
+        @Override public boolean cachesHashes() { return cacheHashes; }
+
         @Override public INode<K,V> assoc(int shift, int hash, K key, V val, Box addedLeaf) {
             int idx = mask(hash, shift);
             INode<K,V> node = array[idx];
             if (node == null) {
-                BitmapIndexedNode<K,V> e = BitmapIndexedNode.empty(equator);
+                BitmapIndexedNode<K,V> e = BitmapIndexedNode.empty(equator, cacheHashes);
                 INode<K,V> n = e.assoc(shift + 5, hash, key, val, addedLeaf);
-                return new ArrayNode<>(equator, null, count + 1, cloneAndSet(array, idx, n));
+                return new ArrayNode<>(equator, cacheHashes, null, count + 1, cloneAndSet(array, idx, n));
             }
             INode<K,V> n = node.assoc(shift + 5, hash, key, val, addedLeaf);
             if (n == node) {
                 return this;
             }
-            return new ArrayNode<>(equator, null, count, cloneAndSet(array, idx, n));
+            return new ArrayNode<>(equator, cacheHashes, null, count, cloneAndSet(array, idx, n));
+        }
+
+        @Override public INode<K,V> update(int shift, int hash, K key, Updater<K,V> u,
+                                          Box addedLeaf) {
+            int idx = mask(hash, shift);
+            INode<K,V> node = array[idx];
+            if (node == null) {
+                return assoc(shift, hash, key, u.apply(key, false, null), addedLeaf);
+            }
+            INode<K,V> n = node.update(shift + 5, hash, key, u, addedLeaf);
+            if (n == node) {
+                return this;
+            }
+            return new ArrayNode<>(equator, cacheHashes, null, count, cloneAndSet(array, idx, n));
         }
 
         @Override public INode<K,V> without(int shift, int hash, K key){
@@ -534,9 +1882,9 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                     // shrink
                     return pack(null, idx);
                 }
-                return new ArrayNode<>(equator, null, count - 1, cloneAndSet(array, idx, null));
+                return new ArrayNode<>(equator, cacheHashes, null, count - 1, cloneAndSet(array, idx, null));
             } else
-                return new ArrayNode<>(equator, null, count, cloneAndSet(array, idx, n));
+                return new ArrayNode<>(equator, cacheHashes, null, count, cloneAndSet(array, idx, n));
         }
 
         @Override public UnmodMap.UnEntry<K,V> find(int shift, int hash, K key) {
@@ -561,16 +1909,14 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
             return new Iter<>(array);
         }
 
-//        @Override public <R> R kvreduce(Function3<R,K,V,R> f, R init){
-//            for(INode<K,V> node : array){
-//                if(node != null){
-//                    init = node.kvreduce(f,init);
-//                    if(isReduced(init))
-//                        return init;
-//                }
-//            }
-//            return init;
-//        }
+        @Override public boolean kvEach(KvVisitor<K,V> v) {
+            for (INode<K,V> node : array) {
+                if ( (node != null) && !node.kvEach(v) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
 //        @Override public <R> R fold(Function2<R,R,R> combinef, Function3<R,K,V,R> reducef,
 //                                    final Function1<Function0,R> fjtask,
 //                                    final Function1<R,Object> fjfork,
@@ -617,7 +1963,7 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
         private ArrayNode<K,V> ensureEditable(AtomicReference<Thread> edit){
             if(this.edit == edit)
                 return this;
-            return new ArrayNode<>(equator, edit, count, this.array.clone());
+            return new ArrayNode<>(equator, cacheHashes, edit, count, this.array.clone());
         }
 
         private ArrayNode<K,V> editAndSet(AtomicReference<Thread> edit, int i, INode<K,V> n) {
@@ -643,7 +1989,9 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                     bitmap |= 1 << i;
                     j += 2;
                 }
-            return new BitmapIndexedNode<>(equator, edit, bitmap, newArray);
+            // Only sub-nodes here, so the hashes are never read.
+            return new BitmapIndexedNode<>(equator, edit, bitmap, newArray,
+                                           cacheHashes ? new int[count - 1] : null);
         }
 
         @Override public INode<K,V> assoc(AtomicReference<Thread> edit, int shift, int hash,
@@ -651,7 +1999,7 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
             int idx = mask(hash, shift);
             INode<K,V> node = array[idx];
             if(node == null) {
-                BitmapIndexedNode<K,V> en = BitmapIndexedNode.empty(equator);
+                BitmapIndexedNode<K,V> en = BitmapIndexedNode.empty(equator, cacheHashes);
                 ArrayNode<K,V> editable = editAndSet(edit, idx, en.assoc(edit, shift + 5, hash,
                                                                          key, val, addedLeaf));
                 editable.count++;
@@ -685,6 +2033,18 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
             return editAndSet(edit, idx, n);
         }
 
+        @Override public void footprint(Footprint fp) {
+            // equator, array, edit, count
+            fp.add(this, "ArrayNode", Footprint.objectBytes(3, 1), 0, 0);
+            fp.add(array, null, Footprint.arrayBytes(array.length), array.length,
+                   array.length - count);
+            for (INode<K,V> node : array) {
+                if (node != null) {
+                    node.footprint(fp);
+                }
+            }
+        }
+
         @Override public String toString() {
             return Helpers.toString("ArrayNode", this);
         }
@@ -733,13 +2093,21 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
 //        static final BitmapIndexedNode EMPTY = new BitmapIndexedNode(null, 0, new Object[0]);
 
         static final <K,V> BitmapIndexedNode<K,V> empty(Equator<K> e) {
-            return new BitmapIndexedNode(e, null, 0, new Object[0]);
+            return new BitmapIndexedNode(e, null, 0, new Object[0], null);
+        }
+
+        static final <K,V> BitmapIndexedNode<K,V> empty(Equator<K> e, boolean cacheHashes) {
+            return new BitmapIndexedNode(e, null, 0, new Object[0],
+                                         cacheHashes ? new int[0] : null);
         }
 
         private final Equator<K> equator;
         int bitmap;
         // even numbered cells are key or null, odd are val or node.
         Object[] array;
+        // When not null, hashes[i] is the hash of the key at array[2*i] (the cell for a node is
+        // unused).  Always half the length of the array.
+        int[] hashes;
         final AtomicReference<Thread> edit;
 
         @Override public String toString() {
@@ -750,13 +2118,27 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
         final int index(int bit) { return Integer.bitCount(bitmap & (bit - 1)); }
 
         BitmapIndexedNode(Equator<K> equator, AtomicReference<Thread> edit, int bitmap,
-                          Object[] array) {
+                          Object[] array, int[] hashes) {
             this.equator = equator;
             this.bitmap = bitmap;
             this.array = array;
+            this.hashes = hashes;
             this.edit = edit;
         }
 
+        @Override public boolean cachesHashes() { return hashes != null; }
+
+        /** The hash of the key at array[2*idx], from the cache if there is one. */
+        private int hashAt(int idx) {
+            return (hashes == null) ? equator.hash(PersistentHashMap.<K>k(array, 2*idx))
+                                    : hashes[idx];
+        }
+
+        /** Skips the call to eq() when the cached hash of the key at idx is different. */
+        private boolean keyEq(int idx, int hash, K key, K keyAtIdx) {
+            return ( (hashes == null) || (hashes[idx] == hash) ) && equator.eq(key, keyAtIdx);
+        }
+
         @Override public INode<K,V> assoc(int shift, int hash, K key, V val, Box addedLeaf){
             int bit = bitpos(hash, shift);
             int idx = index(bit);
@@ -768,48 +2150,88 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                     if(n == valOrNode)
                         return this;
                     return new BitmapIndexedNode<>(equator, null, bitmap,
-                                                   cloneAndSet(array, 2*idx+1, n));
+                                                   cloneAndSet(array, 2*idx+1, n), hashes);
                 }
-                if(equator.eq(key, keyOrNull)) {
+                if(keyEq(idx, hash, key, keyOrNull)) {
                     if(val == valOrNode)
                         return this;
                     return new BitmapIndexedNode<>(equator, null, bitmap,
-                                                   cloneAndSet(array, 2*idx+1, val));
+                                                   cloneAndSet(array, 2*idx+1, val), hashes);
                 }
-                addedLeaf.val = addedLeaf;
+                Box.set(addedLeaf);
                 return new BitmapIndexedNode<>(equator, null, bitmap,
                                                cloneAndSet(array, 2*idx, null, 2*idx+1,
-                                                           createNode(equator, shift + 5, keyOrNull,
-                                                                      valOrNode, hash, key, val)));
+                                                           createNode(equator, hashes != null,
+                                                                      shift + 5, keyOrNull,
+                                                                      valOrNode, hashAt(idx),
+                                                                      hash, key, val)),
+                                               hashes);
             } else {
                 int n = Integer.bitCount(bitmap);
                 if(n >= 16) {
                     INode[] nodes = new INode[32];
                     int jdx = mask(hash, shift);
-                    nodes[jdx] = empty(equator).assoc(shift + 5, hash, key, val, addedLeaf);
+                    nodes[jdx] = empty(equator, hashes != null).assoc(shift + 5, hash, key, val,
+                                                                      addedLeaf);
                     int j = 0;
                     for(int i = 0; i < 32; i++)
                         if(((bitmap >>> i) & 1) != 0) {
                             if (array[j] == null)
                                 nodes[i] = (INode) array[j+1];
                             else
-                                nodes[i] = empty(equator).assoc(shift + 5,
-                                                                equator.hash(PersistentHashMap.<K>k(array, j)),
-                                                                PersistentHashMap.<K>k(array, j), array[j + 1],
-                                                                addedLeaf);
+                                nodes[i] = empty(equator, hashes != null)
+                                        .assoc(shift + 5, hashAt(j/2),
+                                               PersistentHashMap.<K>k(array, j), array[j + 1],
+                                               addedLeaf);
                             j += 2;
                         }
-                    return new ArrayNode(equator, null, n + 1, nodes);
+                    return new ArrayNode(equator, hashes != null, null, n + 1, nodes);
                 } else {
                     Object[] newArray = new Object[2*(n+1)];
                     System.arraycopy(array, 0, newArray, 0, 2*idx);
                     newArray[2*idx] = key;
-                    addedLeaf.val = addedLeaf;
+                    Box.set(addedLeaf);
                     newArray[2*idx+1] = val;
                     System.arraycopy(array, 2*idx, newArray, 2*(idx+1), 2*(n-idx));
-                    return new BitmapIndexedNode<>(equator, null, bitmap | bit, newArray);
+                    int[] newHashes = null;
+                    if (hashes != null) {
+                        newHashes = new int[n+1];
+                        System.arraycopy(hashes, 0, newHashes, 0, idx);
+                        newHashes[idx] = hash;
+                        System.arraycopy(hashes, idx, newHashes, idx+1, n-idx);
+                    }
+                    return new BitmapIndexedNode<>(equator, null, bitmap | bit, newArray,
+                                                   newHashes);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public INode<K,V> update(int shift, int hash, K key, Updater<K,V> u,
+                                          Box addedLeaf) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) != 0) {
+                int idx = index(bit);
+                K keyOrNull = k(array, 2*idx);
+                Object valOrNode = array[2*idx+1];
+                if (keyOrNull == null) {
+                    INode<K,V> n = ((INode<K,V>) valOrNode).update(shift + 5, hash, key, u,
+                                                                   addedLeaf);
+                    if (n == valOrNode)
+                        return this;
+                    return new BitmapIndexedNode<>(equator, null, bitmap,
+                                                   cloneAndSet(array, 2*idx+1, n), hashes);
+                }
+                if (keyEq(idx, hash, key, keyOrNull)) {
+                    V val = u.apply(key, true, (V) valOrNode);
+                    if (val == valOrNode)
+                        return this;
+                    return new BitmapIndexedNode<>(equator, null, bitmap,
+                                                   cloneAndSet(array, 2*idx+1, val), hashes);
                 }
             }
+            // The key isn't in the trie.  Adding it only changes this node.
+            return assoc(shift, hash, key, u.apply(key, false, null), addedLeaf);
         }
 
         @Override public INode<K,V> without(int shift, int hash, K key){
@@ -825,14 +2247,17 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                     return this;
                 if (n != null)
                     return new BitmapIndexedNode<>(equator, null, bitmap, cloneAndSet(array,
-                                                                                      2*idx+1, n));
+                                                                                      2*idx+1, n),
+                                                   hashes);
                 if (bitmap == bit)
                     return null;
-                return new BitmapIndexedNode<>(equator, null, bitmap ^ bit, removePair(array, idx));
+                return new BitmapIndexedNode<>(equator, null, bitmap ^ bit, removePair(array, idx),
+                                               removeHash(hashes, idx));
             }
-            if(equator.eq(key, keyOrNull))
+            if(keyEq(idx, hash, key, keyOrNull))
                 // TODO: collapse
-                return new BitmapIndexedNode<>(equator, null, bitmap ^ bit, removePair(array, idx));
+                return new BitmapIndexedNode<>(equator, null, bitmap ^ bit, removePair(array, idx),
+                                               removeHash(hashes, idx));
             return this;
         }
 
@@ -845,7 +2270,7 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
             Object valOrNode = array[2*idx+1];
             if(keyOrNull == null)
                 return ((INode) valOrNode).find(shift + 5, hash, key);
-            if(equator.eq(key, keyOrNull))
+            if(keyEq(idx, hash, key, keyOrNull))
                 return Tuple2.of(keyOrNull, (V) valOrNode);
             return null;
         }
@@ -873,9 +2298,23 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
             return new NodeIter<>(array);
         }
 
-//        @Override public <R> R kvreduce(Function3<R,K,V,R> f, R init){
-//            return doKvreduce(array, f, init);
-//        }
+        @Override public void footprint(Footprint fp) {
+            // equator, array, hashes, edit, bitmap
+            fp.add(this, "BitmapIndexedNode", Footprint.objectBytes(4, 1), 0, 0);
+            // Transient edits leave room at the end of the array for future inserts.
+            fp.add(array, null, Footprint.arrayBytes(array.length), array.length,
+                   array.length - (2 * Integer.bitCount(bitmap)));
+            if (hashes != null) {
+                fp.add(hashes, null, Footprint.intArrayBytes(hashes.length), 0, 0);
+            }
+            for (int i = 0; i < array.length; i += 2) {
+                if ( (array[i] == null) && (array[i + 1] != null) ) {
+                    iNode(array, i + 1).footprint(fp);
+                }
+            }
+        }
+
+        @Override public boolean kvEach(KvVisitor<K,V> v) { return doKvEach(array, v); }
 
 //        @Override public <R> R fold(Function2<R,R,R> combinef, Function3<R,K,V,R> reducef,
 //                                    final Function1<Function0,R> fjtask,
@@ -890,7 +2329,12 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
             int n = Integer.bitCount(bitmap);
             Object[] newArray = new Object[n >= 0 ? 2*(n+1) : 4]; // make room for next assoc
             System.arraycopy(array, 0, newArray, 0, 2*n);
-            return new BitmapIndexedNode<>(equator, edit, bitmap, newArray);
+            int[] newHashes = null;
+            if (hashes != null) {
+                newHashes = new int[newArray.length / 2];
+                System.arraycopy(hashes, 0, newHashes, 0, n);
+            }
+            return new BitmapIndexedNode<>(equator, edit, bitmap, newArray, newHashes);
         }
 
         private BitmapIndexedNode<K,V> editAndSet(AtomicReference<Thread> edit, int i, Object a) {
@@ -917,6 +2361,10 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                              editable.array.length - 2*(i+1));
             editable.array[editable.array.length - 2] = null;
             editable.array[editable.array.length - 1] = null;
+            if (editable.hashes != null) {
+                System.arraycopy(editable.hashes, i+1, editable.hashes, i,
+                                 editable.hashes.length - (i+1));
+            }
             return editable;
         }
 
@@ -934,52 +2382,65 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                         return this;
                     return editAndSet(edit, 2*idx+1, n);
                 }
-                if(equator.eq(key, keyOrNull)) {
+                if(keyEq(idx, hash, key, keyOrNull)) {
                     if(val == valOrNode)
                         return this;
                     return editAndSet(edit, 2*idx+1, val);
                 }
-                addedLeaf.val = addedLeaf;
+                Box.set(addedLeaf);
                 return editAndSet(edit, 2*idx, null, 2*idx+1,
-                                  createNode(equator, edit, shift + 5, keyOrNull, valOrNode, hash,
-                                             key, val));
+                                  createNode(equator, hashes != null, edit, shift + 5, keyOrNull,
+                                             valOrNode, hashAt(idx), hash, key, val));
             } else {
                 int n = Integer.bitCount(bitmap);
                 if(n*2 < array.length) {
-                    addedLeaf.val = addedLeaf;
+                    Box.set(addedLeaf);
                     BitmapIndexedNode<K,V> editable = ensureEditable(edit);
                     System.arraycopy(editable.array, 2*idx, editable.array, 2*(idx+1), 2*(n-idx));
                     editable.array[2*idx] = key;
                     editable.array[2*idx+1] = val;
+                    if (editable.hashes != null) {
+                        System.arraycopy(editable.hashes, idx, editable.hashes, idx+1, n-idx);
+                        editable.hashes[idx] = hash;
+                    }
                     editable.bitmap |= bit;
                     return editable;
                 }
                 if(n >= 16) {
                     INode[] nodes = new INode[32];
                     int jdx = mask(hash, shift);
-                    nodes[jdx] = empty(equator).assoc(edit, shift + 5, hash, key, val, addedLeaf);
+                    nodes[jdx] = empty(equator, hashes != null).assoc(edit, shift + 5, hash, key,
+                                                                      val, addedLeaf);
                     int j = 0;
                     for(int i = 0; i < 32; i++)
                         if(((bitmap >>> i) & 1) != 0) {
                             if (array[j] == null)
                                 nodes[i] = (INode) array[j+1];
                             else
-                                nodes[i] = empty(equator).assoc(edit, shift + 5,
-                                                                equator.hash(PersistentHashMap.<K>k(array, j)),
-                                                                PersistentHashMap.<K>k(array, j), array[j + 1],
-                                                                addedLeaf);
+                                nodes[i] = empty(equator, hashes != null)
+                                        .assoc(edit, shift + 5, hashAt(j/2),
+                                               PersistentHashMap.<K>k(array, j), array[j + 1],
+                                               addedLeaf);
                             j += 2;
                         }
-                    return new ArrayNode(equator, edit, n + 1, nodes);
+                    return new ArrayNode(equator, hashes != null, edit, n + 1, nodes);
                 } else {
                     Object[] newArray = new Object[2*(n+4)];
                     System.arraycopy(array, 0, newArray, 0, 2*idx);
                     newArray[2*idx] = key;
-                    addedLeaf.val = addedLeaf;
+                    Box.set(addedLeaf);
                     newArray[2*idx+1] = val;
                     System.arraycopy(array, 2*idx, newArray, 2*(idx+1), 2*(n-idx));
+                    int[] newHashes = null;
+                    if (hashes != null) {
+                        newHashes = new int[n+4];
+                        System.arraycopy(hashes, 0, newHashes, 0, idx);
+                        newHashes[idx] = hash;
+                        System.arraycopy(hashes, idx, newHashes, idx+1, n-idx);
+                    }
                     BitmapIndexedNode<K,V> editable = ensureEditable(edit);
                     editable.array = newArray;
+                    editable.hashes = newHashes;
                     editable.bitmap |= bit;
                     return editable;
                 }
@@ -1004,8 +2465,8 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                     return null;
                 return editAndRemovePair(edit, bit, idx);
             }
-            if(equator.eq(key, keyOrNull)) {
-                removedLeaf.val = removedLeaf;
+            if(keyEq(idx, hash, key, keyOrNull)) {
+                Box.set(removedLeaf);
                 // TODO: collapse
                 return editAndRemovePair(edit, bit, idx);
             }
@@ -1015,59 +2476,83 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
 
     final static class HashCollisionNode<K,V> implements INode<K,V>{
         private final Equator<K> equator;
+        private final boolean cacheHashes;
         final int hash;
         int count;
         Object[] array;
         final AtomicReference<Thread> edit;
 
-        HashCollisionNode(Equator<K> eq, AtomicReference<Thread> edit, int hash, int count,
-                          Object... array){
+        HashCollisionNode(Equator<K> eq, boolean cacheHashes, AtomicReference<Thread> edit,
+                          int hash, int count, Object... array){
             this.equator = eq;
+            this.cacheHashes = cacheHashes;
             this.edit = edit;
             this.hash = hash;
             this.count = count;
             this.array = array;
         }
 
+        @Override public boolean cachesHashes() { return cacheHashes; }
+
         @Override public INode<K,V> assoc(int shift, int hash, K key, V val, Box addedLeaf){
             if(hash == this.hash) {
                 int idx = findIndex(key);
                 if(idx != -1) {
                     if(array[idx + 1] == val)
                         return this;
-                    return new HashCollisionNode<>(equator, null, hash, count,
+                    return new HashCollisionNode<>(equator, cacheHashes, null, hash, count,
                                                    cloneAndSet(array, idx + 1, val));
                 }
                 Object[] newArray = new Object[2 * (count + 1)];
                 System.arraycopy(array, 0, newArray, 0, 2 * count);
                 newArray[2 * count] = key;
                 newArray[2 * count + 1] = val;
-                addedLeaf.val = addedLeaf;
-                return new HashCollisionNode<>(equator, edit, hash, count + 1, newArray);
+                Box.set(addedLeaf);
+                return treeifyIfBig(new HashCollisionNode<K,V>(equator, cacheHashes, null, hash,
+                                                               count + 1, newArray));
             }
             // nest it in a bitmap node
             return new BitmapIndexedNode<K,V>(equator, null, bitpos(this.hash, shift),
-                                              new Object[] {null, this})
+                                              new Object[] {null, this},
+                                              cacheHashes ? new int[1] : null)
                     .assoc(shift, hash, key, val, addedLeaf);
         }
 
+        @Override public INode<K,V> update(int shift, int hash, K key, Updater<K,V> u,
+                                          Box addedLeaf) {
+            if (hash == this.hash) {
+                int idx = findIndex(key);
+                if (idx != -1) {
+                    V val = u.apply(key, true, PersistentHashMap.<V>v(array, idx + 1));
+                    if (val == array[idx + 1])
+                        return this;
+                    return new HashCollisionNode<>(equator, cacheHashes, null, hash, count,
+                                                   cloneAndSet(array, idx + 1, val));
+                }
+            }
+            return assoc(shift, hash, key, u.apply(key, false, null), addedLeaf);
+        }
+
         @Override public INode<K,V> without(int shift, int hash, K key){
+            // Every key in here has the same hash, so there's no need to compare any of them.
+            if (hash != this.hash)
+                return this;
             int idx = findIndex(key);
             if(idx == -1)
                 return this;
             if(count == 1)
                 return null;
-            return new HashCollisionNode<>(equator, null, hash, count - 1,
+            return new HashCollisionNode<>(equator, cacheHashes, null, hash, count - 1,
                                            removePair(array, idx/2));
         }
 
         @Override public UnmodMap.UnEntry<K,V> find(int shift, int hash, K key){
+            if (hash != this.hash)
+                return null;
             int idx = findIndex(key);
             if(idx < 0)
                 return null;
-            if(equator.eq(key, PersistentHashMap.<K>k(array, idx)))
-                return Tuple2.of(PersistentHashMap.<K>k(array, idx), PersistentHashMap.<V>v(array, idx + 1));
-            return null;
+            return Tuple2.of(PersistentHashMap.<K>k(array, idx), PersistentHashMap.<V>v(array, idx + 1));
         }
 
 //        @Override public V findVal(int shift, int hash, K key, V notFound){
@@ -1084,9 +2569,14 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
 
         @Override public UnmodIterator<UnEntry<K,V>> iterator() { return new NodeIter<>(array); }
 
-//        @Override public <R> R kvreduce(Function3<R,K,V,R> f, R init){
-//            return doKvreduce(array, f, init);
-//        }
+        @Override public void footprint(Footprint fp) {
+            // equator, array, edit, hash, count, cacheHashes
+            fp.add(this, "HashCollisionNode", Footprint.objectBytes(3, 3), 0, 0);
+            fp.add(array, null, Footprint.arrayBytes(array.length), array.length,
+                   array.length - (2 * count));
+        }
+
+        @Override public boolean kvEach(KvVisitor<K,V> v) { return doKvEach(array, v); }
 
 //        @Override public <R> R fold(Function2<R,R,R> combinef, Function3<R,K,V,R> reducef,
 //                                    final Function1<Function0,R> fjtask,
@@ -1107,7 +2597,7 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                 return this;
             Object[] newArray = new Object[2*(count+1)]; // make room for next assoc
             System.arraycopy(array, 0, newArray, 0, 2*count);
-            return new HashCollisionNode<>(equator, edit, hash, count, newArray);
+            return new HashCollisionNode<>(equator, cacheHashes, edit, hash, count, newArray);
         }
 
         private HashCollisionNode<K,V> ensureEditable(AtomicReference<Thread> edit, int count,
@@ -1117,7 +2607,7 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                 this.count = count;
                 return this;
             }
-            return new HashCollisionNode<>(equator, edit, hash, count, array);
+            return new HashCollisionNode<>(equator, cacheHashes, edit, hash, count, array);
         }
 
         private HashCollisionNode<K,V> editAndSet(AtomicReference<Thread> edit, int i, Object a) {
@@ -1145,31 +2635,34 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
                     return editAndSet(edit, idx+1, val);
                 }
                 if (array.length > 2*count) {
-                    addedLeaf.val = addedLeaf;
+                    Box.set(addedLeaf);
                     HashCollisionNode<K,V> editable =
                             editAndSet(edit, 2*count, key, 2*count+1, val);
                     editable.count++;
-                    return editable;
+                    return treeifyIfBig(editable);
                 }
                 Object[] newArray = new Object[array.length + 2];
                 System.arraycopy(array, 0, newArray, 0, array.length);
                 newArray[array.length] = key;
                 newArray[array.length + 1] = val;
-                addedLeaf.val = addedLeaf;
-                return ensureEditable(edit, count + 1, newArray);
+                Box.set(addedLeaf);
+                return treeifyIfBig(ensureEditable(edit, count + 1, newArray));
             }
             // nest it in a bitmap node
             return new BitmapIndexedNode<K,V>(equator, edit, bitpos(this.hash, shift),
-                                              new Object[] {null, this, null, null})
+                                              new Object[] {null, this, null, null},
+                                              cacheHashes ? new int[2] : null)
                     .assoc(edit, shift, hash, key, val, addedLeaf);
         }
 
         @Override public INode<K,V> without(AtomicReference<Thread> edit, int shift, int hash,
                                             K key, Box removedLeaf) {
+            if (hash != this.hash)
+                return this;
             int idx = findIndex(key);
             if(idx == -1)
                 return this;
-            removedLeaf.val = removedLeaf;
+            Box.set(removedLeaf);
             if(count == 1)
                 return null;
             HashCollisionNode<K,V> editable = ensureEditable(edit);
@@ -1181,6 +2674,337 @@ public class PersistentHashMap<K,V> extends ImMapTrans<K,V> {
         }
     }
 
+    /** True for a HashCollisionNode or CollisionTreeNode: a node of keys which all have the same hash. */
+    private static boolean isCollisionNode(INode<?,?> node) {
+        return (node instanceof HashCollisionNode) || (node instanceof CollisionTreeNode);
+    }
+
+    /** The number of keys in a HashCollisionNode or CollisionTreeNode. */
+    private static int collisionCount(INode<?,?> node) {
+        return (node instanceof HashCollisionNode) ? ((HashCollisionNode<?,?>) node).count
+                                                   : ((CollisionTreeNode<?,?>) node).count;
+    }
+
+    /**
+     Tells whether a persistent assoc() or update() of a key with the given hash added an entry
+     (instead of replacing a value) in making newRoot from oldRoot.  Adding an entry always changes
+     the shape of some node on the key's path: a new bit or slot, a key that turned into a sub-node,
+     or a bigger collision node.  Replacing a value never does.  So this follows the hash down both
+     tries without calling the Equator, and the persistent assoc() doesn't need a Box.
+     */
+    private static boolean addedEntry(INode<?,?> oldRoot, INode<?,?> newRoot, int hash) {
+        INode<?,?> oldNode = oldRoot;
+        INode<?,?> newNode = newRoot;
+        for (int shift = 0; oldNode != null; shift += 5) {
+            if (isCollisionNode(oldNode)) {
+                return !isCollisionNode(newNode) ||
+                       (collisionCount(oldNode) != collisionCount(newNode));
+            }
+            if (oldNode instanceof ArrayNode) {
+                int idx = mask(hash, shift);
+                oldNode = ((ArrayNode<?,?>) oldNode).array[idx];
+                newNode = ((ArrayNode<?,?>) newNode).array[idx];
+                continue;
+            }
+            if (!(newNode instanceof BitmapIndexedNode)) {
+                return true;
+            }
+            BitmapIndexedNode<?,?> oldBin = (BitmapIndexedNode<?,?>) oldNode;
+            BitmapIndexedNode<?,?> newBin = (BitmapIndexedNode<?,?>) newNode;
+            if (oldBin.bitmap != newBin.bitmap) {
+                return true;
+            }
+            int i = 2 * oldBin.index(bitpos(hash, shift));
+            if (oldBin.array[i] != null) {
+                // A key held right in the node keeps its place unless another key joined it.
+                return newBin.array[i] == null;
+            }
+            oldNode = (INode<?,?>) oldBin.array[i + 1];
+            newNode = (INode<?,?>) newBin.array[i + 1];
+        }
+        // Nothing was there before.
+        return true;
+    }
+
+    // A HashCollisionNode with more than this many keys becomes a CollisionTreeNode when its keys
+    // can be ordered.  Like java.util.HashMap's tree bins, it only turns back into a flat array
+    // at a smaller size, so adding and removing one key doesn't flip it back and forth.
+    static final int TREEIFY_THRESHOLD = 8;
+    static final int UNTREEIFY_THRESHOLD = 6;
+
+    /** Returns a CollisionTreeNode of the given node's keys if it's too big and they can be ordered. */
+    private static <K,V> INode<K,V> treeifyIfBig(HashCollisionNode<K,V> node) {
+        if (node.count <= TREEIFY_THRESHOLD) { return node; }
+        Comparator<? super K> comp = collisionComparator(node.equator, node.array, node.count);
+        if (comp == null) { return node; }
+        return CollisionTreeNode.of(node.equator, node.cacheHashes, node.hash, comp, node.array,
+                                    node.count);
+    }
+
+    /**
+     Returns a Comparator that agrees with the given Equator for all the given keys, or null if
+     there isn't one.  A ComparisonContext is its own comparator.  With the default Equator, keys
+     which are all of the same class C, where C implements Comparable&lt;C&gt;, use their natural
+     ordering (just like java.util.HashMap).  Any other Equator could disagree with the natural
+     order, so it never gets a tree.
+     */
+    @SuppressWarnings("unchecked")
+    private static <K> Comparator<? super K> collisionComparator(Equator<K> eq, Object[] array,
+                                                                 int count) {
+        if (eq instanceof Equator.ComparisonContext) {
+            return (Equator.ComparisonContext<K>) eq;
+        }
+        if (eq != Equator.DEFAULT_EQUATOR) { return null; }
+        Class<?> c = comparableClassFor(array[0]);
+        if (c == null) { return null; }
+        for (int i = 2; i < 2 * count; i += 2) {
+            if (array[i].getClass() != c) { return null; }
+        }
+        return (Comparator<? super K>) Equator.DEFAULT_COMPARATOR;
+    }
+
+    /** Returns the class of o if it is "class C implements Comparable&lt;C&gt;", otherwise null. */
+    private static Class<?> comparableClassFor(Object o) {
+        if (o instanceof Comparable) {
+            Class<?> c = o.getClass();
+            if (c == String.class) { return c; }
+            for (Type t : c.getGenericInterfaces()) {
+                if (t instanceof ParameterizedType) {
+                    ParameterizedType p = (ParameterizedType) t;
+                    if ( (p.getRawType() == Comparable.class) &&
+                         (p.getActualTypeArguments().length == 1) &&
+                         (p.getActualTypeArguments()[0] == c) ) {
+                        return c;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     Holds more than {@link #TREEIFY_THRESHOLD} keys with exactly the same hash code in a
+     PersistentTreeMap so that finding, adding, or removing one takes O(log n) comparisons instead
+     of a linear scan with Equator.eq().  This protects the map from a bad hash function, or from
+     someone choosing keys that collide on purpose.
+
+     Keys that compare as equal but are not eq() share a bucket array of [key, value, key, value...]
+     pairs in the tree.  With a ComparisonContext that can't happen, and with natural ordering it
+     only happens when compareTo() is inconsistent with equals() (e.g. BigDecimal), so the buckets
+     nearly always hold a single pair.  The tree is rebuilt along the changed path on every change
+     (never edited in place), even in a transient, which is still O(log n).
+     */
+    final static class CollisionTreeNode<K,V> implements INode<K,V> {
+        private final Equator<K> equator;
+        private final boolean cacheHashes;
+        final int hash;
+        final int count;
+        // The class of every key for natural ordering, or null for a ComparisonContext.
+        private final Class<?> keyClass;
+        private final PersistentTreeMap<K,Object[]> tree;
+
+        private CollisionTreeNode(Equator<K> eq, boolean cacheHashes, int hash, int count,
+                                  Class<?> keyClass, PersistentTreeMap<K,Object[]> tree) {
+            this.equator = eq;
+            this.cacheHashes = cacheHashes;
+            this.hash = hash;
+            this.count = count;
+            this.keyClass = keyClass;
+            this.tree = tree;
+        }
+
+        /** Makes a tree of the first count pairs in the given array. */
+        static <K,V> CollisionTreeNode<K,V> of(Equator<K> eq, boolean cacheHashes, int hash,
+                                               Comparator<? super K> comp, Object[] array,
+                                               int count) {
+            PersistentTreeMap<K,Object[]> tree = PersistentTreeMap.empty(comp);
+            for (int i = 0; i < 2 * count; i += 2) {
+                K key = k(array, i);
+                Object[] bucket = bucketFor(tree, key);
+                tree = tree.assoc(key, (bucket == null)
+                                       ? new Object[] { key, array[i + 1] }
+                                       : appendPair(bucket, key, array[i + 1]));
+            }
+            return new CollisionTreeNode<>(eq, cacheHashes, hash, count,
+                                           (comp == eq) ? null : array[0].getClass(), tree);
+        }
+
+        private static <K> Object[] bucketFor(PersistentTreeMap<K,Object[]> tree, K key) {
+            Option<UnEntry<K,Object[]>> entry = tree.entry(key);
+            return entry.isSome() ? entry.get().getValue() : null;
+        }
+
+        private static Object[] appendPair(Object[] bucket, Object key, Object val) {
+            Object[] ret = Arrays.copyOf(bucket, bucket.length + 2);
+            ret[bucket.length] = key;
+            ret[bucket.length + 1] = val;
+            return ret;
+        }
+
+        /** False if comparing the key to the ones in the tree could throw a ClassCastException. */
+        private boolean canCompare(K key) {
+            return (keyClass == null) || (key.getClass() == keyClass);
+        }
+
+        /** Returns the index of the key in the bucket, or -1 */
+        private int indexIn(Object[] bucket, K key) {
+            for (int i = 0; i < bucket.length; i += 2) {
+                if (equator.eq(key, PersistentHashMap.<K>k(bucket, i))) { return i; }
+            }
+            return -1;
+        }
+
+        @Override public boolean cachesHashes() { return cacheHashes; }
+
+        /** Turns this back into a flat HashCollisionNode. */
+        private HashCollisionNode<K,V> toCollisionNode(AtomicReference<Thread> edit) {
+            Object[] array = new Object[2 * count];
+            int i = 0;
+            for (UnEntry<K,Object[]> entry : tree) {
+                Object[] bucket = entry.getValue();
+                System.arraycopy(bucket, 0, array, i, bucket.length);
+                i += bucket.length;
+            }
+            return new HashCollisionNode<>(equator, cacheHashes, edit, hash, count, array);
+        }
+
+        @Override public UnEntry<K,V> find(int shift, int hash, K key) {
+            if (hash != this.hash) { return null; }
+            if (!canCompare(key)) {
+                // Don't know how this compares, but it could still be eq() to something in here.
+                return toCollisionNode(null).find(shift, hash, key);
+            }
+            Object[] bucket = bucketFor(tree, key);
+            if (bucket == null) { return null; }
+            int idx = indexIn(bucket, key);
+            return (idx < 0) ? null : Tuple2.of(PersistentHashMap.<K>k(bucket, idx),
+                                                PersistentHashMap.<V>v(bucket, idx + 1));
+        }
+
+        @Override public INode<K,V> assoc(int shift, int hash, K key, V val, Box addedLeaf) {
+            return assoc(null, shift, hash, key, val, addedLeaf);
+        }
+
+        @Override public INode<K,V> assoc(AtomicReference<Thread> edit, int shift, int hash,
+                                          K key, V val, Box addedLeaf) {
+            if (hash != this.hash) {
+                // nest it in a bitmap node
+                return new BitmapIndexedNode<K,V>(equator, edit, bitpos(this.hash, shift),
+                                                  new Object[] {null, this},
+                                                  cacheHashes ? new int[1] : null)
+                        .assoc(edit, shift, hash, key, val, addedLeaf);
+            }
+            if (!canCompare(key)) {
+                // A key of another class means natural ordering won't work any more.
+                HashCollisionNode<K,V> flat = toCollisionNode(edit);
+                int idx = flat.findIndex(key);
+                if ( (idx >= 0) && (flat.array[idx + 1] == val) ) { return this; }
+                return flat.assoc(edit, shift, hash, key, val, addedLeaf);
+            }
+            Object[] bucket = bucketFor(tree, key);
+            if (bucket == null) {
+                Box.set(addedLeaf);
+                return new CollisionTreeNode<>(equator, cacheHashes, hash, count + 1, keyClass,
+                                               tree.assoc(key, new Object[] { key, val }));
+            }
+            int idx = indexIn(bucket, key);
+            Object[] newBucket;
+            if (idx < 0) {
+                Box.set(addedLeaf);
+                newBucket = appendPair(bucket, key, val);
+            } else {
+                if (bucket[idx + 1] == val) { return this; }
+                newBucket = cloneAndSet(bucket, idx + 1, val);
+            }
+            return new CollisionTreeNode<>(equator, cacheHashes, hash,
+                                           (idx < 0) ? count + 1 : count, keyClass,
+                                           tree.assoc(PersistentHashMap.<K>k(newBucket, 0),
+                                                      newBucket));
+        }
+
+        @Override public INode<K,V> update(int shift, int hash, K key, Updater<K,V> u,
+                                          Box addedLeaf) {
+            UnEntry<K,V> entry = find(shift, hash, key);
+            if (entry == null) {
+                return assoc(shift, hash, key, u.apply(key, false, null), addedLeaf);
+            }
+            V val = u.apply(key, true, entry.getValue());
+            return (val == entry.getValue()) ? this : assoc(shift, hash, key, val, addedLeaf);
+        }
+
+        @Override public INode<K,V> without(int shift, int hash, K key) {
+            return without(null, shift, hash, key, null);
+        }
+
+        @Override public INode<K,V> without(AtomicReference<Thread> edit, int shift, int hash,
+                                            K key, Box removedLeaf) {
+            if (hash != this.hash) { return this; }
+            if (!canCompare(key)) {
+                HashCollisionNode<K,V> flat = toCollisionNode(edit);
+                if (flat.findIndex(key) < 0) { return this; }
+                return flat.without(edit, shift, hash, key, removedLeaf);
+            }
+            Object[] bucket = bucketFor(tree, key);
+            if (bucket == null) { return this; }
+            int idx = indexIn(bucket, key);
+            if (idx < 0) { return this; }
+            Box.set(removedLeaf);
+            PersistentTreeMap<K,Object[]> newTree;
+            if (bucket.length == 2) {
+                newTree = tree.without(key);
+            } else {
+                Object[] newBucket = removePair(bucket, idx / 2);
+                newTree = tree.assoc(PersistentHashMap.<K>k(newBucket, 0), newBucket);
+            }
+            CollisionTreeNode<K,V> ret = new CollisionTreeNode<>(equator, cacheHashes, hash,
+                                                                 count - 1, keyClass, newTree);
+            return (ret.count <= UNTREEIFY_THRESHOLD) ? ret.toCollisionNode(edit) : ret;
+        }
+
+        @Override public UnmodIterator<UnEntry<K,V>> iterator() {
+            final UnmodIterator<UnEntry<K,Object[]>> buckets = tree.iterator();
+            return new UnmodIterator<UnEntry<K,V>>() {
+                private Object[] bucket = null;
+                private int i = 0;
+
+                @Override public boolean hasNext() {
+                    return ( (bucket != null) && (i < bucket.length) ) || buckets.hasNext();
+                }
+
+                @Override public UnEntry<K,V> next() {
+                    if ( (bucket == null) || (i >= bucket.length) ) {
+                        bucket = buckets.next().getValue();
+                        i = 0;
+                    }
+                    UnEntry<K,V> ret = Tuple2.of(PersistentHashMap.<K>k(bucket, i),
+                                                 PersistentHashMap.<V>v(bucket, i + 1));
+                    i += 2;
+                    return ret;
+                }
+            };
+        }
+
+        @Override public boolean kvEach(KvVisitor<K,V> v) {
+            for (UnEntry<K,Object[]> entry : tree) {
+                if (!doKvEach(entry.getValue(), v)) { return false; }
+            }
+            return true;
+        }
+
+        @Override public void footprint(Footprint fp) {
+            // equator, keyClass, tree, hash, count, cacheHashes
+            fp.add(this, "CollisionTreeNode", Footprint.objectBytes(3, 3), 0, 0);
+            // An estimate: the tree itself, plus one red-black node (key, value, left, right) for
+            // each bucket.
+            fp.add(tree, null, Footprint.objectBytes(2, 1) +
+                               (tree.size() * Footprint.objectBytes(4, 0)), 0, 0);
+            for (UnEntry<K,Object[]> entry : tree) {
+                Object[] bucket = entry.getValue();
+                fp.add(bucket, null, Footprint.arrayBytes(bucket.length), bucket.length, 0);
+            }
+        }
+    }
+
 /*
 public static void main(String[] args){
     try
@@ -1294,28 +3118,38 @@ public static void main(String[] args){
         return newArray;
     }
 
-    private static <K,V> INode<K,V> createNode(Equator<K> equator, int shift, K key1, V val1,
+    private static int[] removeHash(int[] hashes, int i) {
+        if (hashes == null)
+            return null;
+        int[] newHashes = new int[hashes.length - 1];
+        System.arraycopy(hashes, 0, newHashes, 0, i);
+        System.arraycopy(hashes, i + 1, newHashes, i, newHashes.length - i);
+        return newHashes;
+    }
+
+    // key1hash is passed in (from the cache, when there is one) so that key1 isn't hashed again.
+    private static <K,V> INode<K,V> createNode(Equator<K> equator, boolean cacheHashes, int shift,
+                                               K key1, V val1, int key1hash,
                                                int key2hash, K key2, V val2) {
-        int key1hash = equator.hash(key1);
         if(key1hash == key2hash)
-            return new HashCollisionNode<>(equator, null, key1hash, 2,
+            return new HashCollisionNode<>(equator, cacheHashes, null, key1hash, 2,
                                            new Object[] {key1, val1, key2, val2});
         Box addedLeaf = new Box(null);
         AtomicReference<Thread> edit = new AtomicReference<>();
-        return BitmapIndexedNode.<K,V>empty(equator)
+        return BitmapIndexedNode.<K,V>empty(equator, cacheHashes)
                 .assoc(edit, shift, key1hash, key1, val1, addedLeaf)
                 .assoc(edit, shift, key2hash, key2, val2, addedLeaf);
     }
 
-    private static <K,V> INode<K,V> createNode(Equator<K> equator, AtomicReference<Thread> edit,
-                                               int shift, K key1, V val1, int key2hash,
-                                               K key2, V val2) {
-        int key1hash = equator.hash(key1);
+    private static <K,V> INode<K,V> createNode(Equator<K> equator, boolean cacheHashes,
+                                               AtomicReference<Thread> edit, int shift,
+                                               K key1, V val1, int key1hash,
+                                               int key2hash, K key2, V val2) {
         if(key1hash == key2hash)
-            return new HashCollisionNode<>(equator, null, key1hash, 2,
+            return new HashCollisionNode<>(equator, cacheHashes, null, key1hash, 2,
                                            new Object[] {key1, val1, key2, val2});
         Box addedLeaf = new Box(null);
-        return BitmapIndexedNode.<K,V>empty(equator)
+        return BitmapIndexedNode.<K,V>empty(equator, cacheHashes)
                 .assoc(edit, shift, key1hash, key1, val1, addedLeaf)
                 .assoc(edit, shift, key2hash, key2, val2, addedLeaf);
     }
@@ -16,6 +16,7 @@ package org.organicdesign.fp.collections;
 import org.organicdesign.fp.collections.interfaces.UnmodIterator;
 import org.organicdesign.fp.collections.interfaces.UnmodMap;
 import org.organicdesign.fp.function.Function1;
+import org.organicdesign.fp.function.Function2;
 
 import java.util.Set;
 
@@ -70,10 +71,24 @@ public class PersistentHashSet<E> extends ImSet<E> {
         return new PersistentHashSet<>((ImMapTrans<E,E>) map);
     }
 
+    // Keeps the item already in this set when union() finds it in both.
+    @SuppressWarnings("rawtypes")
+    private static final Function2 KEEP_FIRST = new Function2() {
+        @Override public Object applyEx(Object a, Object b) { return a; }
+    };
+
     private final ImMapTrans<E,E> impl;
 
     private PersistentHashSet(ImMapTrans<E,E> i) { impl = i; }
 
+    /** Adds this set and (if it's backed by a PersistentHashMap) the map to the given footprint. */
+    void footprint(Footprint fp) {
+        fp.add(this, null, Footprint.objectBytes(1, 0), 0, 0);
+        if (impl instanceof PersistentHashMap) {
+            ((PersistentHashMap<E,E>) impl).footprint(fp);
+        }
+    }
+
     @Override public boolean contains(Object key) {
         //noinspection SuspiciousMethodCalls
         return impl.containsKey(key);
@@ -112,6 +127,128 @@ public class PersistentHashSet<E> extends ImSet<E> {
         return new PersistentHashSet<>(impl.assoc(o, o));
     }
 
+    /**
+     If this set and the other one are both backed by PersistentHashMaps with the same Equator,
+     returns the other set's map (so that the two tries can be walked together).  Otherwise null.
+     */
+    @SuppressWarnings("unchecked")
+    private PersistentHashMap<E,E> sameKindOfTrie(Object other) {
+        if ( (impl instanceof PersistentHashMap) && (other instanceof PersistentHashSet) ) {
+            ImMapTrans<?,?> thatImpl = ((PersistentHashSet<?>) other).impl;
+            if ( (thatImpl instanceof PersistentHashMap) &&
+                 (thatImpl.equator() == impl.equator()) ) {
+                return (PersistentHashMap<E,E>) thatImpl;
+            }
+        }
+        return null;
+    }
+
+    /**
+     Returns a set of the items in this set and the given ones.  If the given items are in another
+     PersistentHashSet with the same Equator, the two tries are merged node by node, reusing any
+     sub-tree that's only in one of them.  Items already in this set are kept (not replaced).
+     */
+    @SuppressWarnings("unchecked")
+    @Override public PersistentHashSet<E> union(Iterable<? extends E> iter) {
+        if (iter == null) { return this; }
+        PersistentHashMap<E,E> that = sameKindOfTrie(iter);
+        if (that == null) {
+            return putAll(iter);
+        }
+        PersistentHashMap<E,E> m = ((PersistentHashMap<E,E>) impl).merge(that, KEEP_FIRST);
+        if (m == impl) { return this; }
+        if (m == that) { return (PersistentHashSet<E>) iter; }
+        return new PersistentHashSet<>(m);
+    }
+
+    /**
+     Returns a set of the items in this set that are also in the other one.  If the other set is a
+     PersistentHashSet with the same Equator, this walks the two tries together, skipping any part
+     of this trie that has nothing in the same position in the other.  Otherwise, it checks
+     other.contains() for each item in this set.
+     @return a set of the items in both, or this set if they're all in the other one.
+     */
+    @SuppressWarnings("unchecked")
+    public PersistentHashSet<E> intersection(Set<?> other) {
+        PersistentHashMap<E,E> that = sameKindOfTrie(other);
+        if (that != null) {
+            return wrap(((PersistentHashMap<E,E>) impl).withKeysIn(that));
+        }
+        PersistentHashSet<E> ret = this;
+        for (E e : this) {
+            if (!other.contains(e)) { ret = ret.without(e); }
+        }
+        return ret;
+    }
+
+    /**
+     Returns a set of the items in this set that aren't in the other one.  Walks the tries together
+     like {@link #intersection(Set)} if it can, otherwise checks other.contains() for each item in
+     this set.
+     @return a set of the items only in this set, or this set if none of them are in the other one.
+     */
+    @SuppressWarnings("unchecked")
+    public PersistentHashSet<E> difference(Set<?> other) {
+        PersistentHashMap<E,E> that = sameKindOfTrie(other);
+        if (that != null) {
+            return wrap(((PersistentHashMap<E,E>) impl).withoutKeysIn(that));
+        }
+        PersistentHashSet<E> ret = this;
+        for (E e : this) {
+            if (other.contains(e)) { ret = ret.without(e); }
+        }
+        return ret;
+    }
+
+    /**
+     True if every item in this set is also in the other one.  Walks the tries together like
+     {@link #intersection(Set)} if it can (stopping at the first missing item), otherwise checks
+     other.contains() for each item in this set.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean isSubsetOf(Set<?> other) {
+        PersistentHashMap<E,E> that = sameKindOfTrie(other);
+        if (that != null) {
+            return ((PersistentHashMap<E,E>) impl).keysAreIn(that);
+        }
+        if (size() > other.size()) { return false; }
+        for (E e : this) {
+            if (!other.contains(e)) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     Adds all the given items to a single transient, so that each node is copied at most once.
+     {@inheritDoc}
+     */
+    @Override public PersistentHashSet<E> putAll(Iterable<? extends E> items) {
+        if (items == null) { return this; }
+        TransientHashSet<E> ret = asTransient();
+        for (E e : items) {
+            ret.put(e);
+        }
+        // A set can only grow from put(), so the same size means nothing was added.
+        return (ret.size() == size()) ? this : ret.persistent();
+    }
+
+    /**
+     Removes all the given items with a single transient, so that each node is copied at most once.
+     {@inheritDoc}
+     */
+    @Override public PersistentHashSet<E> withoutAll(Iterable<? extends E> items) {
+        if (items == null) { return this; }
+        TransientHashSet<E> ret = asTransient();
+        for (E e : items) {
+            ret.without(e);
+        }
+        return (ret.size() == size()) ? this : ret.persistent();
+    }
+
+    private PersistentHashSet<E> wrap(ImMapTrans<E,E> m) {
+        return (m == impl) ? this : new PersistentHashSet<>(m);
+    }
+
 //    @Override public Sequence<E> seq() { return impl.seq().map(e -> e.getKey()); }
 
     @Override public UnmodIterator<E> iterator() {
@@ -125,11 +262,20 @@ public class PersistentHashSet<E> extends ImSet<E> {
 
     @Override public int size() { return impl.size(); }
 
-    private TransientHashSet<E> asTransient() {
+    /**
+     Returns a mutable version of this set for adding or removing a lot of items at once.  Call
+     persistent() on it when you're done.  Like the transient PersistentHashMap it's built on, it
+     may only be used by the thread that created it.
+     */
+    public TransientHashSet<E> asTransient() {
         return new TransientHashSet<>(impl.asTransient());
     }
 
-    static final class TransientHashSet<E> extends ImSet<E> {
+    /**
+     A mutable PersistentHashSet for building a set from a lot of items.  put() and without() change
+     this set in place and return it.  Call persistent() to get an immutable set and retire this one.
+     */
+    public static final class TransientHashSet<E> extends ImSet<E> {
         ImMapTrans<E,E> impl;
 
         TransientHashSet(ImMapTrans<E,E> impl) {
@@ -173,6 +319,7 @@ public class PersistentHashSet<E> extends ImSet<E> {
             return this;
         }
 
+        /** Returns an immutable PersistentHashSet of the items in this set.  Don't use this set after! */
         public PersistentHashSet<E> persistent() {
             return new PersistentHashSet<>(impl.persistent());
         }
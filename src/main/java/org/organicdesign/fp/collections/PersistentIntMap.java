@@ -0,0 +1,270 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.organicdesign.fp.Option;
+import org.organicdesign.fp.collections.interfaces.UnmodIterable;
+import org.organicdesign.fp.collections.interfaces.UnmodIterator;
+import org.organicdesign.fp.function.Function1;
+import org.organicdesign.fp.tuple.Tuple2;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ An immutable, persistent map from primitive ints to values.  This is a {@link PersistentLongMap}
+ with the int keys widened to longs, so it has the same trie (only ever 7 levels deep for ints)
+ and the same lack of hashing, boxing, and equals() calls.
+
+ Use {@link #asImMap()} to pass it to code that expects an ImMap&lt;Integer,V&gt;.
+ */
+public final class PersistentIntMap<V> {
+
+    @SuppressWarnings("unchecked")
+    private static final PersistentIntMap EMPTY =
+            new PersistentIntMap(PersistentLongMap.empty());
+
+    /** Returns the empty PersistentIntMap (there only needs to be one) */
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() { return (PersistentIntMap<V>) EMPTY; }
+
+    /** Returns a new, empty mutable builder for a PersistentIntMap. */
+    public static <V> TransientIntMap<V> emptyTransient() {
+        return PersistentIntMap.<V>empty().asTransient();
+    }
+
+    /**
+     Returns a new PersistentIntMap of the given keys and their paired values, skipping any null
+     Entries.  In the case of a duplicate key, later values in the input overwrite the earlier ones.
+     A null key throws a NullPointerException.
+     */
+    public static <V> PersistentIntMap<V> of(Iterable<? extends Map.Entry<Integer,V>> kvPairs) {
+        TransientIntMap<V> ret = emptyTransient();
+        if (kvPairs != null) {
+            for (Map.Entry<Integer,V> entry : kvPairs) {
+                if (entry != null) {
+                    ret.assoc(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return ret.persistent();
+    }
+
+    // ========================================= Instance =========================================
+    private final PersistentLongMap<V> m;
+
+    private PersistentIntMap(PersistentLongMap<V> m) { this.m = m; }
+
+    /** The number of keys in this map. */
+    public int size() { return m.size(); }
+
+    /** True if this map has a value (even null) for the given key. */
+    public boolean containsKey(int key) { return m.containsKey(key); }
+
+    /** Returns the value for the given key, or null if there isn't one. */
+    public V get(int key) { return m.get(key); }
+
+    /** Returns the value for the given key, or notFound if there isn't one. */
+    public V getOrElse(int key, V notFound) { return m.getOrElse(key, notFound); }
+
+    /**
+     Returns a new map with the given key and value, or this map if the key was already mapped to
+     that same (==) value.
+     */
+    public PersistentIntMap<V> assoc(int key, V val) {
+        PersistentLongMap<V> ret = m.assoc(key, val);
+        return (ret == m) ? this : new PersistentIntMap<>(ret);
+    }
+
+    /** Returns a new map without the given key, or this map if the key wasn't there. */
+    public PersistentIntMap<V> without(int key) {
+        PersistentLongMap<V> ret = m.without(key);
+        return (ret == m) ? this : new PersistentIntMap<>(ret);
+    }
+
+    /**
+     Returns a mutable builder holding the entries in this map.  This map is unaffected by changes
+     to the builder.
+     */
+    public TransientIntMap<V> asTransient() { return new TransientIntMap<>(m.asTransient()); }
+
+    /**
+     Returns an ImMap view of this map that boxes each key as it's read (and unboxes it for
+     lookups, assoc, and without).  O(1).  Using a null key throws a NullPointerException, except
+     that a null key is never contained in the map.
+     */
+    public ImMap<Integer,V> asImMap() { return new Boxed<>(this); }
+
+    /** Same as the hashCode() of a java.util.Map of the boxed keys and values. */
+    @Override public int hashCode() {
+        int ret = 0;
+        PersistentLongMap.Cursor<V> c = m.cursor();
+        while (c.next()) {
+            ret += ((int) c.key()) ^ Objects.hashCode(c.val());
+        }
+        return ret;
+    }
+
+    /** True if the other object is a PersistentIntMap of equal keys and values. */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        return (other instanceof PersistentIntMap) && m.equals(((PersistentIntMap) other).m);
+    }
+
+    @Override public String toString() {
+        return UnmodIterable.Helpers.toString("PersistentIntMap", asImMap());
+    }
+
+    /** The boxing ImMap adapter returned by asImMap() */
+    private static final class Boxed<V> extends ImMap<Integer,V> {
+        private final PersistentIntMap<V> m;
+
+        private Boxed(PersistentIntMap<V> m) { this.m = m; }
+
+        /** {@inheritDoc} */
+        @Override public int size() { return m.size(); }
+
+        /** {@inheritDoc} */
+        @Override public Option<UnEntry<Integer,V>> entry(Integer key) {
+            if ( (key == null) || !m.containsKey(key) ) { return Option.none(); }
+            UnEntry<Integer,V> ret = Tuple2.of(key, m.get(key));
+            return Option.of(ret);
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean containsKey(Object key) {
+            return (key instanceof Integer) && m.containsKey((Integer) key);
+        }
+
+        /** {@inheritDoc} */
+        @Override public V get(Object key) {
+            return (key instanceof Integer) ? m.get((Integer) key) : null;
+        }
+
+        /** {@inheritDoc} */
+        @Override public ImMap<Integer,V> assoc(Integer key, V val) {
+            PersistentIntMap<V> ret = m.assoc(key, val);
+            return (ret == m) ? this : new Boxed<>(ret);
+        }
+
+        /** {@inheritDoc} */
+        @Override public ImMap<Integer,V> without(Integer key) {
+            if (key == null) { return this; }
+            PersistentIntMap<V> ret = m.without(key);
+            return (ret == m) ? this : new Boxed<>(ret);
+        }
+
+        /** {@inheritDoc} */
+        @Override public ImSet<Integer> keySet() {
+            return PersistentHashSet.of(map(new Function1<UnEntry<Integer,V>,Integer>() {
+                @Override public Integer applyEx(UnEntry<Integer,V> entry) {
+                    return entry.getKey();
+                }
+            }));
+        }
+
+        /** {@inheritDoc} */
+        @Override public UnmodIterator<UnEntry<Integer,V>> iterator() {
+            final PersistentLongMap.Cursor<V> c = m.m.cursor();
+            return new UnmodIterator<UnEntry<Integer,V>>() {
+                @Override public boolean hasNext() { return c.hasNext(); }
+
+                @Override public UnEntry<Integer,V> next() {
+                    if (!c.next()) { throw new NoSuchElementException(); }
+                    return Tuple2.of((int) c.key(), c.val());
+                }
+            };
+        }
+
+        /** Compatible with java.util.Map.  O(1) for another view of an equal PersistentIntMap. */
+        @Override public boolean equals(Object other) {
+            if (this == other) { return true; }
+            if (other instanceof Boxed) { return m.equals(((Boxed) other).m); }
+            if ( !(other instanceof Map) ) { return false; }
+            Map<?,?> that = (Map<?,?>) other;
+            if (that.size() != m.size()) { return false; }
+            try {
+                PersistentLongMap.Cursor<V> c = m.m.cursor();
+                while (c.next()) {
+                    Integer key = (int) c.key();
+                    V value = c.val();
+                    if (value == null) {
+                        if (!(that.get(key) == null && that.containsKey(key))) { return false; }
+                    } else if (!value.equals(that.get(key))) {
+                        return false;
+                    }
+                }
+            } catch (ClassCastException unused) {
+                return false;
+            } catch (NullPointerException unused) {
+                return false;
+            }
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        @Override public int hashCode() { return m.hashCode(); }
+
+        @Override public String toString() { return m.toString(); }
+    }
+
+    /**
+     A mutable builder for a PersistentIntMap.  Like {@link PersistentLongMap.TransientLongMap},
+     this is NOT thread-safe: use it on one thread only, then call {@link #persistent()}.  After
+     that, using it throws an IllegalAccessError.
+     */
+    public static final class TransientIntMap<V> {
+        private final PersistentLongMap.TransientLongMap<V> m;
+
+        private TransientIntMap(PersistentLongMap.TransientLongMap<V> m) { this.m = m; }
+
+        /** The number of keys in this builder. */
+        public int size() { return m.size(); }
+
+        /** True if this builder has a value (even null) for the given key. */
+        public boolean containsKey(int key) { return m.containsKey(key); }
+
+        /** Returns the value for the given key, or null if there isn't one. */
+        public V get(int key) { return m.get(key); }
+
+        /** Returns the value for the given key, or notFound if there isn't one. */
+        public V getOrElse(int key, V notFound) { return m.getOrElse(key, notFound); }
+
+        /**
+         Adds the given key and value (replacing any old value).
+         @return this builder (changed in place) for chaining.
+         */
+        public TransientIntMap<V> assoc(int key, V val) {
+            m.assoc(key, val);
+            return this;
+        }
+
+        /**
+         Removes the given key (if it's there).
+         @return this builder (changed in place) for chaining.
+         */
+        public TransientIntMap<V> without(int key) {
+            m.without(key);
+            return this;
+        }
+
+        /**
+         Returns an immutable PersistentIntMap of all the entries in this builder.  O(1) - it shares
+         all the nodes of this builder (which can't be used any more).
+         */
+        public PersistentIntMap<V> persistent() { return new PersistentIntMap<>(m.persistent()); }
+    }
+}
@@ -0,0 +1,660 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.organicdesign.fp.Option;
+import org.organicdesign.fp.collections.interfaces.UnmodIterable;
+import org.organicdesign.fp.collections.interfaces.UnmodIterator;
+import org.organicdesign.fp.function.Function1;
+import org.organicdesign.fp.tuple.Tuple2;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ An immutable, persistent map from primitive longs to values.  This is a 32-way trie like
+ {@link ChampMap}, except that the bits of the key itself are the path through the trie (5 bits
+ per level, low bits first) and each node stores its keys in a long[].  So there is no hashing,
+ no boxing, no equals(), and no collision nodes: two different keys always part ways by the
+ thirteenth level.
+
+ Like ChampMap, the trie is kept in canonical (compact) form after every without().
+
+ Use {@link #asImMap()} to pass it to code that expects an ImMap&lt;Long,V&gt;.
+ */
+public final class PersistentLongMap<V> {
+
+    // Bits of the key used at each level.
+    private static final int BITS = 5;
+    private static final int LOW_BITS = (1 << BITS) - 1;
+
+    // 64 bits take 13 levels (the last one only uses 4 bits).
+    private static final int MAX_DEPTH = 13;
+
+    private static int mask(long key, int shift) { return (int) (key >>> shift) & LOW_BITS; }
+
+    private static int bitpos(long key, int shift) { return 1 << mask(key, shift); }
+
+    // Returned by find() when the key isn't there, since null is a legal value.
+    private static final Object NOT_FOUND = new Object();
+
+    /** Records what an assoc or without did so the map can keep track of its size. */
+    private static final class Change {
+        boolean sizeChanged;
+    }
+
+    private static final long[] EMPTY_KEYS = new long[0];
+
+    @SuppressWarnings("unchecked")
+    private static final PersistentLongMap EMPTY =
+            new PersistentLongMap(0, new Node(null, 0, 0, EMPTY_KEYS, new Object[0]));
+
+    /** Returns the empty PersistentLongMap (there only needs to be one) */
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentLongMap<V> empty() { return (PersistentLongMap<V>) EMPTY; }
+
+    /** Returns a new, empty mutable builder for a PersistentLongMap. */
+    public static <V> TransientLongMap<V> emptyTransient() {
+        return PersistentLongMap.<V>empty().asTransient();
+    }
+
+    /**
+     Returns a new PersistentLongMap of the given keys and their paired values, skipping any null
+     Entries.  In the case of a duplicate key, later values in the input overwrite the earlier ones.
+     A null key throws a NullPointerException.
+     */
+    public static <V> PersistentLongMap<V> of(Iterable<? extends Map.Entry<Long,V>> kvPairs) {
+        TransientLongMap<V> ret = emptyTransient();
+        if (kvPairs != null) {
+            for (Map.Entry<Long,V> entry : kvPairs) {
+                if (entry != null) {
+                    ret.assoc(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return ret.persistent();
+    }
+
+    // ========================================= Instance =========================================
+    private final int size;
+    private final Node<V> root;
+
+    private PersistentLongMap(int size, Node<V> root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    /** The number of keys in this map. */
+    public int size() { return size; }
+
+    /** True if this map has a value (even null) for the given key. */
+    public boolean containsKey(long key) { return find(root, key) != NOT_FOUND; }
+
+    /** Returns the value for the given key, or null if there isn't one. */
+    public V get(long key) { return getOrElse(key, null); }
+
+    /** Returns the value for the given key, or notFound if there isn't one. */
+    @SuppressWarnings("unchecked")
+    public V getOrElse(long key, V notFound) {
+        Object ret = find(root, key);
+        return (ret == NOT_FOUND) ? notFound : (V) ret;
+    }
+
+    /**
+     Returns a new map with the given key and value, or this map if the key was already mapped to
+     that same (==) value.
+     */
+    public PersistentLongMap<V> assoc(long key, V val) {
+        Change change = new Change();
+        Node<V> newRoot = root.assoc(null, key, val, 0, change);
+        if (newRoot == root) { return this; }
+        return new PersistentLongMap<>(change.sizeChanged ? size + 1 : size, newRoot);
+    }
+
+    /** Returns a new map without the given key, or this map if the key wasn't there. */
+    public PersistentLongMap<V> without(long key) {
+        Node<V> newRoot = root.without(null, key, 0, new Change());
+        if (newRoot == root) { return this; }
+        return new PersistentLongMap<>(size - 1, newRoot);
+    }
+
+    /**
+     Returns a mutable builder holding the entries in this map.  This map is unaffected by changes
+     to the builder.
+     */
+    public TransientLongMap<V> asTransient() {
+        return new TransientLongMap<>(new AtomicReference<>(Thread.currentThread()), root, size);
+    }
+
+    /**
+     Returns an ImMap view of this map that boxes each key as it's read (and unboxes it for
+     lookups, assoc, and without).  O(1).  Using a null key throws a NullPointerException, except
+     that a null key is never contained in the map.
+     */
+    public ImMap<Long,V> asImMap() { return new Boxed<>(this); }
+
+    /** Returns a cursor over the entries in this map. */
+    Cursor<V> cursor() { return new Cursor<>(root); }
+
+    /** Same as the hashCode() of a java.util.Map of the boxed keys and values. */
+    @Override public int hashCode() {
+        int ret = 0;
+        Cursor<V> c = cursor();
+        while (c.next()) {
+            ret += Long.hashCode(c.key()) ^ Objects.hashCode(c.val());
+        }
+        return ret;
+    }
+
+    /** True if the other object is a PersistentLongMap of equal keys and values. */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof PersistentLongMap) ) { return false; }
+        PersistentLongMap<?> that = (PersistentLongMap<?>) other;
+        if (size != that.size) { return false; }
+        Cursor<V> c = cursor();
+        while (c.next()) {
+            Object thatVal = find(that.root, c.key());
+            if ( (thatVal == NOT_FOUND) || !Objects.equals(c.val(), thatVal) ) { return false; }
+        }
+        return true;
+    }
+
+    @Override public String toString() {
+        return UnmodIterable.Helpers.toString("PersistentLongMap", asImMap());
+    }
+
+    /** Returns the value for the key, or NOT_FOUND. */
+    private static Object find(Node<?> node, long key) {
+        int shift = 0;
+        while (true) {
+            int bit = bitpos(key, shift);
+            if ((node.dataMap & bit) != 0) {
+                int idx = node.dataIndex(bit);
+                return (node.keys[idx] == key) ? node.content[idx] : NOT_FOUND;
+            }
+            if ((node.nodeMap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            node = node.nodeAt(node.nodeIndex(bit));
+            shift += BITS;
+        }
+    }
+
+    /** The boxing ImMap adapter returned by asImMap() */
+    private static final class Boxed<V> extends ImMap<Long,V> {
+        private final PersistentLongMap<V> m;
+
+        private Boxed(PersistentLongMap<V> m) { this.m = m; }
+
+        /** {@inheritDoc} */
+        @Override public int size() { return m.size; }
+
+        /** {@inheritDoc} */
+        @Override public Option<UnEntry<Long,V>> entry(Long key) {
+            if (key == null) { return Option.none(); }
+            Object val = find(m.root, key);
+            if (val == NOT_FOUND) { return Option.none(); }
+            @SuppressWarnings("unchecked")
+            UnEntry<Long,V> ret = Tuple2.of(key, (V) val);
+            return Option.of(ret);
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean containsKey(Object key) {
+            return (key instanceof Long) && m.containsKey((Long) key);
+        }
+
+        /** {@inheritDoc} */
+        @Override public V get(Object key) { return (key instanceof Long) ? m.get((Long) key) : null; }
+
+        /** {@inheritDoc} */
+        @Override public ImMap<Long,V> assoc(Long key, V val) {
+            PersistentLongMap<V> ret = m.assoc(key, val);
+            return (ret == m) ? this : new Boxed<>(ret);
+        }
+
+        /** {@inheritDoc} */
+        @Override public ImMap<Long,V> without(Long key) {
+            if (key == null) { return this; }
+            PersistentLongMap<V> ret = m.without(key);
+            return (ret == m) ? this : new Boxed<>(ret);
+        }
+
+        /** {@inheritDoc} */
+        @Override public ImSet<Long> keySet() {
+            return PersistentHashSet.of(map(new Function1<UnEntry<Long,V>,Long>() {
+                @Override public Long applyEx(UnEntry<Long,V> entry) { return entry.getKey(); }
+            }));
+        }
+
+        /** {@inheritDoc} */
+        @Override public UnmodIterator<UnEntry<Long,V>> iterator() {
+            final Cursor<V> c = m.cursor();
+            return new UnmodIterator<UnEntry<Long,V>>() {
+                @Override public boolean hasNext() { return c.hasNext(); }
+
+                @Override public UnEntry<Long,V> next() {
+                    if (!c.next()) { throw new NoSuchElementException(); }
+                    return Tuple2.of(c.key(), c.val());
+                }
+            };
+        }
+
+        /** Compatible with java.util.Map.  O(1) for another view of an equal PersistentLongMap. */
+        @Override public boolean equals(Object other) {
+            if (this == other) { return true; }
+            if (other instanceof Boxed) { return m.equals(((Boxed) other).m); }
+            if ( !(other instanceof Map) ) { return false; }
+            Map<?,?> that = (Map<?,?>) other;
+            if (that.size() != m.size) { return false; }
+            try {
+                Cursor<V> c = m.cursor();
+                while (c.next()) {
+                    Long key = c.key();
+                    V value = c.val();
+                    if (value == null) {
+                        if (!(that.get(key) == null && that.containsKey(key))) { return false; }
+                    } else if (!value.equals(that.get(key))) {
+                        return false;
+                    }
+                }
+            } catch (ClassCastException unused) {
+                return false;
+            } catch (NullPointerException unused) {
+                return false;
+            }
+            return true;
+        }
+
+        /** {@inheritDoc} */
+        @Override public int hashCode() { return m.hashCode(); }
+
+        @Override public String toString() { return m.toString(); }
+    }
+
+    /**
+     A mutable builder for a PersistentLongMap that changes nodes in place instead of copying a path
+     on each assoc or without.  Like {@link PersistentHashMap}'s transient, this is NOT thread-safe:
+     use it on one thread only, then call {@link #persistent()}.  After that, using it throws an
+     IllegalAccessError.
+     */
+    public static final class TransientLongMap<V> {
+        private final AtomicReference<Thread> edit;
+        private Node<V> root;
+        private int size;
+        private final Change change = new Change();
+
+        private TransientLongMap(AtomicReference<Thread> edit, Node<V> root, int size) {
+            this.edit = edit;
+            this.root = root;
+            this.size = size;
+        }
+
+        /** The number of keys in this builder. */
+        public int size() {
+            ensureEditable();
+            return size;
+        }
+
+        /** True if this builder has a value (even null) for the given key. */
+        public boolean containsKey(long key) {
+            ensureEditable();
+            return find(root, key) != NOT_FOUND;
+        }
+
+        /** Returns the value for the given key, or null if there isn't one. */
+        public V get(long key) { return getOrElse(key, null); }
+
+        /** Returns the value for the given key, or notFound if there isn't one. */
+        @SuppressWarnings("unchecked")
+        public V getOrElse(long key, V notFound) {
+            ensureEditable();
+            Object ret = find(root, key);
+            return (ret == NOT_FOUND) ? notFound : (V) ret;
+        }
+
+        /**
+         Adds the given key and value (replacing any old value).
+         @return this builder (changed in place) for chaining.
+         */
+        public TransientLongMap<V> assoc(long key, V val) {
+            ensureEditable();
+            change.sizeChanged = false;
+            root = root.assoc(edit, key, val, 0, change);
+            if (change.sizeChanged) { size++; }
+            return this;
+        }
+
+        /**
+         Removes the given key (if it's there).
+         @return this builder (changed in place) for chaining.
+         */
+        public TransientLongMap<V> without(long key) {
+            ensureEditable();
+            change.sizeChanged = false;
+            root = root.without(edit, key, 0, change);
+            if (change.sizeChanged) { size--; }
+            return this;
+        }
+
+        /**
+         Returns an immutable PersistentLongMap of all the entries in this builder.  O(1) - it shares
+         all the nodes of this builder (which can't be used any more).
+         */
+        public PersistentLongMap<V> persistent() {
+            ensureEditable();
+            edit.set(null);
+            return new PersistentLongMap<>(size, root);
+        }
+
+        private void ensureEditable() {
+            if (edit.get() == null) {
+                throw new IllegalAccessError("Transient used after persistent! call");
+            }
+        }
+    }
+
+    // ========================================== Nodes ==========================================
+
+    private static final class Node<V> {
+        // Every node made by the same transient shares a single atomic reference value, just like
+        // PersistentHashMap.  Persistent nodes have a null edit.
+        private final AtomicReference<Thread> edit;
+        private int dataMap;
+        private int nodeMap;
+        // The keys stored directly in this node, in bit order.
+        private long[] keys;
+        // The value for each key from the front, sub-nodes from the back.
+        private Object[] content;
+
+        Node(AtomicReference<Thread> edit, int dataMap, int nodeMap, long[] keys,
+             Object[] content) {
+            this.edit = edit;
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.keys = keys;
+            this.content = content;
+        }
+
+        private int dataIndex(int bit) { return Integer.bitCount(dataMap & (bit - 1)); }
+
+        private int nodeIndex(int bit) { return Integer.bitCount(nodeMap & (bit - 1)); }
+
+        // Sub-nodes are stored in reverse order from the end of the content array.
+        private int nodeContentIndex(int nodeIdx) { return content.length - 1 - nodeIdx; }
+
+        int dataArity() { return keys.length; }
+
+        int nodeArity() { return Integer.bitCount(nodeMap); }
+
+        @SuppressWarnings("unchecked")
+        V valAt(int i) { return (V) content[i]; }
+
+        @SuppressWarnings("unchecked")
+        Node<V> nodeAt(int i) { return (Node<V>) content[nodeContentIndex(i)]; }
+
+        /** True if this node holds exactly one entry and no sub-nodes. */
+        boolean isSingleton() { return (nodeMap == 0) && (keys.length == 1); }
+
+        private boolean isEditable(AtomicReference<Thread> e) {
+            return (e != null) && (edit == e);
+        }
+
+        /**
+         Returns a node with the given key and value, or this node if nothing changed.  When edit
+         is non-null, nodes owned by that transient are changed in place.
+         */
+        Node<V> assoc(AtomicReference<Thread> e, long key, V val, int shift, Change change) {
+            int bit = bitpos(key, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                long k = keys[idx];
+                if (k == key) {
+                    if (content[idx] == val) { return this; }
+                    return copyAndSet(e, idx, val);
+                }
+                Node<V> sub = mergeTwo(e, k, valAt(idx), key, val, shift + BITS);
+                change.sizeChanged = true;
+                return copyAndMigrateToNode(e, bit, sub);
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node<V> sub = nodeAt(idx);
+                Node<V> newSub = sub.assoc(e, key, val, shift + BITS, change);
+                if (newSub == sub) { return this; }
+                return copyAndSet(e, nodeContentIndex(idx), newSub);
+            }
+            change.sizeChanged = true;
+            return copyAndInsertData(e, bit, key, val);
+        }
+
+        /**
+         Returns a node without the given key, or this node if it wasn't there.  A result holding
+         only one entry has it at its shift-0 position so that it can be inlined by the parent, or
+         returned as the root.
+         */
+        Node<V> without(AtomicReference<Thread> e, long key, int shift, Change change) {
+            int bit = bitpos(key, shift);
+            if ((dataMap & bit) != 0) {
+                int idx = dataIndex(bit);
+                if (keys[idx] != key) { return this; }
+                change.sizeChanged = true;
+                if ( (shift != 0) && (nodeMap == 0) && (keys.length == 2) ) {
+                    // Only one entry will be left.  Put it where the root would want it so that
+                    // our parent can inline it (or use it as the new root).
+                    int other = 1 - idx;
+                    return new Node<>(e, bitpos(keys[other], 0), 0, new long[] { keys[other] },
+                                      new Object[] { content[other] });
+                }
+                return copyAndRemoveData(e, bit);
+            }
+            if ((nodeMap & bit) != 0) {
+                int idx = nodeIndex(bit);
+                Node<V> sub = nodeAt(idx);
+                Node<V> newSub = sub.without(e, key, shift + BITS, change);
+                if (newSub == sub) { return this; }
+                if (newSub.isSingleton()) {
+                    if ( (dataMap == 0) && (nodeArity() == 1) ) {
+                        // This node would only hold that one entry, so pass it up.
+                        return newSub;
+                    }
+                    return copyAndMigrateToData(e, bit, newSub.keys[0], newSub.content[0]);
+                }
+                return copyAndSet(e, nodeContentIndex(idx), newSub);
+            }
+            return this;
+        }
+
+        private Node<V> copyAndSet(AtomicReference<Thread> e, int i, Object o) {
+            if (isEditable(e)) {
+                content[i] = o;
+                return this;
+            }
+            Object[] newContent = content.clone();
+            newContent[i] = o;
+            return new Node<>(e, dataMap, nodeMap, keys, newContent);
+        }
+
+        private Node<V> replace(AtomicReference<Thread> e, int newDataMap, int newNodeMap,
+                                long[] newKeys, Object[] newContent) {
+            if (isEditable(e)) {
+                dataMap = newDataMap;
+                nodeMap = newNodeMap;
+                keys = newKeys;
+                content = newContent;
+                return this;
+            }
+            return new Node<>(e, newDataMap, newNodeMap, newKeys, newContent);
+        }
+
+        private Node<V> copyAndInsertData(AtomicReference<Thread> e, int bit, long key, V val) {
+            int i = dataIndex(bit);
+            long[] newKeys = new long[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            newKeys[i] = key;
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            Object[] newContent = new Object[content.length + 1];
+            System.arraycopy(content, 0, newContent, 0, i);
+            newContent[i] = val;
+            System.arraycopy(content, i, newContent, i + 1, content.length - i);
+            return replace(e, dataMap | bit, nodeMap, newKeys, newContent);
+        }
+
+        private Node<V> copyAndRemoveData(AtomicReference<Thread> e, int bit) {
+            int i = dataIndex(bit);
+            long[] newKeys = removeKey(i);
+            Object[] newContent = new Object[content.length - 1];
+            System.arraycopy(content, 0, newContent, 0, i);
+            System.arraycopy(content, i + 1, newContent, i, content.length - i - 1);
+            return replace(e, dataMap ^ bit, nodeMap, newKeys, newContent);
+        }
+
+        private long[] removeKey(int i) {
+            if (keys.length == 1) { return EMPTY_KEYS; }
+            long[] newKeys = new long[keys.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+            return newKeys;
+        }
+
+        /**
+         Replaces the key/value pair at bit with a sub-node holding it (and another entry).  The
+         content array stays the same length: one value out, one node in.
+         */
+        private Node<V> copyAndMigrateToNode(AtomicReference<Thread> e, int bit, Node<V> sub) {
+            int i = dataIndex(bit);
+            // Index of the new node in the new content array.
+            int nodeIdx = content.length - 1 - nodeIndex(bit);
+            Object[] newContent = new Object[content.length];
+            System.arraycopy(content, 0, newContent, 0, i);
+            System.arraycopy(content, i + 1, newContent, i, nodeIdx - i);
+            newContent[nodeIdx] = sub;
+            System.arraycopy(content, nodeIdx + 1, newContent, nodeIdx + 1,
+                             content.length - nodeIdx - 1);
+            return replace(e, dataMap ^ bit, nodeMap | bit, removeKey(i), newContent);
+        }
+
+        /** Replaces the sub-node at bit with the single key/value pair it held. */
+        private Node<V> copyAndMigrateToData(AtomicReference<Thread> e, int bit, long key,
+                                             Object val) {
+            int i = dataIndex(bit);
+            // Index of the old node in the content array.
+            int nodeIdx = content.length - 1 - nodeIndex(bit);
+            Object[] newContent = new Object[content.length];
+            System.arraycopy(content, 0, newContent, 0, i);
+            newContent[i] = val;
+            System.arraycopy(content, i, newContent, i + 1, nodeIdx - i);
+            System.arraycopy(content, nodeIdx + 1, newContent, nodeIdx + 1,
+                             content.length - nodeIdx - 1);
+            long[] newKeys = new long[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            newKeys[i] = key;
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            return replace(e, dataMap | bit, nodeMap ^ bit, newKeys, newContent);
+        }
+
+        @Override public String toString() {
+            return "Node(" + Integer.toBinaryString(dataMap) + "," +
+                   Integer.toBinaryString(nodeMap) + "," + Arrays.toString(keys) + "," +
+                   Arrays.toString(content) + ")";
+        }
+    }
+
+    /** Makes a node holding both entries, nested as deep as it takes to tell the keys apart. */
+    private static <V> Node<V> mergeTwo(AtomicReference<Thread> e, long k1, V v1, long k2, V v2,
+                                        int shift) {
+        int m1 = mask(k1, shift);
+        int m2 = mask(k2, shift);
+        if (m1 == m2) {
+            Node<V> sub = mergeTwo(e, k1, v1, k2, v2, shift + BITS);
+            return new Node<>(e, 0, 1 << m1, EMPTY_KEYS, new Object[] { sub });
+        }
+        return (m1 < m2)
+               ? new Node<>(e, (1 << m1) | (1 << m2), 0, new long[] { k1, k2 },
+                            new Object[] { v1, v2 })
+               : new Node<>(e, (1 << m1) | (1 << m2), 0, new long[] { k2, k1 },
+                            new Object[] { v2, v1 });
+    }
+
+    /**
+     Walks the trie depth-first with an explicit stack, visiting all the entries stored directly in
+     a node before any of the entries in its sub-nodes.  Call next() to move to each entry, then
+     read it with key() and val() - nothing is boxed or allocated per entry.
+     */
+    static final class Cursor<V> {
+        @SuppressWarnings("unchecked")
+        private final Node<V>[] nodeStack = new Node[MAX_DEPTH];
+        private final int[] nodeCursor = new int[MAX_DEPTH];
+        private int depth = -1;
+
+        private Node<V> dataNode;
+        // The index of the current entry in dataNode.
+        private int dataCursor = -1;
+
+        private Cursor(Node<V> root) {
+            if (root.nodeArity() > 0) {
+                depth = 0;
+                nodeStack[0] = root;
+            }
+            dataNode = root;
+        }
+
+        /** Finds the next node with entries in it, pushing sub-nodes as it goes. */
+        private boolean advance() {
+            while (depth >= 0) {
+                Node<V> node = nodeStack[depth];
+                int i = nodeCursor[depth];
+                if (i < node.nodeArity()) {
+                    nodeCursor[depth] = i + 1;
+                    Node<V> child = node.nodeAt(i);
+                    if (child.nodeArity() > 0) {
+                        depth++;
+                        nodeStack[depth] = child;
+                        nodeCursor[depth] = 0;
+                    }
+                    if (child.dataArity() > 0) {
+                        dataNode = child;
+                        dataCursor = -1;
+                        return true;
+                    }
+                } else {
+                    nodeStack[depth] = null;
+                    depth--;
+                }
+            }
+            return false;
+        }
+
+        /** True if there is another entry after the current one. */
+        boolean hasNext() { return (dataCursor + 1 < dataNode.dataArity()) || advance(); }
+
+        /** Moves to the next entry, returning false if there isn't one. */
+        boolean next() {
+            if (hasNext()) {
+                dataCursor++;
+                return true;
+            }
+            return false;
+        }
+
+        long key() { return dataNode.keys[dataCursor]; }
+
+        V val() { return dataNode.valAt(dataCursor); }
+    }
+}
@@ -31,10 +31,12 @@ import static org.organicdesign.fp.collections.interfaces.UnmodSortedIterable.He
 public class PersistentTreeMap<K,V> extends ImSortedMap<K,V> {
 
     // TODO: Replace with Mutable.Ref, or make methods return Tuple2.
-    private class Box<E> {
-        public E val;
-        public Box(E val) { this.val = val; }
-    }
+    // Returned by add() when the key is already there with the same value, and by remove() when
+    // the key isn't there, so that no-op assoc() and without() calls allocate nothing.
+    private static final Node<?,?> UNCHANGED = new Black<>(null);
+
+    @SuppressWarnings("unchecked")
+    private static <K,V> Node<K,V> unchanged() { return (Node<K,V>) UNCHANGED; }
 
     private final Comparator<? super K> comp;
     private final Node<K,V> tree;
@@ -78,13 +80,7 @@ public class PersistentTreeMap<K,V> extends ImSortedMap<K,V> {
     public static <K extends Comparable<K>,V> PersistentTreeMap<K,V>
     of(Iterable<Map.Entry<K,V>> es) {
         if (es == null) { return empty(); }
-        PersistentTreeMap<K,V> map = new PersistentTreeMap<>(Equator.defaultComparator(), null, 0);
-        for (Map.Entry<K,V> entry : es) {
-            if (entry != null) {
-                map = map.assoc(entry.getKey(), entry.getValue());
-            }
-        }
-        return map;
+        return ofEntries(Equator.<K>defaultComparator(), es);
     }
 
     /**
@@ -104,13 +100,60 @@ public class PersistentTreeMap<K,V> extends ImSortedMap<K,V> {
     public static <K,V> PersistentTreeMap<K,V>
     ofComp(Comparator<? super K> comp, Iterable<Map.Entry<K,V>> kvPairs) {
         if (kvPairs == null) { return new PersistentTreeMap<>(comp, null, 0); }
-        PersistentTreeMap<K,V> map = new PersistentTreeMap<>(comp, null, 0);
-        for (Map.Entry<K,V> entry : kvPairs) {
+        return ofEntries(comp, kvPairs);
+    }
+
+    /**
+     Sorts the given entries (skipping nulls) and builds a balanced tree from them bottom-up, which
+     is much faster than adding them one at a time.  For duplicate keys, the first key is kept with
+     the last value, just as if each entry were assoc'ed in order.
+     */
+    @SuppressWarnings("unchecked")
+    static <K,V> PersistentTreeMap<K,V> ofEntries(final Comparator<? super K> comp,
+                                                  Iterable<? extends Map.Entry<K,V>> entries) {
+        List<Map.Entry<K,V>> sorted = new ArrayList<>();
+        for (Map.Entry<K,V> entry : entries) {
             if (entry != null) {
-                map = map.assoc(entry.getKey(), entry.getValue());
+                sorted.add(entry);
+            }
+        }
+        // This sort is stable, so duplicate keys stay in the order they were given.
+        Collections.sort(sorted, new Comparator<Map.Entry<K,V>>() {
+            @Override public int compare(Map.Entry<K,V> a, Map.Entry<K,V> b) {
+                return comp.compare(a.getKey(), b.getKey());
+            }
+        });
+        Object[] keys = new Object[sorted.size()];
+        Object[] vals = new Object[sorted.size()];
+        int n = 0;
+        for (Map.Entry<K,V> entry : sorted) {
+            if ( (n > 0) && (comp.compare((K) keys[n - 1], entry.getKey()) == 0) ) {
+                vals[n - 1] = entry.getValue();
+            } else {
+                keys[n] = entry.getKey();
+                vals[n] = entry.getValue();
+                n++;
             }
         }
-        return map;
+        if (n == 0) { return new PersistentTreeMap<>(comp, null, 0); }
+        // Every level above the bottom one is full, so making them all black and the (partial)
+        // bottom level red gives every path the same number of black nodes.
+        int redLevel = 31 - Integer.numberOfLeadingZeros(n + 1);
+        return new PersistentTreeMap<>(comp, PersistentTreeMap.<K,V>buildFromSorted(keys, vals, 0, n - 1,
+                                                                                    0, redLevel),
+                                       n);
+    }
+
+    /** Returns a balanced tree of keys[lo] through keys[hi] (inclusive) and their values. */
+    @SuppressWarnings("unchecked")
+    private static <K,V> Node<K,V> buildFromSorted(Object[] keys, Object[] vals, int lo, int hi,
+                                                   int depth, int redLevel) {
+        if (lo > hi) { return null; }
+        int mid = (lo + hi) >>> 1;
+        Node<K,V> left = buildFromSorted(keys, vals, lo, mid - 1, depth + 1, redLevel);
+        Node<K,V> right = buildFromSorted(keys, vals, mid + 1, hi, depth + 1, redLevel);
+        return (depth == redLevel) ? PersistentTreeMap.<K,V,K,V>red((K) keys[mid], (V) vals[mid], left, right)
+                                   : PersistentTreeMap.<K,V,K,V>black((K) keys[mid], (V) vals[mid], left, right);
     }
 
     /**
@@ -398,16 +441,12 @@ public class PersistentTreeMap<K,V> extends ImSortedMap<K,V> {
 
     /** {@inheritDoc} */
     @Override public PersistentTreeMap<K,V> assoc(K key, V val) {
-        Box<Node<K,V>> found = new Box<>(null);
-        Node<K,V> t = add(tree, key, val, found);
-        //null == already contains key
+        Node<K,V> t = add(tree, key, val);
+        if (t == UNCHANGED) {
+            return this;
+        }
+        //null == already contains key with another value
         if (t == null) {
-            Node<K,V> foundNode = found.val;
-
-            //note only get same collection on identity of val, not equals()
-            if (foundNode.val() == val) {
-                return this;
-            }
             return new PersistentTreeMap<>(comp, replace(tree, key, val), size);
         }
         return new PersistentTreeMap<>(comp, t.blacken(), size + 1);
@@ -415,13 +454,11 @@ public class PersistentTreeMap<K,V> extends ImSortedMap<K,V> {
 
     /** {@inheritDoc} */
     @Override public PersistentTreeMap<K,V> without(K key) {
-        Box<Node<K,V>> found = new Box<>(null);
-        Node<K,V> t = remove(tree, key, found);
+        Node<K,V> t = remove(tree, key);
+        if (t == UNCHANGED) {
+            return this;
+        }
         if (t == null) {
-            //null == doesn't contain key
-            if (found.val == null) {
-                return this;
-            }
             //empty
             return new PersistentTreeMap<>(comp, null, 0);
         }
@@ -568,7 +605,7 @@ public class PersistentTreeMap<K,V> extends ImSortedMap<K,V> {
 //        return null; // t; // t is always null
 //    }
 
-    private Node<K,V> add(Node<K,V> t, K key, V val, Box<Node<K,V>> found) {
+    private Node<K,V> add(Node<K,V> t, K key, V val) {
         if (t == null) {
             if (val == null)
                 return new Red<>(key);
@@ -576,28 +613,27 @@ public class PersistentTreeMap<K,V> extends ImSortedMap<K,V> {
         }
         int c = comp.compare(key, t.key);
         if (c == 0) {
-            found.val = t;
-            return null;
+            //note only get same collection on identity of val, not equals()
+            return (t.val() == val) ? PersistentTreeMap.<K,V>unchanged() : null;
         }
-        Node<K,V> ins = c < 0 ? add(t.left(), key, val, found) : add(t.right(), key, val, found);
-        if (ins == null) //found below
-            return null;
+        Node<K,V> ins = c < 0 ? add(t.left(), key, val) : add(t.right(), key, val);
+        if ( (ins == null) || (ins == UNCHANGED) ) //found below
+            return ins;
         if (c < 0)
             return t.addLeft(ins);
         return t.addRight(ins);
     }
 
-    private Node<K,V> remove(Node<K,V> t, K key, Box<Node<K,V>> found) {
+    private Node<K,V> remove(Node<K,V> t, K key) {
         if (t == null)
-            return null; //not found indicator
+            return unchanged(); //not found indicator
         int c = comp.compare(key, t.key);
         if (c == 0) {
-            found.val = t;
             return append(t.left(), t.right());
         }
-        Node<K,V> del = c < 0 ? remove(t.left(), key, found) : remove(t.right(), key, found);
-        if (del == null && found.val == null) //not found below
-            return null;
+        Node<K,V> del = c < 0 ? remove(t.left(), key) : remove(t.right(), key);
+        if (del == UNCHANGED) //not found below
+            return del;
         if (c < 0) {
             if (t.left() instanceof Black)
                 return balanceLeftDel(t.key, t.val(), del, t.right());
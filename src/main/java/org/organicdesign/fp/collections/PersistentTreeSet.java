@@ -14,8 +14,12 @@ import org.organicdesign.fp.collections.interfaces.UnmodIterable;
 import org.organicdesign.fp.collections.interfaces.UnmodMap;
 import org.organicdesign.fp.collections.interfaces.UnmodSortedIterable;
 import org.organicdesign.fp.collections.interfaces.UnmodSortedIterator;
+import org.organicdesign.fp.tuple.Tuple2;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 
 /**
@@ -82,10 +86,15 @@ public class PersistentTreeSet<E> extends ImSortedSet<E> {
      */
     public static <T> PersistentTreeSet<T> ofComp(Comparator<? super T> comp,
                                                   Iterable<T> elements) {
-        PersistentTreeSet<T> ret = new PersistentTreeSet<>(PersistentTreeMap.empty(comp));
-        if (elements == null) { return ret; }
-        for (T element : elements) {
-            ret = ret.put(element);
+        if (elements == null) { return ofComp(comp); }
+        return new PersistentTreeSet<>(PersistentTreeMap.ofEntries(comp, asEntries(elements)));
+    }
+
+    /** Pairs each item with a null value (like put() does) for building the map in one go. */
+    private static <T> List<Map.Entry<T,Object>> asEntries(Iterable<T> items) {
+        List<Map.Entry<T,Object>> ret = new ArrayList<>();
+        for (T item : items) {
+            ret.add(Tuple2.<T,Object>of(item, null));
         }
         return ret;
     }
@@ -94,11 +103,8 @@ public class PersistentTreeSet<E> extends ImSortedSet<E> {
     public static <T extends Comparable<T>> PersistentTreeSet<T> of(Iterable<T> items) {
         // empty() uses default comparator
         if (items == null) { return empty(); }
-        PersistentTreeSet<T> ret = empty();
-        for (T item : items) {
-            ret = ret.put(item);
-        }
-        return ret;
+        return new PersistentTreeSet<>(PersistentTreeMap.ofEntries(Equator.<T>defaultComparator(),
+                                                                   asEntries(items)));
     }
 
     /**
@@ -14,10 +14,17 @@ package org.organicdesign.fp.collections;
 import org.organicdesign.fp.collections.interfaces.UnmodIterable;
 import org.organicdesign.fp.collections.interfaces.UnmodListIterator;
 import org.organicdesign.fp.collections.interfaces.UnmodSortedIterable;
+import org.organicdesign.fp.function.Function2;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 // TODO: http://functionaljava.googlecode.com/svn/artifacts/2.21/javadoc/fj/data/Seq.html
 // TODO: https://sourcegraph.com/github.com/functionaljava/functionaljava@627d9dfa6725bcb301361477fcbc50c6efe77f61/.tree/core/src/main/java/fj/data/Seq.java
@@ -84,27 +91,35 @@ public class PersistentVector<E> extends ImList<E> {
     private final static Node EMPTY_NODE = new Node(NOEDIT, new Object[MAX_NODE_LENGTH]);
 
     public final static PersistentVector<?> EMPTY =
-            new PersistentVector<>(0, NODE_LENGTH_POW_2, EMPTY_NODE, new Object[]{});
+            new PersistentVector<>(0, 0, NODE_LENGTH_POW_2, EMPTY_NODE, new Object[]{});
 
     /** Returns the empty ImList (there only needs to be one) */
     @SuppressWarnings("unchecked")
     public static final <T> PersistentVector<T> empty() { return (PersistentVector<T>) EMPTY; }
 
-    // We could make this public someday.
+    /**
+     Returns a new, empty MutableVector for building a PersistentVector one item at a time without
+     copying a path through the tree on every append.  Call persistent() on it when you're done.
+     */
     @SuppressWarnings("unchecked")
-    private static final <T> MutableVector<T> emptyTransientVector() {
+    public static <T> MutableVector<T> emptyMutable() {
         return (MutableVector<T>) EMPTY.asTransient();
     }
 
     // The number of items in this Vector.
     private final int size;
+    // The tree-index of the first item.  This is 0 unless the vector was made by slice(), take(),
+    // or drop() which share the nodes of another vector without moving its items.  All the math
+    // for walking the tree uses tree-indices (origin + index).
+    private final int origin;
     private final int shift;
     private final Node root;
     private final E[] tail;
 
     /** Constructor */
-    private PersistentVector(int z, int shift, Node root, E[] tail) {
+    private PersistentVector(int z, int origin, int shift, Node root, E[] tail) {
         size = z;
+        this.origin = origin;
         this.shift = shift;
         this.root = root;
         this.tail = tail;
@@ -115,11 +130,7 @@ public class PersistentVector<E> extends ImList<E> {
      method is: {@link org.organicdesign.fp.StaticImports#vec(Object...)}.
      */
     static public <T> PersistentVector<T> ofIter(Iterable<T> items) {
-        MutableVector<T> ret = emptyTransientVector();
-        for (T item : items) {
-            ret = ret.append(item);
-        }
-        return ret.persistent();
+        return PersistentVector.<T>emptyMutable().appendAll(items).persistent();
     }
 
 //    /** Public static factory method. */
@@ -144,41 +155,55 @@ public class PersistentVector<E> extends ImList<E> {
 //        return ret;
 //    }
 
-    // IEditableCollection has this return ITransientCollection<E>,
-    // not TransientVector<E> as this originally returned.
-//    @Override
-    // We could make this public some day, maybe.
-    private MutableVector<E> asTransient() { return new MutableVector<>(this); }
-
-    // Returns the high (gt 5) bits of the index of the last item.
-    // I think this is the index of the start of the last array in the tree.
-    final private int tailoff() {
-        // ((size - 1) / 32) * 32
-        // (Size - 1) is an index into an array because size starts counting from 1 and array indicies start from 0.
+    /**
+     Returns a MutableVector holding the items in this vector for appending and replacing items in
+     place.  This vector is unaffected by changes to the MutableVector.
+     */
+    public MutableVector<E> asTransient() { return new MutableVector<>(this); }
+
+    // Returns the high (gt 5) bits of the tree-index of the last item.
+    // I think this is the tree-index of the start of the last array in the tree.
+    final private int tailoff() { return tailoff(origin + size); }
+
+    // Returns the tree-index of the start of the array holding the item before the given
+    // tree-index.
+    private static int tailoff(int end) {
+        // ((end - 1) / 32) * 32
+        // (end - 1) is an index into an array because size starts counting from 1 and array indicies start from 0.
         // /32 *32 zeroes out the low 5 bits.
-        return (size < MAX_NODE_LENGTH)
+        return (end < MAX_NODE_LENGTH)
                 ? 0
-                : ((size - 1) >>> NODE_LENGTH_POW_2) << NODE_LENGTH_POW_2;
-        // Last line can be replaced with (size -1) & HIGH_BITS
+                : ((end - 1) >>> NODE_LENGTH_POW_2) << NODE_LENGTH_POW_2;
+        // Last line can be replaced with (end -1) & HIGH_BITS
     }
 
-    /** Returns the array (of type E) from the leaf node indicated by the given index. */
+    /**
+     Returns the array (of type E) from the leaf node indicated by the given tree-index (origin +
+     index).
+     */
     @SuppressWarnings("unchecked")
-    E[] leafNodeArrayFor(int i) {
-        // i is the index into this vector.  Each 5 bits represent an index into an array.
+    private E[] leafArrayForTreeIdx(int treeIdx) {
+        // Each 5 bits represent an index into an array.
         // The highest 5 bits (that are less than the shift value) are the index into the top-level array.
         // The lowest 5 bits index the the leaf.  The guts of this method indexes into the array at each level,
         // finally indexing into the leaf node.
+        if (treeIdx >= tailoff()) {
+            return tail;
+        }
+        Node node = root;
+        for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2) {
+            node = (Node) node.array[(treeIdx >>> level) & LOW_BITS];
+        }
+        return (E[]) node.array;
+    }
 
+    /**
+     Returns the array (of type E) from the leaf node indicated by the given index.  The item is at
+     index (i + origin) &amp; 31 of that array (origin is 0 unless this vector was sliced).
+     */
+    E[] leafNodeArrayFor(int i) {
         if (i >= 0 && i < size) {
-            if (i >= tailoff()) {
-                return tail;
-            }
-            Node node = root;
-            for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2) {
-                node = (Node) node.array[(i >>> level) & LOW_BITS];
-            }
-            return (E[]) node.array;
+            return leafArrayForTreeIdx(origin + i);
         }
         throw new IndexOutOfBoundsException();
     }
@@ -186,22 +211,28 @@ public class PersistentVector<E> extends ImList<E> {
     /** Returns the item specified by the given index. */
     @Override public E get(int i) {
         E[] node = leafNodeArrayFor(i);
-        return node[i & LOW_BITS];
+        return node[(origin + i) & LOW_BITS];
     }
 
     /** {@inheritDoc} */
     @SuppressWarnings("unchecked")
     @Override public PersistentVector<E> replace(int i, E val) {
         if (i >= 0 && i < size) {
-            if (i >= tailoff()) {
+            int treeIdx = origin + i;
+            // Replacing an item with itself is a no-op, so return the same vector.
+            if (leafArrayForTreeIdx(treeIdx)[treeIdx & LOW_BITS] == val) {
+                return this;
+            }
+            if (treeIdx >= tailoff()) {
                 Object[] newTail = new Object[tail.length];
                 System.arraycopy(tail, 0, newTail, 0, tail.length);
-                newTail[i & LOW_BITS] = val;
+                newTail[treeIdx & LOW_BITS] = val;
 
-                return new PersistentVector<>(size, shift, root, (E[]) newTail);
+                return new PersistentVector<>(size, origin, shift, root, (E[]) newTail);
             }
 
-            return new PersistentVector<>(size, shift, doAssoc(shift, root, i, val), tail);
+            return new PersistentVector<>(size, origin, shift, doAssoc(shift, root, treeIdx, val),
+                                          tail);
         }
         if (i == size) {
             return append(val);
@@ -219,20 +250,21 @@ public class PersistentVector<E> extends ImList<E> {
      */
     @SuppressWarnings("unchecked")
     @Override public PersistentVector<E> append(E val) {
+        int end = origin + size;
         //room in tail?
         //	if(tail.length < MAX_NODE_LENGTH)
-        if (size - tailoff() < MAX_NODE_LENGTH) {
+        if (end - tailoff() < MAX_NODE_LENGTH) {
             E[] newTail = (E[]) new Object[tail.length + 1];
             System.arraycopy(tail, 0, newTail, 0, tail.length);
             newTail[tail.length] = val;
-            return new PersistentVector<>(size + 1, shift, root, newTail);
+            return new PersistentVector<>(size + 1, origin, shift, root, newTail);
         }
         //full tail, push into tree
         Node newroot;
         Node tailnode = new Node(root.edit, tail);
         int newshift = shift;
         //overflow root?
-        if ((size >>> NODE_LENGTH_POW_2) > (1 << shift)) {
+        if ((end >>> NODE_LENGTH_POW_2) > (1 << shift)) {
             newroot = new Node(root.edit);
             newroot.array[0] = root;
             newroot.array[1] = newPath(root.edit, shift, tailnode);
@@ -240,7 +272,7 @@ public class PersistentVector<E> extends ImList<E> {
         } else {
             newroot = pushTail(shift, root, tailnode);
         }
-        return new PersistentVector<>(size + 1, newshift, newroot, (E[]) new Object[]{val});
+        return new PersistentVector<>(size + 1, origin, newshift, newroot, (E[]) new Object[]{val});
     }
 
     /**
@@ -249,11 +281,7 @@ public class PersistentVector<E> extends ImList<E> {
      * @return a new PersistentVector with the additional items at the end.
      */
     @Override public PersistentVector<E> concat(Iterable<? extends E> items) {
-        MutableVector<E> result = this.asTransient();
-        for (E e : items) {
-            result = result.append(e);
-        }
-        return result.persistent();
+        return this.asTransient().appendAll(items).persistent();
     }
 
     private Node pushTail(int level, Node parent, Node tailnode) {
@@ -261,7 +289,7 @@ public class PersistentVector<E> extends ImList<E> {
         // else does it map to an existing child? -> nodeToInsert = pushNode one more level
         // else alloc new path
         //return  nodeToInsert placed in copy of parent
-        int subidx = ((size - 1) >>> level) & LOW_BITS;
+        int subidx = ((origin + size - 1) >>> level) & LOW_BITS;
         Node ret = new Node(parent.edit, parent.array.clone());
         Node nodeToInsert;
         if (level == NODE_LENGTH_POW_2) {
@@ -279,37 +307,413 @@ public class PersistentVector<E> extends ImList<E> {
     /** {@inheritDoc} */
     @Override public UnmodListIterator<E> listIterator(final int index) {
         return new UnmodListIterator<E>() {
-            private int i = index;
+            // These are tree-indices (origin + index)
+            private int i = origin + index;
             private int base = i - (i % MAX_NODE_LENGTH);
-            private E[] array = (index < size()) ? leafNodeArrayFor(i) : null;
+            private E[] array = (index < size()) ? leafArrayForTreeIdx(i) : null;
 
             /** {@inheritDoc} */
-            @Override public boolean hasNext() { return i < size(); }
+            @Override public boolean hasNext() { return i < origin + size; }
             /** {@inheritDoc} */
-            @Override public boolean hasPrevious() { return i > 0; }
+            @Override public boolean hasPrevious() { return i > origin; }
 
             /** {@inheritDoc} */
             @Override public E next() {
                 if (i - base == MAX_NODE_LENGTH) {
-                    array = leafNodeArrayFor(i);
+                    array = leafArrayForTreeIdx(i);
                     base += MAX_NODE_LENGTH;
                 }
                 return array[i++ & LOW_BITS];
             }
 
             /** {@inheritDoc} */
-            @Override public int nextIndex() { return i; }
+            @Override public int nextIndex() { return i - origin; }
             /** {@inheritDoc} */
             @Override public E previous() {
-                if (i - base == 0) {
-                    array = leafNodeArrayFor(i - 1);
-                    base -= MAX_NODE_LENGTH;
+                if ( (i - base == 0) || (array == null) ) {
+                    array = leafArrayForTreeIdx(i - 1);
+                    base = (i - 1) - ((i - 1) % MAX_NODE_LENGTH);
                 }
                 return array[--i & LOW_BITS];
             }
         };
     }
 
+    /**
+     Walks the leaf arrays of a PersistentVector one at a time so that you can process the items in
+     each one with a simple loop over the array instead of calling hasNext() and next() for every
+     item.  The arrays are the vector's internal storage and are shared with other vectors:
+     NEVER change them!
+
+     <pre><code>PersistentVector.ChunkIterator&lt;String&gt; chunks = vec.chunkIterator();
+while (chunks.hasNext()) {
+    Object[] array = chunks.next();
+    for (int i = chunks.start(); i &lt; chunks.end(); i++) {
+        String item = (String) array[i];
+        ...
+    }
+}</code></pre>
+     */
+    public static final class ChunkIterator<E> {
+        private final PersistentVector<E> v;
+        // The tree-index of the first item in the next chunk.
+        private int treeIdx;
+        private int start = 0;
+        private int end = 0;
+        private int offset = 0;
+
+        private ChunkIterator(PersistentVector<E> v) {
+            this.v = v;
+            treeIdx = v.origin;
+        }
+
+        /** True if there is another chunk. */
+        public boolean hasNext() { return treeIdx < v.origin + v.size; }
+
+        /**
+         Moves to the next chunk and returns its array (read-only!).  The items of the vector in
+         this chunk (all of type E) are at indices start() (inclusive) to end() (exclusive) of this
+         array.  Any other slots in the array don't belong to this vector.
+         */
+        public Object[] next() {
+            if (!hasNext()) { throw new NoSuchElementException(); }
+            Object[] array = v.leafArrayForTreeIdx(treeIdx);
+            int leafStart = treeIdx - (treeIdx & LOW_BITS);
+            int chunkEnd = Math.min(leafStart + MAX_NODE_LENGTH, v.origin + v.size);
+            start = treeIdx - leafStart;
+            end = chunkEnd - leafStart;
+            offset = treeIdx - v.origin;
+            treeIdx = chunkEnd;
+            return array;
+        }
+
+        /** The index (in the array returned by next()) of the first item in the current chunk. */
+        public int start() { return start; }
+
+        /** The index (in the array returned by next()) after the last item in the current chunk. */
+        public int end() { return end; }
+
+        /** The index in the vector of the first item in the current chunk. */
+        public int offset() { return offset; }
+    }
+
+    /**
+     Returns a ChunkIterator over the leaf arrays of this vector, for processing the items a leaf at
+     a time (up to 32 items per chunk).
+     */
+    public ChunkIterator<E> chunkIterator() { return new ChunkIterator<>(this); }
+
+    /**
+     Walks the leaf arrays directly instead of using an Iterator, so this is faster than
+     {@link UnmodIterable#foldLeft(Object, Function2)}. {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    @Override public <B> B foldLeft(B ident, Function2<B,? super E,B> reducer) {
+        if (reducer == null) {
+            throw new IllegalArgumentException("Can't foldLeft with a null reduction function.");
+        }
+        B ret = ident;
+        ChunkIterator<E> chunks = chunkIterator();
+        while (chunks.hasNext()) {
+            Object[] array = chunks.next();
+            for (int i = chunks.start(); i < chunks.end(); i++) {
+                ret = reducer.call(ret, (E) array[i]);
+            }
+        }
+        return ret;
+    }
+
+    /** Folds the items from index lo (inclusive) to hi (exclusive), a leaf array at a time. */
+    @SuppressWarnings("unchecked")
+    private <B> B foldRange(int lo, int hi, B ident, Function2<B,? super E,B> reducer) {
+        B ret = ident;
+        int treeIdx = origin + lo;
+        int treeEnd = origin + hi;
+        while (treeIdx < treeEnd) {
+            Object[] array = leafArrayForTreeIdx(treeIdx);
+            int leafStart = treeIdx - (treeIdx & LOW_BITS);
+            int chunkEnd = Math.min(leafStart + MAX_NODE_LENGTH, treeEnd);
+            for (int i = treeIdx - leafStart; i < chunkEnd - leafStart; i++) {
+                ret = reducer.call(ret, (E) array[i]);
+            }
+            treeIdx = chunkEnd;
+        }
+        return ret;
+    }
+
+    /**
+     A Spliterator over a range of this vector that splits along the boundaries of the nodes in the
+     tree, so that each half is made of whole subtrees (or at least whole leaves) wherever possible.
+     Both halves always know their exact size.
+     */
+    private static final class VecSpliterator<E> implements Spliterator<E> {
+        private final PersistentVector<E> v;
+        // Indices into the vector: the next item, and the one after the last item.
+        private int lo;
+        private final int hi;
+
+        private VecSpliterator(PersistentVector<E> v, int lo, int hi) {
+            this.v = v;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        /** {@inheritDoc} */
+        @Override public boolean tryAdvance(Consumer<? super E> action) {
+            if (action == null) { throw new NullPointerException("action"); }
+            if (lo >= hi) { return false; }
+            action.accept(v.get(lo++));
+            return true;
+        }
+
+        /** Walks the remaining items a leaf array at a time. */
+        @SuppressWarnings("unchecked")
+        @Override public void forEachRemaining(Consumer<? super E> action) {
+            if (action == null) { throw new NullPointerException("action"); }
+            int treeIdx = v.origin + lo;
+            int treeEnd = v.origin + hi;
+            lo = hi;
+            while (treeIdx < treeEnd) {
+                Object[] array = v.leafArrayForTreeIdx(treeIdx);
+                int leafStart = treeIdx - (treeIdx & LOW_BITS);
+                int chunkEnd = Math.min(leafStart + MAX_NODE_LENGTH, treeEnd);
+                for (int i = treeIdx - leafStart; i < chunkEnd - leafStart; i++) {
+                    action.accept((E) array[i]);
+                }
+                treeIdx = chunkEnd;
+            }
+        }
+
+        /**
+         Splits off the first part of the range at the boundary of the biggest node that's near
+         the middle.  Won't split a single leaf (32 items or fewer).
+         */
+        @Override public Spliterator<E> trySplit() {
+            long treeLo = v.origin + lo;
+            long treeHi = v.origin + hi;
+            long mid = (treeLo + treeHi) >>> 1;
+            long quarter = (treeHi - treeLo) >>> 2;
+            for (int level = v.shift; level >= NODE_LENGTH_POW_2; level -= NODE_LENGTH_POW_2) {
+                long unit = 1L << level;
+                // The node boundary at this level nearest to the middle
+                long boundary = ((mid + (unit >>> 1)) / unit) * unit;
+                if ( (boundary > treeLo) && (boundary < treeHi) &&
+                     ( (level == NODE_LENGTH_POW_2) || (Math.abs(boundary - mid) <= quarter) ) ) {
+                    int split = (int) (boundary - v.origin);
+                    VecSpliterator<E> prefix = new VecSpliterator<>(v, lo, split);
+                    lo = split;
+                    return prefix;
+                }
+            }
+            return null;
+        }
+
+        /** {@inheritDoc} */
+        @Override public long estimateSize() { return hi - lo; }
+
+        /** {@inheritDoc} */
+        @Override public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE;
+        }
+    }
+
+    /**
+     Returns a Spliterator that splits this vector along the boundaries of its internal nodes and
+     knows the exact size of every part (SIZED and SUBSIZED) so that parallel streams of this
+     vector divide the work evenly without copying anything.
+     */
+    @Override public Spliterator<E> spliterator() { return new VecSpliterator<>(this, 0, size); }
+
+    // Parts of the vector smaller than this are folded on one thread.
+    private static final int PARALLEL_THRESHOLD = MAX_NODE_LENGTH * MAX_NODE_LENGTH;
+
+    private static final class FoldTask<E,B> extends RecursiveTask<B> {
+        private static final long serialVersionUID = 20261016L;
+        private final VecSpliterator<E> spliterator;
+        private final B identity;
+        private final Function2<B,? super E,B> reducer;
+        private final Function2<B,B,B> combiner;
+
+        private FoldTask(VecSpliterator<E> s, B i, Function2<B,? super E,B> r, Function2<B,B,B> c) {
+            spliterator = s; identity = i; reducer = r; combiner = c;
+        }
+
+        @Override protected B compute() {
+            if (spliterator.estimateSize() > PARALLEL_THRESHOLD) {
+                @SuppressWarnings("unchecked")
+                VecSpliterator<E> left = (VecSpliterator<E>) spliterator.trySplit();
+                if (left != null) {
+                    FoldTask<E,B> leftTask = new FoldTask<>(left, identity, reducer, combiner);
+                    leftTask.fork();
+                    B right = new FoldTask<>(spliterator, identity, reducer, combiner).compute();
+                    return combiner.call(leftTask.join(), right);
+                }
+            }
+            return spliterator.v.foldRange(spliterator.lo, spliterator.hi, identity, reducer);
+        }
+    }
+
+    /**
+     Like foldLeft, but splits the vector into independent subtrees which are folded in parallel on
+     the common ForkJoinPool.  The results of the parts are then combined in order.
+
+     @param identity the starting value for each part.  It must be an identity for the combiner:
+     combiner(identity, x) must equal x.  It is used more than once, so it should be immutable.
+     @param reducer combines the result so far with the next item.  It will be called from many
+     threads at once, so it must be thread-safe (a pure function with no side effects is ideal).
+     @param combiner combines the results of two adjacent parts of the vector (left, right).  It
+     must be associative.
+     @return the combined result of all the items (identity if this vector is empty).
+     */
+    public <B> B parallelFold(B identity, Function2<B,? super E,B> reducer,
+                              Function2<B,B,B> combiner) {
+        return parallelFold(ForkJoinPool.commonPool(), identity, reducer, combiner);
+    }
+
+    /**
+     Same as {@link #parallelFold(Object, Function2, Function2)} but runs on the given
+     ForkJoinPool.
+     */
+    public <B> B parallelFold(ForkJoinPool pool, B identity, Function2<B,? super E,B> reducer,
+                              Function2<B,B,B> combiner) {
+        if (pool == null) { throw new IllegalArgumentException("Can't fold with a null pool."); }
+        if ( (reducer == null) || (combiner == null) ) {
+            throw new IllegalArgumentException("Can't fold with a null reducer or combiner.");
+        }
+        if (size <= PARALLEL_THRESHOLD) {
+            return foldRange(0, size, identity, reducer);
+        }
+        return pool.invoke(new FoldTask<>(new VecSpliterator<>(this, 0, size), identity, reducer,
+                                          combiner));
+    }
+
+    /** This is already an immutable list, so this just returns this vector.  O(1). */
+    @Override public PersistentVector<E> toImList() { return this; }
+
+    /** Copies the leaf arrays into a new ArrayList of exactly the right size. */
+    @SuppressWarnings("unchecked")
+    @Override public List<E> toMutableList() {
+        ArrayList<E> ret = new ArrayList<>(size);
+        ChunkIterator<E> chunks = chunkIterator();
+        while (chunks.hasNext()) {
+            Object[] array = chunks.next();
+            for (int i = chunks.start(); i < chunks.end(); i++) {
+                ret.add((E) array[i]);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     Returns a new PersistentVector of the items from fromIndex (inclusive) to toIndex (exclusive)
+     in O(log n) time.  The new vector shares all the nodes of this one except along its left and
+     right edges.  Unlike the view returned by {@link #subList(int, int)} on most lists, this
+     doesn't hold onto the rest of this vector's tree, so those nodes can be garbage collected.
+
+     @param fromIndex the index of the first item to include
+     @param toIndex the index after the last item to include
+     @return a new PersistentVector of size toIndex - fromIndex
+     */
+    @SuppressWarnings("unchecked")
+    public PersistentVector<E> slice(int fromIndex, int toIndex) {
+        if ( (fromIndex == 0) && (toIndex == size) ) {
+            return this;
+        }
+        // Note that this is an IllegalArgumentException, not IndexOutOfBoundsException in order to
+        // match ArrayList.
+        if (fromIndex > toIndex) {
+            throw new IllegalArgumentException("fromIndex(" + fromIndex + ") > toIndex(" + toIndex +
+                                               ")");
+        }
+        // The text of this matches ArrayList
+        if (fromIndex < 0) { throw new IndexOutOfBoundsException("fromIndex = " + fromIndex); }
+        if (toIndex > size) { throw new IndexOutOfBoundsException("toIndex = " + toIndex); }
+        if (fromIndex == toIndex) { return empty(); }
+
+        int newOrigin = origin + fromIndex;
+        int newEnd = origin + toIndex;
+        int newTailoff = tailoff(newEnd);
+
+        // The leaf holding the new last item becomes the new tail.
+        Object[] newTail = new Object[newEnd - newTailoff];
+        System.arraycopy(leafArrayForTreeIdx(newTailoff), 0, newTail, 0, newTail.length);
+        // Don't hold onto any items before the new first item.
+        for (int i = 0; i < newOrigin - newTailoff; i++) {
+            newTail[i] = null;
+        }
+
+        // Everything is in the tail.
+        if (newTailoff <= newOrigin) {
+            return new PersistentVector<>(toIndex - fromIndex, newOrigin - newTailoff,
+                                          NODE_LENGTH_POW_2, EMPTY_NODE, (E[]) newTail);
+        }
+
+        // Keep only the leaves from newOrigin to newTailoff - 1 in the tree.
+        Node newRoot = trimNode(root, shift, newOrigin, newTailoff - 1);
+        int newShift = shift;
+        // While all the items in the tree are in the same child of the root, that child can be
+        // the root.
+        while ( (newShift > NODE_LENGTH_POW_2) &&
+                ((newOrigin >>> newShift) == ((newTailoff - 1) >>> newShift)) ) {
+            int idx = (newOrigin >>> newShift) & LOW_BITS;
+            newRoot = (Node) newRoot.array[idx];
+            newOrigin -= idx << newShift;
+            newTailoff -= idx << newShift;
+            newShift -= NODE_LENGTH_POW_2;
+        }
+        return new PersistentVector<>(toIndex - fromIndex, newOrigin, newShift, newRoot,
+                                      (E[]) newTail);
+    }
+
+    /**
+     Returns a copy of the node with only the children needed for the items with tree-indices lo
+     through hi (inclusive).  Children between the edges are shared, not copied.
+     */
+    private static Node trimNode(Node node, int level, int lo, int hi) {
+        if (level == 0) {
+            return node;
+        }
+        int loIdx = (lo >>> level) & LOW_BITS;
+        int hiIdx = (hi >>> level) & LOW_BITS;
+        Object[] array = new Object[MAX_NODE_LENGTH];
+        System.arraycopy(node.array, loIdx, array, loIdx, hiIdx - loIdx + 1);
+        int childLevel = level - NODE_LENGTH_POW_2;
+        if (loIdx == hiIdx) {
+            array[loIdx] = trimNode((Node) node.array[loIdx], childLevel, lo, hi);
+        } else {
+            // The left edge keeps everything after lo, the right edge keeps everything before hi.
+            array[loIdx] = trimNode((Node) node.array[loIdx], childLevel, lo, -1);
+            array[hiIdx] = trimNode((Node) node.array[hiIdx], childLevel, 0, hi);
+        }
+        return new Node(node.edit, array);
+    }
+
+    /**
+     Returns a new PersistentVector of the items from fromIndex (inclusive) to toIndex (exclusive),
+     sharing structure with this one.  This is the same as {@link #slice(int, int)}, not a view.
+     */
+    @Override public PersistentVector<E> subList(int fromIndex, int toIndex) {
+        return slice(fromIndex, toIndex);
+    }
+
+    /**
+     Returns the first numItems items of this vector as a new PersistentVector that shares
+     structure with this one.  O(log n) instead of walking the items through a transform.
+     */
+    @Override public PersistentVector<E> take(long numItems) {
+        if (numItems < 0) { throw new IllegalArgumentException("Num items must be >= 0"); }
+        return slice(0, (int) Math.min(numItems, size));
+    }
+
+    /**
+     Returns this vector without its first numItems items as a new PersistentVector that shares
+     structure with this one.  O(log n) instead of walking the items through a transform.
+     */
+    @Override public PersistentVector<E> drop(long numItems) {
+        if (numItems < 0) { throw new IllegalArgumentException("Can't drop less than one item."); }
+        return slice((int) Math.min(numItems, size), size);
+    }
+
 //    Iterator<E> rangedIterator(final int start, final int end) {
 //        return new Iterator<E>() {
 //            int i = start;
@@ -437,6 +841,35 @@ public class PersistentVector<E> extends ImList<E> {
         return UnmodIterable.Helpers.toString("PersistentVector", this);
     }
 
+    /** Adds the nodes and arrays of this vector to the given footprint. */
+    void footprint(Footprint fp) {
+        // size, origin, shift, root, tail
+        fp.add(this, null, Footprint.objectBytes(2, 3), 0, 0);
+        footprintNode(fp, root, shift);
+        fp.add(tail, "Tail", Footprint.arrayBytes(tail.length), tail.length, 0);
+    }
+
+    private static void footprintNode(Footprint fp, Node node, int level) {
+        fp.add(node, (level == 0) ? "Node(leaf)" : "Node(branch)", Footprint.objectBytes(2, 0),
+               0, 0);
+        if (level == 0) {
+            // Leaves in the tree are always full (elements may legitimately be null).
+            fp.add(node.array, null, Footprint.arrayBytes(node.array.length), node.array.length,
+                   0);
+            return;
+        }
+        int empty = 0;
+        for (Object child : node.array) {
+            if (child == null) {
+                empty++;
+            } else {
+                footprintNode(fp, (Node) child, level - NODE_LENGTH_POW_2);
+            }
+        }
+        fp.add(node.array, null, Footprint.arrayBytes(node.array.length), node.array.length,
+               empty);
+    }
+
     private static Node doAssoc(int level, Node node, int i, Object val) {
         Node ret = new Node(node.edit, node.array.clone());
         if (level == 0) {
@@ -468,11 +901,28 @@ public class PersistentVector<E> extends ImList<E> {
 //     */
 //    public static <A> Reduced<A> done(A a) { return new Reduced<>(a); }
 
-    // Implements Counted through ITransientVector<E> -> Indexed<E> -> Counted.
-    private static final class MutableVector<F> {
+    /**
+     A mutable builder for a PersistentVector.  Appending to or replacing items in a MutableVector
+     changes it in place instead of copying the path to the changed leaf the way PersistentVector
+     does, so it's much faster when you have many items to add and you don't need the in-between
+     versions.  Get one from {@link PersistentVector#emptyMutable()} or
+     {@link PersistentVector#asTransient()}, call {@link #append(Object)} etc. as many times as you
+     want, then call {@link #persistent()} to get an immutable PersistentVector.
+
+     A MutableVector is NOT thread-safe and should only be used by one thread (the one that created
+     it).  Do not pass it to another thread or share it - build it, then share the PersistentVector.
+     After persistent() is called, any further use of this MutableVector throws an
+     IllegalAccessError.  This uses the same edit-ownership scheme as Clojure's TransientVector: all
+     the nodes created by this builder point to the same AtomicReference&lt;Thread&gt; which is
+     cleared by persistent() so that they can never be changed again.
+     */
+    public static final class MutableVector<F> {
         // The number of items in this Vector.
         private int size;
 
+        // The tree-index of the first item (see PersistentVector.origin).
+        private final int origin;
+
         private int shift;
 
         // The root node of the data tree inside this vector.
@@ -480,9 +930,9 @@ public class PersistentVector<E> extends ImList<E> {
 
         private F[] tail;
 
-        private MutableVector(int c, int s, Node r, F[] t) { size = c; shift = s; root = r; tail = t; }
+        private MutableVector(int c, int o, int s, Node r, F[] t) { size = c; origin = o; shift = s; root = r; tail = t; }
 
-        private MutableVector(PersistentVector<F> v) { this(v.size, v.shift, editableRoot(v.root), editableTail(v.tail)); }
+        private MutableVector(PersistentVector<F> v) { this(v.size, v.origin, v.shift, editableRoot(v.root), editableTail(v.tail)); }
 
         private Node ensureEditable(Node node) {
             if (node.edit == root.edit)
@@ -498,11 +948,16 @@ public class PersistentVector<E> extends ImList<E> {
             //		tail = editableTail(tail);
         }
 
+        /** The number of items in this MutableVector. */
         public int size() {
             ensureEditable();
             return size;
         }
 
+        /**
+         Returns an immutable PersistentVector of all the items added to this MutableVector.  This is
+         O(1) - it shares all the nodes of this MutableVector (which can't be used any more).
+         */
         @SuppressWarnings("unchecked")
         public PersistentVector<F> persistent() {
             ensureEditable();
@@ -512,15 +967,20 @@ public class PersistentVector<E> extends ImList<E> {
             //			throw new IllegalAccessError("Mutation release by non-owner thread");
             //			}
             root.edit.set(null);
-            F[] trimmedTail = (F[]) new Object[size - tailoff()];
+            F[] trimmedTail = (F[]) new Object[origin + size - tailoff()];
             System.arraycopy(tail, 0, trimmedTail, 0, trimmedTail.length);
-            return new PersistentVector<>(size, shift, root, trimmedTail);
+            return new PersistentVector<>(size, origin, shift, root, trimmedTail);
         }
 
+        /**
+         Adds one item to the end of this MutableVector.
+         @param val the value to add
+         @return this MutableVector (changed in place) for chaining.
+         */
         @SuppressWarnings("unchecked")
         public MutableVector<F> append(F val) {
             ensureEditable();
-            int i = size;
+            int i = origin + size;
             //room in tail?
             if (i - tailoff() < MAX_NODE_LENGTH) {
                 tail[i & LOW_BITS] = val;
@@ -534,7 +994,7 @@ public class PersistentVector<E> extends ImList<E> {
             tail[0] = val;
             int newshift = shift;
             //overflow root?
-            if ((size >>> NODE_LENGTH_POW_2) > (1 << shift)) {
+            if ((i >>> NODE_LENGTH_POW_2) > (1 << shift)) {
                 newroot = new Node(root.edit);
                 newroot.array[0] = root;
                 newroot.array[1] = newPath(root.edit, shift, tailnode);
@@ -547,6 +1007,87 @@ public class PersistentVector<E> extends ImList<E> {
             return this;
         }
 
+        /**
+         Adds all the given items to the end of this MutableVector.  Copies items into the tail
+         array a block at a time instead of one by one.
+         @param items the values to add (may be null, meaning no items)
+         @return this MutableVector (changed in place) for chaining.
+         */
+        public MutableVector<F> appendAll(F[] items) {
+            ensureEditable();
+            if (items == null) { return this; }
+            int i = 0;
+            while (i < items.length) {
+                int tailLen = origin + size - tailoff();
+                if (tailLen == MAX_NODE_LENGTH) {
+                    // Pushes the full tail into the tree.
+                    append(items[i++]);
+                    continue;
+                }
+                int n = Math.min(MAX_NODE_LENGTH - tailLen, items.length - i);
+                System.arraycopy(items, i, tail, tailLen, n);
+                size += n;
+                i += n;
+            }
+            return this;
+        }
+
+        /**
+         Adds all the given items to the end of this MutableVector.
+         @param items the values to add (may be null, meaning no items)
+         @return this MutableVector (changed in place) for chaining.
+         */
+        public MutableVector<F> appendAll(Iterable<? extends F> items) {
+            ensureEditable();
+            if (items == null) { return this; }
+            for (F item : items) {
+                append(item);
+            }
+            return this;
+        }
+
+        /** Returns the item at the given index. */
+        public F get(int i) {
+            ensureEditable();
+            F[] node = leafNodeArrayFor(i);
+            return node[(origin + i) & LOW_BITS];
+        }
+
+        /**
+         Replaces the item at the given index.  Replacing at index size() is the same as append().
+         @param i the index where the value should be stored.
+         @param val the value to store
+         @return this MutableVector (changed in place) for chaining.
+         */
+        public MutableVector<F> replace(int i, F val) {
+            ensureEditable();
+            if (i >= 0 && i < size) {
+                int treeIdx = origin + i;
+                if (treeIdx >= tailoff()) {
+                    tail[treeIdx & LOW_BITS] = val;
+                    return this;
+                }
+
+                root = doAssoc(shift, root, treeIdx, val);
+                return this;
+            } else if (i == size) {
+                return append(val);
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        private Node doAssoc(int level, Node node, int i, Object val) {
+            node = ensureEditable(node);
+            Node ret = node;
+            if (level == 0) {
+                ret.array[i & LOW_BITS] = val;
+            } else {
+                int subidx = (i >>> level) & LOW_BITS;
+                ret.array[subidx] = doAssoc(level - NODE_LENGTH_POW_2, (Node) node.array[subidx], i, val);
+            }
+            return ret;
+        }
+
         // TODO: are these all node<F> or could this return a super-type of F?
         @SuppressWarnings("unchecked")
         private Node pushTail(int level, Node parent, Node tailnode) {
@@ -555,7 +1096,7 @@ public class PersistentVector<E> extends ImList<E> {
             // else alloc new path
             //return  nodeToInsert placed in parent
             parent = ensureEditable(parent);
-            int subidx = ((size - 1) >>> level) & LOW_BITS;
+            int subidx = ((origin + size - 1) >>> level) & LOW_BITS;
             Node ret = parent;
             Node nodeToInsert;
             if (level == NODE_LENGTH_POW_2) {
@@ -570,101 +1111,25 @@ public class PersistentVector<E> extends ImList<E> {
             return ret;
         }
 
-        // Returns the high (gt 5) bits of the index of the last item.
-        // I think this is the index of the start of the last array in the tree.
-        final private int tailoff() {
-            // ((size - 1) / 32) * 32
-            // (Size - 1) is an index into an array because size starts counting from 1 and array indicies start from 0.
-            // /32 *32 zeroes out the low 5 bits.
-            return (size < MAX_NODE_LENGTH)
-                    ? 0
-                    : ((size - 1) >>> NODE_LENGTH_POW_2) << NODE_LENGTH_POW_2;
-            // Last line can be replaced with (size -1) & HIGH_BITS
-        }
-
-//        @SuppressWarnings("unchecked")
-//        private F[] leafNodeArrayFor(int i) {
-//            if (i >= 0 && i < size) {
-//                if (i >= tailoff()) {
-//                    return tail;
-//                }
-//                Node node = root;
-//                for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2) {
-//                    node = (Node) node.array[(i >>> level) & LOW_BITS];
-//                }
-//                return (F[]) node.array;
-//            }
-//            throw new IndexOutOfBoundsException();
-//        }
-
-//        @SuppressWarnings("unchecked")
-//        private F[] editableArrayFor(int i) {
-//            if (i >= 0 && i < size) {
-//                if (i >= tailoff())
-//                    return tail;
-//                Node node = root;
-//                for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2)
-//                    node = ensureEditable((Node) node.array[(i >>> level) & LOW_BITS]);
-//                return (F[]) node.array;
-//            }
-//            throw new IndexOutOfBoundsException();
-//        }
-
-//        public F nth(int i) {
-//            ensureEditable();
-//            F[] node = arrayFor(i);
-//            return node[i & LOW_BITS];
-//        }
-//
-//        public F nth(int i, F notFound) {
-//            if (i >= 0 && i < size())
-//                return nth(i);
-//            return notFound;
-//        }
-//
-//        /** Convenience method for using any class that implements Number as a key. */
-//        public F nth(Number key) { return nth(key.intValue(), null); }
-//
-//        /** Convenience method for using any class that implements Number as a key. */
-//        public F nth(Number key, F notFound) { return nth(key.intValue(), notFound); }
-
-//        public MutableVector<F> insertAt(int i, F val) {
-//            ensureEditable();
-//            if (i >= 0 && i < size) {
-//                if (i >= tailoff()) {
-//                    tail[i & LOW_BITS] = val;
-//                    return this;
-//                }
-//
-//                root = doAssoc(shift, root, i, val);
-//                return this;
-//            } else if (i == size) {
-//                return concat(val);
-//            }
-//            throw new IndexOutOfBoundsException();
-//        }
-
-//        public MutableVector<F> assoc(int key, F val) {
-//            //note - relies on ensureEditable in insertAt
-//            return insertAt(key, val);
-//        }
-//
-//        public MutableVector<F> assoc(Number key, F val) {
-//            return insertAt(key.intValue(), val);
-//        }
+        // Returns the high (gt 5) bits of the tree-index of the last item.
+        // I think this is the tree-index of the start of the last array in the tree.
+        final private int tailoff() { return PersistentVector.tailoff(origin + size); }
 
-//        @SuppressWarnings("unchecked")
-//        private Node doAssoc(int level, Node node, int i, Object val) {
-//            node = ensureEditable(node);
-//            Node ret = node;
-//            if (level == 0) {
-//                ret.array[i & LOW_BITS] = val;
-//            } else {
-//                int subidx = (i >>> level) & LOW_BITS;
-//                ret.array[subidx] = doAssoc(level - NODE_LENGTH_POW_2, (Node) node.array[subidx], i, val);
-//            }
-//            return ret;
-//        }
+        @SuppressWarnings("unchecked")
+        private F[] leafNodeArrayFor(int i) {
+            if (i >= 0 && i < size) {
+                int treeIdx = origin + i;
+                if (treeIdx >= tailoff()) {
+                    return tail;
+                }
+                Node node = root;
+                for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2) {
+                    node = (Node) node.array[(treeIdx >>> level) & LOW_BITS];
+                }
+                return (F[]) node.array;
+            }
+            throw new IndexOutOfBoundsException();
+        }
 
 //        @SuppressWarnings("unchecked")
 //        public MutableVector<F> pop() {
@@ -0,0 +1,216 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ The 32-way trie shared by IntVector, LongVector, and DoubleVector.  This is the same trie (with
+ the same tail optimization and transient edit scheme) as PersistentVector, except that the leaf
+ nodes hold primitive arrays (int[], long[], or double[]) instead of Object[]s.  Everything here
+ works on any kind of leaf array, so each vector only has to deal with reading and writing its own
+ kind of array.
+ */
+final class PrimitiveTrie {
+
+    // Prevent instantiation
+    private PrimitiveTrie() { throw new UnsupportedOperationException("No instantiation"); }
+
+    // There's bit shifting going on here because it's a very fast operation.
+    // Shifting right by 5 is aeons faster than dividing by 32.
+    static final int NODE_LENGTH_POW_2 = 5;
+    static final int MAX_NODE_LENGTH = 1 << NODE_LENGTH_POW_2;
+    static final int LOW_BITS = MAX_NODE_LENGTH - 1;
+
+    static final class Node {
+        // Every node made by the same transient shares a single atomic reference value, just like
+        // PersistentVector.
+        final AtomicReference<Thread> edit;
+
+        // This is either an Object[] of child Nodes (for a branch node) or a primitive array of
+        // items (for a leaf node).
+        final Object array;
+
+        Node(AtomicReference<Thread> edit, Object array) {
+            this.edit = edit;
+            this.array = array;
+        }
+    }
+
+    static final AtomicReference<Thread> NOEDIT = new AtomicReference<>(null);
+
+    static final Node EMPTY_NODE = new Node(NOEDIT, new Object[MAX_NODE_LENGTH]);
+
+    /** Copies a leaf (primitive) array or branch (Object) array to a new array of the given length. */
+    static Object copyOf(Object array, int newLength) {
+        if (array instanceof int[]) {
+            return Arrays.copyOf((int[]) array, newLength);
+        } else if (array instanceof long[]) {
+            return Arrays.copyOf((long[]) array, newLength);
+        } else if (array instanceof double[]) {
+            return Arrays.copyOf((double[]) array, newLength);
+        }
+        return Arrays.copyOf((Object[]) array, newLength);
+    }
+
+    private static int length(Object array) {
+        if (array instanceof int[]) {
+            return ((int[]) array).length;
+        } else if (array instanceof long[]) {
+            return ((long[]) array).length;
+        } else if (array instanceof double[]) {
+            return ((double[]) array).length;
+        }
+        return ((Object[]) array).length;
+    }
+
+    // Returns the high (gt 5) bits of the index of the last item.
+    // This is the index of the start of the tail.
+    static int tailoff(int size) {
+        return (size < MAX_NODE_LENGTH)
+                ? 0
+                : ((size - 1) >>> NODE_LENGTH_POW_2) << NODE_LENGTH_POW_2;
+    }
+
+    /** Returns the leaf array (or the tail) holding the item at index i. */
+    static Object leafArrayFor(Node root, int shift, int size, Object tail, int i) {
+        if (i >= 0 && i < size) {
+            if (i >= tailoff(size)) {
+                return tail;
+            }
+            Node node = root;
+            for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2) {
+                node = (Node) ((Object[]) node.array)[(i >>> level) & LOW_BITS];
+            }
+            return node.array;
+        }
+        throw new IndexOutOfBoundsException("Index: " + i + " Size: " + size);
+    }
+
+    /** Returns a copy of the path to index i, ending in a new leaf with the given array. */
+    static Node replaceLeaf(Node node, int level, int i, Object newLeaf) {
+        if (level == 0) {
+            return new Node(node.edit, newLeaf);
+        }
+        Object[] array = ((Object[]) node.array).clone();
+        int subidx = (i >>> level) & LOW_BITS;
+        array[subidx] = replaceLeaf((Node) array[subidx], level - NODE_LENGTH_POW_2, i, newLeaf);
+        return new Node(node.edit, array);
+    }
+
+    /** True if there's no more room in the tree under the current root for a full tail. */
+    static boolean rootOverflow(int size, int shift) {
+        return (size >>> NODE_LENGTH_POW_2) > (1 << shift);
+    }
+
+    /**
+     Returns a new root with the (full) tail pushed into the tree.  If
+     {@link #rootOverflow(int, int)}, the new root is one level higher.
+     @param size the size of the vector (before adding whatever doesn't fit in the tail).
+     */
+    static Node pushTail(Node root, int shift, int size, Object tail) {
+        Node tailnode = new Node(root.edit, tail);
+        if (rootOverflow(size, shift)) {
+            Object[] array = new Object[MAX_NODE_LENGTH];
+            array[0] = root;
+            array[1] = newPath(root.edit, shift, tailnode);
+            return new Node(root.edit, array);
+        }
+        return pushTail(size, shift, root, tailnode, false);
+    }
+
+    /**
+     Like {@link #pushTail(Node, int, int, Object)}, but changes the nodes owned by the given
+     transient root in place instead of copying them.
+     */
+    static Node pushTailEditable(Node root, int shift, int size, Object tail) {
+        Node tailnode = new Node(root.edit, tail);
+        if (rootOverflow(size, shift)) {
+            Object[] array = new Object[MAX_NODE_LENGTH];
+            array[0] = root;
+            array[1] = newPath(root.edit, shift, tailnode);
+            return new Node(root.edit, array);
+        }
+        return pushTail(size, shift, root, tailnode, true);
+    }
+
+    private static Node pushTail(int size, int level, Node parent, Node tailnode,
+                                 boolean editable) {
+        Node ret = editable ? ensureEditable(tailnode.edit, parent)
+                            : new Node(parent.edit, ((Object[]) parent.array).clone());
+        Object[] array = (Object[]) ret.array;
+        int subidx = ((size - 1) >>> level) & LOW_BITS;
+        Node nodeToInsert;
+        if (level == NODE_LENGTH_POW_2) {
+            nodeToInsert = tailnode;
+        } else {
+            Node child = (Node) array[subidx];
+            nodeToInsert = (child == null)
+                    ? newPath(tailnode.edit, level - NODE_LENGTH_POW_2, tailnode)
+                    : pushTail(size, level - NODE_LENGTH_POW_2, child, tailnode, editable);
+        }
+        array[subidx] = nodeToInsert;
+        return ret;
+    }
+
+    private static Node newPath(AtomicReference<Thread> edit, int level, Node node) {
+        if (level == 0) {
+            return node;
+        }
+        Object[] array = new Object[MAX_NODE_LENGTH];
+        array[0] = newPath(edit, level - NODE_LENGTH_POW_2, node);
+        return new Node(edit, array);
+    }
+
+    /** Returns the node if it belongs to the given transient, or an editable copy of it if not. */
+    static Node ensureEditable(AtomicReference<Thread> edit, Node node) {
+        if (node.edit == edit) {
+            return node;
+        }
+        return new Node(edit, copyOf(node.array, length(node.array)));
+    }
+
+    /**
+     Makes every node on the path to the leaf holding index i editable by the given transient root.
+     Returns the (possibly new) root.  After this, leafArrayFor(i) returns an array that can be
+     changed in place.
+     */
+    static Node editablePath(Node root, int shift, int i) {
+        Node ret = ensureEditable(root.edit, root);
+        Node node = ret;
+        for (int level = shift; level > 0; level -= NODE_LENGTH_POW_2) {
+            Object[] array = (Object[]) node.array;
+            int subidx = (i >>> level) & LOW_BITS;
+            Node child = ensureEditable(root.edit, (Node) array[subidx]);
+            array[subidx] = child;
+            node = child;
+        }
+        return ret;
+    }
+
+    /** Returns a root owned by a new transient on the current thread. */
+    static Node editableRoot(Node node) {
+        return new Node(new AtomicReference<>(Thread.currentThread()),
+                        ((Object[]) node.array).clone());
+    }
+
+    /** Throws an exception if persistent() has been called on the transient with the given root. */
+    static void ensureEditable(Node root) {
+        if (root.edit.get() == null) {
+            throw new IllegalAccessError("Transient used after persistent! call");
+        }
+    }
+}
@@ -0,0 +1,739 @@
+// Copyright 2016 PlanBase Inc. & Glen Peterson
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.organicdesign.fp.collections;
+
+import org.organicdesign.fp.collections.interfaces.UnmodIterable;
+import org.organicdesign.fp.collections.interfaces.UnmodListIterator;
+import org.organicdesign.fp.collections.interfaces.UnmodSortedIterable;
+import org.organicdesign.fp.tuple.Tuple2;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ A Relaxed Radix Balanced Tree (RRB-Tree) after Bagwell and Rompf.  Like PersistentVector, this is a
+ 32-way tree with the items in the leaves, but the nodes don't all have to be full.  Nodes that are
+ not "strict" (every child but the last one completely full) carry a table of cumulative sizes of
+ their children so that get() can still find the right child without scanning the whole tree.  Most
+ nodes stay strict, and get() uses the same bit-shifting as PersistentVector on those.
+
+ Relaxing the tree makes these operations O(log n) instead of O(n):
+ <ul>
+ <li>{@link #join(RrbTree)} (and {@link #concat(Iterable)} of another RrbTree)</li>
+ <li>{@link #split(int)}, {@link #subList(int, int)}, {@link #take(long)} and {@link #drop(long)}
+ which return real RrbTrees that share structure with this one (not views that keep this whole
+ tree in memory)</li>
+ <li>{@link #insert(int, Object)} and {@link #without(int)} anywhere in the list</li>
+ </ul>
+
+ The price is that append() is O(log n) (without PersistentVector's tail optimization) and there is
+ a little more work in get() on relaxed nodes.  If you only ever append to the end, use
+ PersistentVector.  If you split and join large lists, use this.
+
+ When two trees are joined, the children of the nodes along the seam are redistributed as in the
+ concatenation algorithm from the RRB-Tree paper, so that each of those nodes has at most two more
+ children than the minimum needed to hold its items.  That keeps the tree height O(log n) however
+ the tree was built, and keeps get() from scanning more than a few size-table entries past its
+ first guess in a relaxed node.
+ */
+public class RrbTree<E> extends ImList<E> {
+
+    // There's bit shifting going on here because it's a very fast operation.
+    // Shifting right by 5 is aeons faster than dividing by 32.
+    private static final int NODE_LENGTH_POW_2 = 5;
+    private static final int MAX_NODE_LENGTH = 1 << NODE_LENGTH_POW_2;
+
+    // How many more children than the minimum needed a node along a join seam may keep.
+    private static final int EXTRAS = 2;
+
+    private static final Object[] EMPTY_LEAF = new Object[0];
+
+    /**
+     A branch (non-leaf) node.  Leaves are just Object[]s of items.  The children of a branch are
+     either all leaves, or all branches of the same height.
+     */
+    private static final class Branch {
+        final Object[] kids;
+        // The cumulative sizes of the children, or null if this node is strict (all children but
+        // the last are completely full, and all children are strict).
+        final int[] sizes;
+
+        Branch(Object[] kids, int[] sizes) {
+            this.kids = kids;
+            this.sizes = sizes;
+        }
+    }
+
+    /** The maximum number of items a node of the given height can hold. */
+    private static long capacity(int height) {
+        return 1L << (NODE_LENGTH_POW_2 * (height + 1));
+    }
+
+    private static boolean isStrict(Object node, int height) {
+        return (height == 0) || (((Branch) node).sizes == null);
+    }
+
+    /** The number of items in the given node.  O(1) for relaxed nodes, O(height) for strict ones. */
+    private static int sizeOf(Object node, int height) {
+        if (height == 0) {
+            return ((Object[]) node).length;
+        }
+        Branch b = (Branch) node;
+        if (b.sizes != null) {
+            return b.sizes[b.sizes.length - 1];
+        }
+        int last = b.kids.length - 1;
+        return (int) (last * capacity(height - 1)) + sizeOf(b.kids[last], height - 1);
+    }
+
+    /** Makes a branch of the given height out of these children, with a size table if needed. */
+    private static Branch makeBranch(Object[] kids, int height) {
+        int[] sizes = new int[kids.length];
+        boolean strict = true;
+        long fullKid = capacity(height - 1);
+        int total = 0;
+        for (int i = 0; i < kids.length; i++) {
+            int kidSize = sizeOf(kids[i], height - 1);
+            total += kidSize;
+            sizes[i] = total;
+            if ( !isStrict(kids[i], height - 1) ||
+                 ((i < kids.length - 1) && (kidSize != fullKid)) ) {
+                strict = false;
+            }
+        }
+        return new Branch(kids, strict ? null : sizes);
+    }
+
+    /** Returns a single item at the given height (a chain of one-child nodes above a leaf). */
+    private static Object newPath(int height, Object item) {
+        Object node = new Object[] { item };
+        for (int h = 1; h <= height; h++) {
+            node = new Branch(new Object[] { node }, null);
+        }
+        return node;
+    }
+
+    /**
+     Returns the index of the child of this branch that holds item i.  Pass the index relative to
+     this node.
+     */
+    private static int kidIdx(Branch b, int height, int i) {
+        // Each child holds at most 32^height items, so the child can't be any earlier than this.
+        // Relaxed trees can be taller than a strict one of the same size, and past height 6 the
+        // shift would wrap around.
+        int shift = NODE_LENGTH_POW_2 * height;
+        int idx = (shift < Integer.SIZE) ? (i >>> shift) : 0;
+        if (b.sizes != null) {
+            while (b.sizes[idx] <= i) {
+                idx++;
+            }
+        }
+        return idx;
+    }
+
+    /** The number of items in the children before the given child index. */
+    private static int itemsBefore(Branch b, int height, int idx) {
+        if (idx == 0) { return 0; }
+        return (b.sizes == null) ? idx << (NODE_LENGTH_POW_2 * height)
+                                 : b.sizes[idx - 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final RrbTree EMPTY = new RrbTree(EMPTY_LEAF, 0, 0);
+
+    /** Returns the empty RrbTree (there only needs to be one) */
+    @SuppressWarnings("unchecked")
+    public static <T> RrbTree<T> empty() { return (RrbTree<T>) EMPTY; }
+
+    /**
+     Returns a new RrbTree of the given items.  This builds a completely strict tree (just like a
+     PersistentVector) in O(n) time.
+     */
+    public static <T> RrbTree<T> ofIter(Iterable<T> items) {
+        if (items == null) { return empty(); }
+
+        // Fill the leaves
+        Object[] level = new Object[MAX_NODE_LENGTH];
+        int numNodes = 0;
+        Object[] leaf = new Object[MAX_NODE_LENGTH];
+        int leafLen = 0;
+        int size = 0;
+        for (T item : items) {
+            if (leafLen == MAX_NODE_LENGTH) {
+                if (numNodes == level.length) {
+                    level = Arrays.copyOf(level, level.length * 2);
+                }
+                level[numNodes++] = leaf;
+                leaf = new Object[MAX_NODE_LENGTH];
+                leafLen = 0;
+            }
+            leaf[leafLen++] = item;
+            size++;
+        }
+        if (size == 0) { return empty(); }
+        if (numNodes == level.length) {
+            level = Arrays.copyOf(level, level.length + 1);
+        }
+        level[numNodes++] = (leafLen == MAX_NODE_LENGTH) ? leaf : Arrays.copyOf(leaf, leafLen);
+
+        // Group each level into strict branches until there's only one node.
+        int height = 0;
+        while (numNodes > 1) {
+            int numParents = 0;
+            for (int i = 0; i < numNodes; i += MAX_NODE_LENGTH) {
+                int end = Math.min(i + MAX_NODE_LENGTH, numNodes);
+                level[numParents++] = new Branch(Arrays.copyOfRange(level, i, end), null);
+            }
+            numNodes = numParents;
+            height++;
+        }
+        return new RrbTree<>(level[0], height, size);
+    }
+
+    // ========================================= Instance =========================================
+
+    // Either a leaf (Object[]) when height == 0, or a Branch.
+    private final Object root;
+    private final int height;
+    private final int size;
+
+    private RrbTree(Object root, int height, int size) {
+        this.root = root;
+        this.height = height;
+        this.size = size;
+    }
+
+    /** The height of the tree (0 means the root is a leaf).  For testing. */
+    int height() { return height; }
+
+    /** Returns a tree of the given root, with any single-child nodes removed from the top. */
+    private static <T> RrbTree<T> collapse(Object root, int height, int size) {
+        if (size == 0) { return empty(); }
+        while ( (height > 0) && (((Branch) root).kids.length == 1) ) {
+            root = ((Branch) root).kids[0];
+            height--;
+        }
+        return new RrbTree<>(root, height, size);
+    }
+
+    /** {@inheritDoc} */
+    @Override public int size() { return size; }
+
+    /** Returns the item specified by the given index. */
+    @SuppressWarnings("unchecked")
+    @Override public E get(int i) {
+        if ( (i < 0) || (i >= size) ) {
+            throw new IndexOutOfBoundsException("Index: " + i + " Size: " + size);
+        }
+        Object node = root;
+        for (int h = height; h > 0; h--) {
+            Branch b = (Branch) node;
+            int idx = kidIdx(b, h, i);
+            i -= itemsBefore(b, h, idx);
+            node = b.kids[idx];
+        }
+        return (E) ((Object[]) node)[i];
+    }
+
+    /**
+     Returns the leaf holding the item at the given index and puts the index of the first item in
+     that leaf in start[0].
+     */
+    private Object[] leafFor(int i, int[] start) {
+        int base = 0;
+        Object node = root;
+        for (int h = height; h > 0; h--) {
+            Branch b = (Branch) node;
+            int idx = kidIdx(b, h, i - base);
+            base += itemsBefore(b, h, idx);
+            node = b.kids[idx];
+        }
+        start[0] = base;
+        return (Object[]) node;
+    }
+
+    /**
+     Adds one item to the end of the RrbTree.  This is O(log n) - use a PersistentVector if you
+     mostly append.
+     */
+    @Override public RrbTree<E> append(E e) {
+        if (size == 0) {
+            return new RrbTree<>(new Object[] { e }, 0, 1);
+        }
+        Object newRoot = appendNode(root, height, e);
+        if (newRoot != null) {
+            return new RrbTree<>(newRoot, height, size + 1);
+        }
+        // Root overflow
+        return new RrbTree<>(makeBranch(new Object[] { root, newPath(height, e) }, height + 1),
+                             height + 1, size + 1);
+    }
+
+    /** Returns a copy of the node with the item added at the end, or null if it's full. */
+    private static Object appendNode(Object node, int height, Object item) {
+        if (height == 0) {
+            Object[] leaf = (Object[]) node;
+            if (leaf.length == MAX_NODE_LENGTH) {
+                return null;
+            }
+            Object[] newLeaf = Arrays.copyOf(leaf, leaf.length + 1);
+            newLeaf[leaf.length] = item;
+            return newLeaf;
+        }
+        Branch b = (Branch) node;
+        int last = b.kids.length - 1;
+        Object newKid = appendNode(b.kids[last], height - 1, item);
+        if (newKid != null) {
+            Object[] kids = b.kids.clone();
+            kids[last] = newKid;
+            int[] sizes = null;
+            if (b.sizes != null) {
+                sizes = b.sizes.clone();
+                sizes[last]++;
+            }
+            return new Branch(kids, sizes);
+        }
+        if (b.kids.length == MAX_NODE_LENGTH) {
+            return null;
+        }
+        Object[] kids = Arrays.copyOf(b.kids, b.kids.length + 1);
+        kids[b.kids.length] = newPath(height - 1, item);
+        return makeBranch(kids, height);
+    }
+
+    /**
+     Replace the item at the given index.  Unlike PersistentVector, replacing at index size() is
+     an error, not an append.
+
+     @param i the index where the value should be stored.
+     @param e the value to store
+     @return a new RrbTree with the replaced item
+     */
+    @Override public RrbTree<E> replace(int i, E e) {
+        if ( (i < 0) || (i >= size) ) {
+            throw new IndexOutOfBoundsException("Index: " + i + " Size: " + size);
+        }
+        if (get(i) == e) {
+            return this;
+        }
+        return new RrbTree<>(replaceNode(root, height, i, e), height, size);
+    }
+
+    private static Object replaceNode(Object node, int height, int i, Object item) {
+        if (height == 0) {
+            Object[] leaf = ((Object[]) node).clone();
+            leaf[i] = item;
+            return leaf;
+        }
+        Branch b = (Branch) node;
+        int idx = kidIdx(b, height, i);
+        Object[] kids = b.kids.clone();
+        kids[idx] = replaceNode(kids[idx], height - 1, i - itemsBefore(b, height, idx), item);
+        return new Branch(kids, b.sizes);
+    }
+
+    // ======================================== Split/Join ========================================
+
+    /**
+     Returns a new RrbTree with all the items in this one followed by all the items in that one.
+     O(log n) and shares nodes with both.
+     */
+    public RrbTree<E> join(RrbTree<? extends E> that) {
+        if ( (that == null) || (that.size == 0) ) { return this; }
+        @SuppressWarnings("unchecked")
+        RrbTree<E> other = (RrbTree<E>) that;
+        if (size == 0) { return other; }
+
+        Object[] joined = join(root, height, other.root, other.height);
+        int h = Math.max(height, other.height);
+        if (joined.length == 1) {
+            return collapse(joined[0], h, size + other.size);
+        }
+        return new RrbTree<>(makeBranch(joined, h + 1), h + 1, size + other.size);
+    }
+
+    /**
+     Joins two non-empty nodes of the given heights.  Returns one node, or two if the result is too
+     big for one, of height max(leftHeight, rightHeight).
+     */
+    private static Object[] join(Object left, int leftHeight, Object right, int rightHeight) {
+        if (leftHeight > rightHeight) {
+            // Join the right tree to the right edge of the left one.
+            Branch l = (Branch) left;
+            int n = l.kids.length;
+            Object[] merged = join(l.kids[n - 1], leftHeight - 1, right, rightHeight);
+            Object[] kids = new Object[n - 1 + merged.length];
+            System.arraycopy(l.kids, 0, kids, 0, n - 1);
+            System.arraycopy(merged, 0, kids, n - 1, merged.length);
+            return rebalance(kids, leftHeight);
+        }
+        if (leftHeight < rightHeight) {
+            // Join the left tree to the left edge of the right one.
+            Branch r = (Branch) right;
+            int n = r.kids.length;
+            Object[] merged = join(left, leftHeight, r.kids[0], rightHeight - 1);
+            Object[] kids = new Object[merged.length + n - 1];
+            System.arraycopy(merged, 0, kids, 0, merged.length);
+            System.arraycopy(r.kids, 1, kids, merged.length, n - 1);
+            return rebalance(kids, rightHeight);
+        }
+        if (leftHeight == 0) {
+            Object[] l = (Object[]) left;
+            Object[] r = (Object[]) right;
+            if (l.length + r.length > MAX_NODE_LENGTH) {
+                return new Object[] { l, r };
+            }
+            Object[] leaf = Arrays.copyOf(l, l.length + r.length);
+            System.arraycopy(r, 0, leaf, l.length, r.length);
+            return new Object[] { leaf };
+        }
+        // Same height: merge the nodes along the seam, then put the edges of both trees around
+        // them.
+        Branch l = (Branch) left;
+        Branch r = (Branch) right;
+        int nl = l.kids.length;
+        int nr = r.kids.length;
+        Object[] merged = join(l.kids[nl - 1], leftHeight - 1, r.kids[0], leftHeight - 1);
+        Object[] kids = new Object[nl - 1 + merged.length + nr - 1];
+        System.arraycopy(l.kids, 0, kids, 0, nl - 1);
+        System.arraycopy(merged, 0, kids, nl - 1, merged.length);
+        System.arraycopy(r.kids, 1, kids, nl - 1 + merged.length, nr - 1);
+        return rebalance(kids, leftHeight);
+    }
+
+    /** The children of a branch, or the items in a leaf. */
+    private static Object[] slots(Object node, int height) {
+        return (height == 0) ? (Object[]) node : ((Branch) node).kids;
+    }
+
+    /**
+     Redistributes the children of the given nodes (which are one level below the given height) so
+     that there are at most EXTRAS more nodes than it takes to hold all their children, then returns
+     one or two branches of the given height holding them.  This is the concatenation plan from the
+     RRB-Tree paper: short nodes are merged into the ones after them until there are few enough.
+     Nodes that don't change are shared, not copied.
+     */
+    private static Object[] rebalance(Object[] kids, int height) {
+        int kidHeight = height - 1;
+        int n = kids.length;
+        int[] plan = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            plan[i] = slots(kids[i], kidHeight).length;
+            total += plan[i];
+        }
+        int optimal = ((total - 1) >> NODE_LENGTH_POW_2) + 1;
+        if (n <= optimal + EXTRAS) {
+            return branches(kids, height);
+        }
+
+        int i = 0;
+        while (n > optimal + EXTRAS) {
+            // Skip the nodes that are full (or close enough).
+            while (plan[i] > MAX_NODE_LENGTH - (EXTRAS / 2)) {
+                i++;
+            }
+            // Spread this short node over the ones after it until one of them has room for the
+            // rest.  There are enough short nodes that this never runs off the end.
+            int remaining = plan[i];
+            do {
+                int merged = Math.min(remaining + plan[i + 1], MAX_NODE_LENGTH);
+                remaining = remaining + plan[i + 1] - merged;
+                plan[i] = merged;
+                i++;
+            } while (remaining > 0);
+            System.arraycopy(plan, i + 1, plan, i, n - i - 1);
+            n--;
+            i--;
+        }
+
+        // Refill the nodes according to the plan.
+        Object[] newKids = new Object[n];
+        int src = 0;
+        int offset = 0;
+        for (int j = 0; j < n; j++) {
+            if ( (offset == 0) && (slots(kids[src], kidHeight).length == plan[j]) ) {
+                newKids[j] = kids[src++];
+                continue;
+            }
+            Object[] node = new Object[plan[j]];
+            int filled = 0;
+            while (filled < node.length) {
+                Object[] from = slots(kids[src], kidHeight);
+                int count = Math.min(node.length - filled, from.length - offset);
+                System.arraycopy(from, offset, node, filled, count);
+                filled += count;
+                offset += count;
+                if (offset == from.length) {
+                    src++;
+                    offset = 0;
+                }
+            }
+            newKids[j] = (kidHeight == 0) ? node : makeBranch(node, kidHeight);
+        }
+        return branches(newKids, height);
+    }
+
+    /**
+     Returns one branch with the given children, or two if there are too many children for one.
+     When there are two, the first is full so that any partly-full node is on the right edge.
+     */
+    private static Object[] branches(Object[] kids, int height) {
+        if (kids.length <= MAX_NODE_LENGTH) {
+            return new Object[] { makeBranch(kids, height) };
+        }
+        return new Object[] {
+                makeBranch(Arrays.copyOf(kids, MAX_NODE_LENGTH), height),
+                makeBranch(Arrays.copyOfRange(kids, MAX_NODE_LENGTH, kids.length), height) };
+    }
+
+    /**
+     Splits this tree into two at the given index: the items before it and the items from there to
+     the end.  O(log n), and both halves share nodes with this tree.
+
+     @param splitIndex the index of the first item in the second tree (0 through size() inclusive)
+     @return the items before the index and the items at and after it.
+     */
+    public Tuple2<RrbTree<E>,RrbTree<E>> split(int splitIndex) {
+        if ( (splitIndex < 0) || (splitIndex > size) ) {
+            throw new IndexOutOfBoundsException("Index: " + splitIndex + " Size: " + size);
+        }
+        return Tuple2.of(take(splitIndex), drop(splitIndex));
+    }
+
+    /**
+     Returns the first numItems items of this tree as a new tree sharing structure with this one.
+     O(log n).
+     */
+    @Override public RrbTree<E> take(long numItems) {
+        if (numItems < 0) { throw new IllegalArgumentException("Num items must be >= 0"); }
+        if (numItems >= size) { return this; }
+        if (numItems == 0) { return empty(); }
+        int n = (int) numItems;
+        return collapse(takeNode(root, height, n), height, n);
+    }
+
+    /**
+     Returns this tree without its first numItems items as a new tree sharing structure with this
+     one.  O(log n).
+     */
+    @Override public RrbTree<E> drop(long numItems) {
+        if (numItems < 0) { throw new IllegalArgumentException("Can't drop less than one item."); }
+        if (numItems == 0) { return this; }
+        if (numItems >= size) { return empty(); }
+        int n = (int) numItems;
+        return collapse(dropNode(root, height, n), height, size - n);
+    }
+
+    /** Returns the first n items of this (non-empty) node, where 0 &lt; n &lt;= sizeOf(node) */
+    private static Object takeNode(Object node, int height, int n) {
+        if (height == 0) {
+            Object[] leaf = (Object[]) node;
+            return (n == leaf.length) ? leaf : Arrays.copyOf(leaf, n);
+        }
+        Branch b = (Branch) node;
+        int idx = kidIdx(b, height, n - 1);
+        int before = itemsBefore(b, height, idx);
+        Object[] kids = Arrays.copyOf(b.kids, idx + 1);
+        kids[idx] = takeNode(b.kids[idx], height - 1, n - before);
+        // A prefix of a strict node is still strict.
+        int[] sizes = null;
+        if (b.sizes != null) {
+            sizes = Arrays.copyOf(b.sizes, idx + 1);
+            sizes[idx] = n;
+        }
+        return new Branch(kids, sizes);
+    }
+
+    /** Returns this node without its first n items, where 0 &lt;= n &lt; sizeOf(node) */
+    private static Object dropNode(Object node, int height, int n) {
+        if (n == 0) {
+            return node;
+        }
+        if (height == 0) {
+            Object[] leaf = (Object[]) node;
+            return Arrays.copyOfRange(leaf, n, leaf.length);
+        }
+        Branch b = (Branch) node;
+        int idx = kidIdx(b, height, n);
+        int before = itemsBefore(b, height, idx);
+        int numKids = b.kids.length - idx;
+        Object[] kids = new Object[numKids];
+        kids[0] = dropNode(b.kids[idx], height - 1, n - before);
+        System.arraycopy(b.kids, idx + 1, kids, 1, numKids - 1);
+
+        // The first child is no longer full, so this node is relaxed.
+        int[] sizes = new int[numKids];
+        if (b.sizes != null) {
+            for (int j = 0; j < numKids; j++) {
+                sizes[j] = b.sizes[idx + j] - n;
+            }
+        } else {
+            int shift = NODE_LENGTH_POW_2 * height;
+            for (int j = 0; j < numKids - 1; j++) {
+                sizes[j] = ((idx + j + 1) << shift) - n;
+            }
+            sizes[numKids - 1] = sizeOf(b, height) - n;
+        }
+        return new Branch(kids, sizes);
+    }
+
+    /**
+     Inserts an item at the given index, shifting that item and all later items one to the right.
+     O(log n).
+
+     @param i the index to insert at (0 through size() inclusive)
+     @param e the value to insert
+     @return a new RrbTree with the additional item.
+     */
+    public RrbTree<E> insert(int i, E e) {
+        if ( (i < 0) || (i > size) ) {
+            throw new IndexOutOfBoundsException("Index: " + i + " Size: " + size);
+        }
+        if (i == size) {
+            return append(e);
+        }
+        RrbTree<E> single = new RrbTree<>(new Object[] { e }, 0, 1);
+        if (i == 0) {
+            return single.join(this);
+        }
+        return take(i).append(e).join(drop(i));
+    }
+
+    /**
+     Removes the item at the given index, shifting all later items one to the left.  O(log n).
+
+     @param i the index of the item to remove
+     @return a new RrbTree without that item.
+     */
+    public RrbTree<E> without(int i) {
+        if ( (i < 0) || (i >= size) ) {
+            throw new IndexOutOfBoundsException("Index: " + i + " Size: " + size);
+        }
+        return take(i).join(drop(i + 1));
+    }
+
+    /**
+     Adds the items to the end of this tree.  If the items are another RrbTree, this is O(log n).
+     Otherwise, it's O(m) where m is the number of items added, plus O(log n).
+     */
+    @SuppressWarnings("unchecked")
+    @Override public RrbTree<E> concat(Iterable<? extends E> items) {
+        if (items instanceof RrbTree) {
+            return join((RrbTree<? extends E>) items);
+        }
+        return join(ofIter((Iterable<E>) items));
+    }
+
+    /**
+     Returns a new RrbTree of the given range of items, sharing structure with this one.  Unlike
+     the default implementation, this is not a view, so it doesn't keep the rest of this tree in
+     memory.  O(log n).
+     */
+    @Override public RrbTree<E> subList(int fromIndex, int toIndex) {
+        if ( (fromIndex == 0) && (toIndex == size) ) {
+            return this;
+        }
+        // Note that this is an IllegalArgumentException, not IndexOutOfBoundsException in order to
+        // match ArrayList.
+        if (fromIndex > toIndex) {
+            throw new IllegalArgumentException("fromIndex(" + fromIndex + ") > toIndex(" + toIndex +
+                                               ")");
+        }
+        // The text of this matches ArrayList
+        if (fromIndex < 0) { throw new IndexOutOfBoundsException("fromIndex = " + fromIndex); }
+        if (toIndex > size) { throw new IndexOutOfBoundsException("toIndex = " + toIndex); }
+
+        return take(toIndex).drop(fromIndex);
+    }
+
+    // ========================================= Iteration =========================================
+
+    /** {@inheritDoc} */
+    @Override public UnmodListIterator<E> listIterator(final int index) {
+        if ( (index < 0) || (index > size) ) {
+            throw new IndexOutOfBoundsException("Index: " + index + " Size: " + size);
+        }
+        return new UnmodListIterator<E>() {
+            private int i = index;
+            // The current leaf holds items leafStart through leafStart + leaf.length - 1
+            private Object[] leaf = EMPTY_LEAF;
+            private int leafStart = 0;
+            private final int[] start = new int[1];
+
+            private void loadLeaf(int j) {
+                leaf = leafFor(j, start);
+                leafStart = start[0];
+            }
+
+            /** {@inheritDoc} */
+            @Override public boolean hasNext() { return i < size; }
+            /** {@inheritDoc} */
+            @Override public boolean hasPrevious() { return i > 0; }
+
+            /** {@inheritDoc} */
+            @SuppressWarnings("unchecked")
+            @Override public E next() {
+                if (i >= size) { throw new NoSuchElementException(); }
+                if ( (i < leafStart) || (i >= leafStart + leaf.length) ) {
+                    loadLeaf(i);
+                }
+                return (E) leaf[i++ - leafStart];
+            }
+
+            /** {@inheritDoc} */
+            @Override public int nextIndex() { return i; }
+
+            /** {@inheritDoc} */
+            @SuppressWarnings("unchecked")
+            @Override public E previous() {
+                if (i <= 0) { throw new NoSuchElementException(); }
+                int j = i - 1;
+                if ( (j < leafStart) || (j >= leafStart + leaf.length) ) {
+                    loadLeaf(j);
+                }
+                i = j;
+                return (E) leaf[j - leafStart];
+            }
+        };
+    }
+
+    /** This is correct, but O(n).  This implementation is compatible with java.util.AbstractList. */
+    @Override public int hashCode() {
+        int ret = 1;
+        for (E item : this) {
+            ret *= 31;
+            if (item != null) {
+                ret += item.hashCode();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     This is correct, but definitely O(n), same as java.util.ArrayList.
+     This implementation is compatible with java.util.AbstractList.
+     */
+    @Override public boolean equals(Object other) {
+        if (this == other) { return true; }
+        if ( !(other instanceof List) ) { return false; }
+        List that = (List) other;
+        return (this.size() == that.size()) &&
+               UnmodSortedIterable.Helpers.equals2(this, UnmodSortedIterable.Helpers.castFromList(that));
+    }
+
+    @Override public String toString() { return UnmodIterable.Helpers.toString("RrbTree", this); }
+}
@@ -16,6 +16,7 @@ package org.organicdesign.fp.xform;
 
 import org.organicdesign.fp.collections.ImList;
 import org.organicdesign.fp.collections.ImMap;
+import org.organicdesign.fp.collections.ImMapTrans;
 import org.organicdesign.fp.collections.ImSet;
 import org.organicdesign.fp.collections.ImSortedMap;
 import org.organicdesign.fp.collections.ImSortedSet;
@@ -168,12 +169,15 @@ public interface Transformable<T> {
      Realize a thread-safe immutable list to access items quickly O(log32 n) by index.
      */
     default ImList<T> toImList() {
-        return foldLeft(PersistentVector.<T>empty(), new Function2<ImList<T>, T, ImList<T>>() {
-            @Override
-            public ImList<T> applyEx(ImList<T> objects, T t) throws Exception {
-                return objects.append(t);
-            }
-        });
+        return foldLeft(PersistentVector.<T>emptyMutable(),
+                new Function2<PersistentVector.MutableVector<T>, T,
+                        PersistentVector.MutableVector<T>>() {
+                    @Override
+                    public PersistentVector.MutableVector<T> applyEx(
+                            PersistentVector.MutableVector<T> objects, T t) throws Exception {
+                        return objects.append(t);
+                    }
+                }).persistent();
     }
 
     /**
@@ -189,13 +193,14 @@ public interface Transformable<T> {
      @return An immutable map
      */
     default <K,V> ImMap<K,V> toImMap(final Function1<? super T,Map.Entry<K,V>> f1) {
-        return foldLeft(PersistentHashMap.<K, V>empty(),
-                new Function2<ImMap<K, V>, T, ImMap<K, V>>() {
+        return foldLeft(PersistentHashMap.<K, V>empty().asTransient(),
+                new Function2<ImMapTrans<K, V>, T, ImMapTrans<K, V>>() {
                     @Override
-                    public ImMap<K, V> applyEx(ImMap<K, V> ts, T t) throws Exception {
-                        return ts.assoc(f1.call(t));
+                    public ImMapTrans<K, V> applyEx(ImMapTrans<K, V> ts, T t) throws Exception {
+                        Map.Entry<K,V> entry = f1.call(t);
+                        return ts.assoc(entry.getKey(), entry.getValue());
                     }
-                });
+                }).persistent();
     }
 
     /**
@@ -206,12 +211,15 @@ public interface Transformable<T> {
      @return An immutable set (with duplicates removed)
      */
     default ImSet<T> toImSet() {
-        return foldLeft(PersistentHashSet.<T>empty(), new Function2<ImSet<T>, T, ImSet<T>>() {
-            @Override
-            public ImSet<T> applyEx(ImSet<T> objects, T t) throws Exception {
-                return objects.put(t);
-            }
-        });
+        return foldLeft(PersistentHashSet.<T>empty().asTransient(),
+                new Function2<PersistentHashSet.TransientHashSet<T>, T,
+                        PersistentHashSet.TransientHashSet<T>>() {
+                    @Override
+                    public PersistentHashSet.TransientHashSet<T> applyEx(
+                            PersistentHashSet.TransientHashSet<T> objects, T t) throws Exception {
+                        return objects.put(t);
+                    }
+                }).persistent();
     }
 
     /**
@@ -233,13 +241,16 @@ public interface Transformable<T> {
      */
     default <K,V> ImSortedMap<K,V> toImSortedMap(Comparator<? super K> comp,
                                                  final Function1<? super T,Map.Entry<K,V>> f1) {
-        return foldLeft(PersistentTreeMap.<K, V>empty(comp),
-                new Function2<ImSortedMap<K, V>, T, ImSortedMap<K, V>>() {
-                    @Override
-                    public ImSortedMap<K, V> applyEx(ImSortedMap<K, V> ts, T t) throws Exception {
-                        return ts.assoc(f1.call(t));
-                    }
-                });
+        // Sorting all the entries and building the tree in one go is much faster than assoc'ing
+        // them one at a time.  PersistentTreeMap.ofComp() skips null entries, but this method has
+        // always rejected them, so check before handing the list over.
+        List<Map.Entry<K,V>> entries = this.<Map.Entry<K,V>>map(f1).toMutableList();
+        for (Map.Entry<K,V> entry : entries) {
+            if (entry == null) {
+                throw new NullPointerException("f1 returned a null entry");
+            }
+        }
+        return PersistentTreeMap.ofComp(comp, entries);
     }
 
     /**
@@ -251,12 +262,7 @@ public interface Transformable<T> {
      @return An immutable set (with duplicates removed).  Null elements are not allowed.
      */
     default ImSortedSet<T> toImSortedSet(Comparator<? super T> comparator) {
-        return foldLeft(PersistentTreeSet.ofComp(comparator), new Function2<ImSortedSet<T>, T, ImSortedSet<T>>() {
-            @Override
-            public ImSortedSet<T> applyEx(ImSortedSet<T> ts, T t) throws Exception {
-                return ts.put(t);
-            }
-        });
+        return PersistentTreeSet.ofComp(comparator, toMutableList());
     }
 
     /** Realize a mutable list.  Use toImList unless you need to modify the list in-place. */
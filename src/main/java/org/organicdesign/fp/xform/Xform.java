@@ -14,18 +14,24 @@
 
 package org.organicdesign.fp.xform;
 
-import org.organicdesign.fp.FunctionUtils;
 import org.organicdesign.fp.Or;
+import org.organicdesign.fp.collections.PersistentVector;
 import org.organicdesign.fp.collections.interfaces.UnmodIterable;
 import org.organicdesign.fp.collections.interfaces.UnmodIterator;
 import org.organicdesign.fp.function.Function1;
 import org.organicdesign.fp.function.Function2;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  An immutable description of operations to be performed (a transformation, transform, or x-form).
@@ -51,9 +57,23 @@ public abstract class Xform<A> implements UnmodIterable<A> {
     enum OpStrategy { HANDLE_INTERNALLY, ASK_SUPPLIER, CANNOT_HANDLE }
 
     private static final Object TERMINATE = new Object();
+
     @SuppressWarnings("unchecked")
     private A terminate() { return (A) TERMINATE; }
 
+    /**
+     Returned (instead of a result) by _step() and _foldLeft() when an operation said to stop.  It
+     has to carry the result so far out through any nested (flatMapped) folds, because TERMINATE
+     ends the whole transform, not just the innermost source.
+     */
+    private static final class Stopped {
+        final Object ret;
+        Stopped(Object r) { ret = r; }
+    }
+
+    /** Returned by sizeHint() when there's no telling how many items a transform will produce. */
+    static final int UNKNOWN_SIZE = -1;
+
     /**
      These are mutable operations that the transform carries out when it is run.  This is like the
      compiled "op codes" in contrast to the Xform is like the immutable "source code" of the
@@ -201,29 +221,16 @@ public abstract class Xform<A> implements UnmodIterable<A> {
     }
 
     /**
-     When iterator() is called, the AppendOp processes the previous source and operation into
-     an ArrayList.  Then yields an iterator that yield the result of that operation until it runs
-     out.  Then continues to yield the appended items until they run out, at which point hasNext()
-     returns false;
+     When iterator() is called, the AppendOp yields the result of the previous source and
+     operations (lazily, one at a time) until it runs out.  Then continues to yield the appended
+     items until they run out, at which point hasNext() returns false;
      */
     private static class AppendOp extends RunList {
         private AppendOp(RunList prv, Iterable src) { super(prv, src); }
 
-        @Override public Iterator iterator() {
-            final ArrayList prevSrc = _foldLeft(prev, prev.opArray(), 0, new ArrayList(),
-                                          new Function2<ArrayList,Object,ArrayList>() {
-                                              @SuppressWarnings("unchecked")
-                                              @Override
-                                              public ArrayList applyEx(ArrayList res, Object item) throws Exception {
-                                                  res.add(item);
-                                                  return res;
-                                              }
-                                          }
-
-            );
-            //noinspection unchecked
-            return new Iterator() {
-                Iterator innerIter = prevSrc.iterator();
+        @Override public Iterator<Object> iterator() {
+            return new Iterator<Object>() {
+                Iterator<?> innerIter = new OpIterator<>(prev, prev.opArray());
                 boolean usingPrevSrc = true;
                 /** {@inheritDoc} */
                 @Override public boolean hasNext() {
@@ -248,6 +255,84 @@ public abstract class Xform<A> implements UnmodIterable<A> {
         } // end iterator()
     }
 
+    /**
+     Runs the operations on one source item at a time, as they are asked for, instead of all at once
+     like _foldLeft().  A flatMap pushes an iterator of its output (and the index of the operation
+     after it) on a stack, so the only memory used is proportional to how deeply the flatMaps are
+     nested.  TERMINATE empties the whole stack.
+     */
+    private static final class OpIterator<T> implements UnmodIterator<T> {
+        private static final class Frame {
+            final Iterator<?> iter;
+            final int opIdx;
+            Frame(Iterator<?> i, int idx) { iter = i; opIdx = idx; }
+        }
+
+        // Marks that the next item hasn't been computed yet (null is a legal item).
+        private static final Object NONE = new Object();
+
+        private final Operation[] ops;
+        private final ArrayList<Frame> stack = new ArrayList<>();
+        private Object nextItem = NONE;
+
+        OpIterator(Iterable<?> source, Operation[] o) {
+            ops = o;
+            stack.add(new Frame(source.iterator(), 0));
+        }
+
+        @Override public boolean hasNext() {
+            if (nextItem == NONE) {
+                nextItem = advance();
+            }
+            return nextItem != NONE;
+        }
+
+        @Override public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            // The types of the operations were checked when the Xform was built.
+            @SuppressWarnings("unchecked")
+            T ret = (T) nextItem;
+            nextItem = NONE;
+            return ret;
+        }
+
+        /** Returns the next item to make it through all the operations, or NONE if there isn't one. */
+        // Operation.map is a raw Function1 because each map can change the type of the items.
+        @SuppressWarnings("unchecked")
+        private Object advance() {
+            itemLoop:
+            while (stack.size() > 0) {
+                Frame frame = stack.get(stack.size() - 1);
+                if (!frame.iter.hasNext()) {
+                    stack.remove(stack.size() - 1);
+                    continue;
+                }
+                Object o = frame.iter.next();
+                for (int j = frame.opIdx; j < ops.length; j++) {
+                    Operation op = ops[j];
+                    if ( (op.filter != null) && !op.filter.call(o) ) {
+                        continue itemLoop;
+                    }
+                    if (op.map != null) {
+                        o = op.map.call(o);
+                        if (o == TERMINATE) {
+                            stack.clear();
+                            return NONE;
+                        }
+                    } else if (op.flatMap != null) {
+                        // The rest of the operations are applied to each item of the nested source.
+                        stack.add(new Frame(op.flatMap.call(o).iterator(), j + 1));
+                        continue itemLoop;
+                    }
+                }
+                return o;
+            }
+            return NONE;
+        }
+    }
+
     /** Describes an concat() operation, but does not perform it. */
     private static class AppendIterDesc<T> extends Xform<T> {
         final Xform<T> src;
@@ -258,6 +343,8 @@ public abstract class Xform<A> implements UnmodIterable<A> {
         @Override protected RunList toRunList() {
             return new AppendOp(prevOp.toRunList(), src);
         }
+
+        @Override int sizeHint() { return addHints(prevOp.sizeHint(), src.sizeHint()); }
     }
 
     /**
@@ -311,6 +398,11 @@ public abstract class Xform<A> implements UnmodIterable<A> {
             ret.list.add(new Operation.DropOp(dropAmt));
             return ret;
         }
+
+        @Override int sizeHint() {
+            int prev = prevOp.sizeHint();
+            return (prev == UNKNOWN_SIZE) ? UNKNOWN_SIZE : (int) Math.max(0, prev - dropAmt);
+        }
     }
 
     /** Describes a filter() operation, but does not perform it. */
@@ -325,6 +417,8 @@ public abstract class Xform<A> implements UnmodIterable<A> {
             ret.list.add(new Operation.FilterOp((Function1<Object,Boolean>) f));
             return ret;
         }
+
+        @Override int sizeHint() { return UNKNOWN_SIZE; }
     }
 
     /** Describes a map() operation, but does not perform it. */
@@ -339,6 +433,9 @@ public abstract class Xform<A> implements UnmodIterable<A> {
             ret.list.add(new Operation.MapOp(f));
             return ret;
         }
+
+        // One out for each one in (or fewer, for takeWhile()).
+        @Override int sizeHint() { return prevOp.sizeHint(); }
     }
 
     /** Describes a flatMap() operation, but does not perform it. */
@@ -354,6 +451,8 @@ public abstract class Xform<A> implements UnmodIterable<A> {
             ret.list.add(new Operation.FlatMapOp((Function1) f));
             return ret;
         }
+
+        @Override int sizeHint() { return UNKNOWN_SIZE; }
     }
 
     /**
@@ -397,6 +496,13 @@ public abstract class Xform<A> implements UnmodIterable<A> {
             ret.list.add(new Operation.TakeOp(take));
             return ret;
         }
+
+        // Take only bounds a known size.  Presizing for take(1000000) of a filtered list could
+        // allocate far more than the transform ever produces.
+        @Override int sizeHint() {
+            int prev = prevOp.sizeHint();
+            return (prev == UNKNOWN_SIZE) ? UNKNOWN_SIZE : (int) Math.min(prev, take);
+        }
     }
 
     static class SourceProviderIterableDesc<T> extends Xform<T> {
@@ -406,6 +512,15 @@ public abstract class Xform<A> implements UnmodIterable<A> {
             return RunList.of(null, list);
         }
 
+        @Override int sizeHint() {
+            if (list instanceof Collection) {
+                return ((Collection) list).size();
+            } else if (list instanceof Map) {
+                return ((Map) list).size();
+            }
+            return UNKNOWN_SIZE;
+        }
+
         @Override public int hashCode() { return Helpers.hashCode(this); }
         @Override public boolean equals(Object other) {
             if (this == other) { return true; }
@@ -440,6 +555,34 @@ public abstract class Xform<A> implements UnmodIterable<A> {
     // Constructor
     Xform(Xform pre) { prevOp = pre; }
 
+    /**
+     Returns the exact number of items this transform will produce, or an upper bound on it, or
+     UNKNOWN_SIZE.  Used to presize the collections the results are gathered into so they don't
+     have to grow (or rehash) over and over.
+     */
+    abstract int sizeHint();
+
+    private static int addHints(int a, int b) {
+        if ( (a == UNKNOWN_SIZE) || (b == UNKNOWN_SIZE) ) { return UNKNOWN_SIZE; }
+        long sum = (long) a + b;
+        return (sum > Integer.MAX_VALUE) ? UNKNOWN_SIZE : (int) sum;
+    }
+
+    /** An initial capacity for a list, from the size hint. */
+    private int listCapacity() {
+        int hint = sizeHint();
+        return (hint == UNKNOWN_SIZE) ? 10 : hint;
+    }
+
+    /**
+     An initial capacity for a HashMap or HashSet that will hold the hinted number of items without
+     rehashing (with the default load factor of 0.75).
+     */
+    private int hashCapacity() {
+        int hint = sizeHint();
+        return (hint == UNKNOWN_SIZE) ? 16 : (int) Math.min((hint * 4L / 3) + 1, 1 << 30);
+    }
+
     // This is the main method of this whole file.  Everything else lives to serve this.
     // We used a linked-list to build the type-safe operations so if that code compiles, the types
     // should work out here too.  However, for performance, we don't want to be stuck creating and
@@ -449,45 +592,79 @@ public abstract class Xform<A> implements UnmodIterable<A> {
     // is 2.6 times faster than wrapping items type-safely in Options and 10 to 100 times faster
     // than lazily evaluated and cached linked-list, Sequence model.
     @SuppressWarnings("unchecked")
-    private static <H> H _foldLeft(Iterable source, Operation[] ops, int opIdx, H ident, Function2 reducer) {
+    private static <H> H _foldLeft(Iterable source, final Operation[] ops, final int opIdx, H ident,
+                                   final Function2 reducer) {
         Object ret = ident;
 
-        // This is a label - the first one I have used in Java in years, or maybe ever.
-        // I'm assuming this is fast, but will have to test to confirm it.
-        sourceLoop:
-        for (Object o : source) {
-            for (int j = opIdx; j < ops.length; j++) {
-                Operation op = ops[j];
-                if ( (op.filter != null) && !op.filter.call(o) ) {
-                    // stop processing this source item and go to the next one.
-                    continue sourceLoop;
-                }
-                if (op.map != null) {
-                    o = op.map.call(o);
-                    // This is how map can handle takeWhile, take, and other termination marker
-                    // roles.  Remember, the fewer functions we have to check for, the faster this
-                    // will execute.
-                    if (o == TERMINATE) {
+        // A plain RunList just iterates its source, so look at the source itself.  An AppendOp
+        // (a subclass) has to be iterated.
+        Iterable src = ( (source != null) && (source.getClass() == RunList.class) )
+                       ? ((RunList) source).source
+                       : source;
+
+        if (src instanceof PersistentVector) {
+            // Loop through each leaf array instead of calling hasNext() and next() on every item.
+            PersistentVector.ChunkIterator chunks = ((PersistentVector) src).chunkIterator();
+            while (chunks.hasNext()) {
+                Object[] array = chunks.next();
+                for (int i = chunks.start(); i < chunks.end(); i++) {
+                    ret = _step(array[i], ops, opIdx, ret, reducer);
+                    if (ret instanceof Stopped) {
                         return (H) ret;
                     }
-                } else if (op.flatMap != null) {
-                    ret = _foldLeft(op.flatMap.call(o), ops, j + 1, (H) ret, reducer);
-                    // stop processing this source item and go to the next one.
-                    continue sourceLoop;
                 }
-//                    if ( (op.terminate != null) && op.terminate.apply(o) ) {
-//                        return (G) ret;
-//                    }
             }
-            // Here, the item made it through all the operations.  Combine it with the result.
-            ret = reducer.call(ret, o);
+            return (H) ret;
+        }
+
+        for (Object o : src) {
+            ret = _step(o, ops, opIdx, ret, reducer);
+            if (ret instanceof Stopped) {
+                return (H) ret;
+            }
         }
         return (H) ret;
     } // end _foldLeft();
 
+    /**
+     Runs one source item through the operations starting at opIdx, then combines it with the
+     result so far.
+     @return the new result, the unchanged result if the item was filtered out, or the result
+     wrapped in a Stopped if an operation said to stop processing.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object _step(Object o, Operation[] ops, int opIdx, Object ret,
+                                Function2 reducer) {
+        for (int j = opIdx; j < ops.length; j++) {
+            Operation op = ops[j];
+            if ( (op.filter != null) && !op.filter.call(o) ) {
+                // stop processing this source item and go to the next one.
+                return ret;
+            }
+            if (op.map != null) {
+                o = op.map.call(o);
+                // This is how map can handle takeWhile, take, and other termination marker
+                // roles.  Remember, the fewer functions we have to check for, the faster this
+                // will execute.
+                if (o == TERMINATE) {
+                    return new Stopped(ret);
+                }
+            } else if (op.flatMap != null) {
+                // The rest of the operations are applied to each item of the nested source.
+                return _foldLeft(op.flatMap.call(o), ops, j + 1, ret, reducer);
+            }
+//                if ( (op.terminate != null) && op.terminate.apply(o) ) {
+//                    return (G) ret;
+//                }
+        }
+        // Here, the item made it through all the operations.  Combine it with the result.
+        return reducer.call(ret, o);
+    }
+
+    /** Returns a lazy iterator that only runs the transform as far as you iterate it. */
     @Override public UnmodIterator<A> iterator() {
-        // TODO: I had a really fast array-list implementation that I could probably hack into this for performance (assuming it actually works).
-        return FunctionUtils.unmodIterable(toMutableList()).iterator();
+        RunList runList = toRunList();
+        return new OpIterator<>(runList, runList.opArray());
     }
 
     // =============================================================================================
@@ -541,19 +718,21 @@ public abstract class Xform<A> implements UnmodIterable<A> {
 
         // Construct an optimized array of OpRuns (mutable operations for this run)
         RunList runList = toRunList();
-        return _foldLeft(runList, runList.opArray(), 0, ident, reducer);
+        Object ret = _foldLeft(runList, runList.opArray(), 0, ident, reducer);
+        // Everything _foldLeft() returns came from the reducer (or is ident), except that it may be
+        // wrapped in a Stopped.
+        @SuppressWarnings("unchecked")
+        B result = (B) ((ret instanceof Stopped) ? ((Stopped) ret).ret : ret);
+        return result;
     }
 
     // TODO: Is this worth keeping over takeWhile(f).foldLeft(...)?
     /**
-     Thit implementation should be correct, but could be slow in the case where previous operations
-     are slow and the terminateWhen operation is fast and terminates early.  It actually renders
-     items to a mutable List, then runs through the list performing the requested reduction,
-     checking for early termination on the result.  If you can to a takeWhile() or take() earlier
-     in the transform chain instead of doing it here, always do that.  If you really need early
-     termination based on the *result* of a fold, and the operations are expensive or the input
-     is huge, try using a View instead.  If you don't care about those things, then this method is
-     perfect for you.
+     This pulls items one at a time from the lazy iterator(), performing the requested reduction
+     and checking for early termination on the result, so no items are computed after
+     terminateWhen returns true.  It's a little slower per item than foldLeft() without
+     terminateWhen, so if you can do a takeWhile() or take() earlier in the transform chain instead
+     of doing it here, always do that.
 
      {@inheritDoc}
      */
@@ -567,16 +746,13 @@ public abstract class Xform<A> implements UnmodIterable<A> {
             return foldLeft(ident, reducer);
         }
 
-        // Yes, this is a cheap plastic imitation of what you'd hope for if you really need this
-        // method.  The trouble is that when I implemented it correctly in _foldLeft, I found
-        // it was going to be incredibly difficult, or more likely impossible to implement
-        // when the previous operation was flatMap, since you don't have the right result type to
-        // check against when you recurse in to the flat mapping function, and if you check the
-        // return from the recursion, it may have too many elements already.
-        // In XformTest.java, there's something marked "Early termination test" that illustrates
-        // this exact problem.
-        List<A> as = this.toMutableList();
-        for (A a : as) {
+        // Implementing this in _foldLeft would be incredibly difficult when the previous operation
+        // was flatMap, since you don't have the right result type to check against when you
+        // recurse in to the flat mapping function, and if you check the return from the
+        // recursion, it may have too many elements already.  In XformTest.java, there's something
+        // marked "Early termination test" that illustrates this exact problem.  The iterator
+        // doesn't recurse, so it has no such problem.
+        for (A a : this) {
             ident = reducer.call(ident, a);
             if (terminateWhen.call(ident)) {
                 return ident;
@@ -602,6 +778,42 @@ public abstract class Xform<A> implements UnmodIterable<A> {
 
     protected abstract RunList toRunList();
 
+    // The following collectors are just like the ones in Transformable, but presized.
+
+    /** {@inheritDoc} */
+    @Override public List<A> toMutableList() {
+        return foldLeft(new ArrayList<A>(listCapacity()), new Function2<List<A>, A, List<A>>() {
+            @Override
+            public List<A> applyEx(List<A> ts, A t) throws Exception {
+                ts.add(t);
+                return ts;
+            }
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override public <K,V> Map<K,V> toMutableMap(final Function1<? super A,Map.Entry<K,V>> f1) {
+        return foldLeft(new HashMap<K,V>(hashCapacity()), new Function2<Map<K,V>, A, Map<K,V>>() {
+            @Override
+            public Map<K,V> applyEx(Map<K,V> ts, A t) throws Exception {
+                Map.Entry<K,V> entry = f1.call(t);
+                ts.put(entry.getKey(), entry.getValue());
+                return ts;
+            }
+        });
+    }
+
+    /** {@inheritDoc} */
+    @Override public Set<A> toMutableSet() {
+        return foldLeft(new HashSet<A>(hashCapacity()), new Function2<Set<A>, A, Set<A>>() {
+            @Override
+            public Set<A> applyEx(Set<A> ts, A t) throws Exception {
+                ts.add(t);
+                return ts;
+            }
+        });
+    }
+
     @Override public Xform<A> take(long numItems) {
         if (numItems < 0) { throw new IllegalArgumentException("Num items must be >= 0"); }
         return new TakeDesc<>(this, numItems);
@@ -0,0 +1,203 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+import org.organicdesign.fp.collections.interfaces.UnmodMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChampMapTest {
+
+    /** Only uses a few bits of the hash so that there are lots of collisions. */
+    private static final Equator<Integer> BAD_HASH = new Equator<Integer>() {
+        @Override public int hash(Integer i) { return i % 37; }
+        @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+    };
+
+    /** Puts the differences in the high bits so that the keys nest all the way down. */
+    private static final Equator<Integer> HIGH_HASH = new Equator<Integer>() {
+        @Override public int hash(Integer i) { return Integer.reverse(i); }
+        @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+    };
+
+    private static void assertSame(Map<Integer,Integer> expected, ChampMap<Integer,Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<Integer,Integer> e : expected.entrySet()) {
+            assertEquals(e.getValue(), actual.get(e.getKey()));
+        }
+        int count = 0;
+        for (UnmodMap.UnEntry<Integer,Integer> e : actual) {
+            assertEquals(expected.get(e.getKey()), e.getValue());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+    }
+
+    @Test public void empty() {
+        ChampMap<Integer,Integer> e = ChampMap.empty();
+        assertEquals(0, e.size());
+        assertFalse(e.iterator().hasNext());
+        assertFalse(e.containsKey(3));
+        assertTrue(e == e.without(3));
+        assertEquals("ChampMap()", e.toString());
+        assertEquals(e, new HashMap<>());
+    }
+
+    @Test public void nullKey() {
+        ChampMap<String,Integer> m = ChampMap.<String,Integer>empty().assoc(null, 1).assoc("a", 2);
+        assertEquals(2, m.size());
+        assertEquals(Integer.valueOf(1), m.get(null));
+        assertTrue(m == m.assoc(null, m.get(null)));
+        m = m.without(null);
+        assertEquals(1, m.size());
+        assertFalse(m.containsKey(null));
+        assertTrue(m == m.without(null));
+    }
+
+    @Test public void identityOnNoOp() {
+        ChampMap<Integer,Integer> m = ChampMap.empty();
+        for (int i = 0; i < 1000; i++) {
+            m = m.assoc(i, i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(m == m.assoc(i, m.get(i)));
+        }
+        assertTrue(m == m.without(1000));
+    }
+
+    @Test public void equator() {
+        Equator<String> caseInsensitive = new Equator<String>() {
+            @Override public int hash(String s) { return s.toLowerCase().hashCode(); }
+            @Override public boolean eq(String a, String b) { return a.equalsIgnoreCase(b); }
+        };
+        ChampMap<String,Integer> m = ChampMap.<String,Integer>empty(caseInsensitive)
+                .assoc("Hello", 1).assoc("HELLO", 2).assoc("World", 3);
+        assertEquals(2, m.size());
+        assertEquals(Integer.valueOf(2), m.get("hello"));
+        // The original key is kept, like PersistentHashMap.
+        assertEquals("Hello", m.entry("hello").get().getKey());
+        assertTrue(caseInsensitive == m.equator());
+        assertEquals(1, m.without("WORLD").size());
+    }
+
+    private static void randomOps(Equator<Integer> eq, int range, long seed) {
+        Random rand = new Random(seed);
+        ChampMap<Integer,Integer> m = ChampMap.empty(eq);
+        Map<Integer,Integer> control = new HashMap<>();
+        for (int round = 0; round < 30000; round++) {
+            int key = rand.nextInt(range);
+            if (rand.nextInt(3) == 0) {
+                m = m.without(key);
+                control.remove(key);
+            } else {
+                m = m.assoc(key, round);
+                control.put(key, round);
+            }
+            assertEquals(control.size(), m.size());
+        }
+        assertSame(control, m);
+    }
+
+    @Test public void randomOperations() {
+        randomOps(Equator.<Integer>defaultEquator(), 5000, 1);
+        randomOps(BAD_HASH, 500, 2);
+        randomOps(HIGH_HASH, 5000, 3);
+    }
+
+    /** However you get there, the same keys make the same trie. */
+    @Test public void canonicalAfterDeletion() {
+        for (Equator<Integer> eq : new Equator[] { Equator.defaultEquator(), BAD_HASH, HIGH_HASH }) {
+            Random rand = new Random(42);
+            List<Map.Entry<Integer,Integer>> keep = new ArrayList<>();
+            ChampMap<Integer,Integer> m = ChampMap.empty(eq);
+            for (int i = 0; i < 3000; i++) {
+                m = m.assoc(i, i);
+                if (rand.nextInt(10) == 0) {
+                    keep.add(new java.util.AbstractMap.SimpleEntry<>(i, i));
+                }
+            }
+            for (int i = 0; i < 3000; i++) {
+                if (!keep.contains(new java.util.AbstractMap.SimpleEntry<>(i, i))) {
+                    m = m.without(i);
+                }
+            }
+            ChampMap<Integer,Integer> fresh = ChampMap.ofEq(eq, keep);
+            assertEquals(fresh, m);
+            assertTrue(fresh.sameShape(m));
+
+            // Deleting everything leaves the same thing as the empty map.
+            for (Map.Entry<Integer,Integer> e : keep) {
+                m = m.without(e.getKey());
+            }
+            assertEquals(0, m.size());
+            assertTrue(ChampMap.<Integer,Integer>empty(eq).sameShape(m));
+        }
+    }
+
+    @Test public void transientMatchesPersistent() {
+        Random rand = new Random(7);
+        ChampMap<Integer,Integer> m = ChampMap.empty(BAD_HASH);
+        ChampMap.TransientChampMap<Integer,Integer> t = ChampMap.<Integer,Integer>empty(BAD_HASH)
+                .asTransient();
+        for (int round = 0; round < 20000; round++) {
+            int key = rand.nextInt(2000);
+            if (rand.nextInt(3) == 0) {
+                m = m.without(key);
+                t.without(key);
+            } else {
+                m = m.assoc(key, round);
+                t.assoc(key, round);
+            }
+            assertEquals(m.size(), t.size());
+        }
+        ChampMap<Integer,Integer> p = t.persistent();
+        assertEquals(m, p);
+        assertTrue(m.sameShape(p));
+    }
+
+    @Test public void transientDoesNotChangeOriginal() {
+        ChampMap<Integer,Integer> m = ChampMap.empty();
+        for (int i = 0; i < 1000; i++) {
+            m = m.assoc(i, i);
+        }
+        ChampMap.TransientChampMap<Integer,Integer> t = m.asTransient();
+        for (int i = 0; i < 1000; i += 2) {
+            t.without(i);
+            t.assoc(i + 1, -i);
+        }
+        assertEquals(1000, m.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), m.get(i));
+        }
+        assertEquals(500, t.persistent().size());
+    }
+
+    @Test (expected = IllegalAccessError.class)
+    public void transientAfterPersistent() {
+        ChampMap.TransientChampMap<Integer,Integer> t = ChampMap.<Integer,Integer>empty()
+                .asTransient();
+        t.persistent();
+        t.assoc(1, 1);
+    }
+
+    @Test public void equalsPersistentHashMap() {
+        ChampMap<Integer,Integer> c = ChampMap.empty();
+        PersistentHashMap<Integer,Integer> p = PersistentHashMap.empty();
+        for (int i = 0; i < 500; i++) {
+            c = c.assoc(i, -i);
+            p = p.assoc(i, -i);
+        }
+        assertEquals(p, c);
+        assertEquals(c, p);
+        assertEquals(p.hashCode(), c.hashCode());
+        assertEquals(p.keySet(), c.keySet());
+    }
+}
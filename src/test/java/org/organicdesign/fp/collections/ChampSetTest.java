@@ -0,0 +1,74 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ChampSetTest {
+    @Test public void empty() {
+        ChampSet<Integer> e = ChampSet.empty();
+        assertEquals(0, e.size());
+        assertFalse(e.iterator().hasNext());
+        assertEquals("ChampSet()", e.toString());
+        assertEquals(new HashSet<Integer>(), e);
+    }
+
+    @Test public void basics() {
+        ChampSet<String> s = ChampSet.of(Arrays.asList("a", "b", "c", "a"));
+        assertEquals(3, s.size());
+        assertTrue(s.contains("b"));
+        assertTrue(s == s.put("b"));
+        assertTrue(s == s.without("z"));
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), s.without("b"));
+        assertEquals(PersistentHashSet.of(Arrays.asList("a", "b", "c")), s);
+        assertEquals(s, PersistentHashSet.of(Arrays.asList("a", "b", "c")));
+    }
+
+    @Test public void randomOperations() {
+        Random rand = new Random(99);
+        ChampSet<Integer> s = ChampSet.empty();
+        Set<Integer> control = new HashSet<>();
+        for (int round = 0; round < 20000; round++) {
+            int item = rand.nextInt(3000);
+            if (rand.nextBoolean()) {
+                s = s.put(item);
+                control.add(item);
+            } else {
+                s = s.without(item);
+                control.remove(item);
+            }
+            assertEquals(control.size(), s.size());
+        }
+        assertEquals(control, s);
+        assertEquals(s, control);
+        assertEquals(control.hashCode(), s.hashCode());
+    }
+
+    @Test public void putAllWithoutAll() {
+        ChampSet<Integer> empty = ChampSet.empty();
+        Set<Integer> control = new HashSet<>();
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            items.add(i % 3000);
+            control.add(i % 3000);
+        }
+        ChampSet<Integer> s = empty.putAll(items);
+        assertEquals(control, s);
+        assertTrue(s == s.putAll(items));
+        assertEquals(ChampSet.of(items), s);
+
+        ChampSet<Integer> removed = s.withoutAll(items.subList(0, 1000));
+        control.removeAll(items.subList(0, 1000));
+        assertEquals(control, removed);
+        assertEquals(control.size(), removed.size());
+        assertTrue(removed == removed.withoutAll(Arrays.asList(-1, 0, 999)));
+        assertEquals(ChampSet.empty(), s.withoutAll(items));
+    }
+}
@@ -0,0 +1,52 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+
+import static org.junit.Assert.*;
+
+public class DoubleVectorTest {
+    @Test public void basics() {
+        DoubleVector v = DoubleVector.empty();
+        List<Double> control = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            v = v.append(i / 4.0);
+            control.add(i / 4.0);
+        }
+        assertEquals(5000, v.size());
+        assertEquals(1234 / 4.0, v.get(1234), 0.0);
+        assertEquals(control, v.asImList());
+        assertEquals(control.hashCode(), v.hashCode());
+        assertEquals(v, DoubleVector.of(v.toArray()));
+
+        v = v.replace(17, Double.NaN).replace(4999, -2.5);
+        control.set(17, Double.NaN);
+        control.set(4999, -2.5);
+        assertEquals(control, v.asImList());
+        // NaN equals NaN, same as java.lang.Double.equals()
+        assertTrue(v == v.replace(17, Double.NaN));
+        assertEquals(v, DoubleVector.of(v.toArray()));
+
+        double max = v.foldLeft(Double.NEGATIVE_INFINITY, new DoubleBinaryOperator() {
+            @Override public double applyAsDouble(double a, double b) {
+                return Double.isNaN(b) ? a : Math.max(a, b);
+            }
+        });
+        assertEquals(4998 / 4.0, max, 0.0);
+    }
+
+    @Test public void mutable() {
+        DoubleVector.MutableDoubleVector mv = DoubleVector.emptyMutable();
+        for (int i = 0; i < 100; i++) {
+            mv.append(i);
+        }
+        mv.appendAll(new double[] { 0.5, 1.5 }).replace(0, -1.0);
+        DoubleVector v = mv.persistent();
+        assertEquals(102, v.size());
+        assertEquals(-1.0, v.get(0), 0.0);
+        assertEquals(1.5, v.get(101), 0.0);
+    }
+}
@@ -0,0 +1,125 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FootprintTest {
+    @Test public void emptyVector() {
+        Footprint fp = Footprint.of(PersistentVector.empty());
+        assertEquals(0, fp.elements());
+        assertEquals(0.0, fp.bytesPerElement(), 0.0);
+        // The empty root node has 32 empty slots.
+        assertEquals(Integer.valueOf(1), fp.nodeCounts().get("Node(branch)"));
+        assertEquals(32, fp.emptySlots());
+        assertTrue(fp.bytes() > 0);
+        assertEquals(0, fp.sharedBytes());
+    }
+
+    @Test public void vector() {
+        PersistentVector<Integer> v = PersistentVector.empty();
+        for (int i = 0; i < 1000; i++) {
+            v = v.append(i);
+        }
+        Footprint fp = Footprint.of(v);
+        assertEquals(1000, fp.elements());
+        // 1000 = 31 full leaves + 8 in the tail.
+        assertEquals(Integer.valueOf(31), fp.nodeCounts().get("Node(leaf)"));
+        assertEquals(Integer.valueOf(1), fp.nodeCounts().get("Node(branch)"));
+        assertEquals(Integer.valueOf(1), fp.nodeCounts().get("Tail"));
+        assertEquals(33, fp.nodes());
+        // Only the root has an empty slot.
+        assertEquals(1, fp.emptySlots());
+        assertEquals((31 * 32) + 32 + 8, fp.slots());
+        // Structure costs more than 4 bytes (a reference) per element, but not much more.
+        assertTrue(fp.bytesPerElement() > 4.0);
+        assertTrue(fp.bytesPerElement() < 6.0);
+    }
+
+    @Test public void vectorSharing() {
+        PersistentVector<Integer> v1 = PersistentVector.empty();
+        for (int i = 0; i < 1000; i++) {
+            v1 = v1.append(i);
+        }
+        Footprint self = Footprint.of(v1, v1);
+        assertEquals(self.bytes(), self.sharedBytes());
+
+        PersistentVector<Integer> v2 = v1.replace(500, -1);
+        Footprint fp = Footprint.of(v2, v1);
+        // Only the path to the replaced leaf (root, leaf, and their arrays) and the vector object
+        // itself are new.
+        long unshared = fp.bytes() - fp.sharedBytes();
+        assertEquals(Footprint.objectBytes(2, 3) + (2 * (Footprint.objectBytes(2, 0) +
+                                                         Footprint.arrayBytes(32))),
+                     unshared);
+
+        PersistentVector<Integer> unrelated = PersistentVector.empty();
+        for (int i = 0; i < 1000; i++) {
+            unrelated = unrelated.append(i);
+        }
+        assertEquals(0, Footprint.of(v1, unrelated).sharedBytes());
+    }
+
+    @Test public void hashMap() {
+        PersistentHashMap<Integer,Integer> m = PersistentHashMap.empty();
+        Footprint empty = Footprint.of(m);
+        assertEquals(0, empty.nodes());
+        assertEquals(Footprint.objectBytes(3, 2), empty.bytes());
+
+        for (int i = 0; i < 1000; i++) {
+            m = m.assoc(i, i);
+        }
+        Footprint fp = Footprint.of(m);
+        assertEquals(1000, fp.elements());
+        // Integer keys (hashCode() == value) spread evenly: the root and its 32 children are
+        // ArrayNodes.
+        assertEquals(Integer.valueOf(33), fp.nodeCounts().get("ArrayNode"));
+        assertNull(fp.nodeCounts().get("HashCollisionNode"));
+        assertTrue(fp.nodeCounts().get("BitmapIndexedNode") > 0);
+        assertTrue(fp.bytes() > 1000 * 8);
+
+        PersistentHashMap<Integer,Integer> m2 = m.assoc(1000, 1000);
+        Footprint fp2 = Footprint.of(m2, m);
+        assertTrue(fp2.sharedBytes() > 0);
+        assertTrue(fp2.sharedBytes() < fp2.bytes());
+        assertTrue(fp2.bytes() - fp2.sharedBytes() < fp2.bytes() / 10);
+    }
+
+    @Test public void hashCollisions() {
+        Equator<Integer> badHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return i % 2; }
+            @Override public boolean eq(Integer o1, Integer o2) { return o1.equals(o2); }
+        };
+        PersistentHashMap<Integer,Integer> m = PersistentHashMap.empty(badHash);
+        for (int i = 0; i < 10; i++) {
+            m = m.assoc(i, i);
+        }
+        Footprint fp = Footprint.of(m);
+        assertEquals(Integer.valueOf(2), fp.nodeCounts().get("HashCollisionNode"));
+    }
+
+    @Test public void transientSlack() {
+        PersistentHashMap<Integer,Integer> m = PersistentHashMap.empty();
+        ImMapTrans<Integer,Integer> t = m.asTransient();
+        t = t.assoc(1, 1);
+        PersistentHashMap<Integer,Integer> built = (PersistentHashMap<Integer,Integer>) t.persistent();
+        // A transient leaves room in the BitmapIndexedNode for more entries
+        assertTrue(Footprint.of(built).emptySlots() > 0);
+        assertEquals(0, Footprint.of(m.assoc(1, 1)).emptySlots());
+    }
+
+    @Test public void hashSet() {
+        PersistentHashSet<String> s = PersistentHashSet.empty();
+        for (int i = 0; i < 100; i++) {
+            s = s.put(String.valueOf(i));
+        }
+        Footprint fp = Footprint.of(s);
+        assertEquals(100, fp.elements());
+        assertTrue(fp.nodes() > 0);
+        assertEquals(fp.bytes(), Footprint.of(s, s).sharedBytes());
+
+        Footprint fp2 = Footprint.of(s.put("new one"), s);
+        assertTrue(fp2.sharedBytes() > 0);
+        assertTrue(fp2.sharedBytes() < fp2.bytes());
+    }
+}
@@ -73,4 +73,15 @@ public class ImSetTest {
 
         assertTrue(imSet == imSet.union(null));
     }
-}
\ No newline at end of file
+
+    @Test public void testPutAllWithoutAll() {
+        ImSet<String> imSet = new TestSet<>(Arrays.asList("This", "is", "a", "test"));
+        ImSet<String> more = imSet.putAll(Arrays.asList("more", "stuff", "is"));
+        assertEquals(imSet.size() + 2, more.size());
+        assertTrue(more.containsAll(Arrays.asList("This", "is", "a", "test", "more", "stuff")));
+        assertEquals(imSet, more.withoutAll(Arrays.asList("more", "stuff", "missing")));
+
+        assertTrue(imSet == imSet.putAll(null));
+        assertTrue(imSet == imSet.withoutAll(null));
+    }
+}
@@ -0,0 +1,133 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.IntBinaryOperator;
+
+import static org.junit.Assert.*;
+
+public class IntVectorTest {
+    @Test public void empty() {
+        IntVector e = IntVector.empty();
+        assertEquals(0, e.size());
+        assertEquals(0, e.toArray().length);
+        assertEquals(0, e.asImList().size());
+        assertEquals(7, e.foldLeft(7, new IntBinaryOperator() {
+            @Override public int applyAsInt(int a, int b) { return a + b; }
+        }));
+        assertEquals(new ArrayList<Integer>().hashCode(), e.hashCode());
+        assertEquals(e, IntVector.of());
+    }
+
+    @Test public void appendGetReplace() {
+        for (int n : new int[] { 1, 31, 32, 33, 1024, 1025, 1057, 40000 }) {
+            IntVector v = IntVector.empty();
+            List<Integer> control = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                v = v.append(i * 3);
+                control.add(i * 3);
+            }
+            assertEquals(n, v.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(i * 3, v.get(i));
+            }
+            assertEquals(control, v.asImList());
+            assertEquals(v.asImList(), control);
+            assertEquals(control.hashCode(), v.hashCode());
+
+            IntVector v2 = v;
+            for (int i = 0; i < n; i += 7) {
+                v2 = v2.replace(i, -i - 1);
+                control.set(i, -i - 1);
+            }
+            assertEquals(control, v2.asImList());
+            // The original didn't change.
+            assertEquals(0, v.get(0) % 3);
+            assertFalse(v.equals(v2));
+            // Replacing with the same value changes nothing.
+            assertTrue(v == v.replace(n - 1, v.get(n - 1)));
+        }
+    }
+
+    @Test public void foldLeft() {
+        int[] items = new int[10000];
+        long expected = 0;
+        for (int i = 0; i < items.length; i++) {
+            items[i] = i;
+            expected += i;
+        }
+        IntVector v = IntVector.of(items);
+        assertEquals((int) expected, v.foldLeft(0, new IntBinaryOperator() {
+            @Override public int applyAsInt(int a, int b) { return a + b; }
+        }));
+        assertArrayEquals(items, v.toArray());
+    }
+
+    @Test public void mutable() {
+        IntVector.MutableIntVector mv = IntVector.emptyMutable();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            mv.append(i);
+            control.add(i);
+        }
+        mv.appendAll(new int[] { 5, 6, 7 });
+        control.addAll(Arrays.asList(5, 6, 7));
+        mv.replace(3, -3).replace(2001, -2001).replace(2003, 8);
+        control.set(3, -3);
+        control.set(2001, -2001);
+        control.add(8);
+        assertEquals(2004, mv.size());
+        assertEquals(-3, mv.get(3));
+        IntVector v = mv.persistent();
+        assertEquals(control, v.asImList());
+
+        // asTransient() doesn't change the original.
+        IntVector v2 = v.asTransient().replace(0, 100).append(9).persistent();
+        assertEquals(0, v.get(0));
+        assertEquals(2004, v.size());
+        assertEquals(100, v2.get(0));
+        assertEquals(2005, v2.size());
+    }
+
+    @Test(expected = IllegalAccessError.class)
+    public void mutableAfterPersistent() {
+        IntVector.MutableIntVector mv = IntVector.emptyMutable();
+        mv.persistent();
+        mv.append(1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getEx() { IntVector.of(1, 2).get(2); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void replaceEx() { IntVector.of(1, 2).replace(-1, 3); }
+
+    @Test(expected = NullPointerException.class)
+    public void boxedNullEx() { IntVector.of(1, 2).asImList().append(null); }
+
+    @Test public void asImList() {
+        ImList<Integer> ls = IntVector.of(1, 2, 3).asImList();
+        assertEquals(Arrays.asList(1, 2, 3, 4), ls.append(4));
+        assertEquals(Arrays.asList(1, 5, 3), ls.replace(1, 5));
+        assertEquals("IntVector(1,2,3)", ls.toString());
+
+        int[] items = new int[100];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = i;
+        }
+        ImList<Integer> big = IntVector.of(items).asImList();
+        ListIterator<Integer> li = big.listIterator(100);
+        for (int i = 99; i >= 0; i--) {
+            assertEquals(i, li.previousIndex());
+            assertEquals(Integer.valueOf(i), li.previous());
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), li.next());
+        }
+        assertFalse(li.hasNext());
+    }
+}
@@ -0,0 +1,50 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongBinaryOperator;
+
+import static org.junit.Assert.*;
+
+public class LongVectorTest {
+    @Test public void basics() {
+        LongVector v = LongVector.empty();
+        List<Long> control = new ArrayList<>();
+        for (long i = 0; i < 5000; i++) {
+            v = v.append(i << 33);
+            control.add(i << 33);
+        }
+        assertEquals(5000, v.size());
+        assertEquals(1234L << 33, v.get(1234));
+        assertEquals(control, v.asImList());
+        assertEquals(control.hashCode(), v.hashCode());
+        assertEquals(v, LongVector.of(v.toArray()));
+
+        v = v.replace(17, -1L).replace(4999, -2L);
+        control.set(17, -1L);
+        control.set(4999, -2L);
+        assertEquals(control, v.asImList());
+
+        long sum = 0;
+        for (Long l : control) {
+            sum += l;
+        }
+        assertEquals(sum, v.foldLeft(0L, new LongBinaryOperator() {
+            @Override public long applyAsLong(long a, long b) { return a + b; }
+        }));
+    }
+
+    @Test public void mutable() {
+        LongVector.MutableLongVector mv = LongVector.emptyMutable();
+        for (long i = 0; i < 100; i++) {
+            mv.append(i);
+        }
+        mv.appendAll(new long[] { 100L, 101L }).replace(0, -1L);
+        LongVector v = mv.persistent();
+        assertEquals(102, v.size());
+        assertEquals(-1L, v.get(0));
+        assertEquals(101L, v.get(101));
+    }
+}
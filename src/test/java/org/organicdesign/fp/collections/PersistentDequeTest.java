@@ -0,0 +1,185 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PersistentDequeTest {
+
+    private static void assertSame(List<Integer> expected, PersistentDeque<Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i));
+        }
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+    }
+
+    @Test public void empty() {
+        PersistentDeque<Integer> e = PersistentDeque.empty();
+        assertEquals(0, e.size());
+        assertFalse(e.iterator().hasNext());
+        assertEquals("PersistentDeque()", e.toString());
+        assertTrue(e == e.append(1).dropFirst());
+        assertTrue(e == e.prepend(1).dropLast());
+    }
+
+    @Test (expected = NoSuchElementException.class)
+    public void dropFirstEx() { PersistentDeque.empty().dropFirst(); }
+
+    @Test (expected = NoSuchElementException.class)
+    public void dropLastEx() { PersistentDeque.empty().dropLast(); }
+
+    @Test (expected = IndexOutOfBoundsException.class)
+    public void getEx() { PersistentDeque.empty().append(1).get(1); }
+
+    @Test (expected = IndexOutOfBoundsException.class)
+    public void replaceEx() { PersistentDeque.<Integer>empty().append(1).replace(2, 2); }
+
+    @Test public void appendAndPrepend() {
+        PersistentDeque<Integer> d = PersistentDeque.empty();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            d = d.append(i).prepend(-i);
+            control.add(i);
+            control.add(0, -i);
+        }
+        assertSame(control, d);
+    }
+
+    @Test public void prependOnly() {
+        PersistentDeque<Integer> d = PersistentDeque.empty();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 40000; i++) {
+            d = d.prepend(i);
+            control.add(0, i);
+        }
+        assertSame(control, d);
+        for (int i = 0; i < 40000; i++) {
+            d = d.dropFirst();
+            control.remove(0);
+            assertEquals(control.size(), d.size());
+        }
+        assertEquals(0, d.size());
+    }
+
+    @Test public void replaceAndConcat() {
+        PersistentDeque<Integer> d = PersistentDeque.empty();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            d = d.prepend(i);
+            control.add(0, i);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            d = d.replace(i, -i);
+            control.set(i, -i);
+        }
+        d = d.replace(1000, 1000);
+        control.add(1000);
+        assertSame(control, d);
+
+        d = d.concat(Arrays.asList(5, 6)).precat(Arrays.asList(1, 2, 3));
+        control.addAll(Arrays.asList(5, 6));
+        control.addAll(0, Arrays.asList(1, 2, 3));
+        assertSame(control, d);
+        assertEquals(control, PersistentDeque.ofIter(control));
+    }
+
+    @Test public void listIterator() {
+        PersistentDeque<Integer> d = PersistentDeque.empty();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            d = d.append(i).prepend(-i);
+            control.add(i);
+            control.add(0, -i);
+        }
+        ListIterator<Integer> li = d.listIterator(d.size());
+        ListIterator<Integer> cli = control.listIterator(control.size());
+        while (cli.hasPrevious()) {
+            assertEquals(cli.previousIndex(), li.previousIndex());
+            assertEquals(cli.previous(), li.previous());
+        }
+        assertFalse(li.hasPrevious());
+        while (cli.hasNext()) {
+            assertEquals(cli.nextIndex(), li.nextIndex());
+            assertEquals(cli.next(), li.next());
+        }
+        assertFalse(li.hasNext());
+    }
+
+    @Test public void slidingWindow() {
+        PersistentDeque<Integer> d = PersistentDeque.empty();
+        for (int i = 0; i < 1000; i++) {
+            d = d.append(i);
+        }
+        // Slide right, then left, for much longer than the window.
+        for (int i = 1000; i < 200000; i++) {
+            d = d.append(i).dropFirst();
+            assertEquals(Integer.valueOf(i - 999), d.get(0));
+        }
+        for (int i = 198999; i >= 0; i--) {
+            d = d.prepend(i).dropLast();
+            assertEquals(Integer.valueOf(i + 999), d.get(999));
+        }
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            control.add(i);
+        }
+        assertSame(control, d);
+    }
+
+    /** A sliding window pushing and popping at both ends, checked against an ArrayDeque. */
+    @Test public void randomDequeOperations() {
+        Random rand = new Random(314159);
+        PersistentDeque<Integer> d = PersistentDeque.empty();
+        Deque<Integer> control = new ArrayDeque<>();
+        for (int round = 0; round < 100000; round++) {
+            int op = rand.nextInt(10);
+            if (op < 4) {
+                d = d.append(round);
+                control.addLast(round);
+            } else if (op < 7) {
+                d = d.prepend(round);
+                control.addFirst(round);
+            } else if (control.size() > 0) {
+                if (op < 9) {
+                    d = d.dropFirst();
+                    control.removeFirst();
+                } else {
+                    d = d.dropLast();
+                    control.removeLast();
+                }
+            }
+            assertEquals(control.size(), d.size());
+            if (control.size() > 0) {
+                assertEquals(control.getFirst(), d.get(0));
+                assertEquals(control.getLast(), d.get(d.size() - 1));
+            }
+            if ((round % 10000) == 0) {
+                assertSame(new ArrayList<>(control), d);
+            }
+        }
+        assertSame(new ArrayList<>(control), d);
+    }
+
+    @Test public void noOpReplaceReturnsSameDeque() {
+        PersistentDeque<Integer> d = PersistentDeque.empty();
+        for (int i = 0; i < 1000; i++) {
+            d = d.append(i).prepend(-i);
+        }
+        for (int i = 0; i < d.size(); i++) {
+            assertTrue(d == d.replace(i, d.get(i)));
+        }
+        assertFalse(d == d.replace(0, new Integer(d.get(0))));
+    }
+}
@@ -24,9 +24,12 @@ import org.organicdesign.fp.collections.interfaces.UnmodIterable;
 import org.organicdesign.fp.collections.interfaces.UnmodIterator;
 import org.organicdesign.fp.collections.interfaces.UnmodMap;
 import org.organicdesign.fp.function.Function1;
+import org.organicdesign.fp.function.Function2;
+import org.organicdesign.fp.function.Function3;
 import org.organicdesign.fp.tuple.Tuple2;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -37,6 +40,9 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import static org.junit.Assert.*;
 import static org.organicdesign.fp.FunctionUtils.ordinal;
@@ -1234,4 +1240,948 @@ public class PersistentHashMapTest {
         assertNotEquals(h2, h2.assoc(null, "nada"));
         assertEquals(h2.size() + 1, h2.assoc(null, "nada").size());
     }
+
+    /** Counts calls to hash() and eq() so we can tell when hashes are cached. */
+    private static class CountingEquator extends Equator<String> {
+        int hashes = 0;
+        int eqs = 0;
+        private final int hashMask;
+        CountingEquator(int hashMask) { this.hashMask = hashMask; }
+        @Override public int hash(String s) {
+            hashes++;
+            return s.hashCode() & hashMask;
+        }
+        @Override public boolean eq(String a, String b) {
+            eqs++;
+            return a.equals(b);
+        }
+    }
+
+    @Test public void cachedHashes() {
+        CountingEquator plainEq = new CountingEquator(-1);
+        CountingEquator cacheEq = new CountingEquator(-1);
+        PersistentHashMap<String,Integer> plain = PersistentHashMap.empty(plainEq, false);
+        PersistentHashMap<String,Integer> cached = PersistentHashMap.empty(cacheEq, true);
+        assertFalse(plain.cachesHashes());
+        assertTrue(cached.cachesHashes());
+        for (int i = 0; i < 5000; i++) {
+            plain = plain.assoc("key" + i, i);
+            cached = cached.assoc("key" + i, i);
+        }
+        // Every key is hashed exactly once, even though nodes were split and grown into
+        // ArrayNodes along the way.
+        assertEquals(5000, cacheEq.hashes);
+        assertTrue(plainEq.hashes > 5000);
+        assertTrue(cached.cachesHashes());
+        assertEquals(plain, cached);
+
+        // Looking up missing keys never calls eq() on a key with a different hash.
+        cacheEq.eqs = 0;
+        for (int i = 5000; i < 10000; i++) {
+            assertFalse(cached.containsKey("key" + i));
+            assertTrue(cached == cached.without("key" + i));
+        }
+        assertEquals(0, cacheEq.eqs);
+
+        for (int i = 0; i < 5000; i += 2) {
+            cached = cached.without("key" + i);
+        }
+        assertEquals(2500, cached.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals((i % 2 == 0) ? null : Integer.valueOf(i), cached.get("key" + i));
+        }
+        for (int i = 1; i < 5000; i += 2) {
+            cached = cached.without("key" + i);
+        }
+        assertEquals(0, cached.size());
+        // Still caching after everything's been removed.
+        assertTrue(cached.cachesHashes());
+        assertTrue(cached.assoc("a", 1).cachesHashes());
+        assertFalse(PersistentHashMap.empty(null, false).cachesHashes());
+    }
+
+    @Test public void cachedHashesTransientAndCollisions() {
+        // Only 64 distinct hash codes: lots of HashCollisionNodes.
+        CountingEquator eq = new CountingEquator(0x3f);
+        ImMapTrans<String,Integer> t = PersistentHashMap.<String,Integer>empty(eq, true)
+                                                        .asTransient();
+        Map<String,Integer> control = new HashMap<>();
+        java.util.Random rand = new java.util.Random(12);
+        for (int round = 0; round < 20000; round++) {
+            String key = "k" + rand.nextInt(3000);
+            if (rand.nextInt(3) == 0) {
+                t = t.without(key);
+                control.remove(key);
+            } else {
+                t = t.assoc(key, round);
+                control.put(key, round);
+            }
+            assertEquals(control.size(), t.size());
+        }
+        PersistentHashMap<String,Integer> m = (PersistentHashMap<String,Integer>) t.persistent();
+        assertTrue(m.cachesHashes());
+        assertEquals(control, m);
+        for (Map.Entry<String,Integer> e : control.entrySet()) {
+            assertEquals(e.getValue(), m.get(e.getKey()));
+        }
+
+        // Persistent changes to a map built by a transient.
+        for (int i = 0; i < 3000; i += 3) {
+            m = m.assoc("k" + i, -i);
+            control.put("k" + i, -i);
+        }
+        assertEquals(control, m);
+        assertEquals(m, control);
+    }
+
+    @Test public void structuralEquals() {
+        CountingEquator eq = new CountingEquator(-1);
+        PersistentHashMap<String,Integer> m = PersistentHashMap.empty(eq);
+        for (int i = 0; i < 10000; i++) {
+            m = m.assoc("key" + i, i);
+        }
+        PersistentHashMap<String,Integer> changed = m.assoc("key5", -5);
+        PersistentHashMap<String,Integer> same = changed.assoc("key5", 5);
+        eq.eqs = 0;
+        eq.hashes = 0;
+        assertNotEquals(m, changed);
+        assertEquals(m, same);
+        assertEquals(same, m);
+        // Only the keys in the nodes on the path to key5 were compared, not all 10000 entries.
+        assertTrue(eq.eqs < 100);
+        assertEquals(0, eq.hashes);
+
+        // Different shapes with the same entries are still equal.
+        PersistentHashMap<String,Integer> shrunk = m;
+        for (int i = 100; i < 10000; i++) {
+            shrunk = shrunk.without("key" + i);
+        }
+        PersistentHashMap<String,Integer> fresh = PersistentHashMap.empty(eq);
+        for (int i = 99; i >= 0; i--) {
+            fresh = fresh.assoc("key" + i, i);
+        }
+        assertEquals(fresh, shrunk);
+        assertEquals(shrunk, fresh);
+        assertNotEquals(fresh.assoc(null, 1), shrunk);
+        assertEquals(fresh.assoc(null, 1), shrunk.assoc(null, 1));
+        assertNotEquals(fresh.assoc(null, 1), shrunk.assoc(null, 2));
+    }
+
+    @Test public void diff() {
+        PersistentHashMap<Integer,String> m = PersistentHashMap.empty();
+        for (int i = 0; i < 10000; i++) {
+            m = m.assoc(i, String.valueOf(i));
+        }
+        assertTrue(m.diff(m).isEmpty());
+
+        PersistentHashMap<Integer,String> m2 = m.assoc(10000, "new")
+                                                .assoc(null, "null")
+                                                .without(17)
+                                                .without(4000)
+                                                .assoc(33, "thirty-three")
+                                                .assoc(34, "34");
+        PersistentHashMap.Diff<Integer,String> d = m.diff(m2);
+        assertFalse(d.isEmpty());
+        assertEquals(PersistentHashMap.of(vec(tup(10000, "new"), tup(null, "null"))), d.added());
+        assertEquals(PersistentHashMap.of(vec(tup(17, "17"), tup(4000, "4000"))), d.removed());
+        assertEquals(1, d.changed().size());
+        assertEquals(Tuple2.of("33", "thirty-three"), d.changed().get(33));
+
+        // The other way around.
+        PersistentHashMap.Diff<Integer,String> back = m2.diff(m);
+        assertEquals(d.added(), back.removed());
+        assertEquals(d.removed(), back.added());
+        assertEquals(Tuple2.of("thirty-three", "33"), back.changed().get(33));
+    }
+
+    @Test public void diffRandom() {
+        // Few hash codes, so that keys and sub-nodes, ArrayNodes and BitmapIndexedNodes, and
+        // HashCollisionNodes all end up at the same positions in the two maps.
+        Equator<Integer> badHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return i % 700; }
+            @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+        };
+        java.util.Random rand = new java.util.Random(3);
+        PersistentHashMap<Integer,Integer> a = PersistentHashMap.empty(badHash);
+        for (int i = 0; i < 3000; i++) {
+            a = a.assoc(rand.nextInt(5000), i);
+        }
+        for (int round = 0; round < 20; round++) {
+            PersistentHashMap<Integer,Integer> b = a;
+            Map<Integer,Integer> control = new HashMap<>();
+            for (UnmodMap.UnEntry<Integer,Integer> e : a) {
+                control.put(e.getKey(), e.getValue());
+            }
+            for (int i = 0; i < round * 50; i++) {
+                int key = rand.nextInt(5000);
+                if (rand.nextBoolean()) {
+                    b = b.without(key);
+                    control.remove(key);
+                } else {
+                    b = b.assoc(key, rand.nextInt(3));
+                    control.put(key, b.get(key));
+                }
+            }
+            PersistentHashMap.Diff<Integer,Integer> d = a.diff(b);
+            Map<Integer,Integer> applied = new HashMap<>();
+            for (UnmodMap.UnEntry<Integer,Integer> e : a) {
+                applied.put(e.getKey(), e.getValue());
+            }
+            for (Integer k : d.removed().keySet()) {
+                assertFalse(control.containsKey(k));
+                applied.remove(k);
+            }
+            for (UnmodMap.UnEntry<Integer,Integer> e : d.added()) {
+                assertFalse(a.containsKey(e.getKey()));
+                applied.put(e.getKey(), e.getValue());
+            }
+            for (UnmodMap.UnEntry<Integer,Tuple2<Integer,Integer>> e : d.changed()) {
+                assertEquals(a.get(e.getKey()), e.getValue()._1());
+                assertNotEquals(e.getValue()._1(), e.getValue()._2());
+                applied.put(e.getKey(), e.getValue()._2());
+            }
+            assertEquals(control, applied);
+            assertEquals(control.equals(a), a.equals(b));
+        }
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void diffEx() {
+        Equator<Integer> other = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return i; }
+            @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+        };
+        PersistentHashMap.<Integer,Integer>empty().diff(PersistentHashMap.<Integer,Integer>empty(other));
+    }
+
+    private static final Function2<Integer,Integer,Integer> SUM =
+            new Function2<Integer,Integer,Integer>() {
+                @Override public Integer applyEx(Integer a, Integer b) { return a + b; }
+            };
+
+    @Test public void merge() {
+        PersistentHashMap<Integer,Integer> a = PersistentHashMap.empty();
+        PersistentHashMap<Integer,Integer> b = PersistentHashMap.empty();
+        for (int i = 0; i < 1000; i++) {
+            a = a.assoc(i, i);
+            b = b.assoc(i + 500, 1);
+        }
+        PersistentHashMap<Integer,Integer> m = a.merge(b, SUM);
+        assertEquals(1500, m.size());
+        for (int i = 0; i < 1500; i++) {
+            int expected = (i < 500) ? i : (i < 1000) ? i + 1 : 1;
+            assertEquals(Integer.valueOf(expected), m.get(i));
+        }
+        assertTrue(a == a.merge(PersistentHashMap.<Integer,Integer>empty(), SUM));
+        assertTrue(b == PersistentHashMap.<Integer,Integer>empty().merge(b, SUM));
+
+        // Keep this map's values: nothing changes.
+        Function2<Integer,Integer,Integer> keepFirst = new Function2<Integer,Integer,Integer>() {
+            @Override public Integer applyEx(Integer x, Integer y) { return x; }
+        };
+        assertTrue(a == a.merge(a.without(7), keepFirst));
+
+        // Null keys
+        PersistentHashMap<Integer,Integer> n = a.assoc(null, 3).merge(b.assoc(null, 4), SUM);
+        assertEquals(Integer.valueOf(7), n.get(null));
+        assertEquals(1501, n.size());
+        assertEquals(Integer.valueOf(4), a.merge(b.assoc(null, 4), SUM).get(null));
+    }
+
+    @Test public void mergeReusesSubtrees() {
+        // Keys whose low 5 bits are different never overlap at the root.
+        PersistentHashMap<Integer,Integer> evens = PersistentHashMap.empty();
+        PersistentHashMap<Integer,Integer> odds = PersistentHashMap.empty();
+        for (int i = 0; i < 10000; i++) {
+            evens = evens.assoc(i * 2, i);
+            odds = odds.assoc((i * 2) + 1, i);
+        }
+        PersistentHashMap<Integer,Integer> m = evens.merge(odds, SUM);
+        assertEquals(20000, m.size());
+        Footprint fromEvens = Footprint.of(m, evens);
+        Footprint fromOdds = Footprint.of(m, odds);
+        // Only the root is new - everything else came from one map or the other.
+        long newBytes = fromEvens.bytes() - fromEvens.sharedBytes() - fromOdds.sharedBytes();
+        assertTrue(newBytes > 0);
+        assertTrue(newBytes < 500);
+    }
+
+    @Test public void mergeRandom() {
+        Equator<Integer> badHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return i % 1000; }
+            @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+        };
+        java.util.Random rand = new java.util.Random(5);
+        for (Equator<Integer> eq : Arrays.asList(Equator.<Integer>defaultEquator(), badHash)) {
+            for (boolean cache : new boolean[] { false, true }) {
+                for (int round = 0; round < 10; round++) {
+                    PersistentHashMap<Integer,Integer> a = PersistentHashMap.empty(eq, cache);
+                    PersistentHashMap<Integer,Integer> b = PersistentHashMap.empty(eq, cache);
+                    Map<Integer,Integer> control = new HashMap<>();
+                    int n = rand.nextInt(3000);
+                    for (int i = 0; i < n; i++) {
+                        int k = rand.nextInt(6000);
+                        a = a.assoc(k, k);
+                        control.put(k, k);
+                    }
+                    Map<Integer,Integer> bControl = new HashMap<>();
+                    n = rand.nextInt(3000);
+                    for (int i = 0; i < n; i++) {
+                        int k = rand.nextInt(6000);
+                        b = b.assoc(k, 1);
+                        bControl.put(k, 1);
+                    }
+                    for (Map.Entry<Integer,Integer> e : bControl.entrySet()) {
+                        Integer old = control.get(e.getKey());
+                        control.put(e.getKey(), (old == null) ? 1 : old + 1);
+                    }
+                    PersistentHashMap<Integer,Integer> m = a.merge(b, SUM);
+                    assertEquals(control, m);
+                    assertEquals(m, control);
+                    assertEquals(control.size(), m.size());
+                    for (Map.Entry<Integer,Integer> e : control.entrySet()) {
+                        assertEquals(e.getValue(), m.get(e.getKey()));
+                    }
+                    // The inputs are unchanged.
+                    assertEquals(bControl, b);
+                    // The result can be changed further.
+                    assertEquals(control.size() + 1, m.assoc(-1, -1).size());
+                }
+            }
+        }
+        // Different Equators
+        PersistentHashMap<Integer,Integer> a = PersistentHashMap.of(vec(tup(1, 1), tup(2, 2)));
+        PersistentHashMap<Integer,Integer> b = PersistentHashMap.ofEq(badHash,
+                                                                      vec(tup(2, 2), tup(3, 3)));
+        assertEquals(PersistentHashMap.of(vec(tup(1, 1), tup(2, 4), tup(3, 3))), a.merge(b, SUM));
+    }
+
+    @Test public void parallelOfEq() {
+        java.util.Random rand = new java.util.Random(15);
+        List<Map.Entry<Integer,Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            // Plenty of duplicate keys: the last one has to win.
+            entries.add(tup(rand.nextInt(60000), i));
+        }
+        entries.add(null);
+        entries.add(tup((Integer) null, -1));
+        entries.add(tup((Integer) null, -2));
+
+        PersistentHashMap<Integer,Integer> seq = PersistentHashMap.ofEq(null, entries);
+        PersistentHashMap<Integer,Integer> par = PersistentHashMap.parallelOfEq(null, entries);
+        assertEquals(seq.size(), par.size());
+        assertEquals(seq, par);
+        assertEquals(Integer.valueOf(-2), par.get(null));
+        // Same shape, too.
+        assertEquals(Footprint.of(seq).nodeCounts(), Footprint.of(par).nodeCounts());
+        assertEquals(Footprint.of(seq).bytes(), Footprint.of(par).bytes());
+
+        // Few root slots and lots of collisions.
+        Equator<Integer> badHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return (i % 500) << 5; }
+            @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+        };
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(3);
+        seq = PersistentHashMap.ofEq(badHash, entries);
+        par = PersistentHashMap.parallelOfEq(pool, badHash, entries);
+        pool.shutdown();
+        assertEquals(seq, par);
+        assertEquals(Footprint.of(seq).nodeCounts(), Footprint.of(par).nodeCounts());
+
+        // Small inputs and an Iterable that isn't a Collection.
+        assertEquals(PersistentHashMap.of(entries.subList(0, 100)),
+                     PersistentHashMap.parallelOfEq(null, entries.subList(0, 100)));
+        final List<Map.Entry<Integer,Integer>> es = entries;
+        Iterable<Map.Entry<Integer,Integer>> notACollection = new Iterable<Map.Entry<Integer,Integer>>() {
+            @Override public Iterator<Map.Entry<Integer,Integer>> iterator() { return es.iterator(); }
+        };
+        assertEquals(seq, PersistentHashMap.parallelOfEq(badHash, notACollection));
+        assertEquals(0, PersistentHashMap.parallelOfEq(null, null).size());
+    }
+
+    @Test public void forEachAndReduceKV() {
+        // Lots of collisions so that every kind of node gets walked.
+        Equator<Integer> badHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return (i == null) ? 0 : i % 700; }
+            @Override public boolean eq(Integer a, Integer b) { return Objects.equals(a, b); }
+        };
+        PersistentHashMap<Integer,Integer> m = PersistentHashMap.empty(badHash);
+        Map<Integer,Integer> control = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            m = m.assoc(i, -i);
+            control.put(i, -i);
+        }
+        m = m.assoc(null, 7);
+        control.put(null, 7);
+
+        final Map<Integer,Integer> seen = new HashMap<>();
+        m.forEach(new BiConsumer<Integer,Integer>() {
+            @Override public void accept(Integer k, Integer v) { assertNull(seen.put(k, v)); }
+        });
+        assertEquals(control, seen);
+
+        // Visits the same items in the same order as the iterator.
+        List<Integer> order = new ArrayList<>();
+        for (UnmodMap.UnEntry<Integer,Integer> e : m) {
+            order.add(e.getKey());
+        }
+        List<Integer> kvOrder = m.reduceKV(new ArrayList<Integer>(),
+                new Function3<List<Integer>,Integer,Integer,List<Integer>>() {
+                    @Override public List<Integer> applyEx(List<Integer> l, Integer k, Integer v) {
+                        l.add(k);
+                        return l;
+                    }
+                });
+        assertEquals(order, kvOrder);
+
+        Function3<Long,Integer,Integer,Long> sumVals = new Function3<Long,Integer,Integer,Long>() {
+            @Override public Long applyEx(Long sum, Integer k, Integer v) { return sum + v; }
+        };
+        assertEquals(Long.valueOf(7 - (2999L * 3000 / 2)), m.reduceKV(0L, sumVals));
+        assertEquals(Long.valueOf(3),
+                     PersistentHashMap.<Integer,Integer>empty().reduceKV(3L, sumVals));
+
+        // Early termination
+        Function3<Integer,Integer,Integer,Integer> count =
+                new Function3<Integer,Integer,Integer,Integer>() {
+                    @Override public Integer applyEx(Integer c, Integer k, Integer v) {
+                        return c + 1;
+                    }
+                };
+        Function1<Integer,Boolean> atTen = new Function1<Integer,Boolean>() {
+            @Override public Boolean applyEx(Integer c) { return c == 10; }
+        };
+        assertEquals(Integer.valueOf(10), m.reduceKV(0, count, atTen));
+        assertEquals(Integer.valueOf(3001), m.reduceKV(0, count, null));
+
+        // foldLeft() and the collectors, with and without an Xform in between.
+        Function2<Integer,UnmodMap.UnEntry<Integer,Integer>,Integer> countEntries =
+                new Function2<Integer,UnmodMap.UnEntry<Integer,Integer>,Integer>() {
+                    @Override public Integer applyEx(Integer c,
+                                                     UnmodMap.UnEntry<Integer,Integer> e) {
+                        return c + 1;
+                    }
+                };
+        Function1<UnmodMap.UnEntry<Integer,Integer>,Map.Entry<Integer,Integer>> asEntry =
+                new Function1<UnmodMap.UnEntry<Integer,Integer>,Map.Entry<Integer,Integer>>() {
+                    @Override public Map.Entry<Integer,Integer> applyEx(
+                            UnmodMap.UnEntry<Integer,Integer> e) {
+                        return e;
+                    }
+                };
+        assertEquals(Integer.valueOf(3001), m.foldLeft(0, countEntries));
+        assertEquals(Integer.valueOf(10), m.foldLeft(0, countEntries, atTen));
+        assertEquals(control, m.toMutableMap(asEntry));
+        assertEquals(Integer.valueOf(1500),
+                     m.filter(new Function1<UnmodMap.UnEntry<Integer,Integer>,Boolean>() {
+                         @Override public Boolean applyEx(UnmodMap.UnEntry<Integer,Integer> e) {
+                             return (e.getKey() != null) && ((e.getKey() % 2) == 0);
+                         }
+                     }).foldLeft(0, countEntries));
+        assertEquals(Integer.valueOf(25), m.take(25).foldLeft(0, countEntries));
+        assertEquals(m, m.take(5000).toImMap(asEntry));
+    }
+
+    /** 2^n different Strings, all with the same hashCode ("Aa" and "BB" have the same hash). */
+    private static List<String> collidingStrings(int n) {
+        List<String> ret = new ArrayList<>();
+        ret.add("");
+        for (int i = 0; i < n; i++) {
+            List<String> next = new ArrayList<>();
+            for (String s : ret) {
+                next.add(s + "Aa");
+                next.add(s + "BB");
+            }
+            ret = next;
+        }
+        return ret;
+    }
+
+    @Test public void treeifiedCollisions() {
+        List<String> keys = collidingStrings(11);
+        assertEquals(2048, keys.size());
+        assertEquals(keys.get(0).hashCode(), keys.get(2047).hashCode());
+
+        PersistentHashMap<String,Integer> m = PersistentHashMap.empty();
+        Map<Object,Integer> control = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            m = m.assoc(keys.get(i), i);
+            control.put(keys.get(i), i);
+        }
+        assertEquals(control, m);
+        assertEquals(Integer.valueOf(1), Footprint.of(m).nodeCounts().get("CollisionTreeNode"));
+        assertNull(Footprint.of(m).nodeCounts().get("HashCollisionNode"));
+        assertTrue(m == m.assoc(keys.get(5), 5));
+        assertTrue(m == m.without("AaAa" + "x"));
+
+        // Same thing with a transient.
+        PersistentHashMap.TransientHashMap<String,Integer> t =
+                PersistentHashMap.<String,Integer>empty().asTransient();
+        for (int i = 0; i < keys.size(); i++) {
+            t.assoc(keys.get(i), i);
+        }
+        PersistentHashMap<String,Integer> fromTransient = t.persistent();
+        assertEquals(m, fromTransient);
+        assertEquals(Integer.valueOf(1),
+                     Footprint.of(fromTransient).nodeCounts().get("CollisionTreeNode"));
+
+        // A key of another class that collides turns it back into a flat array, since Strings
+        // can't be compared to Integers.  2112 == "Aa".hashCode()
+        int stringHash = keys.get(0).hashCode();
+        PersistentHashMap<Object,Integer> mixed = PersistentHashMap.empty();
+        for (String key : keys) {
+            mixed = mixed.assoc(key, control.get(key));
+        }
+        assertEquals(Integer.valueOf(1), Footprint.of(mixed).nodeCounts().get("CollisionTreeNode"));
+        assertNull(mixed.get(stringHash));
+        assertTrue(mixed == mixed.without(stringHash));
+        mixed = mixed.assoc(stringHash, -1);
+        control.put(stringHash, -1);
+        assertEquals(control, mixed);
+        assertNull(Footprint.of(mixed).nodeCounts().get("CollisionTreeNode"));
+        assertEquals(Integer.valueOf(-1), mixed.get(stringHash));
+
+        // Removing keys eventually makes it a flat array again.
+        for (int i = 0; i < keys.size() - 3; i++) {
+            m = m.without(keys.get(i));
+            control.remove(keys.get(i));
+            assertEquals(Integer.valueOf(i + 1), m.get(keys.get(i + 1)));
+            assertNull(m.get(keys.get(i)));
+        }
+        control.remove(stringHash);
+        assertEquals(control, m);
+        assertNull(Footprint.of(m).nodeCounts().get("CollisionTreeNode"));
+        assertEquals(Integer.valueOf(1), Footprint.of(m).nodeCounts().get("HashCollisionNode"));
+    }
+
+    /** Counts comparisons, and puts every key in one bucket. */
+    private static class CollidingContext extends Equator.ComparisonContext<Integer> {
+        int compares = 0;
+        @Override public int hash(Integer i) { return 7; }
+        @Override public int compare(Integer a, Integer b) {
+            compares++;
+            return a.compareTo(b);
+        }
+    }
+
+    @Test public void treeifiedComparisonContext() {
+        CollidingContext ctx = new CollidingContext();
+        PersistentHashMap<Integer,String> m = PersistentHashMap.empty(ctx);
+        for (int i = 0; i < 10000; i++) {
+            m = m.assoc(i, String.valueOf(i));
+        }
+        assertEquals(10000, m.size());
+
+        // Each lookup is a tree search instead of a linear scan.
+        ctx.compares = 0;
+        for (int i = 0; i < 10000; i += 100) {
+            assertEquals(String.valueOf(i), m.get(i));
+        }
+        assertNull(m.get(-1));
+        assertTrue(ctx.compares < 101 * 30);
+
+        // Diff and merge still work with collision trees.
+        PersistentHashMap<Integer,String> m2 = m.without(5).assoc(10000, "new").assoc(6, "six");
+        PersistentHashMap.Diff<Integer,String> diff = m.diff(m2);
+        assertEquals(PersistentHashMap.of(Collections.singletonList(Tuple2.of(10000, "new"))),
+                     diff.added());
+        assertEquals(Collections.singleton(5), diff.removed().keySet());
+        assertEquals(Collections.singleton(6), diff.changed().keySet());
+        assertEquals(m2.assoc(5, "5"), m2.merge(m, new Function2<String,String,String>() {
+            @Override public String applyEx(String a, String b) { return a; }
+        }));
+        for (int i = 0; i < 9996; i++) {
+            m = m.without(i);
+        }
+        assertEquals(4, m.size());
+        assertEquals("9999", m.get(9999));
+    }
+
+    @Test public void updateAssocIfAbsentMergeValue() {
+        Function1<Integer,Integer> inc = new Function1<Integer,Integer>() {
+            @Override public Integer applyEx(Integer i) { return (i == null) ? 1 : i + 1; }
+        };
+        // Plain lambdas work for assocIfAbsent() and mergeValue().
+        BiFunction<Integer,Integer,Integer> plus = (a, b) -> a + b;
+        Function<String,Integer> length = s -> (s == null) ? -1 : s.length();
+        // Lots of collisions too.
+        Equator<String> badHash = new Equator<String>() {
+            @Override public int hash(String s) { return (s == null) ? 0 : s.length() % 3; }
+            @Override public boolean eq(String a, String b) { return Objects.equals(a, b); }
+        };
+        for (PersistentHashMap<String,Integer> empty :
+                Arrays.asList(PersistentHashMap.<String,Integer>empty(),
+                              PersistentHashMap.<String,Integer>empty(Equator.<String>defaultEquator(), true),
+                              PersistentHashMap.<String,Integer>empty(badHash))) {
+            PersistentHashMap<String,Integer> m = empty;
+            // The same operations through ImMap's generic (entry, then assoc) versions.
+            ImMap<String,Integer> control = ChampMap.empty();
+            for (int i = 0; i < 5000; i++) {
+                String key = (i % 1000 == 999) ? null : String.valueOf(i % 700);
+                m = m.update(key, inc);
+                control = control.update(key, inc);
+                m = m.mergeValue(key + "m", i, plus);
+                control = control.mergeValue(key + "m", i, plus);
+                m = m.assocIfAbsent(key + "c", length);
+                control = control.assocIfAbsent(key + "c", length);
+            }
+            assertEquals(control, m);
+            assertEquals(Integer.valueOf(8), m.get("5"));
+            assertEquals(Integer.valueOf(5), m.get(null));
+            assertEquals(Integer.valueOf(2), m.get("5c"));
+            assertEquals(Integer.valueOf(5), m.get("nullc"));
+
+            // Returns the same map when nothing changes.
+            Function1<Integer,Integer> same = Function1.identity();
+            assertTrue(m == m.update("5", same));
+            assertTrue(m == m.update(null, same));
+            assertTrue(m == m.assocIfAbsent("5", length));
+            assertTrue(m == m.mergeValue("5", 0, (a, b) -> a));
+
+            // A missing key gets f(null) or the given value
+            assertEquals(Integer.valueOf(1), m.update("new", inc).get("new"));
+            assertEquals(m.size() + 1, m.update("new", inc).size());
+            assertEquals(Integer.valueOf(-7), m.mergeValue("new", -7, plus).get("new"));
+            assertEquals(Integer.valueOf(3), m.assocIfAbsent("new", length).get("new"));
+            assertEquals(Integer.valueOf(3), m.assocIfAbsent("new", k -> k.length()).get("new"));
+            assertEquals(Integer.valueOf(15),
+                         m.mergeValue("5", 7, (a, b) -> a + b).get("5"));
+            assertNull(empty.update(null, same).get(null));
+            assertEquals(1, empty.update(null, same).size());
+        }
+    }
+
+    /** Setting a key to the value it already has, or removing a missing key, changes nothing. */
+    @Test public void noOpAssocAndWithoutReturnSameMap() {
+        Equator<Integer> badHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return (i == null) ? 0 : i % 5; }
+            @Override public boolean eq(Integer a, Integer b) { return Objects.equals(a, b); }
+        };
+        long mapOnlyBytes = Footprint.of(PersistentHashMap.empty()).bytes();
+        for (PersistentHashMap<Integer,String> empty :
+                Arrays.asList(PersistentHashMap.<Integer,String>empty(),
+                              PersistentHashMap.<Integer,String>empty(Equator.<Integer>defaultEquator(),
+                                                                      true),
+                              PersistentHashMap.<Integer,String>empty(badHash))) {
+            assertTrue(empty == empty.without(7));
+            assertTrue(empty == empty.without(null));
+
+            PersistentHashMap<Integer,String> m = empty.assoc(null, "null");
+            for (int i = 0; i < 2000; i++) {
+                m = m.assoc(i, String.valueOf(i));
+            }
+            assertTrue(m == m.assoc(null, m.get(null)));
+            for (int i = 0; i < 2000; i++) {
+                assertTrue(m == m.assoc(i, m.get(i)));
+                assertTrue(m == m.without(-1 - i));
+            }
+            // An equal, but different, value is a change.
+            assertFalse(m == m.assoc(5, new String("5")));
+
+            // A transient doesn't copy any nodes for these either.
+            PersistentHashMap.TransientHashMap<Integer,String> t = m.asTransient();
+            t.assoc(null, m.get(null)).without(-1);
+            for (int i = 0; i < 2000; i++) {
+                assertTrue(t == t.assoc(i, m.get(i)));
+                assertTrue(t == t.without(-1 - i));
+            }
+            PersistentHashMap<Integer,String> p = t.persistent();
+            assertEquals(m, p);
+            Footprint fp = Footprint.of(p, m);
+            assertEquals(mapOnlyBytes, fp.bytes() - fp.sharedBytes());
+        }
+    }
+
+    @Test public void keySetAlgebraWithCachedHashes() {
+        PersistentHashMap<Integer,String> a =
+                PersistentHashMap.empty(Equator.<Integer>defaultEquator(), true);
+        for (int i = 0; i < 5000; i++) {
+            a = a.assoc(i, String.valueOf(i));
+        }
+        PersistentHashMap<Integer,String> b = a;
+        Map<Integer,String> only = new HashMap<>();
+        Map<Integer,String> both = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            if ( (i % 3) == 0) {
+                b = b.without(i);
+                only.put(i, String.valueOf(i));
+            } else {
+                both.put(i, String.valueOf(i));
+            }
+        }
+        b = b.assoc(-1, "-1");
+        PersistentHashMap<Integer,String> in = a.withKeysIn(b);
+        PersistentHashMap<Integer,String> out = a.withoutKeysIn(b);
+        assertEquals(both, in);
+        assertEquals(both.size(), in.size());
+        assertEquals(only, out);
+        assertEquals(only.size(), out.size());
+        assertTrue(in.cachesHashes());
+        assertTrue(out.cachesHashes());
+        assertTrue(in.keysAreIn(a));
+        assertFalse(a.keysAreIn(b));
+        assertTrue(a == a.withKeysIn(a));
+        assertEquals(0, a.withoutKeysIn(a).size());
+        assertTrue(a.withoutKeysIn(a).cachesHashes());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void keySetAlgebraEx() {
+        PersistentHashMap.<Integer,String>empty()
+                .withKeysIn(PersistentHashMap.<Integer,String>empty(new Equator<Integer>() {
+                    @Override public int hash(Integer i) { return 0; }
+                    @Override public boolean eq(Integer a, Integer b) { return Objects.equals(a, b); }
+                }));
+    }
+
+    /** Removing keys can leave empty sub-nodes, which mustn't count as keys missing from the other map. */
+    @Test public void keysAreInWithEmptiedSubNodes() {
+        PersistentHashMap<Integer,String> m = PersistentHashMap.empty();
+        for (int i = 0; i < 40; i++) {
+            m = m.assoc(i, String.valueOf(i));
+        }
+        for (int i = 0; i < 40; i++) {
+            if ( (i != 3) && (i != 19) && (i != 31) ) {
+                m = m.without(i);
+            }
+        }
+        PersistentHashMap<Integer,String> other = PersistentHashMap.<Integer,String>empty()
+                .assoc(3, "a").assoc(5, "b").assoc(19, "c").assoc(31, "d");
+        assertTrue(m.keysAreIn(other));
+        assertFalse(other.keysAreIn(m));
+        assertEquals(m, m.withKeysIn(other));
+        assertEquals(0, m.withoutKeysIn(other).size());
+    }
+
+    /** A null Equator means the default one, all the way down to the nodes. */
+    @Test public void cachedHashesNullEquator() {
+        PersistentHashMap<String,Integer> m = PersistentHashMap.empty(null, true);
+        assertTrue(m.cachesHashes());
+        assertEquals(Equator.defaultEquator(), m.equator());
+        m = m.assoc("a", 1).assoc("b", 2).assoc("a", 3);
+        assertEquals(2, m.size());
+        assertEquals(Integer.valueOf(3), m.get("a"));
+        assertEquals(Integer.valueOf(2), m.get("b"));
+        for (int i = 0; i < 1000; i++) {
+            m = m.assoc("key" + i, i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            m = m.without("key" + i);
+        }
+        assertEquals(502, m.size());
+        assertNull(m.get("key0"));
+        assertEquals(Integer.valueOf(999), m.get("key999"));
+    }
+
+    /** The result always has this map's Equator and hash caching, even when this map is empty. */
+    @Test public void mergeIntoEmptyKeepsThisKind() {
+        Equator<Integer> negHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return -i; }
+            @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+        };
+        PersistentHashMap<Integer,Integer> plain = PersistentHashMap.empty();
+        for (int i = 0; i < 25; i++) {
+            plain = plain.assoc(i, i);
+        }
+        PersistentHashMap<Integer,Integer> m = PersistentHashMap.<Integer,Integer>empty(negHash)
+                                                                .merge(plain, SUM);
+        assertTrue(m.equator() == negHash);
+        assertEquals(plain, m);
+        assertEquals(m.assoc(3, 6), m.merge(PersistentHashMap.<Integer,Integer>empty().assoc(3, 3),
+                                            SUM));
+
+        PersistentHashMap<Integer,Integer> cached =
+                PersistentHashMap.<Integer,Integer>empty(Equator.<Integer>defaultEquator(), true)
+                                 .merge(plain, SUM);
+        assertTrue(cached.cachesHashes());
+        assertEquals(plain, cached);
+        assertFalse(plain == cached);
+        assertFalse(plain.merge(cached.assoc(-1, -1), SUM).cachesHashes());
+        assertEquals(26, plain.merge(cached.assoc(-1, -1), SUM).size());
+    }
+
+    /** parallelOfEq() lays out the nodes just like ofEq(), including for fully colliding keys. */
+    @Test public void parallelOfEqShape() {
+        List<Map.Entry<Integer,Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            entries.add(tup(i, i));
+        }
+        // Every key in 4 root slots has the same hash as all the others in that slot.
+        Equator<Integer> fourHashes = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return i % 4; }
+            @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+        };
+        // No collisions, but only 12 root slots, so the root is a BitmapIndexedNode.
+        Equator<Integer> twelveSlots = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return ((i / 12) << 5) | (i % 12); }
+            @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+        };
+        for (Equator<Integer> eq : Arrays.asList(fourHashes, twelveSlots,
+                                                 Equator.<Integer>defaultEquator())) {
+            PersistentHashMap<Integer,Integer> seq = PersistentHashMap.ofEq(eq, entries);
+            PersistentHashMap<Integer,Integer> par = PersistentHashMap.parallelOfEq(eq, entries);
+            assertEquals(seq, par);
+            assertEquals(Footprint.of(seq).nodeCounts(), Footprint.of(par).nodeCounts());
+            assertEquals(Footprint.of(seq).bytes(), Footprint.of(par).bytes());
+        }
+    }
+
+    @Test public void toImMapAndToMutableMapIdentity() {
+        PersistentHashMap<String,Integer> m = PersistentHashMap.empty();
+        Map<String,Integer> control = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            m = m.assoc("k" + i, i);
+            control.put("k" + i, i);
+        }
+        m = m.assoc(null, -1);
+        control.put(null, -1);
+
+        // Already the kind of map toImMap() makes.
+        assertTrue(m == m.toImMap(Function1.<Map.Entry<String,Integer>>identity()));
+        assertEquals(control,
+                     m.toMutableMap(Function1.<Map.Entry<String,Integer>>identity()));
+
+        // A map with its own Equator is copied into a default one.
+        Equator<String> caseInsensitive = new Equator<String>() {
+            @Override public int hash(String s) {
+                return (s == null) ? 0 : s.toLowerCase().hashCode();
+            }
+            @Override public boolean eq(String a, String b) {
+                return (a == null) ? (b == null) : a.equalsIgnoreCase(b);
+            }
+        };
+        PersistentHashMap<String,Integer> ci = PersistentHashMap.empty(caseInsensitive, true);
+        ci = ci.assoc("a", 1).assoc("B", 2).assoc(null, 3);
+        ImMap<String,Integer> copy =
+                ci.toImMap(Function1.<Map.Entry<String,Integer>>identity());
+        assertEquals(3, copy.size());
+        assertEquals(Integer.valueOf(2), copy.get("B"));
+        assertNull(copy.get("b"));
+        assertEquals(Integer.valueOf(3), copy.get(null));
+        assertTrue(ci.toMutableMap(Function1.<Map.Entry<String,Integer>>identity())
+                     .equals(copy));
+
+        // Any other function still gets the entries.
+        Function1<UnmodMap.UnEntry<String,Integer>,Map.Entry<Integer,String>> swap =
+                new Function1<UnmodMap.UnEntry<String,Integer>,Map.Entry<Integer,String>>() {
+                    @Override public Map.Entry<Integer,String> applyEx(
+                            UnmodMap.UnEntry<String,Integer> e) {
+                        return tup(e.getValue(), e.getKey());
+                    }
+                };
+        assertEquals("B", ci.toImMap(swap).get(2));
+        assertEquals("a", ci.toMutableMap(swap).get(1));
+    }
+
+    /** Describes each node's class, fields, and array contents, starting at the map's root. */
+    private static String layout(Object o) throws Exception {
+        if (o instanceof Object[]) {
+            Object[] array = (Object[]) o;
+            StringBuilder sb = new StringBuilder("[").append(array.length).append(':');
+            for (Object item : array) {
+                sb.append(' ').append(layout(item));
+            }
+            return sb.append(']').toString();
+        }
+        if ( (o == null) ||
+             !o.getClass().getName().startsWith(PersistentHashMap.class.getName() + "$") ) {
+            return String.valueOf(o);
+        }
+        StringBuilder sb = new StringBuilder(o.getClass().getSimpleName()).append('(');
+        for (java.lang.reflect.Field f : o.getClass().getDeclaredFields()) {
+            if (java.lang.reflect.Modifier.isStatic(f.getModifiers()) ||
+                (f.getType() == java.util.concurrent.atomic.AtomicReference.class) ||
+                (f.getType() == Equator.class)) {
+                continue;
+            }
+            f.setAccessible(true);
+            Object val = f.get(o);
+            sb.append(f.getName()).append('=')
+              .append((val instanceof int[]) ? Arrays.toString((int[]) val) : layout(val))
+              .append(' ');
+        }
+        return sb.append(')').toString();
+    }
+
+    private static String layout(PersistentHashMap<?,?> m) throws Exception {
+        java.lang.reflect.Field root = PersistentHashMap.class.getDeclaredField("root");
+        root.setAccessible(true);
+        return layout(root.get(m));
+    }
+
+    @Test public void parallelOfEqLayout() throws Exception {
+        List<Equator<Integer>> equators = new ArrayList<>();
+        equators.add(Equator.<Integer>defaultEquator());
+        // Lots of keys with the same hash, in few root slots and in many.
+        for (final int mod : new int[] { 3, 20, 40, 700, 5000 }) {
+            equators.add(new Equator<Integer>() {
+                @Override public int hash(Integer i) { return i % mod; }
+                @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+            });
+        }
+        // Only 12 root slots, so the root stays a BitmapIndexedNode.
+        equators.add(new Equator<Integer>() {
+            @Override public int hash(Integer i) { return ((i / 12) << 5) | (i % 12); }
+            @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+        });
+        // 17 root slots, the last of which is only used at the very end.
+        equators.add(new Equator<Integer>() {
+            @Override public int hash(Integer i) {
+                return (i == 0) ? 16 : ((i % 7) << 5) | (i % 16);
+            }
+            @Override public boolean eq(Integer a, Integer b) { return a.equals(b); }
+        });
+        java.util.Random rand = new java.util.Random(1015);
+        for (Equator<Integer> eq : equators) {
+            for (int n : new int[] { 9000, 30000 }) {
+                List<Map.Entry<Integer,Integer>> entries = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    // Plenty of duplicate keys (and a few nulls) in random order.
+                    entries.add((i % 1000 == 999) ? null
+                                                  : tup(rand.nextInt(n * 2 / 3) + 1, i));
+                }
+                entries.add(tup(0, -1));
+                PersistentHashMap<Integer,Integer> seq = PersistentHashMap.ofEq(eq, entries);
+                PersistentHashMap<Integer,Integer> par =
+                        PersistentHashMap.parallelOfEq(eq, entries);
+                assertEquals(seq, par);
+                assertEquals(seq.size(), par.size());
+                assertEquals(layout(seq), layout(par));
+            }
+        }
+    }
+
+    /** assoc() tells an added key from a replaced value by the shape of the nodes. */
+    @Test public void assocCountsThroughCollisionNodes() {
+        // 32 Strings with the same hashCode() (enough to make a tree), plus an Integer and a Long
+        // with that hash too (which flatten the tree again).
+        List<Object> keys = new ArrayList<>();
+        for (int b = 0; b < 32; b++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 5; j++) {
+                sb.append((((b >> j) & 1) == 0) ? "Aa" : "BB");
+            }
+            keys.add(sb.toString());
+        }
+        int hash = keys.get(0).hashCode();
+        keys.addAll(Arrays.<Object>asList(hash, (long) hash, "x", 7));
+        java.util.Random rand = new java.util.Random(20);
+        for (boolean cacheHashes : new boolean[] { false, true }) {
+            PersistentHashMap<Object,Integer> m = PersistentHashMap.empty(null, cacheHashes);
+            Map<Object,Integer> control = new HashMap<>();
+            for (int i = 0; i < 20000; i++) {
+                Object key = keys.get(rand.nextInt(keys.size()));
+                Integer val = rand.nextInt(3);
+                if (rand.nextInt(3) < 2) {
+                    m = m.assoc(key, val);
+                    control.put(key, val);
+                } else {
+                    m = m.without(key);
+                    control.remove(key);
+                }
+                assertEquals(control.size(), m.size());
+            }
+            assertEquals(control, m);
+        }
+    }
 }
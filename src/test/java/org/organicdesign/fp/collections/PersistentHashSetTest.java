@@ -5,8 +5,12 @@ import org.organicdesign.fp.FunctionUtils;
 import org.organicdesign.fp.Option;
 import org.organicdesign.fp.collections.interfaces.UnmodIterable;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.Assert.*;
@@ -298,4 +302,206 @@ public class PersistentHashSetTest {
 //                     s2.put("hello").put("an").put("work").put("b").put("the").toString());
 //    }
 
+    @Test public void noOpPutAndWithoutReturnSameSet() {
+        PersistentHashSet<String> s = PersistentHashSet.empty();
+        assertTrue(s == s.without("hello"));
+        for (int i = 0; i < 1000; i++) {
+            s = s.put(String.valueOf(i));
+        }
+        s = s.put(null);
+        assertTrue(s == s.put(null));
+        for (int i = 0; i < 1000; i++) {
+            // Even an equal, but different, String is already in the set.
+            assertTrue(s == s.put(new String(String.valueOf(i))));
+            assertTrue(s == s.without(String.valueOf(-1 - i)));
+        }
+    }
+
+    private static void assertSetOps(PersistentHashSet<Integer> a, PersistentHashSet<Integer> b) {
+        Set<Integer> union = new HashSet<>(a);
+        union.addAll(b);
+        Set<Integer> intersection = new HashSet<>(a);
+        intersection.retainAll(b);
+        Set<Integer> difference = new HashSet<>(a);
+        difference.removeAll(b);
+
+        assertEquals(union, a.union(b));
+        assertEquals(union.size(), a.union(b).size());
+        assertEquals(intersection, a.intersection(b));
+        assertEquals(intersection.size(), a.intersection(b).size());
+        assertEquals(difference, a.difference(b));
+        assertEquals(difference.size(), a.difference(b).size());
+        assertEquals(b.containsAll(a), a.isSubsetOf(b));
+
+        // Same answers from other.contains() for a java.util.Set
+        Set<Integer> hb = new HashSet<>(b);
+        assertEquals(intersection, a.intersection(hb));
+        assertEquals(difference, a.difference(hb));
+        assertEquals(b.containsAll(a), a.isSubsetOf(hb));
+    }
+
+    @Test public void setAlgebra() {
+        Equator<Integer> badHash = new Equator<Integer>() {
+            @Override public int hash(Integer i) { return (i == null) ? 0 : i % 7; }
+            @Override public boolean eq(Integer a, Integer b) { return Objects.equals(a, b); }
+        };
+        Random rand = new Random(161803);
+        for (PersistentHashSet<Integer> empty :
+                Arrays.asList(PersistentHashSet.<Integer>empty(),
+                              PersistentHashSet.empty(badHash))) {
+            // Sets derived from a common ancestor share most of their sub-trees.
+            PersistentHashSet<Integer> base = empty;
+            for (int i = 0; i < 3000; i++) {
+                base = base.put(rand.nextInt(10000));
+            }
+            for (int round = 0; round < 20; round++) {
+                PersistentHashSet<Integer> a = base;
+                PersistentHashSet<Integer> b = base;
+                int changes = rand.nextInt(1 << rand.nextInt(12));
+                for (int i = 0; i < changes; i++) {
+                    int n = rand.nextInt(10000);
+                    switch (rand.nextInt(4)) {
+                        case 0: a = a.put(n); break;
+                        case 1: a = a.without(n); break;
+                        case 2: b = b.put(n); break;
+                        default: b = b.without(n);
+                    }
+                }
+                if (round % 5 == 0) { a = a.put(null); }
+                if (round % 3 == 0) { b = b.put(null); }
+                assertSetOps(a, b);
+                assertSetOps(b, a);
+                assertSetOps(a, empty);
+                assertSetOps(empty, a);
+            }
+        }
+    }
+
+    @Test public void setAlgebraIdentity() {
+        PersistentHashSet<Integer> a = PersistentHashSet.empty();
+        for (int i = 0; i < 1000; i++) {
+            a = a.put(i);
+        }
+        PersistentHashSet<Integer> sub = a.without(7).without(500).without(999);
+        PersistentHashSet<Integer> other = PersistentHashSet.of(Arrays.asList(-1, -2, -3));
+        PersistentHashSet<Integer> empty = PersistentHashSet.empty();
+
+        assertTrue(a == a.union(sub));
+        assertTrue(a == sub.union(a));
+        assertTrue(a == a.union(empty));
+        assertTrue(sub == sub.intersection(a));
+        assertTrue(a == a.difference(other));
+        assertTrue(a == a.difference(empty));
+        assertTrue(sub.isSubsetOf(a));
+        assertFalse(a.isSubsetOf(sub));
+        assertTrue(empty.isSubsetOf(a));
+        assertFalse(a.isSubsetOf(a.without(0).put(-1)));
+        assertEquals(3, a.difference(sub).size());
+        assertEquals(0, a.intersection(other).size());
+    }
+
+    @Test public void setAlgebraWithCollisions() {
+        // "Aa" and "BB" have the same hashCode, so these Strings all collide (many of them in
+        // tree-ified collision nodes).
+        String[] halves = { "Aa", "BB" };
+        List<String> strs = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            StringBuilder sB = new StringBuilder();
+            for (int j = 0; j < 8; j++) {
+                sB.append(halves[(i >> j) & 1]);
+            }
+            strs.add(sB.toString());
+        }
+        PersistentHashSet<String> all = PersistentHashSet.of(strs);
+        PersistentHashSet<String> evens = PersistentHashSet.empty();
+        PersistentHashSet<String> odds = PersistentHashSet.empty();
+        for (int i = 0; i < strs.size(); i++) {
+            if ( (i % 2) == 0) {
+                evens = evens.put(strs.get(i));
+            } else {
+                odds = odds.put(strs.get(i));
+            }
+        }
+        evens = evens.put("hello");
+        assertEquals(all.put("hello"), odds.union(evens));
+        assertEquals(odds, all.difference(evens));
+        assertEquals(evens.without("hello"), all.intersection(evens));
+        assertTrue(odds.isSubsetOf(all));
+        assertFalse(evens.isSubsetOf(all));
+        assertEquals(0, odds.intersection(evens).size());
+        assertTrue(odds == odds.difference(evens));
+    }
+
+    @Test public void putAllWithoutAll() {
+        List<Integer> items = new ArrayList<>();
+        Set<Integer> control = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            items.add(i % 7000);
+            control.add(i % 7000);
+        }
+        PersistentHashSet<Integer> empty = PersistentHashSet.empty();
+        PersistentHashSet<Integer> s = empty.putAll(items);
+        assertEquals(control, s);
+        assertEquals(control.size(), s.size());
+        assertTrue(s == s.putAll(items));
+        assertTrue(s == s.putAll(null));
+        assertTrue(empty == empty.putAll(new ArrayList<Integer>()));
+
+        PersistentHashSet<Integer> removed = s.withoutAll(items.subList(0, 5000));
+        control.removeAll(items.subList(0, 5000));
+        assertEquals(control, removed);
+        assertEquals(control.size(), removed.size());
+        assertTrue(removed == removed.withoutAll(Arrays.asList(-1, -2, 0, 1)));
+        assertTrue(removed == removed.withoutAll(null));
+        assertEquals(0, s.withoutAll(items).size());
+
+        // The original is unchanged.
+        assertEquals(7000, s.size());
+
+        // union() with something other than a PersistentHashSet goes through putAll()
+        assertEquals(s, removed.union(items));
+
+        PersistentHashSet.TransientHashSet<Integer> t = empty.asTransient();
+        for (Integer i : items) {
+            t = t.put(i);
+        }
+        assertEquals(s, t.persistent());
+    }
+
+    /** Removing keys can leave empty sub-nodes, which mustn't count as keys missing from the other set. */
+    @Test public void isSubsetOfWithEmptiedSubNodes() {
+        PersistentHashSet<Integer> s = PersistentHashSet.empty();
+        for (int i = 0; i < 40; i++) {
+            s = s.put(i);
+        }
+        for (int i = 0; i < 40; i++) {
+            if ( (i != 3) && (i != 19) && (i != 31) ) {
+                s = s.without(i);
+            }
+        }
+        PersistentHashSet<Integer> other = PersistentHashSet.of(vec(3, 5, 19, 31));
+        assertTrue(s.isSubsetOf(other));
+        assertFalse(other.isSubsetOf(s));
+        assertEquals(s, s.intersection(other));
+        assertEquals(0, s.difference(other).size());
+    }
+
+    /** The empty set is a subset of every set, whether or not either one caches hashes. */
+    @Test public void emptyIsSubsetOfEverything() {
+        Equator<String> eq = Equator.defaultEquator();
+        PersistentHashSet<String> plain = PersistentHashSet.empty();
+        PersistentHashSet<String> cached =
+                PersistentHashSet.ofMap(PersistentHashMap.<String,String>empty(eq, true));
+        PersistentHashSet<String> emptied = cached.put("a").without("a");
+        for (PersistentHashSet<String> e : Arrays.asList(plain, cached, emptied)) {
+            for (PersistentHashSet<String> other : Arrays.asList(plain, cached, emptied,
+                                                                  plain.put("a"),
+                                                                  cached.put("b"))) {
+                assertTrue(e.isSubsetOf(other));
+            }
+        }
+        assertFalse(cached.put("a").isSubsetOf(plain));
+        assertFalse(cached.put("a").isSubsetOf(cached));
+        assertFalse(plain.put("a").isSubsetOf(emptied));
+    }
 }
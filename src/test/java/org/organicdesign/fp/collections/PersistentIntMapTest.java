@@ -0,0 +1,77 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+import org.organicdesign.fp.collections.interfaces.UnmodMap;
+import org.organicdesign.fp.tuple.Tuple2;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PersistentIntMapTest {
+    @Test public void basics() {
+        PersistentIntMap<String> m = PersistentIntMap.empty();
+        assertEquals("PersistentIntMap()", m.toString());
+        Map<Integer,String> control = new HashMap<>();
+        Random rand = new Random(1234);
+        for (int round = 0; round < 20000; round++) {
+            int key = rand.nextInt(3000) - 1500;
+            if (rand.nextInt(4) == 0) {
+                m = m.without(key);
+                control.remove(key);
+            } else {
+                m = m.assoc(key, String.valueOf(round));
+                control.put(key, String.valueOf(round));
+            }
+        }
+        m = m.assoc(Integer.MIN_VALUE, "min").assoc(Integer.MAX_VALUE, "max");
+        control.put(Integer.MIN_VALUE, "min");
+        control.put(Integer.MAX_VALUE, "max");
+
+        assertEquals(control.size(), m.size());
+        for (Map.Entry<Integer,String> e : control.entrySet()) {
+            assertTrue(m.containsKey(e.getKey()));
+            assertEquals(e.getValue(), m.get(e.getKey()));
+        }
+        assertEquals(control, m.asImMap());
+        assertEquals(m.asImMap(), control);
+        // Negative keys hash like Integers, not like the Longs they're stored as.
+        assertEquals(control.hashCode(), m.hashCode());
+        for (UnmodMap.UnEntry<Integer,String> e : m.asImMap()) {
+            assertEquals(control.get(e.getKey()), e.getValue());
+        }
+        assertEquals(m, PersistentIntMap.of(control.entrySet()));
+        assertTrue(m == m.assoc(Integer.MIN_VALUE, m.get(Integer.MIN_VALUE)));
+        assertTrue(m == m.without(5000));
+    }
+
+    @Test public void boxedView() {
+        ImMap<Integer,String> m = PersistentIntMap.<String>empty().asImMap();
+        m = m.assoc(-5, "minus five").assoc(5, "five");
+        assertEquals("minus five", m.get(-5));
+        assertNull(m.get(-5L));
+        assertFalse(m.containsKey(null));
+        assertEquals(Tuple2.of(-5, "minus five"), m.entry(-5).get());
+        assertFalse(m.entry(6).isSome());
+        assertTrue(m == m.without(6));
+        assertEquals(2, m.keySet().size());
+        assertFalse(m.equals(PersistentLongMap.<String>empty().asImMap()
+                                              .assoc(-5L, "minus five").assoc(5L, "five")));
+    }
+
+    @Test public void transientBuilder() {
+        PersistentIntMap.TransientIntMap<Integer> t = PersistentIntMap.emptyTransient();
+        for (int i = 0; i < 1000; i++) {
+            t.assoc(i, i * i);
+        }
+        t.without(10).assoc(11, -1);
+        assertEquals(999, t.size());
+        assertFalse(t.containsKey(10));
+        assertEquals(Integer.valueOf(-1), t.getOrElse(11, 0));
+        PersistentIntMap<Integer> m = t.persistent();
+        assertEquals(Integer.valueOf(999 * 999), m.get(999));
+        assertNull(m.get(1000));
+    }
+}
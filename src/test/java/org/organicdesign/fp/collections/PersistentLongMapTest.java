@@ -0,0 +1,153 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+import org.organicdesign.fp.collections.interfaces.UnmodMap;
+import org.organicdesign.fp.tuple.Tuple2;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PersistentLongMapTest {
+
+    private static void assertSame(Map<Long,String> expected, PersistentLongMap<String> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<Long,String> e : expected.entrySet()) {
+            assertTrue(actual.containsKey(e.getKey()));
+            assertEquals(e.getValue(), actual.get(e.getKey()));
+        }
+        assertEquals(expected, actual.asImMap());
+        assertEquals(actual.asImMap(), expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+        assertEquals(expected.hashCode(), actual.asImMap().hashCode());
+        int count = 0;
+        for (UnmodMap.UnEntry<Long,String> e : actual.asImMap()) {
+            assertEquals(expected.get(e.getKey()), e.getValue());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+
+    @Test public void empty() {
+        PersistentLongMap<String> e = PersistentLongMap.empty();
+        assertEquals(0, e.size());
+        assertFalse(e.containsKey(0));
+        assertNull(e.get(0));
+        assertEquals("x", e.getOrElse(0, "x"));
+        assertFalse(e.asImMap().iterator().hasNext());
+        assertTrue(e == e.without(3));
+        assertEquals(e, e.assoc(3, "3").without(3));
+        assertEquals("PersistentLongMap()", e.toString());
+    }
+
+    @Test public void basics() {
+        PersistentLongMap<String> m = PersistentLongMap.empty();
+        Map<Long,String> control = new HashMap<>();
+        // Keys which only differ in their highest bits go all the way down the trie.
+        long[] keys = { 0L, 1L, -1L, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 60, 1L << 63 | 1,
+                        32L, 1024L, 1L << 35, 3L << 60 };
+        for (long k : keys) {
+            m = m.assoc(k, String.valueOf(k));
+            control.put(k, String.valueOf(k));
+        }
+        assertSame(control, m);
+
+        // Null values are allowed, and replacing with the same value is a no-op.
+        m = m.assoc(7L, null);
+        control.put(7L, null);
+        assertSame(control, m);
+        assertTrue(m.containsKey(7L));
+        assertTrue(m == m.assoc(7L, null));
+        assertTrue(m == m.assoc(1024L, m.get(1024L)));
+
+        for (long k : keys) {
+            m = m.without(k);
+            control.remove(k);
+            assertSame(control, m);
+        }
+        assertTrue(m == m.without(1024L));
+    }
+
+    @Test public void boxedView() {
+        ImMap<Long,String> m = PersistentLongMap.<String>empty().asImMap();
+        m = m.assoc(5L, "five").assoc(1L << 40, "big");
+        assertEquals("five", m.get(5L));
+        assertNull(m.get(5));
+        assertFalse(m.containsKey("5"));
+        assertFalse(m.containsKey(null));
+        assertFalse(m.entry(null).isSome());
+        assertEquals(Tuple2.of(5L, "five"), m.entry(5L).get());
+        assertTrue(m == m.without(6L));
+        assertTrue(m == m.without(null));
+        assertTrue(m == m.assoc(5L, m.get(5L)));
+        assertEquals(2, m.keySet().size());
+        assertTrue(m.keySet().contains(1L << 40));
+        assertEquals(1, m.without(5L).size());
+    }
+
+    @Test public void transientBuilder() {
+        PersistentLongMap.TransientLongMap<String> t = PersistentLongMap.emptyTransient();
+        for (long i = 0; i < 1000; i++) {
+            t.assoc(i * 7919, String.valueOf(i));
+        }
+        t.without(7919L).assoc(0L, "zero");
+        assertEquals(999, t.size());
+        assertEquals("zero", t.get(0));
+        assertFalse(t.containsKey(7919L));
+        PersistentLongMap<String> m = t.persistent();
+        assertEquals(999, m.size());
+        assertEquals("2", m.get(2 * 7919));
+
+        // Changing a transient made from a persistent map doesn't change the map.
+        PersistentLongMap.TransientLongMap<String> t2 = m.asTransient();
+        t2.assoc(2 * 7919, "two").without(3 * 7919);
+        assertEquals("2", m.get(2 * 7919));
+        assertEquals("3", m.get(3 * 7919));
+        assertEquals("two", t2.persistent().get(2 * 7919));
+    }
+
+    @Test (expected = IllegalAccessError.class)
+    public void transientEx() {
+        PersistentLongMap.TransientLongMap<String> t = PersistentLongMap.emptyTransient();
+        t.persistent();
+        t.assoc(1L, "1");
+    }
+
+    @Test public void of() {
+        Map<Long,String> control = new HashMap<>();
+        for (long i = -500; i < 500; i++) {
+            control.put(i, String.valueOf(i));
+        }
+        assertSame(control, PersistentLongMap.of(control.entrySet()));
+        assertEquals(0, PersistentLongMap.of(null).size());
+    }
+
+    /** Random keys, adds and removes, checked against a HashMap. */
+    @Test public void randomOperations() {
+        Random rand = new Random(8675309);
+        PersistentLongMap<String> m = PersistentLongMap.empty();
+        PersistentLongMap.TransientLongMap<String> t = PersistentLongMap.emptyTransient();
+        Map<Long,String> control = new HashMap<>();
+        for (int round = 0; round < 50000; round++) {
+            // A small key space so that there are plenty of removes and replaces.
+            long key = (rand.nextInt(4000) * 0x9E3779B97F4A7C15L) >>> rand.nextInt(3);
+            if (rand.nextInt(3) == 0) {
+                m = m.without(key);
+                t.without(key);
+                control.remove(key);
+            } else {
+                m = m.assoc(key, String.valueOf(round));
+                t.assoc(key, String.valueOf(round));
+                control.put(key, String.valueOf(round));
+            }
+            assertEquals(control.size(), m.size());
+        }
+        assertSame(control, m);
+        PersistentLongMap<String> fromTransient = t.persistent();
+        assertSame(control, fromTransient);
+        assertEquals(m, fromTransient);
+        assertEquals(m.hashCode(), fromTransient.hashCode());
+    }
+}
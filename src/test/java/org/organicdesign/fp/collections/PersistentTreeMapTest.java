@@ -24,8 +24,13 @@ import org.organicdesign.fp.collections.interfaces.UnmodMap;
 import org.organicdesign.fp.function.Function1;
 import org.organicdesign.fp.tuple.Tuple2;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -606,4 +611,81 @@ public class PersistentTreeMapTest {
                                                                Function1.identity()),
                                         max);
     }
+
+    /** Setting a key to the value it already has, or removing a missing key, changes nothing. */
+    @Test public void noOpAssocAndWithoutReturnSameMap() {
+        PersistentTreeMap<Integer,String> m = PersistentTreeMap.empty();
+        assertTrue(m == m.without(7));
+        for (int i = 0; i < 1000; i++) {
+            m = m.assoc(i, String.valueOf(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(m == m.assoc(i, m.get(i)));
+            assertTrue(m == m.without(-1 - i));
+        }
+        // An equal, but different, value is a change.
+        PersistentTreeMap<Integer,String> m2 = m.assoc(5, new String("5"));
+        assertFalse(m == m2);
+        assertEquals(m, m2);
+    }
+
+    /** Building from a batch of entries matches assoc'ing them one at a time. */
+    @Test public void bulkBuildFromEntries() {
+        Random rand = new Random(42);
+        for (int n : new int[] { 0, 1, 2, 3, 4, 7, 8, 31, 32, 33, 1000, 4097 }) {
+            List<Map.Entry<Integer,String>> entries = new ArrayList<>();
+            PersistentTreeMap<Integer,String> oneAtATime = PersistentTreeMap.empty();
+            for (int i = 0; i < n; i++) {
+                Map.Entry<Integer,String> entry = tup(rand.nextInt(n), String.valueOf(i));
+                entries.add(entry);
+                oneAtATime = oneAtATime.assoc(entry.getKey(), entry.getValue());
+            }
+            PersistentTreeMap<Integer,String> m = PersistentTreeMap.of(entries);
+            assertEquals(oneAtATime, m);
+            assertEquals(oneAtATime.size(), m.size());
+            assertEquals(oneAtATime.toString(), m.toString());
+
+            // The built tree must stay balanced and correct through later changes.
+            TreeMap<Integer,String> control = new TreeMap<>(oneAtATime);
+            for (int i = 0; i < 2 * n; i++) {
+                int k = rand.nextInt(2 * n);
+                if (rand.nextBoolean()) {
+                    m = m.assoc(k, "x" + i);
+                    control.put(k, "x" + i);
+                } else {
+                    m = m.without(k);
+                    control.remove(k);
+                }
+                assertEquals(control.size(), m.size());
+            }
+            assertEquals(control, m);
+            assertEquals(new ArrayList<>(control.keySet()),
+                         new ArrayList<>(m.keySet()));
+        }
+    }
+
+    /** Duplicate keys keep the first key (as assoc does) with the last value. */
+    @Test public void bulkBuildDuplicates() {
+        Comparator<String> caseInsensitive = String.CASE_INSENSITIVE_ORDER;
+        PersistentTreeMap<String,Integer> m =
+                PersistentTreeMap.ofComp(caseInsensitive,
+                                         Arrays.<Map.Entry<String,Integer>>asList(
+                                                 tup("b", 1), tup("A", 2), null, tup("a", 3),
+                                                 tup("B", 4), tup("c", 5)));
+        assertEquals(3, m.size());
+        assertEquals(vec("A", "b", "c"), m.keySet().toImList());
+        assertEquals(Integer.valueOf(3), m.get("a"));
+        assertEquals(Integer.valueOf(4), m.get("b"));
+        assertEquals(caseInsensitive, m.comparator());
+        assertEquals(m, vec(tup("b", 1), tup("A", 2), tup("a", 3), tup("B", 4), tup("c", 5))
+                .toImSortedMap(caseInsensitive, Function1.<Map.Entry<String,Integer>>identity()));
+    }
+
+    /** ofComp() skips null entries, but toImSortedMap() rejects them as it always has. */
+    @Test(expected = NullPointerException.class)
+    public void toImSortedMapNullEntry() {
+        vec(tup("b", 1), null, tup("a", 3))
+                .toImSortedMap(String.CASE_INSENSITIVE_ORDER,
+                               Function1.<Map.Entry<String,Integer>>identity());
+    }
 }
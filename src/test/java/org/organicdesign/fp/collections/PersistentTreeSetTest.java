@@ -19,8 +19,10 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.organicdesign.fp.FunctionUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Random;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -267,4 +269,40 @@ public class PersistentTreeSetTest {
                      s2.put("hello").put("an").put("work").put("b").put("the").toString());
     }
 
+    @Test public void noOpPutAndWithoutReturnSameSet() {
+        PersistentTreeSet<String> s = PersistentTreeSet.empty();
+        assertTrue(s == s.without("hello"));
+        for (int i = 0; i < 1000; i++) {
+            s = s.put(String.valueOf(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            // Even an equal, but different, String is already in the set.
+            assertTrue(s == s.put(new String(String.valueOf(i))));
+            assertTrue(s == s.without(String.valueOf(-1 - i)));
+        }
+    }
+
+    /** Building a set from many items at once matches putting them in one at a time. */
+    @Test public void bulkBuild() {
+        Random rand = new Random(7);
+        for (int n : new int[] { 0, 1, 2, 3, 15, 16, 17, 1000 }) {
+            ArrayList<Integer> items = new ArrayList<>();
+            PersistentTreeSet<Integer> oneAtATime = PersistentTreeSet.empty();
+            for (int i = 0; i < n; i++) {
+                Integer item = rand.nextInt(n);
+                items.add(item);
+                oneAtATime = oneAtATime.put(item);
+            }
+            PersistentTreeSet<Integer> s = PersistentTreeSet.of(items);
+            assertEquals(oneAtATime, s);
+            assertEquals(new TreeSet<>(items), s);
+            assertEquals(s, PersistentTreeSet.ofComp(Equator.<Integer>defaultComparator(), items));
+            assertEquals(s, vec(items.toArray(new Integer[items.size()]))
+                    .toImSortedSet(Equator.<Integer>defaultComparator()));
+            for (int i = 0; i < n; i++) {
+                s = s.without(i).put(-i);
+            }
+            assertEquals(n, s.size());
+        }
+    }
 }
@@ -20,6 +20,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.organicdesign.fp.FunctionUtils;
 import org.organicdesign.fp.collections.interfaces.UnmodMap;
+import org.organicdesign.fp.function.Function1;
+import org.organicdesign.fp.function.Function2;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -27,7 +29,11 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
 
 import static org.junit.Assert.*;
 import static org.organicdesign.fp.StaticImports.vec;
@@ -344,4 +350,329 @@ public class PersistentVectorTest {
         List<Integer> tList = Arrays.asList(test);
         UnmodListTest.listIteratorTest(tList, pv2);
     }
+
+    @Test public void mutableVector() {
+        PersistentVector.MutableVector<Integer> mv = PersistentVector.emptyMutable();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            mv.append(i);
+            control.add(i);
+        }
+        assertEquals(2000, mv.size());
+        assertEquals(Integer.valueOf(1234), mv.get(1234));
+
+        // Replace in the tree, in the tail, and at size() (append).
+        mv.replace(5, -5).replace(1999, -1999).replace(2000, 2000);
+        control.set(5, -5);
+        control.set(1999, -1999);
+        control.add(2000);
+
+        Integer[] more = new Integer[100];
+        for (int i = 0; i < more.length; i++) {
+            more[i] = 3000 + i;
+        }
+        mv.appendAll(more).appendAll(Arrays.asList(7, 8, 9));
+        control.addAll(Arrays.asList(more));
+        control.addAll(Arrays.asList(7, 8, 9));
+
+        PersistentVector<Integer> pv = mv.persistent();
+        assertEquals(control, pv);
+        assertEquals(pv, control);
+        assertEquals(control.hashCode(), pv.hashCode());
+    }
+
+    @Test public void mutableVectorAppendAllArray() {
+        for (int n : new int[] { 0, 1, 31, 32, 33, 1024, 1025, 1057, 40000 }) {
+            Integer[] items = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                items[i] = i;
+            }
+            PersistentVector<Integer> pv = PersistentVector.<Integer>emptyMutable()
+                                                           .appendAll(items)
+                                                           .persistent();
+            assertEquals(Arrays.asList(items), pv);
+
+            // Starting from a partly full tail
+            pv = PersistentVector.ofIter(Arrays.asList(-2, -1)).asTransient().appendAll(items).persistent();
+            List<Integer> control = new ArrayList<>(Arrays.asList(-2, -1));
+            control.addAll(Arrays.asList(items));
+            assertEquals(control, pv);
+        }
+    }
+
+    @Test public void asTransientDoesNotChangeOriginal() {
+        PersistentVector<Integer> orig = PersistentVector.empty();
+        for (int i = 0; i < 100; i++) {
+            orig = orig.append(i);
+        }
+        PersistentVector.MutableVector<Integer> mv = orig.asTransient();
+        for (int i = 0; i < 100; i++) {
+            mv.replace(i, -i);
+        }
+        mv.append(100);
+        PersistentVector<Integer> changed = mv.persistent();
+        assertEquals(100, orig.size());
+        assertEquals(101, changed.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), orig.get(i));
+            assertEquals(Integer.valueOf(-i), changed.get(i));
+        }
+    }
+
+    @Test(expected = IllegalAccessError.class)
+    public void mutableVectorAfterPersistent() {
+        PersistentVector.MutableVector<Integer> mv = PersistentVector.emptyMutable();
+        mv.append(1);
+        mv.persistent();
+        mv.append(2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void mutableVectorReplaceEx() {
+        PersistentVector.<Integer>emptyMutable().append(1).replace(2, 2);
+    }
+
+    @Test public void slice() {
+        for (int n : new int[] { 1, 31, 32, 33, 1024, 1025, 1056, 1057, 40000 }) {
+            PersistentVector<Integer> v = PersistentVector.empty();
+            List<Integer> control = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                v = v.append(i);
+                control.add(i);
+            }
+            assertTrue(v == v.slice(0, n));
+            assertEquals(0, v.slice(n / 2, n / 2).size());
+            for (int from : new int[] { 0, 1, 31, 32, 33, n / 3, n / 2, n - 33, n - 1 }) {
+                for (int to : new int[] { n / 2, n - 32, n - 1, n }) {
+                    if ( (from < 0) || (to < from) || (to > n) ) { continue; }
+                    List<Integer> expected = control.subList(from, to);
+                    PersistentVector<Integer> s = v.slice(from, to);
+                    assertEquals(expected, s);
+                    assertEquals(expected.hashCode(), s.hashCode());
+                    for (int i = 0; i < expected.size(); i++) {
+                        assertEquals(expected.get(i), s.get(i));
+                    }
+                    // Slices of slices
+                    int half = (to - from) / 2;
+                    assertEquals(expected.subList(half, to - from), s.drop(half));
+                    assertEquals(expected.subList(0, half), s.take(half));
+
+                    // A slice can be appended to, replaced, and made mutable like any vector.
+                    List<Integer> expected2 = new ArrayList<>(expected);
+                    PersistentVector<Integer> s2 = s;
+                    for (int i = 0; i < 100; i++) {
+                        s2 = s2.append(-i);
+                        expected2.add(-i);
+                    }
+                    if (expected2.size() > 0) {
+                        s2 = s2.replace(0, 999);
+                        expected2.set(0, 999);
+                    }
+                    assertEquals(expected2, s2);
+                    List<Integer> added = expected2.subList(expected.size(), expected2.size());
+                    assertEquals(expected2, s.asTransient()
+                                             .appendAll(added)
+                                             .replace(0, expected2.get(0))
+                                             .persistent());
+                    // The original is unchanged.
+                    assertEquals(control, v);
+                }
+            }
+        }
+    }
+
+    @Test public void takeDropSubList() {
+        PersistentVector<Integer> v = PersistentVector.empty();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            v = v.append(i);
+            control.add(i);
+        }
+        assertTrue(v == v.take(2000));
+        assertTrue(v == v.take(5000));
+        assertTrue(v == v.drop(0));
+        assertEquals(0, v.drop(2000).size());
+        assertEquals(0, v.drop(5000).size());
+        assertEquals(0, v.take(0).size());
+        assertEquals(control.subList(0, 1500), v.take(1500));
+        assertEquals(control.subList(1500, 2000), v.drop(1500));
+        assertEquals(control.subList(100, 1900), v.subList(100, 1900));
+
+        // Iterate a slice both directions.
+        PersistentVector<Integer> s = v.slice(45, 1981);
+        List<Integer> c = control.subList(45, 1981);
+        ListIterator<Integer> li = s.listIterator(s.size());
+        ListIterator<Integer> cli = c.listIterator(c.size());
+        while (cli.hasPrevious()) {
+            assertEquals(cli.previousIndex(), li.previousIndex());
+            assertEquals(cli.previous(), li.previous());
+        }
+        assertFalse(li.hasPrevious());
+        while (cli.hasNext()) {
+            assertEquals(cli.nextIndex(), li.nextIndex());
+            assertEquals(cli.next(), li.next());
+        }
+        assertFalse(li.hasNext());
+    }
+
+    @Test public void slicingReleasesNodes() {
+        PersistentVector<Integer> v = PersistentVector.empty();
+        for (int i = 0; i < 100000; i++) {
+            v = v.append(i);
+        }
+        // 100 items span at most 5 leaves plus a path to them.
+        Footprint fp = Footprint.of(v.slice(50000, 50100));
+        assertTrue(fp.nodes() < 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void takeEx() { PersistentVector.ofIter(Arrays.asList(1, 2, 3)).take(-1); }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sliceEx() { PersistentVector.ofIter(Arrays.asList(1, 2, 3)).slice(2, 1); }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void sliceEx2() { PersistentVector.ofIter(Arrays.asList(1, 2, 3)).slice(0, 4); }
+
+    @Test public void chunkIterator() {
+        PersistentVector<Integer> v = PersistentVector.empty();
+        for (int i = 0; i < 1000; i++) {
+            v = v.append(i);
+        }
+        for (PersistentVector<Integer> pv : Arrays.asList(v, v.slice(5, 990), v.slice(40, 50),
+                                                          PersistentVector.<Integer>empty())) {
+            PersistentVector.ChunkIterator<Integer> chunks = pv.chunkIterator();
+            int expectedOffset = 0;
+            while (chunks.hasNext()) {
+                Object[] array = chunks.next();
+                assertEquals(expectedOffset, chunks.offset());
+                assertTrue(chunks.end() - chunks.start() <= 32);
+                for (int i = chunks.start(); i < chunks.end(); i++) {
+                    assertEquals(pv.get(expectedOffset), array[i]);
+                    expectedOffset++;
+                }
+            }
+            assertEquals(pv.size(), expectedOffset);
+        }
+    }
+
+    @Test public void chunkedFoldLeftAndCollectors() {
+        PersistentVector<Integer> v = PersistentVector.empty();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            v = v.append(i);
+            control.add(i);
+        }
+        Function2<Long,Integer,Long> sum = new Function2<Long,Integer,Long>() {
+            @Override public Long applyEx(Long a, Integer b) { return a + b; }
+        };
+        assertEquals(Long.valueOf(999 * 1000 / 2), v.foldLeft(0L, sum));
+        assertEquals(Long.valueOf(0L), PersistentVector.<Integer>empty().foldLeft(0L, sum));
+        assertTrue(v == v.toImList());
+        assertEquals(control, v.toMutableList());
+        assertEquals(control.subList(10, 900), v.slice(10, 900).toMutableList());
+
+        // Xform with a PersistentVector source (and termination part way through a chunk).
+        assertEquals(Arrays.asList(0, 10, 20),
+                     v.map(new Function1<Integer,Integer>() {
+                         @Override public Integer applyEx(Integer i) { return i * 2; }
+                     }).filter(new Function1<Integer,Boolean>() {
+                         @Override public Boolean applyEx(Integer i) { return i % 10 == 0; }
+                     }).take(3).toMutableList());
+        assertEquals(control.subList(0, 40),
+                     v.takeWhile(new Function1<Integer,Boolean>() {
+                         @Override public Boolean applyEx(Integer i) { return i < 40; }
+                     }).toMutableList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void foldLeftEx() { PersistentVector.empty().foldLeft(null, null); }
+
+    @Test public void spliterator() {
+        PersistentVector<Integer> v = PersistentVector.empty();
+        for (int i = 0; i < 100000; i++) {
+            v = v.append(i);
+        }
+        for (PersistentVector<Integer> pv : Arrays.asList(v, v.slice(77, 99000), v.slice(5, 20))) {
+            Spliterator<Integer> right = pv.spliterator();
+            assertTrue(right.hasCharacteristics(Spliterator.SIZED));
+            assertTrue(right.hasCharacteristics(Spliterator.SUBSIZED));
+            assertEquals(pv.size(), right.getExactSizeIfKnown());
+            Spliterator<Integer> left = right.trySplit();
+            if (pv.size() <= 32) {
+                assertNull(left);
+                continue;
+            }
+            assertEquals(pv.size(), left.getExactSizeIfKnown() + right.getExactSizeIfKnown());
+            // Both halves are at least a quarter of the whole.
+            assertTrue(left.estimateSize() >= pv.size() / 4);
+            assertTrue(right.estimateSize() >= pv.size() / 4);
+
+            final List<Integer> items = new ArrayList<>();
+            Consumer<Integer> add = new Consumer<Integer>() {
+                @Override public void accept(Integer i) { items.add(i); }
+            };
+            assertTrue(left.tryAdvance(add));
+            left.forEachRemaining(add);
+            assertFalse(left.tryAdvance(add));
+            right.forEachRemaining(add);
+            assertEquals(pv, items);
+        }
+        // The split of the whole vector is on a root node boundary (a multiple of 32^3).
+        assertEquals(65536, v.spliterator().trySplit().estimateSize());
+    }
+
+    @Test public void parallelStreamAndFold() {
+        PersistentVector.MutableVector<Integer> mv = PersistentVector.emptyMutable();
+        long expected = 0;
+        for (int i = 0; i < 200000; i++) {
+            mv.append(i);
+            expected += i;
+        }
+        PersistentVector<Integer> v = mv.persistent();
+        assertEquals(200000, StreamSupport.stream(v.spliterator(), true).count());
+        Function2<Long,Integer,Long> reducer = new Function2<Long,Integer,Long>() {
+            @Override public Long applyEx(Long a, Integer b) { return a + b; }
+        };
+        Function2<Long,Long,Long> combiner = new Function2<Long,Long,Long>() {
+            @Override public Long applyEx(Long a, Long b) { return a + b; }
+        };
+        assertEquals(Long.valueOf(expected), v.parallelFold(0L, reducer, combiner));
+        assertEquals(Long.valueOf(0L),
+                     PersistentVector.<Integer>empty().parallelFold(0L, reducer, combiner));
+
+        // Order is preserved when combining the parts.
+        PersistentVector<Integer> list = v.parallelFold(
+                PersistentVector.<Integer>empty(),
+                new Function2<PersistentVector<Integer>,Integer,PersistentVector<Integer>>() {
+                    @Override public PersistentVector<Integer> applyEx(PersistentVector<Integer> a,
+                                                                       Integer b) {
+                        return a.append(b);
+                    }
+                },
+                new Function2<PersistentVector<Integer>,PersistentVector<Integer>,PersistentVector<Integer>>() {
+                    @Override public PersistentVector<Integer> applyEx(PersistentVector<Integer> a,
+                                                                       PersistentVector<Integer> b) {
+                        return a.concat(b);
+                    }
+                });
+        assertEquals(v, list);
+    }
+
+    @Test public void noOpReplaceReturnsSameVector() {
+        PersistentVector<Integer> v = PersistentVector.empty();
+        for (int i = 0; i < 1100; i++) {
+            v = v.append(i);
+        }
+        // In the tree and in the tail
+        for (int i = 0; i < 1100; i++) {
+            assertTrue(v == v.replace(i, v.get(i)));
+        }
+        PersistentVector<Integer> v2 = v.replace(1099, new Integer(1099));
+        assertFalse(v == v2);
+        assertEquals(v, v2);
+        PersistentVector<Integer> sliced = v.subList(33, 1090);
+        assertTrue(sliced == sliced.replace(0, v.get(33)));
+        assertTrue(sliced == sliced.replace(sliced.size() - 1, v.get(1089)));
+    }
 }
@@ -0,0 +1,234 @@
+package org.organicdesign.fp.collections;
+
+import org.junit.Test;
+import org.organicdesign.fp.tuple.Tuple2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RrbTreeTest {
+
+    private static RrbTree<Integer> range(int from, int to) {
+        RrbTree<Integer> ret = RrbTree.empty();
+        for (int i = from; i < to; i++) {
+            ret = ret.append(i);
+        }
+        return ret;
+    }
+
+    private static List<Integer> rangeList(int from, int to) {
+        List<Integer> ret = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            ret.add(i);
+        }
+        return ret;
+    }
+
+    private static void assertSame(List<Integer> expected, RrbTree<Integer> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i));
+        }
+        assertEquals(expected, actual);
+        assertEquals(expected.hashCode(), actual.hashCode());
+    }
+
+    @Test public void empty() {
+        RrbTree<Integer> e = RrbTree.empty();
+        assertEquals(0, e.size());
+        assertFalse(e.iterator().hasNext());
+        assertEquals(e, new ArrayList<Integer>());
+        assertEquals("RrbTree()", e.toString());
+    }
+
+    @Test public void appendAndGet() {
+        for (int n : new int[] { 1, 31, 32, 33, 1023, 1024, 1025, 32 * 32 * 32 + 1 }) {
+            RrbTree<Integer> t = range(0, n);
+            assertSame(rangeList(0, n), t);
+            assertEquals(RrbTree.ofIter(rangeList(0, n)), t);
+        }
+    }
+
+    @Test (expected = IndexOutOfBoundsException.class)
+    public void getEx() { range(0, 5).get(5); }
+
+    @Test (expected = IndexOutOfBoundsException.class)
+    public void replaceEx() { range(0, 5).replace(5, 5); }
+
+    @Test public void replace() {
+        RrbTree<Integer> t = range(0, 2000);
+        List<Integer> control = rangeList(0, 2000);
+        for (int i = 0; i < 2000; i += 7) {
+            t = t.replace(i, -i);
+            control.set(i, -i);
+        }
+        assertSame(control, t);
+        // No-op replace returns the same tree.
+        assertTrue(t == t.replace(7, t.get(7)));
+    }
+
+    @Test public void joinAndSplit() {
+        for (int n : new int[] { 0, 1, 31, 32, 33, 100, 1024, 1025, 5000 }) {
+            for (int m : new int[] { 0, 1, 31, 32, 33, 100, 1024, 1025, 5000 }) {
+                List<Integer> control = rangeList(0, n + m);
+                RrbTree<Integer> joined = range(0, n).join(range(n, n + m));
+                assertSame(control, joined);
+
+                Tuple2<RrbTree<Integer>,RrbTree<Integer>> split = joined.split(n);
+                assertSame(rangeList(0, n), split._1());
+                assertSame(rangeList(n, n + m), split._2());
+            }
+        }
+    }
+
+    @Test public void takeDropSubList() {
+        RrbTree<Integer> t = range(0, 5000);
+        assertTrue(t == t.take(5000));
+        assertTrue(t == t.drop(0));
+        assertEquals(0, t.drop(5000).size());
+        assertEquals(0, t.take(0).size());
+        assertSame(rangeList(0, 1234), t.take(1234));
+        assertSame(rangeList(1234, 5000), t.drop(1234));
+        assertSame(rangeList(33, 4097), t.subList(33, 4097));
+        assertTrue(t == t.subList(0, 5000));
+        // Height shrinks back down when the rest of the tree isn't needed.
+        assertEquals(0, t.subList(100, 120).height());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void takeEx() { range(0, 5).take(-1); }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void dropEx() { range(0, 5).drop(-1); }
+
+    @Test (expected = IndexOutOfBoundsException.class)
+    public void splitEx() { range(0, 5).split(6); }
+
+    @Test public void insertAndWithout() {
+        RrbTree<Integer> t = range(0, 100);
+        List<Integer> control = rangeList(0, 100);
+        t = t.insert(0, -1).insert(50, -50).insert(102, -102);
+        control.add(0, -1);
+        control.add(50, -50);
+        control.add(102, -102);
+        assertSame(control, t);
+
+        t = t.without(0).without(49);
+        control.remove(0);
+        control.remove(49);
+        assertSame(control, t);
+    }
+
+    @Test public void concat() {
+        RrbTree<Integer> t = range(0, 100).concat(rangeList(100, 200));
+        assertSame(rangeList(0, 200), t);
+        t = t.concat(range(200, 300));
+        assertSame(rangeList(0, 300), t);
+    }
+
+    @Test public void listIterator() {
+        RrbTree<Integer> t = range(0, 100).join(range(100, 1000)).insert(500, 500);
+        List<Integer> control = rangeList(0, 1000);
+        control.add(500, 500);
+
+        ListIterator<Integer> li = t.listIterator(t.size());
+        ListIterator<Integer> cli = control.listIterator(control.size());
+        while (cli.hasPrevious()) {
+            assertTrue(li.hasPrevious());
+            assertEquals(cli.previousIndex(), li.previousIndex());
+            assertEquals(cli.previous(), li.previous());
+        }
+        assertFalse(li.hasPrevious());
+        while (cli.hasNext()) {
+            assertTrue(li.hasNext());
+            assertEquals(cli.nextIndex(), li.nextIndex());
+            assertEquals(cli.next(), li.next());
+        }
+        assertFalse(li.hasNext());
+    }
+
+    /** Randomly splits, joins, inserts and removes, checking against an ArrayList. */
+    @Test public void randomOperations() {
+        Random rand = new Random(271828);
+        RrbTree<Integer> t = RrbTree.empty();
+        List<Integer> control = new ArrayList<>();
+        for (int round = 0; round < 2000; round++) {
+            int op = rand.nextInt(5);
+            int idx = (control.size() == 0) ? 0 : rand.nextInt(control.size() + 1);
+            if (op == 0) {
+                int n = rand.nextInt(300);
+                RrbTree<Integer> other = range(round * 1000, (round * 1000) + n);
+                t = t.join(other);
+                control.addAll(rangeList(round * 1000, (round * 1000) + n));
+            } else if (op == 1) {
+                Tuple2<RrbTree<Integer>,RrbTree<Integer>> split = t.split(idx);
+                // Put the halves back together the other way around.
+                t = split._2().join(split._1());
+                List<Integer> front = new ArrayList<>(control.subList(0, idx));
+                List<Integer> back = new ArrayList<>(control.subList(idx, control.size()));
+                control = back;
+                control.addAll(front);
+            } else if (op == 2) {
+                t = t.insert(idx, -round);
+                control.add(idx, -round);
+            } else if ( (op == 3) && (control.size() > 0) ) {
+                int i = rand.nextInt(control.size());
+                t = t.without(i);
+                control.remove(i);
+            } else if (control.size() > 0) {
+                int i = rand.nextInt(control.size());
+                t = t.replace(i, round);
+                control.set(i, round);
+            }
+            assertEquals(control.size(), t.size());
+        }
+        assertSame(control, t);
+        // The tree stays shallow.
+        assertTrue(t.height() <= 4);
+    }
+
+    /**
+     Repeated inserts at the front and in the middle, and joins of small trees onto both ends, used
+     to make the tree taller with every one.  Check the items against an ArrayList and make sure the
+     height stays logarithmic.
+     */
+    @Test public void repeatedInsertsAndJoinsStayShallow() {
+        RrbTree<Integer> t = RrbTree.empty();
+        List<Integer> control = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            t = t.insert(0, i);
+            control.add(0, i);
+        }
+        assertSame(control, t);
+        assertTrue(t.height() <= 3);
+
+        t = RrbTree.empty();
+        control = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            t = t.insert(t.size() / 2, i);
+            control.add(control.size() / 2, i);
+        }
+        assertSame(control, t);
+        assertTrue(t.height() <= 3);
+
+        Random rand = new Random(314159);
+        t = RrbTree.empty();
+        control = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int n = rand.nextInt(40);
+            if ((i % 2) == 0) {
+                t = t.join(range(i * 100, (i * 100) + n));
+                control.addAll(rangeList(i * 100, (i * 100) + n));
+            } else {
+                t = range(i * 100, (i * 100) + n).join(t);
+                control.addAll(0, rangeList(i * 100, (i * 100) + n));
+            }
+        }
+        assertSame(control, t);
+        assertTrue(t.height() <= 4);
+    }
+}
@@ -19,12 +19,17 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.organicdesign.fp.function.Function1;
+import org.organicdesign.fp.function.Function2;
+import org.organicdesign.fp.tuple.Tuple2;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -870,4 +875,158 @@ public class XformTest extends TestCase {
                           new Integer[]{4, 5, 6});
     }
     // Above here taken from SequenceTest.
-}
\ No newline at end of file
+
+    @Test public void testSizeHints() {
+        List<Integer> src = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            src.add(i);
+        }
+        Function1<Integer,Integer> plusOne = new Function1<Integer,Integer>() {
+            @Override public Integer applyEx(Integer i) { return i + 1; }
+        };
+        Function1<Integer,Boolean> isEven = new Function1<Integer,Boolean>() {
+            @Override public Boolean applyEx(Integer i) { return (i % 2) == 0; }
+        };
+        Function1<Integer,Iterable<Integer>> twice = new Function1<Integer,Iterable<Integer>>() {
+            @Override public Iterable<Integer> applyEx(Integer i) { return Arrays.asList(i, i); }
+        };
+        Xform<Integer> x = Xform.of(src);
+        assertEquals(1000, x.sizeHint());
+        assertEquals(0, Xform.empty().sizeHint());
+        assertEquals(Xform.UNKNOWN_SIZE, Xform.of(vec(1, 2, 3).filter(isEven)).sizeHint());
+        assertEquals(1000, x.map(plusOne).sizeHint());
+        assertEquals(1000, x.map(plusOne).takeWhile(isEven).sizeHint());
+        assertEquals(10, x.map(plusOne).take(10).sizeHint());
+        assertEquals(1000, x.take(5000).sizeHint());
+        assertEquals(990, x.drop(10).sizeHint());
+        assertEquals(0, x.drop(5000).sizeHint());
+        assertEquals(1003, x.concat(Arrays.asList(1, 2, 3)).sizeHint());
+        assertEquals(1003, x.precat(Arrays.asList(1, 2, 3)).sizeHint());
+        assertEquals(Xform.UNKNOWN_SIZE, x.filter(isEven).sizeHint());
+        assertEquals(Xform.UNKNOWN_SIZE, x.filter(isEven).take(10).sizeHint());
+        assertEquals(Xform.UNKNOWN_SIZE, x.flatMap(twice).sizeHint());
+        assertEquals(Xform.UNKNOWN_SIZE, x.concat(x.filter(isEven)).sizeHint());
+
+        // The presized collectors produce the same results as before.
+        List<Integer> mapped = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            mapped.add(i + 1);
+        }
+        assertEquals(mapped, x.map(plusOne).toMutableList());
+        assertEquals(mapped.subList(0, 10), x.map(plusOne).take(10).toMutableList());
+        assertEquals(new HashSet<>(mapped), x.map(plusOne).toMutableSet());
+        assertEquals(500, x.filter(isEven).toMutableSet().size());
+        Map<Integer,Integer> m = x.drop(990).toMutableMap(new Function1<Integer,Map.Entry<Integer,Integer>>() {
+            @Override public Map.Entry<Integer,Integer> applyEx(Integer i) { return Tuple2.of(i, -i); }
+        });
+        assertEquals(10, m.size());
+        assertEquals(Integer.valueOf(-995), m.get(995));
+        assertEquals(vec(0, 0, 1, 1), x.flatMap(twice).take(4).toMutableList());
+    }
+
+    private static <T> List<T> toList(Iterator<T> iter) {
+        List<T> ret = new ArrayList<>();
+        while (iter.hasNext()) {
+            ret.add(iter.next());
+        }
+        return ret;
+    }
+
+    /** Counts 0, 1, 2... forever, remembering how many items were asked for. */
+    private static class Counter implements Iterable<Integer> {
+        int produced = 0;
+        @Override public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+                @Override public boolean hasNext() { return true; }
+                @Override public Integer next() { return produced++; }
+                @Override public void remove() { throw new UnsupportedOperationException(); }
+            };
+        }
+    }
+
+    private static final Function1<Integer,Iterable<Integer>> UP_TO =
+            new Function1<Integer,Iterable<Integer>>() {
+                @Override public Iterable<Integer> applyEx(Integer n) {
+                    List<Integer> ret = new ArrayList<>();
+                    for (int i = 0; i < n; i++) {
+                        ret.add(i);
+                    }
+                    return ret;
+                }
+            };
+
+    private static final Function1<Integer,Boolean> UNDER_FIVE = new Function1<Integer,Boolean>() {
+        @Override public Boolean applyEx(Integer i) { return i < 5; }
+    };
+
+    @Test public void testLazyIterator() {
+        Counter counter = new Counter();
+        Iterator<Integer> iter = Xform.of(counter).take(5).iterator();
+        assertEquals(0, counter.produced);
+        assertTrue(iter.hasNext());
+        assertEquals(1, counter.produced);
+        assertEquals(Integer.valueOf(0), iter.next());
+        assertEquals(Integer.valueOf(1), iter.next());
+        assertEquals(2, counter.produced);
+        for (int i = 2; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+        assertFalse(iter.hasNext());
+        assertTrue(counter.produced <= 6);
+        try {
+            iter.next();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException expected) {
+            // pass
+        }
+
+        // Nulls are legal items.
+        List<Integer> withNulls = Arrays.asList(null, 1, null);
+        assertEquals(withNulls, toList(Xform.of(withNulls).iterator()));
+
+        // An infinite source with filters, flatMaps, and concat, only computed as far as needed.
+        counter = new Counter();
+        Function1<Integer,Boolean> isOdd = new Function1<Integer,Boolean>() {
+            @Override public Boolean applyEx(Integer i) { return (i % 2) == 1; }
+        };
+        Xform<Integer> x = Xform.of(counter).filter(isOdd).flatMap(UP_TO).take(7)
+                                .concat(Arrays.asList(-1, -2));
+        assertEquals(Arrays.asList(0, 0, 1, 2, 0, 1, 2, -1, -2),
+                     toList(x.iterator()));
+        assertTrue(counter.produced <= 7);
+        // Folding gets the same answer (from a fresh source).
+        assertEquals(Arrays.asList(0, 0, 1, 2, 0, 1, 2, -1, -2),
+                     Xform.of(new Counter()).filter(isOdd).flatMap(UP_TO).take(7)
+                          .concat(Arrays.asList(-1, -2)).toMutableList());
+
+        // Deeply nested flatMaps come out in order.
+        Xform<Integer> nested = Xform.of(Arrays.asList(1, 2, 3, 4)).flatMap(UP_TO).flatMap(UP_TO)
+                                     .flatMap(UP_TO);
+        assertEquals(nested.toMutableList(), toList(nested.iterator()));
+        assertEquals(Arrays.asList(0, 0, 0, 1), toList(nested.drop(1).iterator()));
+    }
+
+    /** Take and takeWhile after a flatMap end the whole transform, not just the nested source. */
+    @Test public void testTerminateInsideFlatMap() {
+        Xform<Integer> x = Xform.of(Arrays.asList(3, 6, 2)).flatMap(UP_TO).takeWhile(UNDER_FIVE);
+        assertEquals(Arrays.asList(0, 1, 2, 0, 1, 2, 3, 4), x.toMutableList());
+        assertEquals(Arrays.asList(0, 1, 2, 0, 1, 2, 3, 4), toList(x.iterator()));
+
+        // An infinite source ends as soon as the take is satisfied.
+        Counter counter = new Counter();
+        assertEquals(Arrays.asList(0, 0, 1, 0, 1, 2),
+                     Xform.of(counter).flatMap(UP_TO).take(6).toMutableList());
+        assertEquals(5, counter.produced);
+
+        // The fold with terminateWhen stops pulling items from the source.
+        counter = new Counter();
+        assertEquals(Integer.valueOf(10),
+                     Xform.of(counter).foldLeft(0, new Function2<Integer,Integer,Integer>() {
+                         @Override public Integer applyEx(Integer sum, Integer i) { return sum + i; }
+                     }, new Function1<Integer,Boolean>() {
+                         @Override public Boolean applyEx(Integer sum) { return sum >= 10; }
+                     }));
+        assertEquals(5, counter.produced);
+    }
+}